@@ -1,5 +1,7 @@
 package crux;
 
+import crux.ir.engine.Memoization;
+
 import java.io.FileInputStream;
 
 /**
@@ -56,12 +58,50 @@ public final class Compiler {
         case "--print-ir":
           driver.enablePrintIR();
           break;
+        case "-O0":
+        case "-O1":
+        case "-O2":
+          driver.setOptimizationLevel(arg.charAt(2) - '0');
+          break;
+        case "--time-passes":
+          driver.enableTimePasses();
+          break;
         case "--emulator":
           driver.enableEmulator();
           break;
         case "--debug-emulator":
           driver.enableDebugEmulator();
           break;
+        case "--emulator-engine":
+          driver.setEmulatorEngine(args[++i]);
+          break;
+        case "--compile-threshold":
+          driver.setCompileThreshold(Integer.parseInt(args[++i]));
+          break;
+        case "--max-call-depth":
+          driver.setMaxCallDepth(Integer.parseInt(args[++i]));
+          break;
+        case "--max-instructions":
+          driver.setMaxInstructions(Long.parseLong(args[++i]));
+          break;
+        case "--max-time":
+          driver.setMaxTime(Long.parseLong(args[++i]));
+          break;
+        case "--max-memory":
+          driver.setMaxMemory(Long.parseLong(args[++i]));
+          break;
+        case "--emulator-memoize":
+          driver.enableMemoization(Memoization.DEFAULT_CACHE_SIZE);
+          break;
+        case "--emulator-trace":
+          driver.setEmulatorTraceFile(args[++i]);
+          break;
+        case "--emulator-profile":
+          driver.setEmulatorProfile(args[++i]);
+          break;
+        case "--render-trace":
+          driver.setRenderTraceFile(args[++i]);
+          break;
         case "--read-ast":
           try {
             driver.readAST(new FileInputStream(args[i + 1]));
@@ -96,6 +136,9 @@ public final class Compiler {
           driver.setEmulatorInputFile(inputFile);
           break;
         }
+        case "--emulator-output":
+          driver.setEmulatorOutputDirectory(args[++i]);
+          break;
         default:
           if (arg.startsWith("-"))
             throw new RuntimeException(String.format("unrecognized command line option '%s'", arg));
@@ -128,9 +171,29 @@ public final class Compiler {
     System.out.println(
         "--serialize\t\t\tDump serialized versions of compiler represenatations out to files.");
     System.out.println("--print-ir\t\t\tDump dot compatible representation of IR.");
+    System.out.println("-O0, -O1, -O2\t\t\tOptimize the IR: not at all (default), in SSA "
+        + "form, or also inline and optimize loops.");
+    System.out.println("--time-passes\t\t\tPrint the wall time of every optimization pass.");
     System.out.println("--emulator\t\t\tRun Emulator on IR.");
     System.out.println("--debug-emulator\t\tRun Emulator on IR with debugging turned on.");
-    System.out.println("--emulator-input <input file>\tInput File for the emulator");
+    System.out.println("--emulator-input <input file>\tInput File for the emulator, or a "
+        + "directory of input files to run in a batch.");
+    System.out.println(
+        "--emulator-output <dir>\tDirectory for the output of every input of a batch.");
+    System.out.println(
+        "--emulator-engine <name>\tEmulator engine: jit (default), slot, closure or reference.");
+    System.out.println(
+        "--compile-threshold <n>\tCalls and loop iterations before a function is compiled.");
+    System.out.println(
+        "--max-call-depth <n>\tNested calls before the emulator reports a stack overflow.");
+    System.out.println("--max-instructions <n>\tInstructions the emulated program may execute.");
+    System.out.println("--max-time <ms>\t\tMilliseconds the emulated program may run.");
+    System.out.println("--max-memory <bytes>\tGlobal memory the emulated program may allocate.");
+    System.out.println(
+        "--emulator-memoize\t\tCache the results of pure functions and print the hit rates.");
+    System.out.println("--emulator-trace <file>\tRun Emulator on IR and record a trace to a file.");
+    System.out.println("--emulator-profile <prefix>\tRun Emulator on IR and write a profile.");
+    System.out.println("--render-trace <file>\tPrint the debug messages of a recorded trace.");
     System.out.println("--read-ast <input file>\t\tRead serialized version of AST in,");
     System.out.println("--read-type <input file>\tRead serialized version of type-checked AST in,");
     System.out.println("--read-ir <input file>\t\tRead serialized version of IR/CFG in,");
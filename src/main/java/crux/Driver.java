@@ -8,8 +8,18 @@ import crux.pt.CruxParser;
 import crux.ast.types.TypeChecker;
 import crux.ir.ASTLower;
 import crux.printing.IRPrinter;
+import crux.printing.ProfilePrinter;
 import crux.ir.Program;
-import crux.ir.Emulator;
+import crux.ir.opt.Pipelines;
+import crux.ir.engine.BatchEmulation;
+import crux.ir.engine.Budget;
+import crux.ir.engine.BudgetExceededError;
+import crux.ir.engine.EngineKind;
+import crux.ir.engine.DecodedProgram;
+import crux.ir.engine.EngineOptions;
+import crux.ir.engine.Memoization;
+import crux.ir.engine.Profile;
+import crux.ir.engine.TraceBuffer;
 import crux.backend.CodeGen;
 import crux.printing.ASTPrinter;
 import crux.printing.ParseTreePrinter;
@@ -18,6 +28,9 @@ import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 enum State {
@@ -46,7 +59,18 @@ public final class Driver {
   private boolean typeCheck = false;
   private boolean printIR = false;
   private boolean runEmulator = false;
+  private EngineKind emulatorEngine = EngineKind.JIT;
+  private final EngineOptions engineOptions = new EngineOptions();
+  private String emulatorTraceFile = null;
+  private String renderTraceFile = null;
+  private String emulatorProfile = null;
+  private Memoization memoization = null;
+  private long maxInstructions = Budget.UNLIMITED;
+  private long maxMillis = Budget.UNLIMITED;
+  private long maxMemoryBytes = Budget.UNLIMITED;
   private boolean serialize = false;
+  private int optimizationLevel = 0;
+  private boolean timePasses = false;
 
   // Set this flag to false if earlier stages in your compiler do not work.
   private final boolean supportsEndToEnd = false;
@@ -55,6 +79,7 @@ public final class Driver {
   private InputStream inputStream;
   private String emulatorInputFile = null;
   private InputStream emulatorInputStream = null;
+  private String emulatorOutputDirectory = null;
 
   private CruxParser.ProgramContext parseTree;
   private DeclarationList ast;
@@ -105,13 +130,99 @@ public final class Driver {
     printIR = true;
   }
 
+  /**
+   * Sets the optimization level, from 0 for none to {@link Pipelines#MAX_LEVEL}, of the passes that
+   * run on the IR before it is emulated or compiled.
+   */
+  public void setOptimizationLevel(int level) {
+    if (level < 0 || level > Pipelines.MAX_LEVEL)
+      throw new RuntimeException(String.format("unknown optimization level '%d'", level));
+    optimizationLevel = level;
+  }
+
+  /**
+   * Prints the wall time of every optimization pass to the error stream.
+   */
+  public void enableTimePasses() {
+    timePasses = true;
+  }
+
   public void enableEmulator() {
     runEmulator = true;
   }
 
   public void enableDebugEmulator() {
     runEmulator = true;
-    Emulator.DEBUG = true;
+    engineOptions.setDebug(true);
+  }
+
+  public void setEmulatorEngine(String name) {
+    emulatorEngine = EngineKind.fromName(name);
+  }
+
+  public void setCompileThreshold(int threshold) {
+    engineOptions.setCompileThreshold(threshold);
+  }
+
+  public void setMaxCallDepth(int depth) {
+    engineOptions.setMaxCallDepth(depth);
+  }
+
+  /**
+   * Limits the instructions an emulated program may execute.
+   */
+  public void setMaxInstructions(long instructions) {
+    maxInstructions = instructions;
+    engineOptions.setBudget(new Budget(maxInstructions, maxMillis, maxMemoryBytes));
+  }
+
+  /**
+   * Limits the wall-clock time an emulated program may take, in milliseconds.
+   */
+  public void setMaxTime(long millis) {
+    maxMillis = millis;
+    engineOptions.setBudget(new Budget(maxInstructions, maxMillis, maxMemoryBytes));
+  }
+
+  /**
+   * Limits the global memory an emulated program may allocate, in bytes.
+   */
+  public void setMaxMemory(long bytes) {
+    maxMemoryBytes = bytes;
+    engineOptions.setBudget(new Budget(maxInstructions, maxMillis, maxMemoryBytes));
+  }
+
+  /**
+   * Caches the results of pure functions while emulating, and prints the hit rates of the caches
+   * to the error stream once the run ends.
+   */
+  public void enableMemoization(int cacheSize) {
+    memoization = new Memoization(cacheSize);
+  }
+
+  /**
+   * Runs the emulator and writes the trace of the executed instructions to a file.
+   */
+  public void setEmulatorTraceFile(String traceFile) {
+    runEmulator = true;
+    emulatorTraceFile = traceFile;
+  }
+
+  /**
+   * Prints the debug messages of a trace that was recorded for the same program, instead of
+   * running the emulator.
+   */
+  public void setRenderTraceFile(String traceFile) {
+    renderTraceFile = traceFile;
+  }
+
+  /**
+   * Runs the emulator with profiling and writes the report, the collapsed call stacks and the
+   * annotated IR graph to files starting with {@code prefix}.
+   */
+  public void setEmulatorProfile(String prefix) {
+    runEmulator = true;
+    emulatorProfile = prefix;
   }
 
   public boolean hasInputFile() {
@@ -138,6 +249,14 @@ public final class Driver {
     emulatorInputStream = inputStream;
   }
 
+  /**
+   * Sets the directory that receives one output file for every input, when the emulator input is
+   * a directory of input files.
+   */
+  public void setEmulatorOutputDirectory(String directory) {
+    emulatorOutputDirectory = directory;
+  }
+
   public boolean hasEmulatorInputFile() {
     return emulatorInputFile != null;
   }
@@ -309,6 +428,7 @@ public final class Driver {
   private State emitIR() {
     var astLower = new ASTLower();
     irProgram = astLower.lower(ast);
+    optimize();
 
     if (printIR) {
       var printer = new IRPrinter(out);
@@ -329,6 +449,17 @@ public final class Driver {
     return State.Continue;
   }
 
+  private void optimize() {
+    var passes = Pipelines.create(optimizationLevel);
+    if (passes.isEmpty())
+      return;
+    if (timePasses)
+      passes.enableTimePasses();
+    passes.run(irProgram);
+    if (timePasses)
+      passes.printTimingReport(err);
+  }
+
   private State emitASM() {
     var codegen = new CodeGen(irProgram);
     codegen.genCode();
@@ -337,16 +468,110 @@ public final class Driver {
   }
 
   private State emulator() {
+    if (renderTraceFile != null) {
+      try (var traceInput = new FileInputStream(renderTraceFile)) {
+        TraceBuffer.render(DecodedProgram.decode(irProgram), traceInput, out);
+      } catch (IOException e) {
+        throw new RuntimeException(String.format("cannot read trace '%s'", renderTraceFile), e);
+      }
+      return State.Finished;
+    }
+
+    if (runEmulator && engineOptions.getBudget() != null && !emulatorEngine.supportsBudgets())
+      throw new RuntimeException(
+          String.format("emulator engine '%s' cannot limit a run", emulatorEngine.getName()));
+
+    if (runEmulator && emulatorInputFile != null && Files.isDirectory(Path.of(emulatorInputFile)))
+      return runBatch();
+
     if (runEmulator) {
       var emulatorInput = openEmulatorInput();
-      var emulator = new Emulator(irProgram, emulatorInput, out);
-      emulator.run();
+      TraceBuffer trace = null;
+      if (emulatorTraceFile != null) {
+        trace = new TraceBuffer(TraceBuffer.DEFAULT_CAPACITY);
+        engineOptions.setTrace(trace);
+      }
+      Profile profile = null;
+      if (emulatorProfile != null) {
+        if (!emulatorEngine.supportsProfiling())
+          throw new RuntimeException(
+              String.format("emulator engine '%s' cannot profile", emulatorEngine.getName()));
+        profile = new Profile();
+        engineOptions.setProfile(profile);
+      }
+      if (memoization != null) {
+        if (!emulatorEngine.supportsMemoization())
+          throw new RuntimeException(
+              String.format("emulator engine '%s' cannot memoize", emulatorEngine.getName()));
+        engineOptions.setMemoization(memoization);
+      }
+      var emulator = emulatorEngine.create(irProgram, emulatorInput, out, engineOptions);
+      try {
+        emulator.run();
+      } catch (BudgetExceededError e) {
+        out.flush();
+        err.println(e.getMessage());
+        return State.Error;
+      } finally {
+        if (trace != null)
+          writeTrace(trace);
+        if (profile != null)
+          writeProfile(profile);
+        if (memoization != null && memoization.isAttached())
+          memoization.printReport(err);
+      }
       return State.Finished;
     }
 
     return State.Continue;
   }
 
+  /**
+   * Runs the program on every file of the emulator input directory, on as many threads as there
+   * are processors.
+   */
+  private State runBatch() {
+    if (emulatorOutputDirectory == null)
+      throw new RuntimeException(
+          String.format("no output directory for the inputs in '%s'", emulatorInputFile));
+    if (emulatorTraceFile != null || emulatorProfile != null || memoization != null)
+      throw new RuntimeException("batch emulation cannot trace, profile or memoize the program");
+    var batch = new BatchEmulation(irProgram, emulatorEngine, engineOptions);
+    boolean completed;
+    try {
+      completed = batch.run(Path.of(emulatorInputFile), Path.of(emulatorOutputDirectory),
+          Runtime.getRuntime().availableProcessors());
+    } catch (IOException e) {
+      throw new RuntimeException(
+          String.format("cannot run the inputs in '%s'", emulatorInputFile), e);
+    }
+    batch.printReport(err);
+    return completed ? State.Finished : State.Error;
+  }
+
+  private void writeTrace(TraceBuffer trace) {
+    try (var traceOutput = new FileOutputStream(emulatorTraceFile)) {
+      trace.write(DecodedProgram.decode(irProgram), traceOutput);
+    } catch (IOException e) {
+      throw new RuntimeException(String.format("cannot write file '%s'", emulatorTraceFile), e);
+    }
+  }
+
+  private void writeProfile(Profile profile) {
+    writeProfileFile(".profile", profile::printReport);
+    writeProfileFile(".folded", profile::printCollapsedStacks);
+    writeProfileFile(".dot", stream -> new ProfilePrinter(stream).print(irProgram, profile));
+  }
+
+  private void writeProfileFile(String suffix, Consumer<PrintStream> printer) {
+    var file = emulatorProfile + suffix;
+    try (var profileOutput = new PrintStream(new FileOutputStream(file))) {
+      printer.accept(profileOutput);
+    } catch (IOException e) {
+      throw new RuntimeException(String.format("cannot write file '%s'", file), e);
+    }
+  }
+
   private CharStream openInput() {
     if (inputStream == null) {
       try {
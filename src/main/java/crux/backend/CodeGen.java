@@ -19,8 +19,6 @@ public final class CodeGen extends InstVisitor {
 
   private HashMap<Variable, Integer> varIndexMap = new HashMap<>();
   private int varIndex = 0;
-  private boolean thenBlock = false;
-  private Instruction lastBlock;
 
   private Instruction lastInst;
 
@@ -83,11 +81,11 @@ public final class CodeGen extends InstVisitor {
       varIndexMap.put(lv, varIndex);
       if (argRegCount > 5) {
         out.printCode("movq " + argReg[argRegCount] + ", %r10");
-        out.printCode("movq %r10, " + -8 * varIndexMap.get(lv) + "(%rbp)");
+        out.printCode("movq %r10, " + -8 * slot(lv) + "(%rbp)");
       }
       else
       {
-        out.printCode("movq " + argReg[argRegCount] + ", " + -8 * varIndexMap.get(lv) + "(%rbp)");
+        out.printCode("movq " + argReg[argRegCount] + ", " + -8 * slot(lv) + "(%rbp)");
       }
       argRegCount++;
     }
@@ -96,8 +94,7 @@ public final class CodeGen extends InstVisitor {
 
     instStack.push(startInst);
 
-    Instruction prev = null;
-    ArrayList<Instruction> visited = new ArrayList<>();
+    Set<Instruction> visited = new HashSet<>();
 
     Instruction next_false = null;
     Instruction next_true = null;
@@ -105,17 +102,11 @@ public final class CodeGen extends InstVisitor {
     while(!instStack.isEmpty()) {
       var cur = instStack.pop();
 
-      if(lastBlock != null) {
-        if(cur.equals(lastBlock) && prev.numNext() == 0) {
-          out.printCode("leave");
-          out.printCode("ret");
-        }
-      }
-
       if(visited.contains(cur) && labelMap.get(cur) != null) {
         out.printCode("jmp " + labelMap.get(cur));
 
         next_false = null;
+        next_true = null;
       }
 
       if(!visited.contains(cur)) {
@@ -123,13 +114,16 @@ public final class CodeGen extends InstVisitor {
         visited.add(cur);
         next_false = cur.getNext(0);
         next_true = cur.getNext(1);
+        // A void function may end without a return instruction
+        if (cur.numNext() == 0 && !(cur instanceof ReturnInst)) {
+          out.printCode("leave");
+          out.printCode("ret");
+        }
       }
 
 
       if(next_true != null)
       {
-        lastBlock = next_true;
-        thenBlock = true;
         instStack.push(next_true);
       }
 
@@ -138,36 +132,34 @@ public final class CodeGen extends InstVisitor {
         instStack.push(next_false);
       }
 
-      prev = cur;
     }
 
-    //epilogue
-    if(!thenBlock) {
-      out.printCode("leave");
-      out.printCode("ret");
-    }
   }
 
   public void visit(AddressAt i) {
     printInstructionInfo(i);
 
-
-    if(labelMap.containsKey(i)) {
-      out.printLabel(labelMap.get(i) + ":");
-    }
-
     var offset = i.getOffset();
 
 
     out.printCode("movq " + i.getBase().getName() + "@GOTPCREL(%rip), %r11");
 
     if (offset != null) {
-      out.printCode("movq " + -8 * varIndexMap.get(offset)+"(%rbp)" + ", %r10");
+      out.printCode("movq " + -8 * slot(offset)+"(%rbp)" + ", %r10");
       out.printCode("imulq $8, %r10");
       out.printCode("addq %r10, %r11");
     }
+    // Keep the address, since a load or store may use it after other addresses were taken
+    out.printCode("movq %r11, " + -8 * slot(i.getDst()) + "(%rbp)");
+  }
 
+  public void visit(AddressOffset i) {
+    printInstructionInfo(i);
 
+    out.printCode("movq " + -8 * slot(i.getBase()) + "(%rbp), %r11");
+    out.printCode("movq " + -8 * slot(i.getOffset()) + "(%rbp), %r10");
+    out.printCode("leaq (%r11,%r10,8), %r11");
+    out.printCode("movq %r11, " + -8 * slot(i.getDst()) + "(%rbp)");
   }
 
   public void visit(BinaryOperator i) {
@@ -177,7 +169,7 @@ public final class CodeGen extends InstVisitor {
     LocalVar rhs = i.getRightOperand();
 
 
-    out.printCode("movq " + -8 * varIndexMap.get(lhs) + "(%rbp)" + ", %r10");
+    out.printCode("movq " + -8 * slot(lhs) + "(%rbp)" + ", %r10");
 
     if (!varIndexMap.containsKey(i.getDst())) {
       varIndex += 1;
@@ -186,24 +178,24 @@ public final class CodeGen extends InstVisitor {
 
     switch (i.getOperator().toString()) {
       case "Add":
-        out.printCode("addq " + -8 * varIndexMap.get(rhs) + "(%rbp)" + ", %r10");
-        out.printCode("movq %r10, " + -8 * varIndexMap.get(i.getDst()) + "(%rbp)");
+        out.printCode("addq " + -8 * slot(rhs) + "(%rbp)" + ", %r10");
+        out.printCode("movq %r10, " + -8 * slot(i.getDst()) + "(%rbp)");
 
         break;
       case "Sub":
-        out.printCode("subq " + -8 * varIndexMap.get(rhs) + "(%rbp)" + ", %r10");
-        out.printCode("movq %r10, " + -8 * varIndexMap.get(i.getDst()) + "(%rbp)");
+        out.printCode("subq " + -8 * slot(rhs) + "(%rbp)" + ", %r10");
+        out.printCode("movq %r10, " + -8 * slot(i.getDst()) + "(%rbp)");
 
         break;
       case "Div":
-        out.printCode("movq " + -8 * varIndexMap.get(lhs) + "(%rbp)" + ", %rax");
+        out.printCode("movq " + -8 * slot(lhs) + "(%rbp)" + ", %rax");
         out.printCode("cqto");
-        out.printCode("idivq " + -8 * varIndexMap.get(rhs) + "(%rbp)");
-        out.printCode("movq %rax, " + -8 * varIndexMap.get(i.getDst()) + "(%rbp)");
+        out.printCode("idivq " + -8 * slot(rhs) + "(%rbp)");
+        out.printCode("movq %rax, " + -8 * slot(i.getDst()) + "(%rbp)");
         break;
       case "Mul":
-        out.printCode("imul " + -8 * varIndexMap.get(rhs) + "(%rbp)" + ", %r10");
-        out.printCode("movq %r10, " + -8 * varIndexMap.get(i.getDst()) + "(%rbp)");
+        out.printCode("imul " + -8 * slot(rhs) + "(%rbp)" + ", %r10");
+        out.printCode("movq %r10, " + -8 * slot(i.getDst()) + "(%rbp)");
 
         break;
     }
@@ -221,8 +213,8 @@ public final class CodeGen extends InstVisitor {
     printInstructionInfo(i);
     out.printCode("movq $0, %rax");
     out.printCode("movq $1, %r10");
-    out.printCode("movq " + -8 * varIndexMap.get(i.getLeftOperand()) + "(%rbp), %r11");
-    out.printCode("cmp " + -8 * varIndexMap.get(i.getRightOperand()) + "(%rbp), %r11");
+    out.printCode("movq " + -8 * slot(i.getLeftOperand()) + "(%rbp), %r11");
+    out.printCode("cmp " + -8 * slot(i.getRightOperand()) + "(%rbp), %r11");
 
     switch (i.getPredicate().toString()) {
       case "GT":
@@ -246,8 +238,20 @@ public final class CodeGen extends InstVisitor {
     }
     varIndex += 1;
     varIndexMap.put(i.getDst(), varIndex);
-    out.printCode("movq %rax, " + -8 * varIndexMap.get(i.getDst()) + "(%rbp)");
+    out.printCode("movq %rax, " + -8 * slot(i.getDst()) + "(%rbp)");
+
+  }
 
+  /**
+   * Returns the stack slot of a variable. A variable that is read before the instruction writing
+   * it was emitted, as on the back-edge of a loop, gets the next free slot.
+   */
+  private int slot(Variable v) {
+    if (!varIndexMap.containsKey(v)) {
+      varIndex += 1;
+      varIndexMap.put(v, varIndex);
+    }
+    return varIndexMap.get(v);
   }
 
   public void visit(CopyInst i) {
@@ -263,7 +267,7 @@ public final class CodeGen extends InstVisitor {
       out.printCode("movq $" + boolInt + ", %r10");
     }
     else if(src.getClass().equals(LocalVar.class)) {
-      out.printCode("movq " + -8 * varIndexMap.get(src) + "(%rbp), %r10");
+      out.printCode("movq " + -8 * slot((LocalVar) src) + "(%rbp), %r10");
     }
 
     if (!varIndexMap.containsKey(i.getDstVar())) {
@@ -271,12 +275,12 @@ public final class CodeGen extends InstVisitor {
       varIndexMap.put(i.getDstVar(), varIndex);
     }
 
-    out.printCode("movq " + "%r10, " + -8 * varIndexMap.get(i.getDstVar()) + "(%rbp)");
+    out.printCode("movq " + "%r10, " + -8 * slot(i.getDstVar()) + "(%rbp)");
   }
 
   public void visit(JumpInst i) {
     printInstructionInfo(i);
-    out.printCode("movq " + -8 * varIndexMap.get(i.getPredicate()) + "(%rbp), " + "%r10");
+    out.printCode("movq " + -8 * slot(i.getPredicate()) + "(%rbp), " + "%r10");
 
     out.printCode("cmp $1, %r10");
 
@@ -288,36 +292,38 @@ public final class CodeGen extends InstVisitor {
     printInstructionInfo(i);
 
 
+    out.printCode("movq " + -8 * slot(i.getSrcAddress()) + "(%rbp), %r11");
     out.printCode("movq 0(%r11), %r10");
 
     varIndex += 1;
     varIndexMap.put(i.getDst(), varIndex);
-    out.printCode("movq " + "%r10, " + -8 * varIndexMap.get(i.getDst()) + "(%rbp)");
+    out.printCode("movq " + "%r10, " + -8 * slot(i.getDst()) + "(%rbp)");
 
   }
 
   public void visit(NopInst i) {
     printInstructionInfo(i);
-    if(labelMap.containsKey(i)) {
-      out.printLabel(labelMap.get(i) + ":");
-    }
 
   }
 
   public void visit(StoreInst i) {
     printInstructionInfo(i);
-    out.printCode("movq " + + -8 * varIndexMap.get(i.getSrcValue()) + "(%rbp), %r10");
+    out.printCode("movq " + + -8 * slot(i.getSrcValue()) + "(%rbp), %r10");
 
     var offset = 0;
 
 
+    out.printCode("movq " + -8 * slot(i.getDestAddress()) + "(%rbp), %r11");
     out.printCode("movq %r10, 0(%r11)");
   }
 
   public void visit(ReturnInst i) {
     printInstructionInfo(i);
-    out.printCode("movq " + + -8 * varIndexMap.get(i.getReturnValue()) + "(%rbp), %rax");
-
+    if (i.getReturnValue() != null)
+      out.printCode("movq " + -8 * slot(i.getReturnValue()) + "(%rbp), %rax");
+    // Return right away, the code after the instruction may be another path through the function
+    out.printCode("leave");
+    out.printCode("ret");
   }
 
   public void visit(CallInst i) {
@@ -331,23 +337,29 @@ public final class CodeGen extends InstVisitor {
     int argRegCount = 0;
     for (LocalVar arg: i.getParams()) {
       if (argRegCount > 5) {
-        out.printCode("movq " + -8 * varIndexMap.get(arg) + "(%rbp)" + ", %r10");
+        out.printCode("movq " + -8 * slot(arg) + "(%rbp)" + ", %r10");
         out.printCode("movq %r10, " + argReg[argRegCount]);
       }
       else
       {
-        out.printCode("movq " + -8 * varIndexMap.get(arg) + "(%rbp)" + ", " + argReg[argRegCount]);
+        out.printCode("movq " + -8 * slot(arg) + "(%rbp)" + ", " + argReg[argRegCount]);
       }
 
       argRegCount++;
     }
 
-    out.printCode("call " + i.getCallee().getName());
+    if (i.isTailCall() && i.getParams().size() <= 6) {
+      // The callee reuses our frame and returns its result straight to our caller
+      out.printCode("leave");
+      out.printCode("jmp " + i.getCallee().getName());
+    } else {
+      out.printCode("call " + i.getCallee().getName());
+    }
 
     if(i.getDst() != null && !varIndexMap.containsKey(i.getDst())) {
       varIndex+= 1;
       varIndexMap.put(i.getDst(), varIndex);
-      out.printCode("movq %rax, " +  + -8 * varIndexMap.get(i.getDst()) + "(%rbp)");
+      out.printCode("movq %rax, " +  + -8 * slot(i.getDst()) + "(%rbp)");
 
     }
 
@@ -361,11 +373,15 @@ public final class CodeGen extends InstVisitor {
     varIndexMap.put(i.getDst(), varIndex);
 
     out.printCode("movq $1, %r11");
-    out.printCode("subq " + -8 * varIndexMap.get(i.getDst()) + "(%rbp), %r11");
+    out.printCode("subq " + -8 * slot(i.getDst()) + "(%rbp), %r11");
   }
 
 
   private void printInstructionInfo(Instruction i) {
+    // Any instruction can be a jump target once passes have rewritten the graph
+    if(labelMap.containsKey(i)) {
+      out.printLabel(labelMap.get(i) + ":");
+    }
     var info = String.format("/* %s */", i.getClass().toString());
     out.printCode(info);
   }
@@ -237,7 +237,12 @@ public final class ASTLower implements NodeVisitor<InstPair> {
     Instruction end;
 
     if(lhs.getVal().getClass().equals(LocalVar.class)) {
-      end = new CopyInst((LocalVar) lhs.getVal(), rhs.getVal());
+      if (rhs.end.getClass().equals(LoadInst.class)) {
+        end = new CopyInst((LocalVar) lhs.getVal(), ((LoadInst)rhs.end).getDst());
+      }
+      else {
+        end = new CopyInst((LocalVar) lhs.getVal(), rhs.getVal());
+      }
     }
     else {
       if (rhs.end.getClass().equals(LoadInst.class)) {
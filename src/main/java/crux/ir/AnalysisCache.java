@@ -0,0 +1,141 @@
+package crux.ir;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The results of the analyses of the functions of a program, computed when a pass first asks for
+ * them and kept until they are invalidated. A result stays valid as long as the function is not
+ * changed in a way the analysis depends on; passes say which analyses they preserve, and the
+ * {@link PassManager} invalidates the others once a pass ran on a function.
+ * <p>
+ * The result of an analysis that only depends on the control flow, like the dominators, is also
+ * kept for as long as no edge of the function changes, which the function counts just like its
+ * {@link ControlFlowGraph} does. It is never returned once an edge changed, so a pass can ask for
+ * it again after its own changes.
+ * <p>
+ * Different threads may use the cache for different functions at the same time, but the analyses
+ * of one function must only be used by one thread at a time.
+ */
+public final class AnalysisCache {
+  /**
+   * An analysis of a function, which is also the key of its results in the cache. The analysis
+   * may ask the cache for the other analyses it builds on.
+   */
+  public interface Analysis<T> {
+    T compute(Function function, AnalysisCache cache);
+
+    /**
+     * Returns whether the result only depends on the edges between the instructions of the
+     * function and on its start.
+     */
+    default boolean isControlFlowAnalysis() {
+      return false;
+    }
+  }
+
+  /**
+   * Returns an analysis whose result only depends on the control flow of the function.
+   */
+  public static <T> Analysis<T> controlFlowAnalysis(Analysis<T> analysis) {
+    return new Analysis<>() {
+      @Override
+      public T compute(Function function, AnalysisCache cache) {
+        return analysis.compute(function, cache);
+      }
+
+      @Override
+      public boolean isControlFlowAnalysis() {
+        return true;
+      }
+    };
+  }
+
+  /** A result, with the number of edge changes of the function when it was computed. */
+  private static final class Result {
+    final Object value;
+    final long edgeChanges;
+
+    Result(Object value, long edgeChanges) {
+      this.value = value;
+      this.edgeChanges = edgeChanges;
+    }
+  }
+
+  private final Map<Function, Map<Analysis<?>, Result>> results = new ConcurrentHashMap<>();
+  private long computed = 0;
+  private long reused = 0;
+
+  private Map<Analysis<?>, Result> resultsOf(Function function) {
+    return results.computeIfAbsent(function, f -> new IdentityHashMap<>());
+  }
+
+  private static boolean hasSameEdges(Function function, Analysis<?> analysis, Result result) {
+    return analysis.isControlFlowAnalysis() && result.edgeChanges == function.getEdgeChanges();
+  }
+
+  /**
+   * Returns the result of an analysis of a function, which is computed unless it is cached.
+   */
+  public <T> T get(Function function, Analysis<T> analysis) {
+    Map<Analysis<?>, Result> cached = resultsOf(function);
+    Result result = cached.get(analysis);
+    if (result != null
+        && (!analysis.isControlFlowAnalysis() || hasSameEdges(function, analysis, result))) {
+      count(false);
+      @SuppressWarnings("unchecked")
+      T value = (T) result.value;
+      return value;
+    }
+    T value = analysis.compute(function, this);
+    cached.put(analysis, new Result(value, function.getEdgeChanges()));
+    count(true);
+    return value;
+  }
+
+  private synchronized void count(boolean compute) {
+    if (compute)
+      computed++;
+    else
+      reused++;
+  }
+
+  /**
+   * Drops the results of the analyses of a function that are not in {@code preserved}, apart from
+   * the control flow analyses of a function whose edges did not change.
+   */
+  public void invalidate(Function function, Collection<Analysis<?>> preserved) {
+    Map<Analysis<?>, Result> cached = results.get(function);
+    if (cached != null)
+      cached.entrySet().removeIf(entry -> !preserved.contains(entry.getKey())
+          && !hasSameEdges(function, entry.getKey(), entry.getValue()));
+  }
+
+  /**
+   * Drops the results of all analyses of a function.
+   */
+  public void invalidate(Function function) {
+    results.remove(function);
+  }
+
+  /**
+   * Drops the results of all analyses.
+   */
+  public void invalidateAll() {
+    results.clear();
+  }
+
+  /**
+   * Returns the number of results that were computed.
+   */
+  public synchronized long getNumComputed() {
+    return computed;
+  }
+
+  /**
+   * Returns the number of results that were taken from the cache.
+   */
+  public synchronized long getNumReused() {
+    return reused;
+  }
+}
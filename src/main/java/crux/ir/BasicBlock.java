@@ -0,0 +1,80 @@
+package crux.ir;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A maximal sequence of instructions that is entered only at its first instruction and left only
+ * after its last one. The blocks of a function are built by its {@link ControlFlowGraph}, which
+ * numbers them densely in reverse postorder, so the id of a block can index arrays.
+ * <p>
+ * The successors of a block follow the order of the edges of its last instruction, so for a
+ * {@link crux.ir.insts.JumpInst} successor 0 is the false branch and successor 1 the true branch.
+ * Both successors and predecessors are listed once for every edge, even when two edges connect the
+ * same blocks.
+ */
+public final class BasicBlock {
+  private final int mId;
+  private final Instruction[] mInstructions;
+  BasicBlock[] mSuccessors;
+  BasicBlock[] mPredecessors;
+
+  BasicBlock(int id, Instruction[] instructions) {
+    mId = id;
+    mInstructions = instructions;
+  }
+
+  public int getId() {
+    return mId;
+  }
+
+  public int size() {
+    return mInstructions.length;
+  }
+
+  public Instruction get(int i) {
+    return mInstructions[i];
+  }
+
+  public Instruction getFirst() {
+    return mInstructions[0];
+  }
+
+  public Instruction getLast() {
+    return mInstructions[mInstructions.length - 1];
+  }
+
+  public List<Instruction> getInstructions() {
+    return Collections.unmodifiableList(Arrays.asList(mInstructions));
+  }
+
+  public int numSuccessors() {
+    return mSuccessors.length;
+  }
+
+  public BasicBlock getSuccessor(int k) {
+    return mSuccessors[k];
+  }
+
+  public List<BasicBlock> getSuccessors() {
+    return Collections.unmodifiableList(Arrays.asList(mSuccessors));
+  }
+
+  public int numPredecessors() {
+    return mPredecessors.length;
+  }
+
+  public BasicBlock getPredecessor(int k) {
+    return mPredecessors[k];
+  }
+
+  public List<BasicBlock> getPredecessors() {
+    return Collections.unmodifiableList(Arrays.asList(mPredecessors));
+  }
+
+  @Override
+  public String toString() {
+    return "B" + mId;
+  }
+}
@@ -1,7 +1,7 @@
 package crux.ir;
 
 import crux.ast.types.BoolType;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A constant boolean (i.e. true or false). This is equivalent to {@link crux.ast.LiteralBool}.
@@ -20,7 +20,7 @@ public final class BooleanConstant extends Constant implements java.io.Serializa
   }
 
   public static BooleanConstant get(Program ctx, boolean value) {
-    var currentMap = mBoolConstantPool.computeIfAbsent(ctx, p -> new HashMap<>());
+    var currentMap = mBoolConstantPool.computeIfAbsent(ctx, p -> new ConcurrentHashMap<>());
     return currentMap.computeIfAbsent(value, p -> new BooleanConstant(ctx, value));
   }
 }
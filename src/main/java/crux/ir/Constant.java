@@ -2,15 +2,19 @@ package crux.ir;
 
 import crux.ast.types.Type;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A constant represents any kind of constant value. In our language that is integers and booleans.
+ * The constants of a program are pooled, and passes that run on several functions at once may add
+ * to the pools concurrently.
  */
 public abstract class Constant extends Value {
-  protected static Map<Program, Map<Long, IntegerConstant>> mIntConstantPool = new HashMap<>();
-  protected static Map<Program, Map<Boolean, BooleanConstant>> mBoolConstantPool = new HashMap<>();
+  protected static Map<Program, Map<Long, IntegerConstant>> mIntConstantPool =
+      new ConcurrentHashMap<>();
+  protected static Map<Program, Map<Boolean, BooleanConstant>> mBoolConstantPool =
+      new ConcurrentHashMap<>();
 
   protected Constant(Type type) {
     super(type);
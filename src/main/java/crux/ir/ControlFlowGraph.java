@@ -0,0 +1,235 @@
+package crux.ir;
+
+import java.util.*;
+
+/**
+ * The basic blocks of a function and the edges between them, built in one pass over the
+ * instructions reachable from the start of the function. Blocks are numbered in reverse
+ * postorder, so the entry is block 0 and every block comes before its successors unless the edge
+ * is a back edge.
+ * <p>
+ * A function caches its graph, see {@link Function#getControlFlowGraph()}. Building the graph makes
+ * the function the owner of its instructions, which count the changes to their edges in it. The
+ * graph records that count, and is rebuilt once an edge of the function has changed since then.
+ * New instructions only become reachable through an edge of an owned one, or a new start, so
+ * every change is seen. Changes to other functions and to the operands of instructions keep the
+ * graph valid.
+ */
+public final class ControlFlowGraph {
+  private final Function mFunction;
+  private final long mEdgeChanges;
+  private final BasicBlock[] mBlocks;
+  private final Map<Instruction, BasicBlock> mBlockOf = new IdentityHashMap<>();
+  private final Map<Instruction, Integer> mIndexInBlock = new IdentityHashMap<>();
+  private int mNumInstructions;
+
+  ControlFlowGraph(Function function) {
+    mFunction = function;
+    mEdgeChanges = function.getEdgeChanges();
+    Instruction start = function.getStart();
+    if (start == null) {
+      mBlocks = new BasicBlock[0];
+      return;
+    }
+
+    // Find the reachable instructions and count the edges into every one of them
+    Map<Instruction, Integer> numPreds = new IdentityHashMap<>();
+    List<Instruction> reachable = new ArrayList<>();
+    Deque<Instruction> stack = new ArrayDeque<>();
+    numPreds.put(start, 0);
+    reachable.add(start);
+    stack.push(start);
+    while (!stack.isEmpty()) {
+      Instruction inst = stack.pop();
+      inst.owner = function;
+      for (int k = 0; k < inst.numNext(); k++) {
+        Instruction next = inst.getNext(k);
+        if (next == null)
+          continue;
+        Integer count = numPreds.get(next);
+        if (count == null) {
+          reachable.add(next);
+          stack.push(next);
+          count = 0;
+        }
+        numPreds.put(next, count + 1);
+      }
+    }
+
+    // A block starts at the entry, at join points and at the targets of branches
+    Map<Instruction, Integer> leaders = new IdentityHashMap<>();
+    leaders.put(start, 0);
+    for (Instruction inst : reachable) {
+      int numSuccs = numSuccessors(inst);
+      for (int k = 0; k < inst.numNext(); k++) {
+        Instruction next = inst.getNext(k);
+        if (next != null && (numSuccs != 1 || numPreds.get(next) != 1)
+            && !leaders.containsKey(next))
+          leaders.put(next, leaders.size());
+      }
+    }
+
+    // Collect the instructions of every block, in the order leaders were found
+    Instruction[][] instructions = new Instruction[leaders.size()][];
+    List<Instruction> block = new ArrayList<>();
+    for (Map.Entry<Instruction, Integer> leader : leaders.entrySet()) {
+      block.clear();
+      Instruction inst = leader.getKey();
+      while (true) {
+        block.add(inst);
+        Instruction next = numSuccessors(inst) == 1 ? firstSuccessor(inst) : null;
+        if (next == null || leaders.containsKey(next))
+          break;
+        inst = next;
+      }
+      instructions[leader.getValue()] = block.toArray(new Instruction[0]);
+      mNumInstructions += block.size();
+    }
+    int[][] succs = new int[instructions.length][];
+    for (int b = 0; b < instructions.length; b++) {
+      Instruction last = instructions[b][instructions[b].length - 1];
+      succs[b] = new int[numSuccessors(last)];
+      int n = 0;
+      for (int k = 0; k < last.numNext(); k++) {
+        if (last.getNext(k) != null)
+          succs[b][n++] = leaders.get(last.getNext(k));
+      }
+    }
+
+    // Number the blocks in reverse postorder
+    int[] id = reversePostorder(succs);
+    mBlocks = new BasicBlock[instructions.length];
+    for (int b = 0; b < instructions.length; b++) {
+      mBlocks[id[b]] = new BasicBlock(id[b], instructions[b]);
+    }
+    int[] numBlockPreds = new int[mBlocks.length];
+    for (int b = 0; b < instructions.length; b++) {
+      BasicBlock bb = mBlocks[id[b]];
+      bb.mSuccessors = new BasicBlock[succs[b].length];
+      for (int k = 0; k < succs[b].length; k++) {
+        bb.mSuccessors[k] = mBlocks[id[succs[b][k]]];
+        numBlockPreds[id[succs[b][k]]]++;
+      }
+    }
+    for (BasicBlock bb : mBlocks) {
+      bb.mPredecessors = new BasicBlock[numBlockPreds[bb.getId()]];
+      numBlockPreds[bb.getId()] = 0;
+    }
+    for (BasicBlock bb : mBlocks) {
+      for (BasicBlock succ : bb.mSuccessors) {
+        succ.mPredecessors[numBlockPreds[succ.getId()]++] = bb;
+      }
+      for (int i = 0; i < bb.size(); i++) {
+        mBlockOf.put(bb.get(i), bb);
+        mIndexInBlock.put(bb.get(i), i);
+      }
+    }
+  }
+
+  private static int numSuccessors(Instruction inst) {
+    int n = 0;
+    for (int k = 0; k < inst.numNext(); k++) {
+      if (inst.getNext(k) != null)
+        n++;
+    }
+    return n;
+  }
+
+  private static Instruction firstSuccessor(Instruction inst) {
+    for (int k = 0; k < inst.numNext(); k++) {
+      if (inst.getNext(k) != null)
+        return inst.getNext(k);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the position of every node in reverse postorder of a depth first walk from node 0.
+   */
+  private static int[] reversePostorder(int[][] succs) {
+    int n = succs.length;
+    int[] id = new int[n];
+    boolean[] visited = new boolean[n];
+    int[] stack = new int[n];
+    int[] nextEdge = new int[n];
+    int sp = 0;
+    int next = n;
+    stack[sp++] = 0;
+    visited[0] = true;
+    while (sp > 0) {
+      int node = stack[sp - 1];
+      if (nextEdge[node] == succs[node].length) {
+        id[node] = --next;
+        sp--;
+        continue;
+      }
+      int succ = succs[node][nextEdge[node]++];
+      if (!visited[succ]) {
+        visited[succ] = true;
+        stack[sp++] = succ;
+      }
+    }
+    return id;
+  }
+
+  boolean isStale() {
+    return mEdgeChanges != mFunction.getEdgeChanges();
+  }
+
+  public int numBlocks() {
+    return mBlocks.length;
+  }
+
+  public BasicBlock getBlock(int id) {
+    return mBlocks[id];
+  }
+
+  /**
+   * Returns the blocks in reverse postorder, starting with the entry.
+   */
+  public List<BasicBlock> getBlocks() {
+    return Collections.unmodifiableList(Arrays.asList(mBlocks));
+  }
+
+  /**
+   * Returns the block containing the start of the function, or null if the function has no body.
+   */
+  public BasicBlock getEntry() {
+    return mBlocks.length > 0 ? mBlocks[0] : null;
+  }
+
+  /**
+   * Returns the block containing an instruction, or null if it cannot be reached from the start.
+   */
+  public BasicBlock getBlock(Instruction inst) {
+    return mBlockOf.get(inst);
+  }
+
+  /**
+   * Returns the position of a reachable instruction within its block.
+   */
+  public int getIndexInBlock(Instruction inst) {
+    return mIndexInBlock.get(inst);
+  }
+
+  /**
+   * Returns the number of instructions reachable from the start.
+   */
+  public int numInstructions() {
+    return mNumInstructions;
+  }
+
+  /**
+   * Returns the ids of the successors of every block, as used by graph algorithms on ids.
+   */
+  public int[][] getSuccessorIds() {
+    int[][] ids = new int[mBlocks.length][];
+    for (BasicBlock bb : mBlocks) {
+      ids[bb.getId()] = new int[bb.numSuccessors()];
+      for (int k = 0; k < bb.numSuccessors(); k++) {
+        ids[bb.getId()][k] = bb.getSuccessor(k).getId();
+      }
+    }
+    return ids;
+  }
+}
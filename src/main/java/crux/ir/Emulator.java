@@ -5,8 +5,12 @@ import java.io.*;
 import crux.ir.insts.*;
 import crux.ast.SymbolTable.Symbol;
 import crux.ast.types.*;
+import crux.ir.engine.ExecutionEngine;
 
-public class Emulator {
+/**
+ * The reference interpreter, which executes the instruction graph of a {@link Program} directly.
+ */
+public class Emulator implements ExecutionEngine {
   HashMap<String, Function> functions = new HashMap<>();
   Stack<CallContext> stack = new Stack<>();
   HashMap<Long, Long> globalMap = new HashMap<>();
@@ -14,11 +18,18 @@ public class Emulator {
 
   BufferedReader br;
   PrintStream out;
-  public static boolean DEBUG = false;
+  /** Whether every executed instruction is printed, see {@code --debug-emulator}. */
+  final boolean debug;
 
   public Emulator(Program p, InputStream emulatorInput, OutputStream emulatorOutput) {
+    this(p, emulatorInput, emulatorOutput, false);
+  }
+
+  public Emulator(Program p, InputStream emulatorInput, OutputStream emulatorOutput,
+      boolean debug) {
     br = new BufferedReader(new InputStreamReader(emulatorInput));
     out = new PrintStream(emulatorOutput);
+    this.debug = debug;
 
     for (Iterator<Function> func_it = p.getFunctions(); func_it.hasNext();) {
       Function f = func_it.next();
@@ -32,6 +43,7 @@ public class Emulator {
     }
   }
 
+  @Override
   public void run() {
     Function main = functions.get("main");
     CallContext mainc = new CallContext(main, null, null);
@@ -42,19 +54,27 @@ public class Emulator {
         // Handle implicit return from void function
         stack.pop();
       } else {
-        c.pc.accept(c);
+        Instruction inst = c.pc;
+        inst.accept(c);
+        if (!(inst instanceof PhiInst))
+          c.from = inst;
       }
     }
   }
 
+  /**
+   * Prints a debug message. Callers check {@link #debug} first, so that no message is built when
+   * debugging is off.
+   */
   void debug(String msg) {
-    if (DEBUG)
-      out.println(msg);
+    out.println(msg);
   }
 
   class CallContext extends InstVisitor {
     Function f;
     Instruction pc;
+    /** The last executed instruction other than a phi, which selects the values of phis. */
+    Instruction from;
     HashMap<Variable, Object> localMap;
     LocalVar retval;
 
@@ -79,7 +99,16 @@ public class Emulator {
         address += 8 * ((Long) localMap.get(v));
       }
       localMap.put(i.getDst(), address);
-      debug("AddressAt: " + i.getDst() + " = " + address);
+      if (debug)
+        debug("AddressAt: " + i.getDst() + " = " + address);
+      pc = pc.getNext(0);
+    }
+
+    public void visit(AddressOffset i) {
+      long address = (Long) localMap.get(i.getBase()) + 8 * (Long) localMap.get(i.getOffset());
+      localMap.put(i.getDst(), address);
+      if (debug)
+        debug("AddressOffset: " + i.getDst() + " = " + address);
       pc = pc.getNext(0);
     }
 
@@ -102,7 +131,8 @@ public class Emulator {
           break;
       }
       localMap.put(i.getDst(), result);
-      debug("BinaryOperator: " + i.getDst() + "=" + left + i.getOperator() + right);
+      if (debug)
+        debug("BinaryOperator: " + i.getDst() + "=" + left + i.getOperator() + right);
       pc = pc.getNext(0);
     }
 
@@ -131,7 +161,8 @@ public class Emulator {
           break;
       }
       localMap.put(i.getDst(), result);
-      debug("CompareInst: " + i.getDst() + "=" + left + i.getPredicate() + right);
+      if (debug)
+        debug("CompareInst: " + i.getDst() + "=" + left + i.getPredicate() + right);
       pc = pc.getNext(0);
     }
 
@@ -146,14 +177,16 @@ public class Emulator {
         val = localMap.get(srcval);
       }
 
-      debug("CopyInst: " + i.getDstVar() + "=" + val);
+      if (debug)
+        debug("CopyInst: " + i.getDstVar() + "=" + val);
       localMap.put(i.getDstVar(), val);
       pc = pc.getNext(0);
     }
 
     public void visit(JumpInst i) {
       Boolean pred = (Boolean) localMap.get(i.getPredicate());
-      debug("Jump: " + i.getPredicate() + "=" + pred);
+      if (debug)
+        debug("Jump: " + i.getPredicate() + "=" + pred);
       pc = pred ? pc.getNext(1) : pc.getNext(0);
     }
 
@@ -173,14 +206,16 @@ public class Emulator {
         val = Boolean.valueOf(value != 0);
       }
 
-      debug("LoadInst: " + i.getDst() + "=" + val);
+      if (debug)
+        debug("LoadInst: " + i.getDst() + "=" + val);
       localMap.put(i.getDst(), val);
       pc = pc.getNext(0);
     }
 
     public void visit(NopInst i) {
       // Do nothing
-      debug("Nop:");
+      if (debug)
+        debug("Nop:");
       pc = pc.getNext(0);
     }
 
@@ -189,7 +224,8 @@ public class Emulator {
       Object val = localMap.get(srcval);
       AddressVar dst = i.getDestAddress();
       Long address = (Long) localMap.get(dst);
-      debug("StoreInst: *" + address + "=" + val);
+      if (debug)
+        debug("StoreInst: *" + address + "=" + val);
 
       if (val instanceof Long) {
         globalMap.put(address, (Long) val);
@@ -201,7 +237,8 @@ public class Emulator {
 
     public void visit(ReturnInst i) {
       Object val = i.getReturnValue() != null ? localMap.get(i.getReturnValue()) : null;
-      debug("ReturnInst: " + val);
+      if (debug)
+        debug("ReturnInst: " + val);
       // Remove ourselves from the stack
       stack.pop();
       // Return value to caller
@@ -221,7 +258,8 @@ public class Emulator {
 
       Symbol varCallee = i.getCallee();
       String fName = varCallee.getName();
-      debug("Calling " + fName + " with " + Arrays.toString(args));
+      if (debug)
+        debug("Calling " + fName + " with " + Arrays.toString(args));
 
       if (fName.equals("readInt")) {
         try {
@@ -256,11 +294,32 @@ public class Emulator {
       pc = pc.getNext(0);
     }
 
+    public void visit(PhiInst i) {
+      // All phis of the chain read their values before any of them is written
+      List<PhiInst> chain = new ArrayList<>();
+      Instruction inst = i;
+      while (inst instanceof PhiInst) {
+        chain.add((PhiInst) inst);
+        inst = inst.getNext(0);
+      }
+      Object[] values = new Object[chain.size()];
+      for (int j = 0; j < values.length; j++) {
+        values[j] = localMap.get(chain.get(j).getValueFor(from));
+      }
+      for (int j = 0; j < values.length; j++) {
+        localMap.put(chain.get(j).getDst(), values[j]);
+        if (debug)
+          debug("PhiInst: " + chain.get(j).getDst() + "=" + values[j]);
+      }
+      pc = inst;
+    }
+
     public void visit(UnaryNotInst i) {
       Object left = localMap.get(i.getInner());
       Object result = !((Boolean) left);
       localMap.put(i.getDst(), result);
-      debug("UnaryNotInst: " + result);
+      if (debug)
+        debug("UnaryNotInst: " + result);
       pc = pc.getNext(0);
     }
   }
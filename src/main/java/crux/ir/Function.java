@@ -20,7 +20,11 @@ public final class Function implements Formattable, java.io.Serializable {
 
   private static final int FUNC_FORMAT_INDENT = 2;
   private int mTempVarCounter, mTempAddressVarCounter;
+  private int mNumVariables;
   private Instruction startInstruction;
+  private transient ControlFlowGraph controlFlowGraph;
+  /** Counts the changes to the edges of the instructions the function owns and to its start. */
+  private transient long edgeChanges;
 
   public Function(String name, FuncType funcType) {
     mFuncName = name;
@@ -47,12 +51,12 @@ public final class Function implements Formattable, java.io.Serializable {
 
   public LocalVar getTempVar(Type type, String prefix) {
     var name = String.format("%s%d", prefix, mTempVarCounter++);
-    return new LocalVar(type, name);
+    return numbered(new LocalVar(type, name));
   }
 
   public LocalVar getTempVar(Type type) {
     var name = String.format("t%d", mTempVarCounter++);
-    return new LocalVar(type, name);
+    return numbered(new LocalVar(type, name));
   }
 
   public int getNumTempVars() {
@@ -61,19 +65,88 @@ public final class Function implements Formattable, java.io.Serializable {
 
   public AddressVar getTempAddressVar(Type type) {
     var name = String.format("av%d", mTempAddressVarCounter++);
-    return new AddressVar(type, name);
+    return numbered(new AddressVar(type, name));
+  }
+
+  private <T extends Variable> T numbered(T var) {
+    var.setIndex(mNumVariables++);
+    return var;
   }
 
   public int getNumTempAddressVars() {
     return mTempAddressVarCounter;
   }
 
+  /**
+   * Returns the number of variables the function created. They are numbered from 0 in the order
+   * they were created, so analyses can keep what they know about them in arrays. A function read
+   * back from a stream numbers its arguments and the variables its instructions use again.
+   */
+  public int getNumVariables() {
+    return mNumVariables;
+  }
+
+  /**
+   * Reads the function and numbers its variables again. IR written before variables were numbered,
+   * like the programs of the code generation stage, reads every number and their count as 0.
+   */
+  private void readObject(java.io.ObjectInputStream in)
+      throws java.io.IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    mNumVariables = 0;
+    Set<Variable> numberedVars = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (LocalVar arg : mArgs) {
+      if (numberedVars.add(arg))
+        numbered(arg);
+    }
+    if (startInstruction == null)
+      return;
+    Set<Instruction> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    Deque<Instruction> tovisit = new ArrayDeque<>();
+    visited.add(startInstruction);
+    tovisit.push(startInstruction);
+    while (!tovisit.isEmpty()) {
+      Instruction inst = tovisit.pop();
+      if (inst.getDestVar() != null && numberedVars.add(inst.getDestVar()))
+        numbered(inst.getDestVar());
+      for (Value operand : inst.getOperands()) {
+        if (operand instanceof Variable && numberedVars.add((Variable) operand))
+          numbered((Variable) operand);
+      }
+      for (int i = 0; i < inst.numNext(); i++) {
+        Instruction next = inst.getNext(i);
+        if (next != null && visited.add(next))
+          tovisit.push(next);
+      }
+    }
+  }
+
   public Instruction getStart() {
     return startInstruction;
   }
 
   public void setStart(Instruction inst) {
     startInstruction = inst;
+    controlFlowGraph = null;
+    edgeChanged();
+  }
+
+  /**
+   * Returns the basic blocks of the function. The graph is built on the first call and cached
+   * until an edge of one of its instructions changes.
+   */
+  public ControlFlowGraph getControlFlowGraph() {
+    if (controlFlowGraph == null || controlFlowGraph.isStale())
+      controlFlowGraph = new ControlFlowGraph(this);
+    return controlFlowGraph;
+  }
+
+  void edgeChanged() {
+    edgeChanges++;
+  }
+
+  long getEdgeChanges() {
+    return edgeChanges;
   }
 
   /**
@@ -85,29 +158,17 @@ public final class Function implements Formattable, java.io.Serializable {
 
   public HashMap<Instruction, String> assignLabels(int count[]) {
     HashMap<Instruction, String> labelMap = new HashMap<>();
-    Stack<Instruction> tovisit = new Stack<>();
-    HashSet<Instruction> discovered = new HashSet<>();
-    if (getStart() != null)
-      tovisit.push(getStart());
-    while (!tovisit.isEmpty()) {
-      Instruction inst = tovisit.pop();
-
-      for (int childIdx = 0; childIdx < inst.numNext(); childIdx++) {
-        Instruction child = inst.getNext(childIdx);
-        if (discovered.contains(child)) {
-          // Found the node for a second time...need a label for merge points
-          if (!labelMap.containsKey(child)) {
-            labelMap.put(child, "L" + (++count[0]));
-          }
-        } else {
-          discovered.add(child);
-          tovisit.push(child);
-          // Need a label for jump targets also
-          if (childIdx == 1 && !labelMap.containsKey(child)) {
-            labelMap.put(child, "L" + (++count[0]));
-          }
-        }
+    var cfg = getControlFlowGraph();
+    for (BasicBlock block : cfg.getBlocks()) {
+      // Merge points and the targets of jumps need a label, fall through edges do not
+      boolean needsLabel = block.numPredecessors() > 1
+          || block == cfg.getEntry() && block.numPredecessors() > 0;
+      for (BasicBlock pred : block.getPredecessors()) {
+        if (pred.getLast().getNext(1) == block.getFirst())
+          needsLabel = true;
       }
+      if (needsLabel)
+        labelMap.put(block.getFirst(), "L" + (++count[0]));
     }
     return labelMap;
   }
@@ -1,5 +1,6 @@
 package crux.ir;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
 import crux.ir.insts.InstVisitor;
@@ -12,6 +13,11 @@ import crux.ir.insts.InstVisitor;
  */
 public abstract class Instruction implements Formattable, java.io.Serializable {
   static final long serialVersionUID = 12022L;
+  /**
+   * The function whose control flow graph was last built over the instruction, which is told
+   * about changes to its edges, see {@link ControlFlowGraph}. Null until then.
+   */
+  transient Function owner;
   protected Variable mDestVar;
   protected List<Value> mOperands;
   protected Vector<Instruction> next;
@@ -30,6 +36,33 @@ public abstract class Instruction implements Formattable, java.io.Serializable {
 
   public abstract void accept(InstVisitor v);
 
+  /**
+   * Returns the variable written by the instruction, or null.
+   */
+  public Variable getDestVar() {
+    return mDestVar;
+  }
+
+  public void setDestVar(Variable destVar) {
+    mDestVar = destVar;
+  }
+
+  /**
+   * Returns the values read by the instruction, which cannot be modified through the list.
+   */
+  public List<Value> getOperands() {
+    return mOperands;
+  }
+
+  /**
+   * Replaces the operand at position {@code i}, for passes that rename or substitute values.
+   */
+  public void setOperand(int i, Value value) {
+    var operands = new ArrayList<>(mOperands);
+    operands.set(i, value);
+    mOperands = List.copyOf(operands);
+  }
+
   public Instruction getNext(int i) {
     if (i >= numNext())
       return null;
@@ -42,6 +75,8 @@ public abstract class Instruction implements Formattable, java.io.Serializable {
   }
 
   public void setNext(int i, Instruction inst) {
+    if (owner != null)
+      owner.edgeChanged();
     if (next.size() <= i)
       next.setSize(i + 1);
     next.set(i, inst);
@@ -1,7 +1,7 @@
 package crux.ir;
 
 import crux.ast.types.IntType;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A constant integer, e.g. an array offset (like the 2 in a[2]). This is equivalent to
@@ -21,7 +21,7 @@ public final class IntegerConstant extends Constant implements java.io.Serializa
   }
 
   public static IntegerConstant get(Program ctx, long value) {
-    var currentMap = mIntConstantPool.computeIfAbsent(ctx, p -> new HashMap<>());
+    var currentMap = mIntConstantPool.computeIfAbsent(ctx, p -> new ConcurrentHashMap<>());
     return currentMap.computeIfAbsent(value, p -> new IntegerConstant(ctx, value));
   }
 }
@@ -0,0 +1,193 @@
+package crux.ir;
+
+import crux.ir.AnalysisCache.Analysis;
+
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a pipeline of passes over a program. A function pass transforms one function at a time and
+ * only reads or writes that function, so it runs on all functions of the program in parallel on a
+ * {@link ForkJoinPool}. A module pass sees the whole program, like an inliner, and runs on its
+ * own. Every pass finishes on all functions before the next one starts.
+ * <p>
+ * The passes get their analyses from an {@link AnalysisCache}. Once a pass ran on a function, the
+ * analyses it does not preserve are invalidated for that function, or for every function after a
+ * module pass.
+ * <p>
+ * The wall time of every pass can be recorded and printed as a report once the pipeline ran.
+ */
+public final class PassManager {
+  /** A pass that transforms one function and returns the number of changes it made. */
+  public interface FunctionPass {
+    int run(Program program, Function function, AnalysisCache analyses);
+  }
+
+  /** A pass that transforms the whole program and returns the number of changes it made. */
+  public interface ModulePass {
+    int run(Program program, AnalysisCache analyses);
+  }
+
+  /** A registered pass, which is exactly one of a function or a module pass. */
+  private static final class Entry {
+    final String name;
+    final FunctionPass functionPass;
+    final ModulePass modulePass;
+    final Set<Analysis<?>> preserved;
+    long nanos;
+    long changes;
+
+    Entry(String name, FunctionPass functionPass, ModulePass modulePass,
+        Analysis<?>[] preserved) {
+      this.name = name;
+      this.functionPass = functionPass;
+      this.modulePass = modulePass;
+      this.preserved = Collections.newSetFromMap(new IdentityHashMap<>());
+      this.preserved.addAll(Arrays.asList(preserved));
+    }
+  }
+
+  private final List<Entry> passes = new ArrayList<>();
+  private final AnalysisCache analyses = new AnalysisCache();
+  private int parallelism = Runtime.getRuntime().availableProcessors();
+  private boolean timePasses = false;
+  private long wallNanos = 0;
+
+  /**
+   * Adds a function pass to the end of the pipeline.
+   *
+   * @param preserved the analyses the pass keeps valid
+   */
+  public PassManager addFunctionPass(String name, FunctionPass pass, Analysis<?>... preserved) {
+    passes.add(new Entry(name, pass, null, preserved));
+    return this;
+  }
+
+  /**
+   * Adds a module pass to the end of the pipeline.
+   *
+   * @param preserved the analyses the pass keeps valid
+   */
+  public PassManager addModulePass(String name, ModulePass pass, Analysis<?>... preserved) {
+    passes.add(new Entry(name, null, pass, preserved));
+    return this;
+  }
+
+  /**
+   * Sets the number of threads function passes run on; 1 runs them on the calling thread.
+   */
+  public void setParallelism(int threads) {
+    if (threads < 1)
+      throw new IllegalArgumentException("a pass manager needs at least one thread");
+    parallelism = threads;
+  }
+
+  /**
+   * Records the wall time of every pass, for {@link #printTimingReport}.
+   */
+  public void enableTimePasses() {
+    timePasses = true;
+  }
+
+  public boolean isEmpty() {
+    return passes.isEmpty();
+  }
+
+  public AnalysisCache getAnalyses() {
+    return analyses;
+  }
+
+  /**
+   * Runs the passes in order over the program.
+   */
+  public void run(Program program) {
+    List<Function> functions = new ArrayList<>();
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      if (function.getStart() != null)
+        functions.add(function);
+    }
+
+    long start = System.nanoTime();
+    ForkJoinPool pool =
+        parallelism > 1 && functions.size() > 1 ? new ForkJoinPool(parallelism) : null;
+    try {
+      for (Entry pass : passes) {
+        long passStart = timePasses ? System.nanoTime() : 0;
+        if (pass.modulePass != null) {
+          pass.changes += pass.modulePass.run(program, analyses);
+          for (Function function : functions) {
+            analyses.invalidate(function, pass.preserved);
+          }
+        } else if (pool == null) {
+          for (Function function : functions) {
+            pass.changes += runOn(pass, program, function);
+          }
+        } else {
+          runInParallel(pool, pass, program, functions);
+        }
+        if (timePasses)
+          pass.nanos += System.nanoTime() - passStart;
+      }
+    } finally {
+      if (pool != null)
+        pool.shutdownNow();
+    }
+    wallNanos += System.nanoTime() - start;
+  }
+
+  private int runOn(Entry pass, Program program, Function function) {
+    int changes = pass.functionPass.run(program, function, analyses);
+    analyses.invalidate(function, pass.preserved);
+    return changes;
+  }
+
+  private void runInParallel(ForkJoinPool pool, Entry pass, Program program,
+      List<Function> functions) {
+    List<Callable<Integer>> tasks = new ArrayList<>();
+    for (Function function : functions) {
+      tasks.add(() -> runOn(pass, program, function));
+    }
+    try {
+      for (Future<Integer> result : pool.invokeAll(tasks)) {
+        pass.changes += result.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(String.format("pass '%s' was interrupted", pass.name));
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      // The pool hands back a copy of what another thread threw, caused by the original
+      if (cause.getCause() != null && cause.getCause().getClass() == cause.getClass())
+        cause = cause.getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new IllegalStateException(String.format("pass '%s' failed", pass.name), cause);
+    }
+  }
+
+  /**
+   * Prints the wall time and the number of changes of every pass, in the order they ran, and the
+   * number of analyses that were computed or reused.
+   */
+  public void printTimingReport(PrintStream out) {
+    long total = 0;
+    for (Entry pass : passes) {
+      total += pass.nanos;
+    }
+    out.printf("%-24s %12s %7s %9s%n", "pass", "wall ms", "%", "changes");
+    for (Entry pass : passes) {
+      out.printf("%-24s %12.3f %6.1f%% %9d%n", pass.name, pass.nanos / 1e6,
+          total == 0 ? 0.0 : 100.0 * pass.nanos / total, pass.changes);
+    }
+    out.printf("%-24s %12.3f%n", "total", wallNanos / 1e6);
+    out.printf("analyses: %d computed, %d reused, %d threads%n", analyses.getNumComputed(),
+        analyses.getNumReused(), parallelism);
+  }
+}
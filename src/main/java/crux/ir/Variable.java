@@ -9,6 +9,8 @@ import crux.ast.types.Type;
 public abstract class Variable extends Value implements java.io.Serializable {
   static final long serialVersionUID = 12022L;
   protected String mName = "";
+  /** The number of the variable in the function that created it, or -1. */
+  private int mIndex = -1;
 
   protected Variable(Type type) {
     super(type);
@@ -22,4 +24,16 @@ public abstract class Variable extends Value implements java.io.Serializable {
   public String getName() {
     return mName;
   }
+
+  /**
+   * Returns the number of the variable among the variables of the function that created it, see
+   * {@link Function#getNumVariables}, or -1 if no function did.
+   */
+  public int getIndex() {
+    return mIndex;
+  }
+
+  void setIndex(int index) {
+    mIndex = index;
+  }
 }
@@ -0,0 +1,137 @@
+package crux.ir.engine;
+
+import crux.ir.Program;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs one program on every input file of a directory. The program is decoded once, and every
+ * input gets its own engine, with its own globals and call stack, on a pool of threads. The output
+ * of every input is written to a file of the same name with the extension {@code .out} in the
+ * output directory, while the program runs.
+ * <p>
+ * Compiled code is shared by the engines, so functions that got hot on one input run compiled on
+ * the following ones. Tracing, profiling and memoization collect their data for a single run and
+ * cannot be used in batches.
+ */
+public final class BatchEmulation {
+  private final Program program;
+  private final EngineKind engine;
+  private final EngineOptions options;
+  private final DecodedProgram decoded;
+  private final List<Result> results = new ArrayList<>();
+  private long wallNanos = 0;
+
+  /** The outcome of running the program on one input. */
+  private static final class Result {
+    final Path input;
+    final long nanos;
+    /** The message of the error the run ended with, or null if it completed. */
+    final String error;
+
+    Result(Path input, long nanos, String error) {
+      this.input = input;
+      this.nanos = nanos;
+      this.error = error;
+    }
+  }
+
+  public BatchEmulation(Program program, EngineKind engine, EngineOptions options) {
+    if (options.getTrace() != null || options.getProfile() != null
+        || options.getMemoization() != null)
+      throw new IllegalArgumentException(
+          "batch emulation cannot trace, profile or memoize the program");
+    this.program = program;
+    this.engine = engine;
+    this.options = options;
+    decoded = engine == EngineKind.REFERENCE ? null : DecodedProgram.decode(program);
+  }
+
+  /**
+   * Runs the program on every regular file in {@code inputDirectory}, with at most
+   * {@code threads} runs at the same time, and waits until all of them ended.
+   *
+   * @return whether the program completed on every input
+   */
+  public boolean run(Path inputDirectory, Path outputDirectory, int threads) throws IOException {
+    List<Path> inputs;
+    try (Stream<Path> files = Files.list(inputDirectory)) {
+      inputs = files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+    }
+    Files.createDirectories(outputDirectory);
+
+    long start = System.nanoTime();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Result>> runs = new ArrayList<>();
+      for (Path input : inputs) {
+        runs.add(pool.submit(() -> runOne(input, outputFile(outputDirectory, input))));
+      }
+      for (Future<Result> run : runs) {
+        results.add(run.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("batch emulation was interrupted");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      throw new IllegalStateException("batch emulation failed", e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+    wallNanos = System.nanoTime() - start;
+    return results.stream().allMatch(result -> result.error == null);
+  }
+
+  private Result runOne(Path input, Path output) throws IOException {
+    try (var in = new FileInputStream(input.toFile());
+        var out = new BufferedOutputStream(new FileOutputStream(output.toFile()))) {
+      long start = System.nanoTime();
+      String error = null;
+      try {
+        engine.create(program, decoded, in, out, options).run();
+      } catch (RuntimeException | Error e) {
+        error = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+      }
+      return new Result(input, System.nanoTime() - start, error);
+    }
+  }
+
+  private static Path outputFile(Path outputDirectory, Path input) {
+    String name = input.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    return outputDirectory.resolve((dot > 0 ? name.substring(0, dot) : name) + ".out");
+  }
+
+  /**
+   * Prints the number of inputs, the inputs the program failed on, and the time taken by the
+   * batch and by the single runs.
+   */
+  public void printReport(PrintStream out) {
+    long failed = results.stream().filter(result -> result.error != null).count();
+    out.printf("%d inputs, %d failed%n", results.size(), failed);
+    for (Result result : results) {
+      if (result.error != null)
+        out.printf("  %s: %s%n", result.input.getFileName(), result.error);
+    }
+    if (results.isEmpty())
+      return;
+    long total = results.stream().mapToLong(result -> result.nanos).sum();
+    Result slowest = results.stream().max(Comparator.comparingLong(result -> result.nanos)).get();
+    out.printf("wall time %.3f ms, run time %.3f ms, mean %.3f ms, slowest %.3f ms (%s)%n",
+        wallNanos / 1e6, total / 1e6, total / 1e6 / results.size(), slowest.nanos / 1e6,
+        slowest.input.getFileName());
+  }
+}
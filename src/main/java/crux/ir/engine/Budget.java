@@ -0,0 +1,67 @@
+package crux.ir.engine;
+
+/**
+ * Limits on the instructions, the time and the global memory a single run of a program may use.
+ * Engines do not check the limits on every instruction: the interpreter and compiled code count
+ * the instructions they retire, and compare the count to the next checkpoint only on back-edges
+ * and calls, which every long running program passes. The clock and the memory are read at a
+ * checkpoint every {@link #CHECK_INTERVAL} instructions. A run that exceeds a limit ends with a
+ * {@link BudgetExceededError}.
+ */
+public final class Budget {
+  /** A limit that is never reached. */
+  public static final long UNLIMITED = Long.MAX_VALUE;
+  /** The number of instructions between two readings of the clock and the memory. */
+  static final long CHECK_INTERVAL = 1 << 12;
+
+  private final long maxInstructions;
+  private final long maxNanos;
+  private final long maxMemoryBytes;
+
+  /**
+   * @param maxInstructions the number of instructions a run may retire
+   * @param maxMillis the wall-clock time a run may take in milliseconds
+   * @param maxMemoryBytes the bytes of global memory a run may allocate
+   */
+  public Budget(long maxInstructions, long maxMillis, long maxMemoryBytes) {
+    if (maxInstructions < 1 || maxMillis < 1 || maxMemoryBytes < 1)
+      throw new IllegalArgumentException("the limits of a budget must be positive");
+    this.maxInstructions = maxInstructions;
+    this.maxNanos = maxMillis >= UNLIMITED / 1_000_000 ? UNLIMITED : maxMillis * 1_000_000;
+    this.maxMemoryBytes = maxMemoryBytes;
+  }
+
+  public long getMaxInstructions() {
+    return maxInstructions;
+  }
+
+  public long getMaxNanos() {
+    return maxNanos;
+  }
+
+  public long getMaxMemoryBytes() {
+    return maxMemoryBytes;
+  }
+
+  /**
+   * Throws if a run that retired {@code instructions} instructions, started at {@code startNanos}
+   * and allocated {@code memoryBytes} bytes exceeded a limit.
+   *
+   * @return the instruction count of the next checkpoint
+   */
+  long check(long instructions, long startNanos, long memoryBytes) {
+    long elapsed = System.nanoTime() - startNanos;
+    if (instructions > maxInstructions)
+      throw new BudgetExceededError(BudgetExceededError.Limit.INSTRUCTIONS, instructions, elapsed,
+          memoryBytes);
+    if (elapsed > maxNanos)
+      throw new BudgetExceededError(BudgetExceededError.Limit.TIME, instructions, elapsed,
+          memoryBytes);
+    if (memoryBytes > maxMemoryBytes)
+      throw new BudgetExceededError(BudgetExceededError.Limit.MEMORY, instructions, elapsed,
+          memoryBytes);
+    if (maxNanos == UNLIMITED && maxMemoryBytes == UNLIMITED)
+      return maxInstructions;
+    return Math.min(maxInstructions, instructions + CHECK_INTERVAL);
+  }
+}
@@ -0,0 +1,53 @@
+package crux.ir.engine;
+
+/**
+ * Ends a run of a program that exceeded a limit of its {@link Budget}, with the instructions, time
+ * and memory it used until then.
+ */
+public final class BudgetExceededError extends Error {
+  static final long serialVersionUID = 12022L;
+
+  /** The limits of a {@link Budget}. */
+  public enum Limit {
+    INSTRUCTIONS("instruction"), TIME("time"), MEMORY("memory");
+
+    private final String name;
+
+    Limit(String name) {
+      this.name = name;
+    }
+  }
+
+  private final Limit limit;
+  private final long instructions;
+  private final long elapsedNanos;
+  private final long memoryBytes;
+
+  BudgetExceededError(Limit limit, long instructions, long elapsedNanos, long memoryBytes) {
+    super(String.format("The %s limit was exceeded after %d instructions, %.3f ms and %d bytes of "
+        + "memory.", limit.name, instructions, elapsedNanos / 1e6, memoryBytes));
+    this.limit = limit;
+    this.instructions = instructions;
+    this.elapsedNanos = elapsedNanos;
+    this.memoryBytes = memoryBytes;
+  }
+
+  /** Returns the limit that was exceeded. */
+  public Limit getLimit() {
+    return limit;
+  }
+
+  /** Returns the instructions retired until the limit was detected. */
+  public long getInstructions() {
+    return instructions;
+  }
+
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /** Returns the bytes of global memory allocated until the limit was detected. */
+  public long getMemoryBytes() {
+    return memoryBytes;
+  }
+}
@@ -0,0 +1,487 @@
+package crux.ir.engine;
+
+import crux.ir.engine.ClassFileWriter.Code;
+import crux.ir.engine.ClassFileWriter.Label;
+import crux.ir.engine.DecodedFunction.CallSite;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static crux.ir.engine.ClassFileWriter.Code.*;
+import static crux.ir.engine.DecodedFunction.*;
+
+/**
+ * Translates hot functions of a {@link DecodedProgram} into JVM classes, so that HotSpot compiles
+ * them to machine code. Every slot of the function becomes a {@code long} local variable and every
+ * record a short sequence of bytecode. Memory accesses, built-in functions and calls of functions
+ * that are not compiled yet go through the {@link SlotEngine} running the code.
+ * <p>
+ * The classes are defined in this package through {@link MethodHandles.Lookup#defineClass}, which
+ * lets them use the package private members of the engine. Compiled code is shared by all engines
+ * that run the same program.
+ * <p>
+ * Metered code, for engines that enforce a {@link Budget}, counts the records it executes in a
+ * local variable, and hands the count to the engine on back-edges, calls and returns.
+ */
+final class BytecodeCompiler {
+  /** HotSpot does not compile methods with more bytecode than this, see HugeMethodLimit. */
+  private static final int MAX_CODE_LENGTH = 8000;
+  private static final String PACKAGE = "crux/ir/engine/";
+  private static final String ENGINE = PACKAGE + "SlotEngine";
+  private static final String RUN = "run";
+  private static final String RUN_DESCRIPTOR = "(L" + ENGINE + ";[JI)J";
+  private static final AtomicInteger classCount = new AtomicInteger();
+
+  private final DecodedProgram program;
+  /** Whether the generated code counts the records it executes. */
+  private final boolean metered;
+  private final CompiledCode[] compiled;
+  private final String[] classNames;
+  private final boolean[] failed;
+
+  BytecodeCompiler(DecodedProgram program, boolean metered) {
+    this.program = program;
+    this.metered = metered;
+    compiled = new CompiledCode[program.functions.length];
+    classNames = new String[program.functions.length];
+    failed = new boolean[program.functions.length];
+  }
+
+  /**
+   * Returns the compiled code of a function, compiling it first if necessary.
+   *
+   * @return null if the function is too large to be worth compiling
+   */
+  synchronized CompiledCode compile(DecodedFunction f) {
+    if (compiled[f.index] != null || failed[f.index])
+      return compiled[f.index];
+    String name = PACKAGE + "Compiled$" + f.name + "$" + classCount.incrementAndGet();
+    byte[] bytes = generate(f, name);
+    if (bytes == null) {
+      failed[f.index] = true;
+      return null;
+    }
+    try {
+      Class<?> c = MethodHandles.lookup().defineClass(bytes);
+      compiled[f.index] = (CompiledCode) c.getConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("cannot load compiled function " + f.name, e);
+    }
+    classNames[f.index] = name;
+    return compiled[f.index];
+  }
+
+  private byte[] generate(DecodedFunction f, String name) {
+    var cf = new ClassFileWriter();
+    Code run = new FunctionGenerator(cf, f, name).generate();
+    if (run.length() > MAX_CODE_LENGTH)
+      return null;
+
+    Code init = new Code(1, 1);
+    init.local(ALOAD, 0);
+    init.op(INVOKESPECIAL, cf.methodRef("java/lang/Object", "<init>", "()V"));
+    init.op(Code.RETURN);
+
+    // Calls from the engine count towards the call depth like the calls between compiled code
+    Code invoke = new Code(4, 4);
+    invoke.local(ALOAD, 1);
+    invoke.op(INVOKEVIRTUAL, cf.methodRef(ENGINE, "enterCompiled", "()V"));
+    invoke.local(ALOAD, 1);
+    invoke.local(ALOAD, 2);
+    invoke.local(ILOAD, 3);
+    invoke.op(INVOKESTATIC, cf.methodRef(name, RUN, RUN_DESCRIPTOR));
+    invoke.local(ALOAD, 1);
+    invoke.op(INVOKEVIRTUAL, cf.methodRef(ENGINE, "leaveCompiled", "()V"));
+    invoke.op(LRETURN);
+
+    cf.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "()V", init);
+    cf.addMethod(ClassFileWriter.ACC_PUBLIC, "invoke", RUN_DESCRIPTOR, invoke);
+    cf.addMethod(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, RUN, RUN_DESCRIPTOR,
+        run);
+    return cf.toByteArray(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_FINAL
+        | ClassFileWriter.ACC_SUPER, name, "java/lang/Object", PACKAGE + "CompiledCode");
+  }
+
+  /**
+   * Generates the static {@code run} method of a function. Its parameters are the engine, the
+   * frame and the entry, see {@link CompiledCode#invoke}.
+   */
+  private final class FunctionGenerator {
+    private static final int ENGINE_LOCAL = 0;
+    private static final int FRAME_LOCAL = 1;
+    private static final int ENTRY_LOCAL = 2;
+
+    private final ClassFileWriter cf;
+    private final DecodedFunction f;
+    private final String name;
+    private final int[] code;
+    private final Label[] labels;
+    private final int temp;
+    /** The int local that counts the executed records of metered code. */
+    private final int counter;
+    private final Code out;
+
+    FunctionGenerator(ClassFileWriter cf, DecodedFunction f, String name) {
+      this.cf = cf;
+      this.f = f;
+      this.name = name;
+      code = f.code;
+      labels = new Label[f.size()];
+      for (int i = 0; i < labels.length; i++) {
+        labels[i] = new Label();
+      }
+      temp = local(f.numSlots);
+      counter = temp + 2;
+      out = new Code(8, counter + 1);
+    }
+
+    private int local(int slot) {
+      return 3 + 2 * slot;
+    }
+
+    Code generate() {
+      List<Integer> loopHeaders = new ArrayList<>();
+      for (int pc = 0; pc < code.length; pc += STRIDE) {
+        if (code[pc + OP] == Opcode.BACKEDGE)
+          loopHeaders.add(code[pc + A]);
+      }
+      loopHeaders.sort(null);
+      if (metered) {
+        out.pushInt(0);
+        out.local(ISTORE, counter);
+      }
+      if (!loopHeaders.isEmpty()) {
+        // On-stack replacement: load all slots and continue at the loop header
+        Label call = new Label();
+        out.local(ILOAD, ENTRY_LOCAL);
+        out.branch(IFLT, call);
+        for (int slot = 0; slot < f.numSlots; slot++) {
+          loadFrame(slot);
+        }
+        int[] keys = new int[loopHeaders.size()];
+        Label[] targets = new Label[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+          keys[i] = loopHeaders.get(i);
+          targets[i] = labels[keys[i] / STRIDE];
+        }
+        out.local(ILOAD, ENTRY_LOCAL);
+        out.lookupSwitch(labels[0], keys, targets);
+        out.bind(call);
+      }
+      for (int slot = 0; slot < f.numSlots; slot++) {
+        if (slot < f.numArgs) {
+          loadFrame(slot);
+        } else {
+          out.op(LCONST_0);
+          out.local(LSTORE, local(slot));
+        }
+      }
+      for (int pc = 0; pc < code.length; pc += STRIDE) {
+        out.bind(labels[pc / STRIDE]);
+        record(pc);
+      }
+      return out;
+    }
+
+    private void loadFrame(int slot) {
+      out.local(ALOAD, FRAME_LOCAL);
+      out.pushInt(slot);
+      out.op(LALOAD);
+      out.local(LSTORE, local(slot));
+    }
+
+    private void record(int pc) {
+      int dst = code[pc + DST];
+      int a = code[pc + A];
+      int b = code[pc + B];
+      if (metered && code[pc + OP] != Opcode.BACKEDGE)
+        out.iinc(counter, 1);
+      switch (code[pc + OP]) {
+        case Opcode.NOP:
+          break;
+        case Opcode.ADDRESS:
+          pushLong(8L * a);
+          store(dst);
+          break;
+        case Opcode.ADDRESS_INDEX:
+          load(b);
+          pushLong(a);
+          out.op(LADD);
+          out.pushInt(3);
+          out.op(LSHL);
+          store(dst);
+          break;
+        case Opcode.ADDRESS_OFFSET:
+          load(a);
+          load(b);
+          out.pushInt(3);
+          out.op(LSHL);
+          out.op(LADD);
+          store(dst);
+          break;
+        case Opcode.ADD:
+          binary(LADD, dst, a, b);
+          break;
+        case Opcode.SUB:
+          binary(LSUB, dst, a, b);
+          break;
+        case Opcode.MUL:
+          binary(LMUL, dst, a, b);
+          break;
+        case Opcode.DIV:
+          binary(LDIV, dst, a, b);
+          break;
+        case Opcode.GE:
+          compare(IFGE, dst, a, b);
+          break;
+        case Opcode.GT:
+          compare(IFGT, dst, a, b);
+          break;
+        case Opcode.LE:
+          compare(IFLE, dst, a, b);
+          break;
+        case Opcode.LT:
+          compare(IFLT, dst, a, b);
+          break;
+        case Opcode.EQ:
+          compare(IFEQ, dst, a, b);
+          break;
+        case Opcode.NE:
+          compare(IFNE, dst, a, b);
+          break;
+        case Opcode.COPY:
+          load(a);
+          store(dst);
+          break;
+        case Opcode.CONST:
+          pushLong(f.constants[a]);
+          store(dst);
+          break;
+        case Opcode.NOT:
+          load(a);
+          out.op(LCONST_1);
+          out.op(LXOR);
+          store(dst);
+          break;
+        case Opcode.JUMP:
+          load(a);
+          out.op(LCONST_0);
+          out.op(LCMP);
+          out.branch(IFNE, labels[code[pc + ALT] / STRIDE]);
+          break;
+        case Opcode.LOAD:
+          out.local(ALOAD, ENGINE_LOCAL);
+          load(a);
+          invokeEngine("load", "(J)J");
+          store(dst);
+          break;
+        case Opcode.STORE:
+          out.local(ALOAD, ENGINE_LOCAL);
+          load(b);
+          load(a);
+          invokeEngine("store", "(JJ)V");
+          break;
+        case Opcode.CALL:
+          call(f.callSites[a]);
+          break;
+        case Opcode.RETURN:
+          retire();
+          if (f.voidReturn) {
+            out.local(ALOAD, ENGINE_LOCAL);
+            out.pushInt(a < 0 ? 1 : 0);
+            out.op(PUTFIELD, cf.fieldRef(ENGINE, "implicitReturn", "Z"));
+          }
+          if (a >= 0) {
+            load(a);
+          } else {
+            out.op(LCONST_0);
+          }
+          out.op(LRETURN);
+          return;
+        case Opcode.BACKEDGE:
+          retire();
+          out.branch(GOTO, labels[a / STRIDE]);
+          return;
+        default:
+          throw new IllegalStateException("unknown opcode " + code[pc + OP]);
+      }
+      int next = code[pc + NEXT];
+      if (next != pc + STRIDE)
+        out.branch(GOTO, labels[next / STRIDE]);
+    }
+
+    private void binary(int opcode, int dst, int a, int b) {
+      load(a);
+      load(b);
+      out.op(opcode);
+      store(dst);
+    }
+
+    private void compare(int opcode, int dst, int a, int b) {
+      Label isTrue = new Label();
+      Label done = new Label();
+      load(a);
+      load(b);
+      out.op(LCMP);
+      out.branch(opcode, isTrue);
+      out.op(LCONST_0);
+      out.branch(GOTO, done);
+      out.bind(isTrue);
+      out.op(LCONST_1);
+      out.bind(done);
+      store(dst);
+    }
+
+    private void call(CallSite site) {
+      switch (site.intrinsic) {
+        case Intrinsic.READ_INT:
+        case Intrinsic.READ_CHAR:
+          out.local(ALOAD, ENGINE_LOCAL);
+          invokeEngine(Intrinsic.name(site.intrinsic), "()J");
+          storeResult(site.dst);
+          return;
+        case Intrinsic.PRINT_BOOL:
+        case Intrinsic.PRINT_INT:
+        case Intrinsic.PRINT_CHAR:
+          out.local(ALOAD, ENGINE_LOCAL);
+          load(site.args[0]);
+          invokeEngine(Intrinsic.name(site.intrinsic), "(J)V");
+          return;
+        case Intrinsic.PRINTLN:
+          out.local(ALOAD, ENGINE_LOCAL);
+          invokeEngine("println", "()V");
+          return;
+        default:
+          break;
+      }
+      DecodedFunction callee = site.target;
+      if (callee == null) {
+        out.local(ALOAD, ENGINE_LOCAL);
+        out.op(LDC_W, cf.string(site.callee));
+        invokeEngine("undefinedFunction", "(Ljava/lang/String;)Ljava/lang/Error;");
+        out.op(ATHROW);
+        return;
+      }
+      retire();
+      if (site.tail && callee == f) {
+        selfTailCall(site);
+        return;
+      }
+
+      // Arguments are passed in the shared argument array of the engine
+      if (site.args.length > 0) {
+        engineArgs();
+        for (int j = 0; j < site.args.length; j++) {
+          out.op(DUP);
+          out.pushInt(j);
+          load(site.args[j]);
+          out.op(LASTORE);
+        }
+        out.op(POP);
+      }
+      String calleeClass = callee == f ? name : classNames[callee.index];
+      if (calleeClass != null) {
+        out.local(ALOAD, ENGINE_LOCAL);
+        invokeEngine("enterCompiled", "()V");
+        out.local(ALOAD, ENGINE_LOCAL);
+        engineArgs();
+        out.pushInt(-1);
+        out.op(INVOKESTATIC, cf.methodRef(calleeClass, RUN, RUN_DESCRIPTOR));
+        out.local(ALOAD, ENGINE_LOCAL);
+        invokeEngine("leaveCompiled", "()V");
+      } else {
+        out.local(ALOAD, ENGINE_LOCAL);
+        out.pushInt(callee.index);
+        invokeEngine("call", "(I)J");
+      }
+      if (site.dst >= 0 && callee.voidReturn) {
+        // An implicit return from a void function leaves the destination untouched
+        Label skip = new Label();
+        out.local(LSTORE, temp);
+        out.local(ALOAD, ENGINE_LOCAL);
+        out.op(GETFIELD, cf.fieldRef(ENGINE, "implicitReturn", "Z"));
+        out.branch(IFNE, skip);
+        out.local(LLOAD, temp);
+        store(site.dst);
+        out.bind(skip);
+      } else {
+        storeResult(site.dst);
+      }
+    }
+
+    /**
+     * Turns a recursive call whose result is returned right away into a jump to the start of the
+     * function. The arguments go through the argument array of the engine first, since they may
+     * read the slots they replace.
+     */
+    private void selfTailCall(CallSite site) {
+      engineArgs();
+      for (int j = 0; j < site.args.length; j++) {
+        out.op(DUP);
+        out.pushInt(j);
+        load(site.args[j]);
+        out.op(LASTORE);
+      }
+      for (int j = 0; j < site.args.length; j++) {
+        out.op(DUP);
+        out.pushInt(j);
+        out.op(LALOAD);
+        store(j);
+      }
+      out.op(POP);
+      for (int slot = f.numArgs; slot < f.numSlots; slot++) {
+        out.op(LCONST_0);
+        store(slot);
+      }
+      out.branch(GOTO, labels[0]);
+    }
+
+    /**
+     * Hands the records counted by metered code to the engine, which checks its budget.
+     */
+    private void retire() {
+      if (!metered)
+        return;
+      out.local(ALOAD, ENGINE_LOCAL);
+      out.local(ILOAD, counter);
+      invokeEngine("retire", "(I)V");
+      out.pushInt(0);
+      out.local(ISTORE, counter);
+    }
+
+    private void engineArgs() {
+      out.local(ALOAD, ENGINE_LOCAL);
+      out.op(GETFIELD, cf.fieldRef(ENGINE, "args", "[J"));
+    }
+
+    private void invokeEngine(String method, String descriptor) {
+      out.op(INVOKEVIRTUAL, cf.methodRef(ENGINE, method, descriptor));
+    }
+
+    private void storeResult(int dst) {
+      if (dst >= 0) {
+        store(dst);
+      } else {
+        out.op(POP2);
+      }
+    }
+
+    private void pushLong(long value) {
+      if (value == 0 || value == 1) {
+        out.op(LCONST_0 + (int) value);
+      } else {
+        out.op(LDC2_W, cf.longConstant(value));
+      }
+    }
+
+    private void load(int slot) {
+      out.local(LLOAD, local(slot));
+    }
+
+    private void store(int slot) {
+      out.local(LSTORE, local(slot));
+    }
+  }
+}
@@ -0,0 +1,353 @@
+package crux.ir.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the few parts of a JVM class file that the {@link BytecodeCompiler} needs: a constant
+ * pool, interfaces and methods with code. The class files use version 49, which the JVM verifies
+ * by type inference, so no stack map frames have to be computed.
+ */
+final class ClassFileWriter {
+  static final int ACC_PUBLIC = 0x0001;
+  static final int ACC_STATIC = 0x0008;
+  static final int ACC_FINAL = 0x0010;
+  static final int ACC_SUPER = 0x0020;
+
+  private static final int VERSION = 49;
+
+  private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+  private final DataOutputStream poolOut = new DataOutputStream(pool);
+  private final Map<String, Integer> poolEntries = new HashMap<>();
+  private int poolCount = 1;
+  private final List<byte[]> methods = new ArrayList<>();
+
+  int utf8(String value) {
+    return entry("U" + value, 1, out -> out.writeUTF(value));
+  }
+
+  int classRef(String internalName) {
+    int name = utf8(internalName);
+    return entry("C" + internalName, 7, out -> out.writeShort(name));
+  }
+
+  int string(String value) {
+    int utf8 = utf8(value);
+    return entry("S" + value, 8, out -> out.writeShort(utf8));
+  }
+
+  int longConstant(long value) {
+    Integer index = poolEntries.get("J" + value);
+    if (index != null)
+      return index;
+    index = add("J" + value, 5, out -> out.writeLong(value));
+    // Long constants take up two entries of the pool
+    poolCount++;
+    return index;
+  }
+
+  int fieldRef(String owner, String name, String descriptor) {
+    return memberRef(9, owner, name, descriptor);
+  }
+
+  int methodRef(String owner, String name, String descriptor) {
+    return memberRef(10, owner, name, descriptor);
+  }
+
+  int interfaceMethodRef(String owner, String name, String descriptor) {
+    return memberRef(11, owner, name, descriptor);
+  }
+
+  private int memberRef(int tag, String owner, String name, String descriptor) {
+    int ownerIndex = classRef(owner);
+    int nameAndType = nameAndType(name, descriptor);
+    return entry(tag + owner + "." + name + descriptor, tag, out -> {
+      out.writeShort(ownerIndex);
+      out.writeShort(nameAndType);
+    });
+  }
+
+  private int nameAndType(String name, String descriptor) {
+    int nameIndex = utf8(name);
+    int descriptorIndex = utf8(descriptor);
+    return entry("N" + name + descriptor, 12, out -> {
+      out.writeShort(nameIndex);
+      out.writeShort(descriptorIndex);
+    });
+  }
+
+  private int entry(String key, int tag, PoolWriter writer) {
+    Integer index = poolEntries.get(key);
+    return index != null ? index : add(key, tag, writer);
+  }
+
+  private int add(String key, int tag, PoolWriter writer) {
+    try {
+      poolOut.writeByte(tag);
+      writer.write(poolOut);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    int index = poolCount++;
+    poolEntries.put(key, index);
+    return index;
+  }
+
+  private interface PoolWriter {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  void addMethod(int access, String name, String descriptor, Code code) {
+    var bytes = new ByteArrayOutputStream();
+    var out = new DataOutputStream(bytes);
+    try {
+      out.writeShort(access);
+      out.writeShort(utf8(name));
+      out.writeShort(utf8(descriptor));
+      out.writeShort(1);
+      byte[] instructions = code.toByteArray();
+      out.writeShort(utf8("Code"));
+      out.writeInt(12 + instructions.length);
+      out.writeShort(code.maxStack);
+      out.writeShort(code.maxLocals);
+      out.writeInt(instructions.length);
+      out.write(instructions);
+      out.writeShort(0);
+      out.writeShort(0);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    methods.add(bytes.toByteArray());
+  }
+
+  byte[] toByteArray(int access, String name, String superName, String... interfaces) {
+    int thisIndex = classRef(name);
+    int superIndex = classRef(superName);
+    int[] interfaceIndices = new int[interfaces.length];
+    for (int i = 0; i < interfaces.length; i++) {
+      interfaceIndices[i] = classRef(interfaces[i]);
+    }
+    var bytes = new ByteArrayOutputStream();
+    var out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(VERSION);
+      out.writeShort(poolCount);
+      pool.writeTo(out);
+      out.writeShort(access);
+      out.writeShort(thisIndex);
+      out.writeShort(superIndex);
+      out.writeShort(interfaceIndices.length);
+      for (int index : interfaceIndices) {
+        out.writeShort(index);
+      }
+      out.writeShort(0);
+      out.writeShort(methods.size());
+      for (byte[] method : methods) {
+        out.write(method);
+      }
+      out.writeShort(0);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * A position in the code of a method that branches can refer to before it is known.
+   */
+  static final class Label {
+    private int position = -1;
+    /** Offsets of the branch instructions and of their operands that refer to this label. */
+    private final List<int[]> uses = new ArrayList<>();
+  }
+
+  /**
+   * The instructions of a method.
+   */
+  static final class Code {
+    static final int ICONST_0 = 3;
+    static final int LCONST_0 = 9;
+    static final int LCONST_1 = 10;
+    static final int BIPUSH = 16;
+    static final int SIPUSH = 17;
+    static final int LDC_W = 19;
+    static final int LDC2_W = 20;
+    static final int ILOAD = 21;
+    static final int LLOAD = 22;
+    static final int ALOAD = 25;
+    static final int LALOAD = 47;
+    static final int ISTORE = 54;
+    static final int LSTORE = 55;
+    static final int LASTORE = 80;
+    static final int POP = 87;
+    static final int POP2 = 88;
+    static final int DUP = 89;
+    static final int LADD = 97;
+    static final int LSUB = 101;
+    static final int LMUL = 105;
+    static final int LDIV = 109;
+    static final int LSHL = 121;
+    static final int LXOR = 131;
+    static final int IINC = 132;
+    static final int LCMP = 148;
+    static final int IFEQ = 153;
+    static final int IFNE = 154;
+    static final int IFLT = 155;
+    static final int IFGE = 156;
+    static final int IFGT = 157;
+    static final int IFLE = 158;
+    static final int GOTO = 167;
+    static final int LOOKUPSWITCH = 171;
+    static final int LRETURN = 173;
+    static final int RETURN = 177;
+    static final int GETFIELD = 180;
+    static final int PUTFIELD = 181;
+    static final int INVOKEVIRTUAL = 182;
+    static final int INVOKESPECIAL = 183;
+    static final int INVOKESTATIC = 184;
+    static final int ATHROW = 191;
+    static final int WIDE = 196;
+
+    private byte[] bytes = new byte[256];
+    private int length = 0;
+    private final List<Label> labels = new ArrayList<>();
+    int maxStack;
+    int maxLocals;
+
+    Code(int maxStack, int maxLocals) {
+      this.maxStack = maxStack;
+      this.maxLocals = maxLocals;
+    }
+
+    int length() {
+      return length;
+    }
+
+    void op(int opcode) {
+      u1(opcode);
+    }
+
+    void op(int opcode, int u2) {
+      u1(opcode);
+      u2(u2);
+    }
+
+    /** Emits a load or store of a local variable. */
+    void local(int opcode, int index) {
+      if (index > 255) {
+        u1(WIDE);
+        u1(opcode);
+        u2(index);
+      } else {
+        u1(opcode);
+        u1(index);
+      }
+    }
+
+    /** Emits an increment of an int local variable. */
+    void iinc(int index, int delta) {
+      if (index > 255 || delta < Byte.MIN_VALUE || delta > Byte.MAX_VALUE) {
+        u1(WIDE);
+        u1(IINC);
+        u2(index);
+        u2(delta);
+      } else {
+        u1(IINC);
+        u1(index);
+        u1(delta);
+      }
+    }
+
+    void pushInt(int value) {
+      if (value >= -1 && value <= 5) {
+        u1(ICONST_0 + value);
+      } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+        u1(BIPUSH);
+        u1(value);
+      } else {
+        u1(SIPUSH);
+        u2(value);
+      }
+    }
+
+    void branch(int opcode, Label label) {
+      label.uses.add(new int[] {length, length + 1});
+      labels.add(label);
+      u1(opcode);
+      u2(0);
+    }
+
+    void bind(Label label) {
+      label.position = length;
+    }
+
+    void lookupSwitch(Label defaultLabel, int[] keys, Label[] targets) {
+      int start = length;
+      u1(LOOKUPSWITCH);
+      while (length % 4 != 0) {
+        u1(0);
+      }
+      switchTarget(start, defaultLabel);
+      u4(keys.length);
+      for (int i = 0; i < keys.length; i++) {
+        u4(keys[i]);
+        switchTarget(start, targets[i]);
+      }
+    }
+
+    private void switchTarget(int instruction, Label label) {
+      label.uses.add(new int[] {instruction, -(length + 1)});
+      labels.add(label);
+      u4(0);
+    }
+
+    private void u1(int value) {
+      if (length == bytes.length)
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      bytes[length++] = (byte) value;
+    }
+
+    private void u2(int value) {
+      u1(value >> 8);
+      u1(value);
+    }
+
+    private void u4(int value) {
+      u2(value >> 16);
+      u2(value);
+    }
+
+    byte[] toByteArray() {
+      for (Label label : labels) {
+        if (label.position < 0)
+          throw new IllegalStateException("unbound label");
+        for (int[] use : label.uses) {
+          int offset = label.position - use[0];
+          if (use[1] >= 0) {
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+              throw new IllegalStateException("branch offset out of range");
+            bytes[use[1]] = (byte) (offset >> 8);
+            bytes[use[1] + 1] = (byte) offset;
+          } else {
+            int at = -use[1] - 1;
+            bytes[at] = (byte) (offset >> 24);
+            bytes[at + 1] = (byte) (offset >> 16);
+            bytes[at + 2] = (byte) (offset >> 8);
+            bytes[at + 3] = (byte) offset;
+          }
+        }
+        label.uses.clear();
+      }
+      labels.clear();
+      return Arrays.copyOf(bytes, length);
+    }
+  }
+}
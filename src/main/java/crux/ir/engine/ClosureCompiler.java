@@ -0,0 +1,603 @@
+package crux.ir.engine;
+
+import crux.ir.engine.DecodedFunction.CallSite;
+
+import java.io.IOException;
+
+import static crux.ir.engine.DecodedFunction.*;
+
+/**
+ * Compiles decoded functions into graphs of {@link Node}s for the {@link ClosureEngine}. Each node
+ * is bound to the slots of its operands and to its successor nodes when it is created, call nodes
+ * are bound to the compiled callee or to the built-in function they call.
+ */
+final class ClosureCompiler {
+  private final DecodedProgram program;
+  private final boolean debug;
+  private final TraceBuffer trace;
+  private final CompiledFunction[] functions;
+
+  ClosureCompiler(DecodedProgram program, boolean debug, TraceBuffer trace) {
+    this.program = program;
+    this.debug = debug;
+    this.trace = trace;
+    functions = new CompiledFunction[program.functions.length];
+  }
+
+  CompiledFunction[] compile() {
+    for (DecodedFunction f : program.functions) {
+      functions[f.index] = new CompiledFunction(f.numSlots);
+    }
+    for (DecodedFunction f : program.functions) {
+      functions[f.index].entry = compile(f);
+    }
+    return functions;
+  }
+
+  private Node compile(DecodedFunction f) {
+    int[] code = f.code;
+    Node[] nodes = new Node[f.size()];
+    Node[] targets = new Node[f.size()];
+    for (int pc = 0; pc < code.length; pc += STRIDE) {
+      nodes[pc / STRIDE] = node(f, pc);
+      targets[pc / STRIDE] = debug || trace != null ? new TraceNode(nodes[pc / STRIDE], f, pc)
+          : nodes[pc / STRIDE];
+    }
+    for (int pc = 0; pc < code.length; pc += STRIDE) {
+      Node node = nodes[pc / STRIDE];
+      if (code[pc + NEXT] >= 0)
+        node.next = targets[code[pc + NEXT] / STRIDE];
+      if (node instanceof Jump)
+        ((Jump) node).alt = targets[code[pc + ALT] / STRIDE];
+    }
+    return targets[0];
+  }
+
+  private Node node(DecodedFunction f, int pc) {
+    int[] code = f.code;
+    int dst = code[pc + DST];
+    int a = code[pc + A];
+    int b = code[pc + B];
+    switch (code[pc + OP]) {
+      case Opcode.NOP:
+      case Opcode.BACKEDGE:
+        return new Nop();
+      case Opcode.ADDRESS:
+        return new Const(dst, 8L * a);
+      case Opcode.ADDRESS_INDEX:
+        return new AddressIndex(dst, a, b);
+      case Opcode.ADDRESS_OFFSET:
+        return new AddressOffset(dst, a, b);
+      case Opcode.ADD:
+        return new Add(dst, a, b);
+      case Opcode.SUB:
+        return new Sub(dst, a, b);
+      case Opcode.MUL:
+        return new Mul(dst, a, b);
+      case Opcode.DIV:
+        return new Div(dst, a, b);
+      case Opcode.GE:
+        return new Ge(dst, a, b);
+      case Opcode.GT:
+        return new Gt(dst, a, b);
+      case Opcode.LE:
+        return new Le(dst, a, b);
+      case Opcode.LT:
+        return new Lt(dst, a, b);
+      case Opcode.EQ:
+        return new Eq(dst, a, b);
+      case Opcode.NE:
+        return new Ne(dst, a, b);
+      case Opcode.COPY:
+        return new Copy(dst, a);
+      case Opcode.CONST:
+        return new Const(dst, f.constants[a]);
+      case Opcode.NOT:
+        return new Not(dst, a);
+      case Opcode.JUMP:
+        return new Jump(a);
+      case Opcode.LOAD:
+        return new Load(dst, a);
+      case Opcode.STORE:
+        return new Store(a, b);
+      case Opcode.CALL:
+        return call(f.callSites[a]);
+      case Opcode.RETURN:
+        return new Return(a);
+      default:
+        throw new IllegalStateException("unknown opcode " + code[pc + OP]);
+    }
+  }
+
+  private Node call(CallSite site) {
+    switch (site.intrinsic) {
+      case Intrinsic.READ_INT:
+        return new ReadInt(site.dst);
+      case Intrinsic.READ_CHAR:
+        return new ReadChar(site.dst);
+      case Intrinsic.PRINT_BOOL:
+        return new PrintBool(site.args[0]);
+      case Intrinsic.PRINT_INT:
+        return new PrintInt(site.args[0]);
+      case Intrinsic.PRINT_CHAR:
+        return new PrintChar(site.args[0]);
+      case Intrinsic.PRINTLN:
+        return new Println();
+      default:
+        DecodedFunction callee = site.target;
+        if (callee == null)
+          return new Undefined(site.callee);
+        // Traced calls keep their frames, so that the return of the caller is traced as well
+        if (site.tail && !debug && trace == null)
+          return new TailCall(functions[callee.index], site.args);
+        return new Call(functions[callee.index], site.args, site.dst);
+    }
+  }
+
+  /**
+   * A function compiled into nodes.
+   */
+  static final class CompiledFunction {
+    final int numSlots;
+    Node entry;
+
+    CompiledFunction(int numSlots) {
+      this.numSlots = numSlots;
+    }
+  }
+
+  /**
+   * An instruction bound to its operands. Executing it returns the node to continue with, or null
+   * once the function returns.
+   */
+  abstract static class Node {
+    Node next;
+
+    abstract Node exec(ClosureEngine e, long[] s);
+  }
+
+  /**
+   * Prints the {@code --debug-emulator} message of the node it wraps, or records it in the trace.
+   */
+  private final class TraceNode extends Node {
+    final Node node;
+    final DecodedFunction f;
+    final int pc;
+    final boolean before;
+
+    TraceNode(Node node, DecodedFunction f, int pc) {
+      this.node = node;
+      this.f = f;
+      this.pc = pc;
+      before = DebugFormat.printsBefore(f.code[pc + OP]);
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      if (before)
+        print(e, s);
+      Node result = node.exec(e, s);
+      if (!before)
+        print(e, s);
+      return result;
+    }
+
+    private void print(ClosureEngine e, long[] s) {
+      if (debug) {
+        String msg = DebugFormat.message(f, pc, s);
+        if (msg != null)
+          e.out.println(msg);
+      }
+      if (trace != null)
+        trace.record(f, pc, s, 0);
+    }
+  }
+
+  private static final class Nop extends Node {
+    Node exec(ClosureEngine e, long[] s) {
+      return next;
+    }
+  }
+
+  private static final class Const extends Node {
+    final int dst;
+    final long value;
+
+    Const(int dst, long value) {
+      this.dst = dst;
+      this.value = value;
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      s[dst] = value;
+      return next;
+    }
+  }
+
+  private static final class AddressIndex extends Node {
+    final int dst;
+    final long base;
+    final int index;
+
+    AddressIndex(int dst, long base, int index) {
+      this.dst = dst;
+      this.base = base;
+      this.index = index;
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      s[dst] = 8L * (base + s[index]);
+      return next;
+    }
+  }
+
+  private static final class AddressOffset extends BinaryNode {
+    AddressOffset(int dst, int a, int b) {
+      super(dst, a, b);
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      s[dst] = s[a] + 8L * s[b];
+      return next;
+    }
+  }
+
+  private static final class Copy extends Node {
+    final int dst;
+    final int src;
+
+    Copy(int dst, int src) {
+      this.dst = dst;
+      this.src = src;
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      s[dst] = s[src];
+      return next;
+    }
+  }
+
+  private static final class Not extends Node {
+    final int dst;
+    final int src;
+
+    Not(int dst, int src) {
+      this.dst = dst;
+      this.src = src;
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      s[dst] = s[src] ^ 1;
+      return next;
+    }
+  }
+
+  private abstract static class BinaryNode extends Node {
+    final int dst;
+    final int a;
+    final int b;
+
+    BinaryNode(int dst, int a, int b) {
+      this.dst = dst;
+      this.a = a;
+      this.b = b;
+    }
+  }
+
+  private static final class Add extends BinaryNode {
+    Add(int dst, int a, int b) {
+      super(dst, a, b);
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      s[dst] = s[a] + s[b];
+      return next;
+    }
+  }
+
+  private static final class Sub extends BinaryNode {
+    Sub(int dst, int a, int b) {
+      super(dst, a, b);
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      s[dst] = s[a] - s[b];
+      return next;
+    }
+  }
+
+  private static final class Mul extends BinaryNode {
+    Mul(int dst, int a, int b) {
+      super(dst, a, b);
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      s[dst] = s[a] * s[b];
+      return next;
+    }
+  }
+
+  private static final class Div extends BinaryNode {
+    Div(int dst, int a, int b) {
+      super(dst, a, b);
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      s[dst] = s[a] / s[b];
+      return next;
+    }
+  }
+
+  private static final class Ge extends BinaryNode {
+    Ge(int dst, int a, int b) {
+      super(dst, a, b);
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      s[dst] = s[a] >= s[b] ? 1 : 0;
+      return next;
+    }
+  }
+
+  private static final class Gt extends BinaryNode {
+    Gt(int dst, int a, int b) {
+      super(dst, a, b);
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      s[dst] = s[a] > s[b] ? 1 : 0;
+      return next;
+    }
+  }
+
+  private static final class Le extends BinaryNode {
+    Le(int dst, int a, int b) {
+      super(dst, a, b);
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      s[dst] = s[a] <= s[b] ? 1 : 0;
+      return next;
+    }
+  }
+
+  private static final class Lt extends BinaryNode {
+    Lt(int dst, int a, int b) {
+      super(dst, a, b);
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      s[dst] = s[a] < s[b] ? 1 : 0;
+      return next;
+    }
+  }
+
+  private static final class Eq extends BinaryNode {
+    Eq(int dst, int a, int b) {
+      super(dst, a, b);
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      s[dst] = s[a] == s[b] ? 1 : 0;
+      return next;
+    }
+  }
+
+  private static final class Ne extends BinaryNode {
+    Ne(int dst, int a, int b) {
+      super(dst, a, b);
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      s[dst] = s[a] != s[b] ? 1 : 0;
+      return next;
+    }
+  }
+
+  private static final class Jump extends Node {
+    final int predicate;
+    Node alt;
+
+    Jump(int predicate) {
+      this.predicate = predicate;
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      return s[predicate] != 0 ? alt : next;
+    }
+  }
+
+  private static final class Load extends Node {
+    final int dst;
+    final int address;
+
+    Load(int dst, int address) {
+      this.dst = dst;
+      this.address = address;
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      long index = s[address] >> 3;
+      if (!e.memory.isInitialized(index))
+        e.out.println("Reading from uninitialized memory");
+      s[dst] = e.memory.load(index);
+      return next;
+    }
+  }
+
+  private static final class Store extends Node {
+    final int src;
+    final int address;
+
+    Store(int src, int address) {
+      this.src = src;
+      this.address = address;
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      e.memory.store(s[address] >> 3, s[src]);
+      return next;
+    }
+  }
+
+  private static final class Call extends Node {
+    final CompiledFunction callee;
+    final int[] args;
+    final int dst;
+
+    Call(CompiledFunction callee, int[] args, int dst) {
+      this.callee = callee;
+      this.args = args;
+      this.dst = dst;
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      long[] frame = new long[callee.numSlots];
+      for (int j = 0; j < args.length; j++) {
+        frame[j] = s[args[j]];
+      }
+      e.invoke(callee, frame);
+      // An implicit return from a void function leaves the destination untouched
+      if (e.hasReturnValue && dst >= 0)
+        s[dst] = e.returnValue;
+      return next;
+    }
+  }
+
+  /**
+   * A call whose result the caller returns right away. It ends the caller and leaves the callee
+   * to {@link ClosureEngine#invoke}, so that tail recursion does not grow the Java stack.
+   */
+  private static final class TailCall extends Node {
+    final CompiledFunction callee;
+    final int[] args;
+
+    TailCall(CompiledFunction callee, int[] args) {
+      this.callee = callee;
+      this.args = args;
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      long[] frame = new long[callee.numSlots];
+      for (int j = 0; j < args.length; j++) {
+        frame[j] = s[args[j]];
+      }
+      e.tailCallee = callee;
+      e.tailFrame = frame;
+      return null;
+    }
+  }
+
+  private static final class Return extends Node {
+    final int src;
+
+    Return(int src) {
+      this.src = src;
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      e.hasReturnValue = src >= 0;
+      if (src >= 0)
+        e.returnValue = s[src];
+      return null;
+    }
+  }
+
+  private static final class Undefined extends Node {
+    final String callee;
+
+    Undefined(String callee) {
+      this.callee = callee;
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      throw new Error("Calling undefined function " + callee + ".");
+    }
+  }
+
+  private static final class ReadInt extends Node {
+    final int dst;
+
+    ReadInt(int dst) {
+      this.dst = dst;
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      try {
+        e.out.print("int?");
+        long val = Long.parseLong(e.br.readLine());
+        if (dst >= 0)
+          s[dst] = val;
+      } catch (IOException ex) {
+        throw new Error("Error in inputting Integer.");
+      }
+      return next;
+    }
+  }
+
+  private static final class ReadChar extends Node {
+    final int dst;
+
+    ReadChar(int dst) {
+      this.dst = dst;
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      try {
+        int val = e.br.read();
+        if (val == -1)
+          throw new Error("Reading past end of stream.");
+        if (dst >= 0)
+          s[dst] = val;
+      } catch (IOException ex) {
+        throw new Error("Error in inputting Integer.");
+      }
+      return next;
+    }
+  }
+
+  private static final class PrintBool extends Node {
+    final int src;
+
+    PrintBool(int src) {
+      this.src = src;
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      e.out.print(s[src] != 0);
+      return next;
+    }
+  }
+
+  private static final class PrintInt extends Node {
+    final int src;
+
+    PrintInt(int src) {
+      this.src = src;
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      e.out.print(s[src]);
+      return next;
+    }
+  }
+
+  private static final class PrintChar extends Node {
+    final int src;
+
+    PrintChar(int src) {
+      this.src = src;
+    }
+
+    Node exec(ClosureEngine e, long[] s) {
+      e.out.print((char) s[src]);
+      return next;
+    }
+  }
+
+  private static final class Println extends Node {
+    Node exec(ClosureEngine e, long[] s) {
+      e.out.println("");
+      return next;
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package crux.ir.engine;
+
+import crux.ir.Emulator;
+
+import java.io.*;
+
+/**
+ * Executes programs that the {@link ClosureCompiler} turned into graphs of nodes. Every node
+ * executes one instruction and returns its successor, so running a function is a loop of direct
+ * calls on the nodes, without decoding records or dispatching through a visitor. Calls to other
+ * Crux functions recurse on the Java stack, up to the maximum call depth of the
+ * {@link EngineOptions}.
+ * <p>
+ * The output of a run, including the output of {@code --debug-emulator}, is the same as the one
+ * of the reference {@link Emulator}.
+ */
+public final class ClosureEngine implements ExecutionEngine {
+  private final ClosureCompiler.CompiledFunction main;
+  final GlobalMemory memory;
+  final BufferedReader br;
+  final PrintStream out;
+  private final int maxCallDepth;
+  private int depth = 0;
+
+  /** The value passed by the last executed return node. */
+  long returnValue;
+  /** Whether the last executed return node passed a value. */
+  boolean hasReturnValue;
+  /** The function a tail call continues with once its caller ended, or null. */
+  ClosureCompiler.CompiledFunction tailCallee;
+  /** The frame of {@link #tailCallee}. */
+  long[] tailFrame;
+
+  public ClosureEngine(DecodedProgram program, InputStream emulatorInput,
+      OutputStream emulatorOutput) {
+    this(program, emulatorInput, emulatorOutput, new EngineOptions());
+  }
+
+  public ClosureEngine(DecodedProgram program, InputStream emulatorInput,
+      OutputStream emulatorOutput, EngineOptions options) {
+    memory = new GlobalMemory(program.globalWords);
+    br = new BufferedReader(new InputStreamReader(emulatorInput));
+    out = new PrintStream(emulatorOutput);
+    maxCallDepth = options.getMaxCallDepth();
+    var functions = new ClosureCompiler(program, options.isDebug(), options.getTrace()).compile();
+    var decodedMain = program.getFunction("main");
+    main = decodedMain == null ? null : functions[decodedMain.index];
+  }
+
+  @Override
+  public void run() {
+    if (main == null)
+      throw new Error("Program has no main function.");
+    try {
+      invoke(main, new long[main.numSlots]);
+    } catch (StackOverflowError e) {
+      throw stackOverflow();
+    }
+  }
+
+  /**
+   * Runs a function on the given frame until it returns, followed by the functions it tail
+   * calls. The value returned last, if any, is left in {@link #returnValue}.
+   */
+  void invoke(ClosureCompiler.CompiledFunction f, long[] slots) {
+    if (++depth > maxCallDepth)
+      throw stackOverflow();
+    while (true) {
+      ClosureCompiler.Node node = f.entry;
+      while (node != null) {
+        node = node.exec(this, slots);
+      }
+      if (tailCallee == null)
+        break;
+      f = tailCallee;
+      slots = tailFrame;
+      tailCallee = null;
+      tailFrame = null;
+    }
+    depth--;
+  }
+
+  private Error stackOverflow() {
+    return new Error("Stack overflow: more than " + maxCallDepth + " nested calls.");
+  }
+}
@@ -0,0 +1,15 @@
+package crux.ir.engine;
+
+/**
+ * A function that the {@link BytecodeCompiler} translated into a JVM class.
+ */
+interface CompiledCode {
+  /**
+   * Runs the function. A call passes the arguments in the first elements of {@code frame} and an
+   * entry of -1. An on-stack replacement passes all slots of the interpreted frame and the program
+   * counter of the loop header to continue at.
+   *
+   * @return the return value, or 0 if the function returned without a value
+   */
+  long invoke(SlotEngine engine, long[] frame, int entry);
+}
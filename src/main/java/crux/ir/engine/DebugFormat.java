@@ -0,0 +1,154 @@
+package crux.ir.engine;
+
+import crux.ir.engine.DecodedFunction.CallSite;
+
+import java.util.Arrays;
+
+import static crux.ir.engine.DecodedFunction.*;
+
+/**
+ * Formats the {@code --debug-emulator} messages of decoded instructions in the same way as the
+ * reference {@link crux.ir.Emulator}.
+ */
+final class DebugFormat {
+  private DebugFormat() {}
+
+  /**
+   * Whether the message of an instruction shows the state before the instruction executes. The
+   * other messages show the result of the instruction and are printed afterwards.
+   */
+  static boolean printsBefore(int opcode) {
+    switch (opcode) {
+      case Opcode.ADD:
+      case Opcode.SUB:
+      case Opcode.MUL:
+      case Opcode.DIV:
+      case Opcode.GE:
+      case Opcode.GT:
+      case Opcode.LE:
+      case Opcode.LT:
+      case Opcode.EQ:
+      case Opcode.NE:
+      case Opcode.JUMP:
+      case Opcode.STORE:
+      case Opcode.CALL:
+      case Opcode.RETURN:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Returns the slots whose values the message of the instruction at {@code pc} shows, in the
+   * order a {@link TraceBuffer} records them, or null if the instruction does not print a message.
+   */
+  static int[] operands(DecodedFunction f, int pc) {
+    int[] code = f.code;
+    int dst = code[pc + DST];
+    int a = code[pc + A];
+    int b = code[pc + B];
+    switch (code[pc + OP]) {
+      case Opcode.NOP:
+        return new int[0];
+      case Opcode.ADDRESS:
+      case Opcode.ADDRESS_INDEX:
+      case Opcode.ADDRESS_OFFSET:
+      case Opcode.COPY:
+      case Opcode.CONST:
+      case Opcode.NOT:
+      case Opcode.LOAD:
+        return new int[] {dst};
+      case Opcode.ADD:
+      case Opcode.SUB:
+      case Opcode.MUL:
+      case Opcode.DIV:
+      case Opcode.GE:
+      case Opcode.GT:
+      case Opcode.LE:
+      case Opcode.LT:
+      case Opcode.EQ:
+      case Opcode.NE:
+        return new int[] {a, b};
+      case Opcode.JUMP:
+        return new int[] {a};
+      case Opcode.STORE:
+        return new int[] {b, a};
+      case Opcode.CALL:
+        return f.callSites[a].args;
+      case Opcode.RETURN:
+        return a >= 0 ? new int[] {a} : null;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Returns the message of the instruction at {@code pc}, or null if the instruction does not
+   * print one.
+   */
+  static String message(DecodedFunction f, int pc, long[] slots) {
+    return message(f, pc, slots, 0);
+  }
+
+  /**
+   * Returns the message of the instruction at {@code pc} for a frame whose slots start at
+   * {@code base}.
+   */
+  static String message(DecodedFunction f, int pc, long[] slots, int base) {
+    int[] code = f.code;
+    int op = code[pc + OP];
+    int dst = code[pc + DST];
+    int a = code[pc + A];
+    int b = code[pc + B];
+    switch (op) {
+      case Opcode.NOP:
+        return "Nop:";
+      case Opcode.ADDRESS:
+      case Opcode.ADDRESS_INDEX:
+        return "AddressAt: " + f.slotVars[dst] + " = " + slots[base + dst];
+      case Opcode.ADDRESS_OFFSET:
+        return "AddressOffset: " + f.slotVars[dst] + " = " + slots[base + dst];
+      case Opcode.ADD:
+      case Opcode.SUB:
+      case Opcode.MUL:
+      case Opcode.DIV: {
+        String name = Opcode.name(op);
+        return "BinaryOperator: " + f.slotVars[dst] + "=" + slots[base + a]
+            + Character.toUpperCase(name.charAt(0)) + name.substring(1) + slots[base + b];
+      }
+      case Opcode.GE:
+      case Opcode.GT:
+      case Opcode.LE:
+      case Opcode.LT:
+      case Opcode.EQ:
+      case Opcode.NE:
+        return "CompareInst: " + f.slotVars[dst] + "=" + slots[base + a]
+            + Opcode.name(op).toUpperCase() + slots[base + b];
+      case Opcode.COPY:
+      case Opcode.CONST:
+        return "CopyInst: " + f.slotVars[dst] + "=" + f.format(dst, slots[base + dst]);
+      case Opcode.NOT:
+        return "UnaryNotInst: " + f.format(dst, slots[base + dst]);
+      case Opcode.JUMP:
+        return "Jump: " + f.slotVars[a] + "=" + f.format(a, slots[base + a]);
+      case Opcode.LOAD:
+        return "LoadInst: " + f.slotVars[dst] + "=" + f.format(dst, slots[base + dst]);
+      case Opcode.STORE:
+        return "StoreInst: *" + slots[base + b] + "=" + f.format(a, slots[base + a]);
+      case Opcode.CALL: {
+        CallSite site = f.callSites[a];
+        String[] args = new String[site.args.length];
+        for (int j = 0; j < args.length; j++) {
+          args[j] = f.format(site.args[j], slots[base + site.args[j]]);
+        }
+        return "Calling " + site.callee + " with " + Arrays.toString(args);
+      }
+      case Opcode.RETURN:
+        // Implicit returns from void functions are not printed
+        return a >= 0 ? "ReturnInst: " + f.format(a, slots[base + a]) : null;
+      default:
+        return null;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package crux.ir.engine;
+
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.Variable;
+
+/**
+ * A {@link Function} decoded into a flat instruction array. Every instruction is a fixed size
+ * record of {@link #STRIDE} ints in {@link #code}; a program counter is the index of the first int
+ * of a record. Variables are replaced by dense slot indices (the arguments occupy the first slots) and
+ * both successors of an instruction are resolved to program counters. All values are held as
+ * {@code long}s, booleans are encoded as 0 and 1.
+ * <p>
+ * Record layout: {@code [OP, DST, A, B, NEXT, ALT]}, see {@link Opcode} for the meaning of the
+ * operands. Unused operands are -1.
+ */
+final class DecodedFunction {
+  static final int OP = 0;
+  static final int DST = 1;
+  static final int A = 2;
+  static final int B = 3;
+  static final int NEXT = 4;
+  static final int ALT = 5;
+  static final int STRIDE = 6;
+
+  final Function function;
+  /** The position of the function in {@link DecodedProgram#functions}. */
+  final int index;
+  final String name;
+  final int numArgs;
+  final int numSlots;
+  final int[] code;
+  /**
+   * {@link #code} with the heads of fusable pairs of records turned into superinstructions, see
+   * {@link Decoder}.
+   */
+  final int[] fusedCode;
+  final long[] constants;
+  final CallSite[] callSites;
+  /** The instruction each record was decoded from, indexed by {@code pc / STRIDE}. */
+  final Instruction[] source;
+  /** The variable held by each slot. */
+  final Variable[] slotVars;
+  /** Whether each slot holds a boolean. */
+  final boolean[] boolSlots;
+  /** Whether the function can return without a value. */
+  final boolean voidReturn;
+  /** The slots traced for each record, see {@link DebugFormat#operands}. */
+  final int[][] traceOperands;
+
+  DecodedFunction(Function function, int index, int numSlots, int[] code, int[] fusedCode,
+      long[] constants, CallSite[] callSites, Instruction[] source, Variable[] slotVars,
+      boolean[] boolSlots, boolean voidReturn) {
+    this.function = function;
+    this.index = index;
+    this.name = function.getName();
+    this.numArgs = function.getArguments().size();
+    this.numSlots = numSlots;
+    this.code = code;
+    this.fusedCode = fusedCode;
+    this.constants = constants;
+    this.callSites = callSites;
+    this.source = source;
+    this.slotVars = slotVars;
+    this.boolSlots = boolSlots;
+    this.voidReturn = voidReturn;
+    traceOperands = new int[size()][];
+    for (int pc = 0; pc < code.length; pc += STRIDE) {
+      traceOperands[pc / STRIDE] = DebugFormat.operands(this, pc);
+    }
+  }
+
+  int size() {
+    return code.length / STRIDE;
+  }
+
+  boolean isBool(int slot) {
+    return boolSlots[slot];
+  }
+
+  /**
+   * Formats the value of a slot the way the reference {@link crux.ir.Emulator} prints it.
+   */
+  String format(int slot, long value) {
+    if (isBool(slot))
+      return value != 0 ? "true" : "false";
+    return Long.toString(value);
+  }
+
+  /**
+   * A decoded {@link crux.ir.insts.CallInst}. The decoder links every call site once, either to an
+   * {@link Intrinsic} or to the function it calls, so that engines never look callees up by name.
+   */
+  static final class CallSite {
+    final String callee;
+    final int[] args;
+    final int dst;
+    /** The built-in function called, or {@link Intrinsic#NONE}. */
+    final int intrinsic;
+    /** The function called, or null for intrinsics and undefined functions. */
+    DecodedFunction target;
+    /**
+     * Whether the caller returns the result right away, and the target always returns a value,
+     * so that the call can reuse the frame of the caller.
+     */
+    boolean tail;
+
+    CallSite(String callee, int[] args, int dst, boolean tail) {
+      this.callee = callee;
+      this.args = args;
+      this.dst = dst;
+      this.tail = tail;
+      intrinsic = Intrinsic.of(callee);
+    }
+  }
+}
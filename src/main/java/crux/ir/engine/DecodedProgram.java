@@ -0,0 +1,42 @@
+package crux.ir.engine;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ir.Program;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A {@link Program} whose functions have been decoded by the {@link Decoder}. Decoding happens once
+ * per program, the result can then be executed by any number of {@link SlotEngine} instances.
+ */
+public final class DecodedProgram {
+  final DecodedFunction[] functions;
+  final Map<String, DecodedFunction> functionMap;
+  /** Offset of every global in words, in the same layout as {@link crux.ir.Emulator}. */
+  final Map<Symbol, Integer> globalOffsets;
+  /** Total size of all globals in words. */
+  final long globalWords;
+  /** Compiles the hot functions of the program, for all engines that run it. */
+  final BytecodeCompiler compiler;
+  /** Compiles the hot functions for engines that enforce a {@link Budget}. */
+  final BytecodeCompiler meteredCompiler;
+
+  DecodedProgram(DecodedFunction[] functions, Map<String, DecodedFunction> functionMap,
+      Map<Symbol, Integer> globalOffsets, long globalWords) {
+    this.functions = functions;
+    this.functionMap = Collections.unmodifiableMap(functionMap);
+    this.globalOffsets = Collections.unmodifiableMap(globalOffsets);
+    this.globalWords = globalWords;
+    compiler = new BytecodeCompiler(this, false);
+    meteredCompiler = new BytecodeCompiler(this, true);
+  }
+
+  public static DecodedProgram decode(Program p) {
+    return new Decoder(p).decode();
+  }
+
+  DecodedFunction getFunction(String name) {
+    return functionMap.get(name);
+  }
+}
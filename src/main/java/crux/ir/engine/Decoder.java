@@ -0,0 +1,397 @@
+package crux.ir.engine;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ast.types.BoolType;
+import crux.ast.types.FuncType;
+import crux.ast.types.IntType;
+import crux.ast.types.Type;
+import crux.ir.*;
+import crux.ir.engine.DecodedFunction.CallSite;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+import static crux.ir.engine.DecodedFunction.*;
+
+/**
+ * Decodes the functions of a {@link Program} into {@link DecodedFunction}s.
+ * <p>
+ * The instruction graph is laid out by following the fall-through successor as long as possible,
+ * so that straight line code ends up in consecutive records. Instructions without a successor
+ * continue with a shared return record at the end of the function, which handles the implicit
+ * return of void functions. Edges that jump backwards pass through a {@link Opcode#BACKEDGE} record
+ * of their target, these records follow the return record.
+ */
+final class Decoder {
+  private final Program program;
+  private final Map<Symbol, Integer> globalOffsets = new HashMap<>();
+  private long globalWords = 0;
+
+  Decoder(Program program) {
+    this.program = program;
+    for (Iterator<GlobalDecl> glob_it = program.getGlobals(); glob_it.hasNext();) {
+      GlobalDecl g = glob_it.next();
+      globalOffsets.put(g.getSymbol(), (int) globalWords);
+      globalWords += g.getNumElement().getValue();
+      if (globalWords > Integer.MAX_VALUE)
+        throw new IllegalStateException("globals exceed the addressable memory");
+    }
+  }
+
+  DecodedProgram decode() {
+    List<DecodedFunction> functions = new ArrayList<>();
+    Map<String, DecodedFunction> functionMap = new HashMap<>();
+    for (Iterator<Function> func_it = program.getFunctions(); func_it.hasNext();) {
+      DecodedFunction df = new FunctionDecoder(func_it.next(), functions.size()).decode();
+      functions.add(df);
+      functionMap.put(df.name, df);
+    }
+    for (DecodedFunction df : functions) {
+      for (CallSite site : df.callSites) {
+        if (site.intrinsic == Intrinsic.NONE)
+          site.target = functionMap.get(site.callee);
+        site.tail &= site.target != null && !site.target.voidReturn;
+      }
+    }
+    return new DecodedProgram(functions.toArray(new DecodedFunction[0]), functionMap,
+        globalOffsets, globalWords);
+  }
+
+  private final class FunctionDecoder extends InstVisitor {
+    private final Function f;
+    private final int index;
+    private final Map<Variable, Integer> slots = new HashMap<>();
+    private final List<Variable> slotVars = new ArrayList<>();
+    private final Map<Instruction, Integer> pcMap = new HashMap<>();
+    private final List<Instruction> order = new ArrayList<>();
+    private final Map<Long, Integer> constantMap = new HashMap<>();
+    private final List<Long> constants = new ArrayList<>();
+    private final List<CallSite> callSites = new ArrayList<>();
+    /** Program counters of instructions that produce a boolean. */
+    private final Set<Integer> boolDefs = new HashSet<>();
+    private int[] code;
+    private int pc;
+
+    FunctionDecoder(Function f, int index) {
+      this.f = f;
+      this.index = index;
+    }
+
+    DecodedFunction decode() {
+      for (LocalVar arg : f.getArguments()) {
+        slot(arg);
+      }
+      layout();
+
+      int exitPc = order.size() * STRIDE;
+      code = new int[exitPc + STRIDE];
+      Arrays.fill(code, -1);
+      for (Instruction inst : order) {
+        pc = pcMap.get(inst);
+        inst.accept(this);
+        if (code[pc + OP] == -1)
+          throw new IllegalStateException("cannot decode instruction " + inst.getClass());
+        if (code[pc + OP] != Opcode.RETURN) {
+          code[pc + NEXT] = target(inst.getNext(0), exitPc);
+        }
+        if (code[pc + OP] == Opcode.JUMP) {
+          code[pc + ALT] = target(inst.getNext(1), exitPc);
+        }
+      }
+      code[exitPc + OP] = Opcode.RETURN;
+      boolean voidReturn = false;
+      for (int pc = 0; pc < exitPc; pc += STRIDE) {
+        voidReturn |= code[pc + OP] == Opcode.RETURN ? code[pc + A] < 0
+            : code[pc + NEXT] == exitPc || code[pc + ALT] == exitPc;
+      }
+      insertBackEdges(exitPc);
+
+      Instruction[] source = order.toArray(new Instruction[code.length / STRIDE]);
+      long[] constantValues = new long[constants.size()];
+      for (int i = 0; i < constantValues.length; i++) {
+        constantValues[i] = constants.get(i);
+      }
+      return new DecodedFunction(f, index, slotVars.size(), code, fuse(), constantValues,
+          callSites.toArray(new CallSite[0]), source, slotVars.toArray(new Variable[0]),
+          inferBoolSlots(exitPc), voidReturn);
+    }
+
+    /**
+     * Redirects every edge whose target does not come after its source through a back-edge record
+     * of the target.
+     */
+    private void insertBackEdges(int exitPc) {
+      Map<Integer, Integer> backEdges = new TreeMap<>();
+      for (int pc = 0; pc < exitPc; pc += STRIDE) {
+        for (int edge : new int[] {NEXT, ALT}) {
+          int target = code[pc + edge];
+          if (target >= 0 && target <= pc && !backEdges.containsKey(target))
+            backEdges.put(target, exitPc + (backEdges.size() + 1) * STRIDE);
+        }
+      }
+      if (backEdges.isEmpty())
+        return;
+      int length = code.length;
+      code = Arrays.copyOf(code, length + backEdges.size() * STRIDE);
+      Arrays.fill(code, length, code.length, -1);
+      for (var entry : backEdges.entrySet()) {
+        int pc = entry.getValue();
+        code[pc + OP] = Opcode.BACKEDGE;
+        code[pc + A] = entry.getKey();
+        code[pc + NEXT] = entry.getKey();
+      }
+      for (int pc = 0; pc < exitPc; pc += STRIDE) {
+        for (int edge : new int[] {NEXT, ALT}) {
+          int target = code[pc + edge];
+          if (target >= 0 && target <= pc)
+            code[pc + edge] = backEdges.get(target);
+        }
+      }
+    }
+
+    /**
+     * Returns a copy of the code in which every record that is directly followed by a record
+     * using its result is turned into a superinstruction that executes both: a compare followed
+     * by a jump on it, an address followed by a load or store through it, and a constant followed
+     * by arithmetic on it. Only the opcode of the first record changes, so the second record
+     * still serves the other paths that reach it. Edges through back-edge records are not fused.
+     */
+    private int[] fuse() {
+      int[] fused = code.clone();
+      for (int pc = 0; pc < code.length; pc += STRIDE) {
+        int op = code[pc + OP];
+        int dst = code[pc + DST];
+        int next = code[pc + NEXT];
+        if (dst < 0 || next < 0)
+          continue;
+        int nextOp = code[next + OP];
+        if (op >= Opcode.GE && op <= Opcode.NE) {
+          if (nextOp == Opcode.JUMP && code[next + A] == dst)
+            fused[pc + OP] = Opcode.GE_JUMP + op - Opcode.GE;
+        } else if (op == Opcode.ADDRESS || op == Opcode.ADDRESS_INDEX) {
+          boolean indexed = op == Opcode.ADDRESS_INDEX;
+          if (nextOp == Opcode.LOAD && code[next + A] == dst) {
+            fused[pc + OP] = indexed ? Opcode.ADDRESS_INDEX_LOAD : Opcode.ADDRESS_LOAD;
+          } else if (nextOp == Opcode.STORE && code[next + B] == dst) {
+            fused[pc + OP] = indexed ? Opcode.ADDRESS_INDEX_STORE : Opcode.ADDRESS_STORE;
+          }
+        } else if (op == Opcode.CONST) {
+          if (nextOp >= Opcode.ADD && nextOp <= Opcode.DIV
+              && (code[next + A] == dst || code[next + B] == dst))
+            fused[pc + OP] = Opcode.CONST_ADD + nextOp - Opcode.ADD;
+        }
+      }
+      return fused;
+    }
+
+    /**
+     * Finds the slots that hold booleans. The declared type of a temporary does not always match
+     * the value that is assigned to it, so the kind of value is derived from the instructions that
+     * define the slot instead, following copies until nothing changes.
+     */
+    private boolean[] inferBoolSlots(int exitPc) {
+      boolean[] bool = new boolean[slotVars.size()];
+      boolean[] defined = new boolean[slotVars.size()];
+      for (int arg = 0; arg < f.getArguments().size(); arg++) {
+        defined[arg] = true;
+        bool[arg] = slotVars.get(arg).getType() instanceof BoolType;
+      }
+      boolean changed = true;
+      while (changed) {
+        changed = false;
+        for (int pc = 0; pc < exitPc; pc += STRIDE) {
+          int dst = code[pc + OP] == Opcode.CALL ? callSites.get(code[pc + A]).dst : code[pc + DST];
+          if (dst < 0)
+            continue;
+          defined[dst] = true;
+          boolean isBool = boolDefs.contains(pc)
+              || code[pc + OP] == Opcode.COPY && bool[code[pc + A]];
+          if (isBool && !bool[dst]) {
+            bool[dst] = true;
+            changed = true;
+          }
+        }
+      }
+      for (int slot = 0; slot < bool.length; slot++) {
+        if (!defined[slot])
+          bool[slot] = slotVars.get(slot).getType() instanceof BoolType;
+      }
+      return bool;
+    }
+
+    /**
+     * Orders the instructions so that the fall-through successor directly follows an instruction
+     * whenever it has not been placed already.
+     */
+    private void layout() {
+      Deque<Instruction> pending = new ArrayDeque<>();
+      if (f.getStart() != null)
+        pending.push(f.getStart());
+      while (!pending.isEmpty()) {
+        Instruction inst = pending.pop();
+        while (inst != null && !pcMap.containsKey(inst)) {
+          pcMap.put(inst, order.size() * STRIDE);
+          order.add(inst);
+          if (inst.getNext(1) != null)
+            pending.push(inst.getNext(1));
+          inst = inst.getNext(0);
+        }
+      }
+    }
+
+    private int target(Instruction inst, int exitPc) {
+      return inst == null ? exitPc : pcMap.get(inst);
+    }
+
+    private int slot(Variable v) {
+      if (v == null)
+        return -1;
+      Integer slot = slots.get(v);
+      if (slot == null) {
+        slot = slotVars.size();
+        slots.put(v, slot);
+        slotVars.add(v);
+      }
+      return slot;
+    }
+
+    private int constant(long value) {
+      Integer index = constantMap.get(value);
+      if (index == null) {
+        index = constants.size();
+        constantMap.put(value, index);
+        constants.add(value);
+      }
+      return index;
+    }
+
+    private void emit(int op, int dst, int a, int b) {
+      code[pc + OP] = op;
+      code[pc + DST] = dst;
+      code[pc + A] = a;
+      code[pc + B] = b;
+    }
+
+    private int global(Symbol base) {
+      Integer offset = globalOffsets.get(base);
+      if (offset == null)
+        throw new IllegalStateException(String.format("unknown global '%s'", base.getName()));
+      return offset;
+    }
+
+    public void visit(AddressAt i) {
+      if (i.getOffset() == null) {
+        emit(Opcode.ADDRESS, slot(i.getDst()), global(i.getBase()), -1);
+      } else {
+        emit(Opcode.ADDRESS_INDEX, slot(i.getDst()), global(i.getBase()), slot(i.getOffset()));
+      }
+    }
+
+    public void visit(AddressOffset i) {
+      emit(Opcode.ADDRESS_OFFSET, slot(i.getDst()), slot(i.getBase()), slot(i.getOffset()));
+    }
+
+    public void visit(BinaryOperator i) {
+      int op = Opcode.ADD;
+      switch (i.getOperator()) {
+        case Add:
+          op = Opcode.ADD;
+          break;
+        case Sub:
+          op = Opcode.SUB;
+          break;
+        case Mul:
+          op = Opcode.MUL;
+          break;
+        case Div:
+          op = Opcode.DIV;
+          break;
+      }
+      emit(op, slot(i.getDst()), slot(i.getLeftOperand()), slot(i.getRightOperand()));
+    }
+
+    public void visit(CompareInst i) {
+      int op = Opcode.EQ;
+      switch (i.getPredicate()) {
+        case GE:
+          op = Opcode.GE;
+          break;
+        case GT:
+          op = Opcode.GT;
+          break;
+        case LE:
+          op = Opcode.LE;
+          break;
+        case LT:
+          op = Opcode.LT;
+          break;
+        case EQ:
+          op = Opcode.EQ;
+          break;
+        case NE:
+          op = Opcode.NE;
+          break;
+      }
+      emit(op, slot(i.getDst()), slot(i.getLeftOperand()), slot(i.getRightOperand()));
+      boolDefs.add(pc);
+    }
+
+    public void visit(CopyInst i) {
+      Value src = i.getSrcValue();
+      int dst = slot(i.getDstVar());
+      if (src instanceof IntegerConstant) {
+        emit(Opcode.CONST, dst, constant(((IntegerConstant) src).getValue()), -1);
+      } else if (src instanceof BooleanConstant) {
+        emit(Opcode.CONST, dst, constant(((BooleanConstant) src).getValue() ? 1 : 0), -1);
+        boolDefs.add(pc);
+      } else {
+        emit(Opcode.COPY, dst, slot((Variable) src), -1);
+      }
+    }
+
+    public void visit(JumpInst i) {
+      emit(Opcode.JUMP, -1, slot(i.getPredicate()), -1);
+    }
+
+    public void visit(LoadInst i) {
+      emit(Opcode.LOAD, slot(i.getDst()), slot(i.getSrcAddress()), -1);
+      if (!(i.getSrcAddress().getType() instanceof IntType))
+        boolDefs.add(pc);
+    }
+
+    public void visit(NopInst i) {
+      emit(Opcode.NOP, -1, -1, -1);
+    }
+
+    public void visit(StoreInst i) {
+      emit(Opcode.STORE, -1, slot(i.getSrcValue()), slot(i.getDestAddress()));
+    }
+
+    public void visit(UnaryNotInst i) {
+      emit(Opcode.NOT, slot(i.getDst()), slot(i.getInner()), -1);
+      boolDefs.add(pc);
+    }
+
+    public void visit(CallInst i) {
+      List<LocalVar> params = i.getParams();
+      int[] args = new int[params.size()];
+      for (int j = 0; j < args.length; j++) {
+        args[j] = slot(params.get(j));
+      }
+      callSites.add(new CallSite(i.getCallee().getName(), args, slot(i.getDst()), i.isTailCall()));
+      emit(Opcode.CALL, -1, callSites.size() - 1, -1);
+      Type callee = i.getCallee().getType();
+      if (callee instanceof FuncType && ((FuncType) callee).getRet() instanceof BoolType)
+        boolDefs.add(pc);
+    }
+
+    public void visit(ReturnInst i) {
+      emit(Opcode.RETURN, -1, slot(i.getReturnValue()), -1);
+    }
+
+    public void visit(PhiInst i) {
+      throw new IllegalStateException(
+          String.format("function %s is in SSA form, see SSADestruction", f.getName()));
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package crux.ir.engine;
+
+import crux.ir.Emulator;
+import crux.ir.Program;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The execution engines that can be selected for running the emulator.
+ */
+public enum EngineKind {
+  /**
+   * The visitor based interpreter in {@link Emulator}. It walks the instruction graph directly and
+   * serves as the reference the other engines are checked against.
+   */
+  REFERENCE("reference"),
+  /**
+   * The interpreter in {@link SlotEngine}, which runs functions that were decoded once into flat
+   * instruction arrays with dense variable slots.
+   */
+  SLOT("slot"),
+  /**
+   * The {@link ClosureEngine}, which compiles the decoded functions into graphs of nodes that are
+   * bound to their operands and successors before the program starts.
+   */
+  CLOSURE("closure"),
+  /**
+   * The {@link SlotEngine} with a second tier, which compiles hot functions to JVM bytecode.
+   */
+  JIT("jit");
+
+  private final String name;
+
+  EngineKind(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns whether the engine fills the {@link Profile} of its options.
+   */
+  public boolean supportsProfiling() {
+    return this == SLOT || this == JIT;
+  }
+
+  /**
+   * Returns whether the engine uses the {@link Memoization} of its options.
+   */
+  public boolean supportsMemoization() {
+    return this == SLOT || this == JIT;
+  }
+
+  /**
+   * Returns whether the engine enforces the {@link Budget} of its options.
+   */
+  public boolean supportsBudgets() {
+    return this == SLOT || this == JIT;
+  }
+
+  public ExecutionEngine create(Program p, InputStream in, OutputStream out) {
+    return create(p, in, out, new EngineOptions());
+  }
+
+  public ExecutionEngine create(Program p, InputStream in, OutputStream out,
+      EngineOptions options) {
+    return create(p, this == REFERENCE ? null : DecodedProgram.decode(p), in, out, options);
+  }
+
+  /**
+   * Creates an engine for a program that was decoded before, so that several engines can share
+   * the decoded form.
+   *
+   * @param decoded the decoded form of {@code p}, which is not used by the reference engine and
+   *     may be null for it
+   */
+  public ExecutionEngine create(Program p, DecodedProgram decoded, InputStream in,
+      OutputStream out, EngineOptions options) {
+    switch (this) {
+      case REFERENCE:
+        return new Emulator(p, in, out, options.isDebug());
+      case CLOSURE:
+        return new ClosureEngine(decoded, in, out, options);
+      case JIT:
+        return new SlotEngine(decoded, in, out, options, true);
+      case SLOT:
+      default:
+        return new SlotEngine(decoded, in, out, options, false);
+    }
+  }
+
+  /**
+   * Looks up an engine by the name used on the command line.
+   */
+  public static EngineKind fromName(String name) {
+    for (EngineKind kind : values()) {
+      if (kind.name.equals(name))
+        return kind;
+    }
+    throw new IllegalArgumentException(String.format("unknown emulator engine '%s'", name));
+  }
+}
@@ -0,0 +1,94 @@
+package crux.ir.engine;
+
+/**
+ * Settings of the execution engines that can be changed from the command line.
+ */
+public final class EngineOptions {
+  /** The default number of calls and loop iterations after which a function is compiled. */
+  public static final int DEFAULT_COMPILE_THRESHOLD = 10000;
+  /** The default number of nested calls after which a program fails with a stack overflow. */
+  public static final int DEFAULT_MAX_CALL_DEPTH = 100000;
+
+  private int compileThreshold = DEFAULT_COMPILE_THRESHOLD;
+  private int maxCallDepth = DEFAULT_MAX_CALL_DEPTH;
+  private boolean debug = false;
+  private TraceBuffer trace = null;
+  private Profile profile = null;
+  private Memoization memoization = null;
+  private Budget budget = null;
+
+  public int getCompileThreshold() {
+    return compileThreshold;
+  }
+
+  public void setCompileThreshold(int compileThreshold) {
+    if (compileThreshold < 1)
+      throw new IllegalArgumentException("the compile threshold must be positive");
+    this.compileThreshold = compileThreshold;
+  }
+
+  public int getMaxCallDepth() {
+    return maxCallDepth;
+  }
+
+  public void setMaxCallDepth(int maxCallDepth) {
+    if (maxCallDepth < 1)
+      throw new IllegalArgumentException("the maximum call depth must be positive");
+    this.maxCallDepth = maxCallDepth;
+  }
+
+  /**
+   * Returns whether every executed instruction is printed, as with {@code --debug-emulator}.
+   */
+  public boolean isDebug() {
+    return debug;
+  }
+
+  public void setDebug(boolean debug) {
+    this.debug = debug;
+  }
+
+  /**
+   * Returns the buffer that records the executed instructions, or null if tracing is off.
+   */
+  public TraceBuffer getTrace() {
+    return trace;
+  }
+
+  public void setTrace(TraceBuffer trace) {
+    this.trace = trace;
+  }
+
+  /**
+   * Returns the profile that collects execution counts, or null if profiling is off.
+   */
+  public Profile getProfile() {
+    return profile;
+  }
+
+  public void setProfile(Profile profile) {
+    this.profile = profile;
+  }
+
+  /**
+   * Returns the caches of pure function results, or null if memoization is off.
+   */
+  public Memoization getMemoization() {
+    return memoization;
+  }
+
+  public void setMemoization(Memoization memoization) {
+    this.memoization = memoization;
+  }
+
+  /**
+   * Returns the limits of every run, or null if runs are not limited.
+   */
+  public Budget getBudget() {
+    return budget;
+  }
+
+  public void setBudget(Budget budget) {
+    this.budget = budget;
+  }
+}
@@ -0,0 +1,13 @@
+package crux.ir.engine;
+
+/**
+ * Common interface of the different ways to execute a lowered {@link crux.ir.Program}. An engine
+ * instance is created for a single run of a program: it owns the global memory, the call stack and
+ * the input and output streams of the emulated program.
+ */
+public interface ExecutionEngine {
+  /**
+   * Runs the program, starting at its {@code main} function, until {@code main} returns.
+   */
+  void run();
+}
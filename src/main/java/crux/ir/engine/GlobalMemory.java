@@ -0,0 +1,71 @@
+package crux.ir.engine;
+
+/**
+ * The global memory of an emulated program, addressed in words. Memory is split into pages of
+ * {@link #PAGE_WORDS} words that are only allocated when they are first written, so large arrays
+ * that are used sparsely stay cheap. Every page carries a bitmap of the words that have been
+ * written, which is used to detect reads from uninitialized memory.
+ * <p>
+ * Reading a word of a page that was never written returns 0 without allocating the page. The
+ * directory of pages covers the words of the globals and no more, so a store past them is an
+ * error, however far off it is.
+ */
+final class GlobalMemory {
+  static final int PAGE_BITS = 10;
+  static final int PAGE_WORDS = 1 << PAGE_BITS;
+  private static final int PAGE_MASK = PAGE_WORDS - 1;
+
+  private final long words;
+  private final long[][] pages;
+  private final long[][] written;
+  private int numPages = 0;
+
+  /**
+   * Creates the memory for globals taking up {@code words} words in total, laid out as computed by
+   * the {@link Decoder}.
+   */
+  GlobalMemory(long words) {
+    this.words = words;
+    int directorySize = (int) Math.max(1, (words + PAGE_WORDS - 1) >>> PAGE_BITS);
+    pages = new long[directorySize][];
+    written = new long[directorySize][];
+  }
+
+  long load(long index) {
+    long[] page = page(index);
+    return page == null ? 0 : page[(int) index & PAGE_MASK];
+  }
+
+  boolean isInitialized(long index) {
+    long[] bits = (index >>> PAGE_BITS) < written.length ? written[(int) (index >>> PAGE_BITS)]
+        : null;
+    return bits != null && (bits[((int) index & PAGE_MASK) >>> 6] & (1L << index)) != 0;
+  }
+
+  void store(long index, long value) {
+    if (index < 0 || index >= words)
+      throw new Error("Writing to invalid address " + 8 * index + ".");
+    int pageIndex = (int) (index >>> PAGE_BITS);
+    long[] page = pages[pageIndex];
+    if (page == null) {
+      page = pages[pageIndex] = new long[PAGE_WORDS];
+      written[pageIndex] = new long[PAGE_WORDS / 64];
+      numPages++;
+    }
+    int offset = (int) index & PAGE_MASK;
+    page[offset] = value;
+    written[pageIndex][offset >>> 6] |= 1L << offset;
+  }
+
+  /**
+   * Returns the number of bytes taken up by the pages allocated so far.
+   */
+  long allocatedBytes() {
+    return (long) numPages * (PAGE_WORDS + PAGE_WORDS / 64) * 8;
+  }
+
+  private long[] page(long index) {
+    long pageIndex = index >>> PAGE_BITS;
+    return pageIndex < pages.length ? pages[(int) pageIndex] : null;
+  }
+}
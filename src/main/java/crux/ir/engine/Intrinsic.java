@@ -0,0 +1,42 @@
+package crux.ir.engine;
+
+/**
+ * The built-in functions, which the decoder links to the handlers of the engines instead of a
+ * {@link DecodedFunction}.
+ */
+final class Intrinsic {
+  /** Not a built-in function. */
+  static final int NONE = -1;
+  /** DST = the next line of input as an integer. */
+  static final int READ_INT = 0;
+  /** DST = the next character of input. */
+  static final int READ_CHAR = 1;
+  /** Print the boolean args[0]. */
+  static final int PRINT_BOOL = 2;
+  /** Print the integer args[0]. */
+  static final int PRINT_INT = 3;
+  /** Print the character args[0]. */
+  static final int PRINT_CHAR = 4;
+  /** Print a line break. */
+  static final int PRINTLN = 5;
+
+  private static final String[] NAMES =
+      {"readInt", "readChar", "printBool", "printInt", "printChar", "println"};
+
+  private Intrinsic() {}
+
+  /**
+   * Returns the built-in function called {@code name}, or {@link #NONE}.
+   */
+  static int of(String name) {
+    for (int intrinsic = 0; intrinsic < NAMES.length; intrinsic++) {
+      if (NAMES[intrinsic].equals(name))
+        return intrinsic;
+    }
+    return NONE;
+  }
+
+  static String name(int intrinsic) {
+    return NAMES[intrinsic];
+  }
+}
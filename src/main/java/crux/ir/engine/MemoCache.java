@@ -0,0 +1,142 @@
+package crux.ir.engine;
+
+import java.util.Arrays;
+
+/**
+ * A bounded cache of the results of one pure function, keyed by its arguments. Entries live in
+ * parallel primitive arrays: a chained hash table finds them, and a doubly linked list through
+ * {@link #newer} and {@link #older} orders them by their last use, so that the least recently
+ * used entry is replaced once the cache is full.
+ */
+final class MemoCache {
+  private final int arity;
+  private final int capacity;
+  /** The arguments of every entry, {@link #arity} longs each. */
+  private final long[] keys;
+  private final long[] values;
+  /** The first entry of every bucket, or -1. */
+  private final int[] buckets;
+  /** The next entry in the same bucket, or -1. */
+  private final int[] chain;
+  private final int[] newer;
+  private final int[] older;
+  private int newest = -1;
+  private int oldest = -1;
+  private int size = 0;
+
+  long hits = 0;
+  long misses = 0;
+  long evictions = 0;
+
+  MemoCache(int arity, int capacity) {
+    this.arity = arity;
+    this.capacity = capacity;
+    keys = new long[capacity * arity];
+    values = new long[capacity];
+    buckets = new int[Integer.highestOneBit(Math.max(1, capacity * 2 - 1)) * 2];
+    Arrays.fill(buckets, -1);
+    chain = new int[capacity];
+    newer = new int[capacity];
+    older = new int[capacity];
+  }
+
+  /**
+   * Looks up the arguments in {@code key} starting at {@code offset} and counts a hit or a miss.
+   *
+   * @return the entry holding the result, or -1
+   */
+  int find(long[] key, int offset) {
+    int entry = lookup(key, offset, bucket(key, offset));
+    if (entry < 0) {
+      misses++;
+      return -1;
+    }
+    hits++;
+    unlink(entry);
+    linkNewest(entry);
+    return entry;
+  }
+
+  long value(int entry) {
+    return values[entry];
+  }
+
+  /**
+   * Stores the result for the arguments in {@code key} starting at {@code offset}, replacing the
+   * least recently used entry if the cache is full.
+   */
+  void put(long[] key, int offset, long value) {
+    int bucket = bucket(key, offset);
+    int entry = lookup(key, offset, bucket);
+    if (entry >= 0) {
+      values[entry] = value;
+      return;
+    }
+    if (size < capacity) {
+      entry = size++;
+    } else {
+      entry = oldest;
+      unlink(entry);
+      removeFromBucket(entry);
+      evictions++;
+    }
+    System.arraycopy(key, offset, keys, entry * arity, arity);
+    values[entry] = value;
+    chain[entry] = buckets[bucket];
+    buckets[bucket] = entry;
+    linkNewest(entry);
+  }
+
+  private int lookup(long[] key, int offset, int bucket) {
+    for (int entry = buckets[bucket]; entry >= 0; entry = chain[entry]) {
+      if (Arrays.equals(keys, entry * arity, entry * arity + arity, key, offset, offset + arity))
+        return entry;
+    }
+    return -1;
+  }
+
+  private int bucket(long[] key, int offset) {
+    long hash = arity;
+    for (int j = 0; j < arity; j++) {
+      hash = (hash + key[offset + j]) * 0x9E3779B97F4A7C15L;
+    }
+    return (int) (hash ^ hash >>> 32) & (buckets.length - 1);
+  }
+
+  private void removeFromBucket(int entry) {
+    int bucket = bucket(keys, entry * arity);
+    if (buckets[bucket] == entry) {
+      buckets[bucket] = chain[entry];
+      return;
+    }
+    int previous = buckets[bucket];
+    while (chain[previous] != entry) {
+      previous = chain[previous];
+    }
+    chain[previous] = chain[entry];
+  }
+
+  private void unlink(int entry) {
+    if (newer[entry] >= 0) {
+      older[newer[entry]] = older[entry];
+    } else {
+      newest = older[entry];
+    }
+    if (older[entry] >= 0) {
+      newer[older[entry]] = newer[entry];
+    } else {
+      oldest = newer[entry];
+    }
+  }
+
+  private void linkNewest(int entry) {
+    newer[entry] = -1;
+    older[entry] = newest;
+    if (newest >= 0) {
+      newer[newest] = entry;
+    } else {
+      oldest = entry;
+    }
+    newest = entry;
+  }
+}
@@ -0,0 +1,110 @@
+package crux.ir.engine;
+
+import java.io.PrintStream;
+
+import static crux.ir.engine.DecodedFunction.*;
+
+/**
+ * Caches the results of pure functions for {@code --emulator-memoize}, so that repeated calls with
+ * the same arguments return without running the function again.
+ * <p>
+ * A function is pure if it neither loads nor stores global memory, does not call a built-in
+ * function, which all read input or print, and only calls pure functions. Its result then depends
+ * on nothing but its arguments. Loads are excluded as well, because a store elsewhere can change
+ * what they read between two calls. Functions that can return without a value are not cached.
+ */
+public final class Memoization {
+  /** The default number of results kept per function. */
+  public static final int DEFAULT_CACHE_SIZE = 4096;
+
+  private final int cacheSize;
+  private DecodedProgram program;
+  private boolean[] pure;
+  /** The cache of every memoized function, null for the others. */
+  MemoCache[] caches;
+
+  /**
+   * @param cacheSize the number of results kept per function
+   */
+  public Memoization(int cacheSize) {
+    if (cacheSize < 1)
+      throw new IllegalArgumentException("the memoization cache size must be positive");
+    this.cacheSize = cacheSize;
+  }
+
+  /**
+   * Finds the pure functions of the program an engine is about to run and creates their caches.
+   */
+  void attach(DecodedProgram program) {
+    this.program = program;
+    int n = program.functions.length;
+    pure = new boolean[n];
+    for (DecodedFunction f : program.functions) {
+      pure[f.index] = hasNoEffects(f);
+    }
+    // A function stops being pure once one of its callees is not, until nothing changes
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (DecodedFunction f : program.functions) {
+        if (pure[f.index] && !callsOnlyPure(f)) {
+          pure[f.index] = false;
+          changed = true;
+        }
+      }
+    }
+    caches = new MemoCache[n];
+    for (DecodedFunction f : program.functions) {
+      if (pure[f.index] && !f.voidReturn)
+        caches[f.index] = new MemoCache(f.numArgs, cacheSize);
+    }
+  }
+
+  /**
+   * Returns whether an engine has used the caches, which is not the case if it traced or profiled
+   * the run instead.
+   */
+  public boolean isAttached() {
+    return program != null;
+  }
+
+  private static boolean hasNoEffects(DecodedFunction f) {
+    for (int pc = 0; pc < f.code.length; pc += STRIDE) {
+      int op = f.code[pc + OP];
+      if (op == Opcode.LOAD || op == Opcode.STORE)
+        return false;
+      if (op == Opcode.CALL && f.callSites[f.code[pc + A]].target == null)
+        return false;
+    }
+    return true;
+  }
+
+  private boolean callsOnlyPure(DecodedFunction f) {
+    for (CallSite site : f.callSites) {
+      if (!pure[site.target.index])
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Prints for every function whether it is pure, and the calls, hits and evictions of the cache
+   * of every memoized function.
+   */
+  public void printReport(PrintStream out) {
+    if (!isAttached())
+      throw new IllegalStateException("no engine has run with this memoization");
+    out.printf("%-20s %6s %12s %12s %12s %9s%n", "function", "pure", "calls", "hits",
+        "evictions", "hit rate");
+    for (DecodedFunction f : program.functions) {
+      MemoCache cache = caches[f.index];
+      if (cache == null) {
+        out.printf("%-20s %6s%n", f.name, pure[f.index] ? "yes" : "no");
+        continue;
+      }
+      long calls = cache.hits + cache.misses;
+      out.printf("%-20s %6s %12d %12d %12d %8.1f%%%n", f.name, "yes", calls, cache.hits,
+          cache.evictions, calls == 0 ? 0.0 : 100.0 * cache.hits / calls);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package crux.ir.engine;
+
+/**
+ * Opcodes of the decoded instruction format, see {@link DecodedFunction} for the record layout.
+ */
+final class Opcode {
+  /** No operation, continue with NEXT. */
+  static final int NOP = 0;
+  /** DST = address of global A (in words). */
+  static final int ADDRESS = 1;
+  /** DST = address of global A (in words) plus B elements. */
+  static final int ADDRESS_INDEX = 2;
+  /** DST = A + B. */
+  static final int ADD = 3;
+  /** DST = A - B. */
+  static final int SUB = 4;
+  /** DST = A * B. */
+  static final int MUL = 5;
+  /** DST = A / B. */
+  static final int DIV = 6;
+  /** DST = A >= B. */
+  static final int GE = 7;
+  /** DST = A > B. */
+  static final int GT = 8;
+  /** DST = A <= B. */
+  static final int LE = 9;
+  /** DST = A < B. */
+  static final int LT = 10;
+  /** DST = A == B. */
+  static final int EQ = 11;
+  /** DST = A != B. */
+  static final int NE = 12;
+  /** DST = A. */
+  static final int COPY = 13;
+  /** DST = constants[A]. */
+  static final int CONST = 14;
+  /** DST = !A. */
+  static final int NOT = 15;
+  /** If A continue with ALT, otherwise with NEXT. */
+  static final int JUMP = 16;
+  /** DST = *A. */
+  static final int LOAD = 17;
+  /** *B = A. */
+  static final int STORE = 18;
+  /** Call callSites[A]. */
+  static final int CALL = 19;
+  /** Return A to the caller, or nothing if A is -1. */
+  static final int RETURN = 20;
+  /**
+   * Continue with NEXT, which is the loop header A. The decoder routes every edge that jumps
+   * backwards through one of these records, so that engines can count loop iterations.
+   */
+  static final int BACKEDGE = 21;
+
+  // Superinstructions: the record executes itself and then the record at NEXT, which uses its
+  // result. The record at NEXT stays in place for the other paths that reach it.
+
+  /** DST = A >= B, then the JUMP at NEXT on DST. */
+  static final int GE_JUMP = 22;
+  /** DST = A > B, then the JUMP at NEXT on DST. */
+  static final int GT_JUMP = 23;
+  /** DST = A <= B, then the JUMP at NEXT on DST. */
+  static final int LE_JUMP = 24;
+  /** DST = A < B, then the JUMP at NEXT on DST. */
+  static final int LT_JUMP = 25;
+  /** DST = A == B, then the JUMP at NEXT on DST. */
+  static final int EQ_JUMP = 26;
+  /** DST = A != B, then the JUMP at NEXT on DST. */
+  static final int NE_JUMP = 27;
+  /** ADDRESS, then the LOAD at NEXT from DST. */
+  static final int ADDRESS_LOAD = 28;
+  /** ADDRESS_INDEX, then the LOAD at NEXT from DST. */
+  static final int ADDRESS_INDEX_LOAD = 29;
+  /** ADDRESS, then the STORE at NEXT to DST. */
+  static final int ADDRESS_STORE = 30;
+  /** ADDRESS_INDEX, then the STORE at NEXT to DST. */
+  static final int ADDRESS_INDEX_STORE = 31;
+  /** CONST, then the ADD at NEXT that reads DST. */
+  static final int CONST_ADD = 32;
+  /** CONST, then the SUB at NEXT that reads DST. */
+  static final int CONST_SUB = 33;
+  /** CONST, then the MUL at NEXT that reads DST. */
+  static final int CONST_MUL = 34;
+  /** CONST, then the DIV at NEXT that reads DST. */
+  static final int CONST_DIV = 35;
+
+  /** DST = address A plus B elements. */
+  static final int ADDRESS_OFFSET = 36;
+
+  private static final String[] NAMES = {"nop", "address", "address_index", "add", "sub", "mul",
+      "div", "ge", "gt", "le", "lt", "eq", "ne", "copy", "const", "not", "jump", "load", "store",
+      "call", "return", "backedge", "ge_jump", "gt_jump", "le_jump", "lt_jump", "eq_jump",
+      "ne_jump", "address_load", "address_index_load", "address_store", "address_index_store",
+      "const_add", "const_sub", "const_mul", "const_div", "address_offset"};
+
+  private Opcode() {}
+
+  static String name(int opcode) {
+    return NAMES[opcode];
+  }
+}
@@ -0,0 +1,247 @@
+package crux.ir.engine;
+
+import crux.ir.Instruction;
+import crux.ir.insts.JumpInst;
+import crux.printing.IRValueFormatter;
+
+import java.io.PrintStream;
+import java.util.*;
+
+import static crux.ir.engine.DecodedFunction.*;
+
+/**
+ * Execution counts of a run, collected by the {@link SlotEngine} for {@code --emulator-profile}:
+ * how often every instruction ran, how often every jump was taken, and the calls of every function
+ * together with the instructions executed in it. Instructions are counted per call stack as well,
+ * which yields the collapsed stacks used by flame graphs.
+ * <p>
+ * Exclusive totals count the instructions of a function itself, inclusive totals add the
+ * instructions of everything it called. Recursive calls are only counted once in the inclusive
+ * total of a function.
+ */
+public final class Profile {
+  private DecodedProgram program;
+  /** Executions of every record, per function. */
+  long[][] counts;
+  /** Taken jumps of every record, per function. */
+  long[][] taken;
+  private long[] calls;
+  private long[] inclusive;
+  /** The number of activations of every function on the call stack. */
+  private int[] active;
+  private final Map<Instruction, DecodedFunction> functionOf = new IdentityHashMap<>();
+  private final Map<Instruction, Integer> pcOf = new IdentityHashMap<>();
+
+  private CallTree root;
+  private CallTree current;
+  /** The instruction count at the last call or return. */
+  private long mark;
+  private long[] starts = new long[64];
+  private int depth;
+
+  /**
+   * Prepares the profile for the program an engine is about to run.
+   */
+  void attach(DecodedProgram program) {
+    this.program = program;
+    int n = program.functions.length;
+    counts = new long[n][];
+    taken = new long[n][];
+    calls = new long[n];
+    inclusive = new long[n];
+    active = new int[n];
+    for (DecodedFunction f : program.functions) {
+      counts[f.index] = new long[f.size()];
+      taken[f.index] = new long[f.size()];
+      for (int pc = 0; pc < f.code.length; pc += STRIDE) {
+        Instruction inst = f.source[pc / STRIDE];
+        if (inst != null) {
+          functionOf.put(inst, f);
+          pcOf.put(inst, pc);
+        }
+      }
+    }
+    root = new CallTree(null, -1);
+    current = root;
+  }
+
+  /**
+   * Records a call, {@code count} is the number of instructions executed so far.
+   */
+  void enter(DecodedFunction f, long count) {
+    current.self += count - mark;
+    mark = count;
+    current = current.child(f.index, program.functions.length);
+    calls[f.index]++;
+    active[f.index]++;
+    if (depth == starts.length)
+      starts = Arrays.copyOf(starts, depth * 2);
+    starts[depth++] = count;
+  }
+
+  /**
+   * Records the return of the innermost call.
+   */
+  void leave(long count) {
+    int index = current.function;
+    current.self += count - mark;
+    mark = count;
+    current = current.parent;
+    long start = starts[--depth];
+    if (--active[index] == 0)
+      inclusive[index] += count - start;
+  }
+
+  /**
+   * Closes the calls that are still active when the run ends, for example because of an error.
+   */
+  void finish(long count) {
+    while (current != root) {
+      leave(count);
+    }
+  }
+
+  private void checkAttached() {
+    if (program == null)
+      throw new IllegalStateException("no engine has run with this profile");
+  }
+
+  /**
+   * Returns how often an instruction was executed.
+   */
+  public long getCount(Instruction inst) {
+    checkAttached();
+    DecodedFunction f = functionOf.get(inst);
+    return f == null ? 0 : counts[f.index][pcOf.get(inst) / STRIDE];
+  }
+
+  /**
+   * Returns how often a jump was taken, that is continued with its second successor.
+   */
+  public long getTaken(JumpInst inst) {
+    checkAttached();
+    DecodedFunction f = functionOf.get(inst);
+    return f == null ? 0 : taken[f.index][pcOf.get(inst) / STRIDE];
+  }
+
+  /**
+   * Returns the largest execution count of any instruction.
+   */
+  public long getMaxCount() {
+    checkAttached();
+    long max = 0;
+    for (long[] functionCounts : counts) {
+      for (long count : functionCounts) {
+        max = Math.max(max, count);
+      }
+    }
+    return max;
+  }
+
+  private long exclusive(DecodedFunction f) {
+    long total = 0;
+    for (int pc = 0; pc < f.code.length; pc += STRIDE) {
+      if (f.code[pc + OP] != Opcode.BACKEDGE)
+        total += counts[f.index][pc / STRIDE];
+    }
+    return total;
+  }
+
+  /**
+   * Prints the calls and instruction totals of every function, the hottest instructions and the
+   * ratios of all executed jumps.
+   */
+  public void printReport(PrintStream out) {
+    checkAttached();
+    out.printf("%-20s %12s %16s %16s%n", "function", "calls", "exclusive", "inclusive");
+    for (DecodedFunction f : program.functions) {
+      out.printf("%-20s %12d %16d %16d%n", f.name, calls[f.index], exclusive(f),
+          inclusive[f.index]);
+    }
+
+    List<long[]> hottest = new ArrayList<>();
+    for (DecodedFunction f : program.functions) {
+      for (int pc = 0; pc < f.code.length; pc += STRIDE) {
+        if (f.source[pc / STRIDE] != null && counts[f.index][pc / STRIDE] > 0)
+          hottest.add(new long[] {counts[f.index][pc / STRIDE], f.index, pc});
+      }
+    }
+    hottest.sort((a, b) -> Long.compare(b[0], a[0]));
+    var formatter = new IRValueFormatter();
+    out.println();
+    out.printf("%-20s %6s %16s  %s%n", "function", "pc", "count", "instruction");
+    for (long[] entry : hottest.subList(0, Math.min(20, hottest.size()))) {
+      DecodedFunction f = program.functions[(int) entry[1]];
+      out.printf("%-20s %6d %16d  %s%n", f.name, entry[2] / STRIDE, entry[0],
+          f.source[(int) entry[2] / STRIDE].format(formatter));
+    }
+
+    out.println();
+    out.printf("%-20s %6s %16s %16s %16s %8s%n", "function", "pc", "executed", "taken",
+        "not taken", "taken %");
+    for (DecodedFunction f : program.functions) {
+      for (int pc = 0; pc < f.code.length; pc += STRIDE) {
+        long executed = counts[f.index][pc / STRIDE];
+        if (f.code[pc + OP] != Opcode.JUMP || executed == 0)
+          continue;
+        long jumps = taken[f.index][pc / STRIDE];
+        out.printf("%-20s %6d %16d %16d %16d %7.1f%%%n", f.name, pc / STRIDE, executed, jumps,
+            executed - jumps, 100.0 * jumps / executed);
+      }
+    }
+  }
+
+  /**
+   * Prints the instructions executed in every call stack, one stack per line in the collapsed
+   * format read by flame graph tools: {@code main;f;g 1234}.
+   */
+  public void printCollapsedStacks(PrintStream out) {
+    checkAttached();
+    Deque<CallTree> pending = new ArrayDeque<>();
+    pending.push(root);
+    while (!pending.isEmpty()) {
+      CallTree node = pending.pop();
+      if (node != root && node.self > 0)
+        out.println(node.path(program) + " " + node.self);
+      if (node.children != null) {
+        for (int i = node.children.length - 1; i >= 0; i--) {
+          if (node.children[i] != null)
+            pending.push(node.children[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * A call stack, the instructions executed with it on top are its {@link #self} count.
+   */
+  private static final class CallTree {
+    final CallTree parent;
+    final int function;
+    CallTree[] children;
+    long self;
+
+    CallTree(CallTree parent, int function) {
+      this.parent = parent;
+      this.function = function;
+    }
+
+    CallTree child(int index, int numFunctions) {
+      if (children == null)
+        children = new CallTree[numFunctions];
+      CallTree child = children[index];
+      if (child == null)
+        child = children[index] = new CallTree(this, index);
+      return child;
+    }
+
+    String path(DecodedProgram program) {
+      List<String> names = new ArrayList<>();
+      for (CallTree node = this; node.parent != null; node = node.parent) {
+        names.add(program.functions[node.function].name);
+      }
+      Collections.reverse(names);
+      return String.join(";", names);
+    }
+  }
+}
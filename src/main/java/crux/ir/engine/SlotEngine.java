@@ -0,0 +1,811 @@
+package crux.ir.engine;
+
+import crux.ir.Emulator;
+import crux.ir.engine.DecodedFunction.CallSite;
+
+import java.io.*;
+import java.util.Arrays;
+
+import static crux.ir.engine.DecodedFunction.*;
+
+/**
+ * Interpreter for {@link DecodedProgram}s. Instead of walking the instruction graph and keeping the
+ * values of variables in a map like {@link Emulator}, every function call gets a frame of
+ * {@code long} slots, and the program counter is an index into the decoded instruction array of the
+ * function. Booleans are held as 0 and 1, so neither the arithmetic, compare and memory
+ * instructions nor calls allocate: the slots of all frames are consecutive ranges of one
+ * {@code long[]} stack, and frame records are reused. Calls nested deeper than the maximum call
+ * depth of the {@link EngineOptions} fail with a stack overflow error. Globals live in a
+ * {@link GlobalMemory}. Unless instructions are traced or profiled, the engine runs the
+ * {@link DecodedFunction#fusedCode}, which executes common pairs of records with one dispatch,
+ * and calls whose result the caller returns right away replace the frame of the caller.
+ * <p>
+ * With a compile threshold, the engine counts the calls of every function and the iterations of
+ * its loops. Once the count reaches the threshold, the function is translated to JVM bytecode by
+ * the {@link BytecodeCompiler} and its further calls run the compiled code. When the count is
+ * reached inside a loop, the frame is handed over to the compiled code at the loop header (on-stack
+ * replacement), so that long running loops leave the interpreter as well. Compiled and interpreted
+ * functions call each other through the engine. Nothing is compiled while instructions are
+ * printed with {@code --debug-emulator}, recorded in a {@link TraceBuffer} or counted in a
+ * {@link Profile}.
+ * <p>
+ * With a {@link Budget}, the interpreter compares its instruction count to the next checkpoint
+ * of the budget on back-edges and calls, and compiled code is metered.
+ * <p>
+ * The output of a run, including the output of {@code --debug-emulator}, is the same as the one
+ * of the reference {@link Emulator}.
+ */
+public final class SlotEngine implements ExecutionEngine {
+  private final DecodedProgram program;
+  private final GlobalMemory memory;
+  private final BufferedReader br;
+  private final PrintStream out;
+  private final boolean debug;
+  private final TraceBuffer trace;
+  /** Whether instructions are printed or recorded. */
+  private final boolean tracing;
+  private final Profile profile;
+  private final boolean profiling;
+  /** The caches of pure functions, or null unless memoizing. */
+  private final MemoCache[] memoCaches;
+
+  /** The slots of all active interpreted calls, each frame owns the range from its base. */
+  private long[] stack = new long[1024];
+  /** The first index of {@link #stack} that is not owned by a frame. */
+  private int top = 0;
+  /** The frames of the active interpreted calls, reused by later calls at the same depth. */
+  private Frame[] frames = new Frame[64];
+  private int depth = 0;
+  /** The active calls of compiled code, which count towards the call depth as well. */
+  private int compiledDepth = 0;
+  private final int maxCallDepth;
+  private long instructionCount = 0;
+  private long fusedInstructionCount = 0;
+  /** Whether superinstructions run, which is the case unless every record is traced or counted. */
+  private final boolean fusing;
+  /** Whether tail calls reuse the frame of their caller, under the same condition. */
+  private final boolean tailCalls;
+  /** The limits of the run, or null. */
+  private final Budget budget;
+  private final boolean metered;
+  /** The instruction count at which the budget is checked next. */
+  private long budgetCheck = Budget.UNLIMITED;
+  private long startNanos;
+  /** The records executed by metered compiled code. */
+  private long compiledInstructionCount = 0;
+
+  private final int compileThreshold;
+  /** Calls and loop iterations of every function that is not compiled yet. */
+  private final int[] hotness;
+  private final CompiledCode[] compiled;
+  /** Passes the arguments of calls to compiled code. */
+  final long[] args;
+  /**
+   * Whether the last completed call of a function that can return without a value did so. Only
+   * valid right after such a call.
+   */
+  boolean implicitReturn;
+
+  public SlotEngine(DecodedProgram program, InputStream emulatorInput,
+      OutputStream emulatorOutput) {
+    this(program, emulatorInput, emulatorOutput, new EngineOptions(), false);
+  }
+
+  /**
+   * @param compile whether hot functions are compiled
+   */
+  public SlotEngine(DecodedProgram program, InputStream emulatorInput,
+      OutputStream emulatorOutput, EngineOptions options, boolean compile) {
+    this.program = program;
+    memory = new GlobalMemory(program.globalWords);
+    br = new BufferedReader(new InputStreamReader(emulatorInput));
+    out = new PrintStream(emulatorOutput);
+    debug = options.isDebug();
+    maxCallDepth = options.getMaxCallDepth();
+    trace = options.getTrace();
+    tracing = debug || trace != null;
+    profile = options.getProfile();
+    profiling = profile != null;
+    if (profiling)
+      profile.attach(program);
+    fusing = !tracing && !profiling;
+    tailCalls = fusing;
+    Memoization memoization = options.getMemoization();
+    if (memoization != null && !tracing && !profiling) {
+      memoization.attach(program);
+      memoCaches = memoization.caches;
+    } else {
+      memoCaches = null;
+    }
+    compileThreshold = compile && !tracing && !profiling && memoCaches == null
+        ? options.getCompileThreshold() : 0;
+    budget = options.getBudget();
+    metered = budget != null;
+    hotness = new int[program.functions.length];
+    compiled = new CompiledCode[program.functions.length];
+    int maxArgs = 0;
+    for (DecodedFunction f : program.functions) {
+      maxArgs = Math.max(maxArgs, f.numArgs);
+    }
+    args = new long[maxArgs];
+  }
+
+  /**
+   * The activation record of a call, its slots are {@code f.numSlots} longs of {@link #stack}
+   * starting at {@link #base}.
+   */
+  private static final class Frame {
+    DecodedFunction f;
+    int base;
+    /** The slot in the caller that receives the return value, or -1. */
+    int retSlot;
+    /** The program counter to continue at once the callee of this frame returns. */
+    int pc;
+    /** The cache that receives the result of the call, or null. */
+    MemoCache memo;
+  }
+
+  /**
+   * Returns the number of records interpreted by {@link #run()}. Compiled code is not counted.
+   */
+  public long getInstructionCount() {
+    return instructionCount;
+  }
+
+  /**
+   * Returns the number of the instructions counted by {@link #getInstructionCount()} that ran as
+   * the second half of a superinstruction.
+   */
+  public long getFusedInstructionCount() {
+    return fusedInstructionCount;
+  }
+
+  private int[] codeOf(DecodedFunction f) {
+    return fusing ? f.fusedCode : f.code;
+  }
+
+  @Override
+  public void run() {
+    DecodedFunction main = program.getFunction("main");
+    if (main == null)
+      throw new Error("Program has no main function.");
+    if (metered) {
+      startNanos = System.nanoTime();
+      budgetCheck = budget.check(0, startNanos, 0);
+    }
+    try {
+      if (tierUp(main)) {
+        compiled[main.index].invoke(this, args, -1);
+      } else {
+        if (profiling)
+          profile.enter(main, 0);
+        interpret(pushFrame(main, -1, null));
+      }
+    } catch (StackOverflowError e) {
+      // Compiled code recurses on the Java stack, which can run out before the maximum depth
+      throw stackOverflow();
+    }
+  }
+
+  /**
+   * Interprets the given frame until it returns, including the calls it makes to functions that
+   * are not compiled.
+   *
+   * @return the return value, or 0 if the function returned without a value
+   */
+  private long interpret(Frame entry) {
+    Frame frame = entry;
+    DecodedFunction f = frame.f;
+    int[] code = codeOf(f);
+    long[] slots = stack;
+    int base = frame.base;
+    int pc = 0;
+    long count = 0;
+    long fused = 0;
+
+    try {
+      while (true) {
+        count++;
+        if (profiling)
+          profile.counts[f.index][pc / STRIDE]++;
+        switch (code[pc + OP]) {
+          case Opcode.NOP:
+            if (tracing)
+              trace(f, pc, slots, base);
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.ADDRESS:
+            slots[base + code[pc + DST]] = 8L * code[pc + A];
+            if (tracing)
+              trace(f, pc, slots, base);
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.ADDRESS_INDEX:
+            slots[base + code[pc + DST]] = 8L * (code[pc + A] + slots[base + code[pc + B]]);
+            if (tracing)
+              trace(f, pc, slots, base);
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.ADDRESS_OFFSET:
+            slots[base + code[pc + DST]] =
+                slots[base + code[pc + A]] + 8L * slots[base + code[pc + B]];
+            if (tracing)
+              trace(f, pc, slots, base);
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.ADD:
+            if (tracing)
+              trace(f, pc, slots, base);
+            slots[base + code[pc + DST]] = slots[base + code[pc + A]] + slots[base + code[pc + B]];
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.SUB:
+            if (tracing)
+              trace(f, pc, slots, base);
+            slots[base + code[pc + DST]] = slots[base + code[pc + A]] - slots[base + code[pc + B]];
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.MUL:
+            if (tracing)
+              trace(f, pc, slots, base);
+            slots[base + code[pc + DST]] = slots[base + code[pc + A]] * slots[base + code[pc + B]];
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.DIV:
+            if (tracing)
+              trace(f, pc, slots, base);
+            slots[base + code[pc + DST]] = slots[base + code[pc + A]] / slots[base + code[pc + B]];
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.GE:
+            if (tracing)
+              trace(f, pc, slots, base);
+            slots[base + code[pc + DST]] =
+                slots[base + code[pc + A]] >= slots[base + code[pc + B]] ? 1 : 0;
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.GT:
+            if (tracing)
+              trace(f, pc, slots, base);
+            slots[base + code[pc + DST]] =
+                slots[base + code[pc + A]] > slots[base + code[pc + B]] ? 1 : 0;
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.LE:
+            if (tracing)
+              trace(f, pc, slots, base);
+            slots[base + code[pc + DST]] =
+                slots[base + code[pc + A]] <= slots[base + code[pc + B]] ? 1 : 0;
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.LT:
+            if (tracing)
+              trace(f, pc, slots, base);
+            slots[base + code[pc + DST]] =
+                slots[base + code[pc + A]] < slots[base + code[pc + B]] ? 1 : 0;
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.EQ:
+            if (tracing)
+              trace(f, pc, slots, base);
+            slots[base + code[pc + DST]] =
+                slots[base + code[pc + A]] == slots[base + code[pc + B]] ? 1 : 0;
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.NE:
+            if (tracing)
+              trace(f, pc, slots, base);
+            slots[base + code[pc + DST]] =
+                slots[base + code[pc + A]] != slots[base + code[pc + B]] ? 1 : 0;
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.COPY:
+            slots[base + code[pc + DST]] = slots[base + code[pc + A]];
+            if (tracing)
+              trace(f, pc, slots, base);
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.CONST:
+            slots[base + code[pc + DST]] = f.constants[code[pc + A]];
+            if (tracing)
+              trace(f, pc, slots, base);
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.NOT:
+            slots[base + code[pc + DST]] = slots[base + code[pc + A]] ^ 1;
+            if (tracing)
+              trace(f, pc, slots, base);
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.JUMP:
+            if (tracing)
+              trace(f, pc, slots, base);
+            if (slots[base + code[pc + A]] != 0) {
+              if (profiling)
+                profile.taken[f.index][pc / STRIDE]++;
+              pc = code[pc + ALT];
+            } else {
+              pc = code[pc + NEXT];
+            }
+            break;
+          case Opcode.LOAD:
+            slots[base + code[pc + DST]] = load(slots[base + code[pc + A]]);
+            if (tracing)
+              trace(f, pc, slots, base);
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.STORE:
+            if (tracing)
+              trace(f, pc, slots, base);
+            store(slots[base + code[pc + B]], slots[base + code[pc + A]]);
+            pc = code[pc + NEXT];
+            break;
+          case Opcode.CALL: {
+            CallSite site = f.callSites[code[pc + A]];
+            if (tracing)
+              trace(f, pc, slots, base);
+            pc = code[pc + NEXT];
+            if (metered && instructionCount + compiledInstructionCount + count >= budgetCheck)
+              checkBudget(count);
+
+            if (site.intrinsic != Intrinsic.NONE) {
+              callIntrinsic(site, slots, base);
+            } else {
+              DecodedFunction callee = site.target;
+              if (callee == null)
+                throw undefinedFunction(site.callee);
+              int[] siteArgs = site.args;
+              MemoCache memo = memoCaches != null ? memoCaches[callee.index] : null;
+              if (memo != null) {
+                for (int j = 0; j < callee.numArgs; j++) {
+                  args[j] = slots[base + siteArgs[j]];
+                }
+                int hit = memo.find(args, 0);
+                if (hit >= 0) {
+                  if (site.dst >= 0)
+                    slots[base + site.dst] = memo.value(hit);
+                  break;
+                }
+              }
+              if (tierUp(callee)) {
+                for (int j = 0; j < callee.numArgs; j++) {
+                  args[j] = slots[base + siteArgs[j]];
+                }
+                // Compiled code reads the instruction count of the engine
+                instructionCount += count;
+                count = 0;
+                long value = compiled[callee.index].invoke(this, args, -1);
+                // The compiled code may have grown the stack
+                slots = stack;
+                // An implicit return from a void function leaves the destination untouched
+                if (site.dst >= 0 && !(callee.voidReturn && implicitReturn))
+                  slots[base + site.dst] = value;
+                break;
+              }
+              if (site.tail && tailCalls && frame.memo == null) {
+                // Tail call: the callee takes over the frame of the caller, which returns its
+                // result unchanged
+                for (int j = 0; j < callee.numArgs; j++) {
+                  args[j] = slots[base + siteArgs[j]];
+                }
+                int retSlot = frame.retSlot;
+                popFrame();
+                frame = pushFrame(callee, retSlot, memo);
+                slots = stack;
+                base = frame.base;
+                System.arraycopy(args, 0, slots, base, callee.numArgs);
+                if (memo != null)
+                  System.arraycopy(args, 0, slots, base + callee.numSlots, callee.numArgs);
+                f = callee;
+                code = codeOf(f);
+                pc = 0;
+                break;
+              }
+              if (profiling)
+                profile.enter(callee, count);
+              frame.pc = pc;
+              int callerBase = base;
+              frame = pushFrame(callee, site.dst, memo);
+              slots = stack;
+              base = frame.base;
+              for (int j = 0; j < callee.numArgs; j++) {
+                slots[base + j] = slots[callerBase + siteArgs[j]];
+              }
+              if (memo != null)
+                System.arraycopy(args, 0, slots, base + callee.numSlots, callee.numArgs);
+              f = callee;
+              code = codeOf(f);
+              pc = 0;
+            }
+            break;
+          }
+          case Opcode.RETURN: {
+            int a = code[pc + A];
+            if (tracing)
+              trace(f, pc, slots, base);
+            long value = a >= 0 ? slots[base + a] : 0;
+            if (profiling)
+              profile.leave(count);
+            if (frame.memo != null)
+              frame.memo.put(slots, base + f.numSlots, value);
+            popFrame();
+            if (frame == entry) {
+              implicitReturn = a < 0;
+              return value;
+            }
+            Frame caller = frames[depth - 1];
+            // An implicit return from a void function leaves the destination untouched
+            if (a >= 0 && frame.retSlot >= 0)
+              slots[caller.base + frame.retSlot] = value;
+            frame = caller;
+            f = frame.f;
+            code = codeOf(f);
+            base = frame.base;
+            pc = frame.pc;
+            break;
+          }
+          case Opcode.GE_JUMP: {
+            boolean taken = slots[base + code[pc + A]] >= slots[base + code[pc + B]];
+            slots[base + code[pc + DST]] = taken ? 1 : 0;
+            int jump = code[pc + NEXT];
+            pc = taken ? code[jump + ALT] : code[jump + NEXT];
+            count++;
+            fused++;
+            break;
+          }
+          case Opcode.GT_JUMP: {
+            boolean taken = slots[base + code[pc + A]] > slots[base + code[pc + B]];
+            slots[base + code[pc + DST]] = taken ? 1 : 0;
+            int jump = code[pc + NEXT];
+            pc = taken ? code[jump + ALT] : code[jump + NEXT];
+            count++;
+            fused++;
+            break;
+          }
+          case Opcode.LE_JUMP: {
+            boolean taken = slots[base + code[pc + A]] <= slots[base + code[pc + B]];
+            slots[base + code[pc + DST]] = taken ? 1 : 0;
+            int jump = code[pc + NEXT];
+            pc = taken ? code[jump + ALT] : code[jump + NEXT];
+            count++;
+            fused++;
+            break;
+          }
+          case Opcode.LT_JUMP: {
+            boolean taken = slots[base + code[pc + A]] < slots[base + code[pc + B]];
+            slots[base + code[pc + DST]] = taken ? 1 : 0;
+            int jump = code[pc + NEXT];
+            pc = taken ? code[jump + ALT] : code[jump + NEXT];
+            count++;
+            fused++;
+            break;
+          }
+          case Opcode.EQ_JUMP: {
+            boolean taken = slots[base + code[pc + A]] == slots[base + code[pc + B]];
+            slots[base + code[pc + DST]] = taken ? 1 : 0;
+            int jump = code[pc + NEXT];
+            pc = taken ? code[jump + ALT] : code[jump + NEXT];
+            count++;
+            fused++;
+            break;
+          }
+          case Opcode.NE_JUMP: {
+            boolean taken = slots[base + code[pc + A]] != slots[base + code[pc + B]];
+            slots[base + code[pc + DST]] = taken ? 1 : 0;
+            int jump = code[pc + NEXT];
+            pc = taken ? code[jump + ALT] : code[jump + NEXT];
+            count++;
+            fused++;
+            break;
+          }
+          case Opcode.ADDRESS_LOAD: {
+            long address = 8L * code[pc + A];
+            slots[base + code[pc + DST]] = address;
+            int load = code[pc + NEXT];
+            slots[base + code[load + DST]] = load(address);
+            pc = code[load + NEXT];
+            count++;
+            fused++;
+            break;
+          }
+          case Opcode.ADDRESS_STORE: {
+            long address = 8L * code[pc + A];
+            slots[base + code[pc + DST]] = address;
+            int store = code[pc + NEXT];
+            store(address, slots[base + code[store + A]]);
+            pc = code[store + NEXT];
+            count++;
+            fused++;
+            break;
+          }
+          case Opcode.ADDRESS_INDEX_LOAD: {
+            long address = 8L * (code[pc + A] + slots[base + code[pc + B]]);
+            slots[base + code[pc + DST]] = address;
+            int load = code[pc + NEXT];
+            slots[base + code[load + DST]] = load(address);
+            pc = code[load + NEXT];
+            count++;
+            fused++;
+            break;
+          }
+          case Opcode.ADDRESS_INDEX_STORE: {
+            long address = 8L * (code[pc + A] + slots[base + code[pc + B]]);
+            slots[base + code[pc + DST]] = address;
+            int store = code[pc + NEXT];
+            store(address, slots[base + code[store + A]]);
+            pc = code[store + NEXT];
+            count++;
+            fused++;
+            break;
+          }
+          case Opcode.CONST_ADD: {
+            slots[base + code[pc + DST]] = f.constants[code[pc + A]];
+            int arith = code[pc + NEXT];
+            slots[base + code[arith + DST]] =
+                slots[base + code[arith + A]] + slots[base + code[arith + B]];
+            pc = code[arith + NEXT];
+            count++;
+            fused++;
+            break;
+          }
+          case Opcode.CONST_SUB: {
+            slots[base + code[pc + DST]] = f.constants[code[pc + A]];
+            int arith = code[pc + NEXT];
+            slots[base + code[arith + DST]] =
+                slots[base + code[arith + A]] - slots[base + code[arith + B]];
+            pc = code[arith + NEXT];
+            count++;
+            fused++;
+            break;
+          }
+          case Opcode.CONST_MUL: {
+            slots[base + code[pc + DST]] = f.constants[code[pc + A]];
+            int arith = code[pc + NEXT];
+            slots[base + code[arith + DST]] =
+                slots[base + code[arith + A]] * slots[base + code[arith + B]];
+            pc = code[arith + NEXT];
+            count++;
+            fused++;
+            break;
+          }
+          case Opcode.CONST_DIV: {
+            slots[base + code[pc + DST]] = f.constants[code[pc + A]];
+            int arith = code[pc + NEXT];
+            slots[base + code[arith + DST]] =
+                slots[base + code[arith + A]] / slots[base + code[arith + B]];
+            pc = code[arith + NEXT];
+            count++;
+            fused++;
+            break;
+          }
+          case Opcode.BACKEDGE: {
+            // Back-edge records are not instructions of the program
+            count--;
+            pc = code[pc + A];
+            if (metered && instructionCount + compiledInstructionCount + count >= budgetCheck)
+              checkBudget(count);
+            if (!tierUp(f))
+              break;
+            // On-stack replacement: the compiled code continues the loop and finishes the call
+            instructionCount += count;
+            count = 0;
+            long[] frameSlots = Arrays.copyOfRange(slots, base, base + f.numSlots);
+            popFrame();
+            long value = compiled[f.index].invoke(this, frameSlots, pc);
+            if (frame == entry)
+              return value;
+            slots = stack;
+            Frame caller = frames[depth - 1];
+            if (!(f.voidReturn && implicitReturn) && frame.retSlot >= 0)
+              slots[caller.base + frame.retSlot] = value;
+            frame = caller;
+            f = frame.f;
+            code = codeOf(f);
+            base = frame.base;
+            pc = frame.pc;
+            break;
+          }
+          default:
+            throw new IllegalStateException("unknown opcode " + code[pc + OP]);
+        }
+      }
+    } finally {
+      if (profiling)
+        profile.finish(count);
+      instructionCount += count;
+      fusedInstructionCount += fused;
+    }
+  }
+
+  /**
+   * Counts a call of the function or an iteration of one of its loops, and compiles the function
+   * once it is hot.
+   *
+   * @return whether the function is compiled
+   */
+  private boolean tierUp(DecodedFunction f) {
+    if (compiled[f.index] != null)
+      return true;
+    if (compileThreshold <= 0 || ++hotness[f.index] < compileThreshold)
+      return false;
+    CompiledCode code = (metered ? program.meteredCompiler : program.compiler).compile(f);
+    if (code == null) {
+      // Not worth compiling, stop counting
+      hotness[f.index] = Integer.MIN_VALUE;
+      return false;
+    }
+    compiled[f.index] = code;
+    return true;
+  }
+
+  /**
+   * Checks the budget, with {@code pending} instructions of the running interpreter that are not
+   * part of {@link #instructionCount} yet.
+   */
+  private void checkBudget(long pending) {
+    budgetCheck = budget.check(instructionCount + compiledInstructionCount + pending, startNanos,
+        memory.allocatedBytes());
+  }
+
+  /**
+   * Counts the records executed by metered compiled code since its last back-edge, call or
+   * return.
+   */
+  void retire(int records) {
+    compiledInstructionCount += records;
+    if (instructionCount + compiledInstructionCount >= budgetCheck)
+      checkBudget(0);
+  }
+
+  /**
+   * Calls a function from compiled code, with the arguments in {@link #args}.
+   */
+  long call(int index) {
+    DecodedFunction callee = program.functions[index];
+    if (tierUp(callee))
+      return compiled[index].invoke(this, args, -1);
+    Frame frame = pushFrame(callee, -1, null);
+    System.arraycopy(args, 0, stack, frame.base, callee.numArgs);
+    return interpret(frame);
+  }
+
+  long load(long address) {
+    long index = address >> 3;
+    if (!memory.isInitialized(index))
+      out.println("Reading from uninitialized memory");
+    return memory.load(index);
+  }
+
+  void store(long address, long value) {
+    memory.store(address >> 3, value);
+  }
+
+  Error undefinedFunction(String name) {
+    return new Error("Calling undefined function " + name + ".");
+  }
+
+  /**
+   * Pushes a frame for a call of {@code f} and clears its slots, except for the arguments. The
+   * frame of a memoized call gets room for a copy of the arguments after its slots, which keys
+   * the result once the call returns.
+   */
+  private Frame pushFrame(DecodedFunction f, int retSlot, MemoCache memo) {
+    if (depth + compiledDepth >= maxCallDepth)
+      throw stackOverflow();
+    if (depth == frames.length)
+      frames = Arrays.copyOf(frames, depth * 2);
+    Frame frame = frames[depth];
+    if (frame == null)
+      frame = frames[depth] = new Frame();
+    depth++;
+    frame.f = f;
+    frame.retSlot = retSlot;
+    frame.memo = memo;
+    frame.base = top;
+    top += memo != null ? f.numSlots + f.numArgs : f.numSlots;
+    if (top > stack.length)
+      stack = Arrays.copyOf(stack, Math.max(top, stack.length * 2));
+    Arrays.fill(stack, frame.base + f.numArgs, frame.base + f.numSlots, 0);
+    return frame;
+  }
+
+  private void popFrame() {
+    top = frames[--depth].base;
+  }
+
+  /**
+   * Counts a call of compiled code, which recurses on the Java stack instead of pushing a frame.
+   */
+  void enterCompiled() {
+    if (depth + compiledDepth >= maxCallDepth)
+      throw stackOverflow();
+    compiledDepth++;
+  }
+
+  void leaveCompiled() {
+    compiledDepth--;
+  }
+
+  private Error stackOverflow() {
+    return new Error("Stack overflow: more than " + maxCallDepth + " nested calls.");
+  }
+
+  /**
+   * Executes a call of one of the built-in functions.
+   */
+  private void callIntrinsic(CallSite site, long[] slots, int base) {
+    switch (site.intrinsic) {
+      case Intrinsic.READ_INT: {
+        long val = readInt();
+        if (site.dst >= 0)
+          slots[base + site.dst] = val;
+        break;
+      }
+      case Intrinsic.READ_CHAR: {
+        long val = readChar();
+        if (site.dst >= 0)
+          slots[base + site.dst] = val;
+        break;
+      }
+      case Intrinsic.PRINT_BOOL:
+        printBool(slots[base + site.args[0]]);
+        break;
+      case Intrinsic.PRINT_INT:
+        printInt(slots[base + site.args[0]]);
+        break;
+      case Intrinsic.PRINT_CHAR:
+        printChar(slots[base + site.args[0]]);
+        break;
+      case Intrinsic.PRINTLN:
+      default:
+        println();
+        break;
+    }
+  }
+
+  long readInt() {
+    try {
+      out.print("int?");
+      return Long.parseLong(br.readLine());
+    } catch (IOException e) {
+      throw new Error("Error in inputting Integer.");
+    }
+  }
+
+  long readChar() {
+    try {
+      int val = br.read();
+      if (val == -1)
+        throw new Error("Reading past end of stream.");
+      return val;
+    } catch (IOException e) {
+      throw new Error("Error in inputting Integer.");
+    }
+  }
+
+  void printBool(long value) {
+    out.print(value != 0);
+  }
+
+  void printInt(long value) {
+    out.print(value);
+  }
+
+  void printChar(long value) {
+    out.print((char) value);
+  }
+
+  void println() {
+    out.println("");
+  }
+
+  private void trace(DecodedFunction f, int pc, long[] slots, int base) {
+    if (debug) {
+      String msg = DebugFormat.message(f, pc, slots, base);
+      if (msg != null)
+        out.println(msg);
+    }
+    if (trace != null)
+      trace.record(f, pc, slots, base);
+  }
+}
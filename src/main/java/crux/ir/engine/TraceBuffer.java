@@ -0,0 +1,152 @@
+package crux.ir.engine;
+
+import java.io.*;
+import java.util.Arrays;
+
+import static crux.ir.engine.DecodedFunction.STRIDE;
+
+/**
+ * Records the instructions executed by an engine as compact binary events in a ring buffer. Once
+ * the buffer is full, the oldest events are overwritten. An event holds the executed instruction,
+ * a timestamp and the values its {@code --debug-emulator} message shows, so that
+ * {@link #render} can print the same messages after the run.
+ * <p>
+ * Events are made of records of {@value #RECORD} longs: the first record holds the function index
+ * and program counter, the time in nanoseconds and up to two values. Further values go into
+ * continuation records of three values each.
+ */
+public final class TraceBuffer {
+  /** The default capacity in records. */
+  public static final int DEFAULT_CAPACITY = 1 << 18;
+
+  private static final int RECORD = 4;
+  private static final long CONTINUATION = -1;
+  private static final int MAGIC = 0x43525854;
+
+  private final long[] ring;
+  /** The number of records written so far. */
+  private long written = 0;
+
+  /**
+   * @param capacity the number of records to keep
+   */
+  public TraceBuffer(int capacity) {
+    if (capacity < 1)
+      throw new IllegalArgumentException("the trace capacity must be positive");
+    ring = new long[capacity * RECORD];
+  }
+
+  /**
+   * Records the execution of the instruction at {@code pc}, if it has a debug message. The slots
+   * of the frame start at {@code base}.
+   */
+  void record(DecodedFunction f, int pc, long[] slots, int base) {
+    int[] operands = f.traceOperands[pc / STRIDE];
+    if (operands == null)
+      return;
+    int at = next();
+    ring[at] = (long) f.index << 32 | pc;
+    ring[at + 1] = System.nanoTime();
+    int j = 0;
+    for (int field = 2; field < RECORD && j < operands.length; field++) {
+      ring[at + field] = slots[base + operands[j++]];
+    }
+    while (j < operands.length) {
+      at = next();
+      ring[at] = CONTINUATION;
+      for (int field = 1; field < RECORD && j < operands.length; field++) {
+        ring[at + field] = slots[base + operands[j++]];
+      }
+    }
+  }
+
+  private int next() {
+    int at = (int) (written % (ring.length / RECORD)) * RECORD;
+    written++;
+    return at;
+  }
+
+  /**
+   * Returns the number of records that were overwritten because the buffer was full.
+   */
+  public long getDroppedRecords() {
+    return Math.max(0, written - ring.length / RECORD);
+  }
+
+  /**
+   * Writes the recorded events, oldest first, together with a fingerprint of the program.
+   */
+  public void write(DecodedProgram program, OutputStream os) throws IOException {
+    var out = new DataOutputStream(new BufferedOutputStream(os));
+    int capacity = ring.length / RECORD;
+    long first = Math.max(0, written - capacity);
+    out.writeInt(MAGIC);
+    out.writeInt(fingerprint(program));
+    out.writeLong(written - first);
+    for (long record = first; record < written; record++) {
+      int at = (int) (record % capacity) * RECORD;
+      for (int field = 0; field < RECORD; field++) {
+        out.writeLong(ring[at + field]);
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Prints the {@code --debug-emulator} messages of a trace written by {@link #write}. Events that
+   * were partly overwritten are skipped.
+   */
+  public static void render(DecodedProgram program, InputStream is, PrintStream out)
+      throws IOException {
+    var in = new DataInputStream(new BufferedInputStream(is));
+    if (in.readInt() != MAGIC)
+      throw new IOException("not a Crux emulator trace");
+    if (in.readInt() != fingerprint(program))
+      throw new IOException("the trace was recorded for a different program");
+    long records = in.readLong();
+    long[] record = new long[RECORD];
+    long[][] scratch = new long[program.functions.length][];
+    long read = 0;
+    while (read < records) {
+      readRecord(in, record);
+      read++;
+      if (record[0] == CONTINUATION)
+        continue;
+      DecodedFunction f = program.functions[(int) (record[0] >>> 32)];
+      int pc = (int) record[0];
+      int[] operands = f.traceOperands[pc / STRIDE];
+      long[] slots = scratch[f.index];
+      if (slots == null)
+        slots = scratch[f.index] = new long[f.numSlots];
+      int j = 0;
+      for (int field = 2; field < RECORD && j < operands.length; field++) {
+        slots[operands[j++]] = record[field];
+      }
+      while (j < operands.length && read < records) {
+        readRecord(in, record);
+        read++;
+        for (int field = 1; field < RECORD && j < operands.length; field++) {
+          slots[operands[j++]] = record[field];
+        }
+      }
+      if (j < operands.length)
+        break;
+      out.println(DebugFormat.message(f, pc, slots));
+    }
+  }
+
+  private static void readRecord(DataInputStream in, long[] record) throws IOException {
+    for (int field = 0; field < RECORD; field++) {
+      record[field] = in.readLong();
+    }
+  }
+
+  private static int fingerprint(DecodedProgram program) {
+    int hash = program.functions.length;
+    for (DecodedFunction f : program.functions) {
+      hash = 31 * hash + f.name.hashCode();
+      hash = 31 * hash + Arrays.hashCode(f.code);
+    }
+    return hash;
+  }
+}
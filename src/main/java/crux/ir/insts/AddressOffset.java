@@ -0,0 +1,48 @@
+package crux.ir.insts;
+
+import crux.ir.AddressVar;
+import crux.ir.Instruction;
+import crux.ir.LocalVar;
+import crux.ir.Value;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Calculates the address a number of elements after another address, so that a loop can step
+ * through an array without computing every address from the base of the global.
+ * <p>
+ * Operation (pseudo-code): {@code destVar = base + offset}
+ */
+public final class AddressOffset extends Instruction implements java.io.Serializable {
+  static final long serialVersionUID = 12022L;
+
+  public AddressOffset(AddressVar destVar, AddressVar base, LocalVar offset) {
+    super(destVar, List.of(base, offset));
+  }
+
+  public AddressVar getBase() {
+    return (AddressVar) mOperands.get(0);
+  }
+
+  public LocalVar getOffset() {
+    return (LocalVar) mOperands.get(1);
+  }
+
+  public AddressVar getDst() {
+    return (AddressVar) mDestVar;
+  }
+
+  @Override
+  public void accept(InstVisitor v) {
+    v.visit(this);
+  }
+
+  @Override
+  public String format(Function<Value, String> valueFormatter) {
+    var dest = valueFormatter.apply(mDestVar);
+    var base = valueFormatter.apply(getBase());
+    var offset = valueFormatter.apply(getOffset());
+    return String.format("%s = addressOffset %s, %s", dest, base, offset);
+  }
+}
@@ -59,6 +59,16 @@ public final class CallInst extends Instruction implements java.io.Serializable
     return (LocalVar) mDestVar;
   }
 
+  /**
+   * Returns whether the call is directly followed by a return of its result, so that the callee
+   * can take over the frame of the caller.
+   */
+  public boolean isTailCall() {
+    Instruction next = getNext(0);
+    return mDestVar != null && next instanceof ReturnInst
+        && ((ReturnInst) next).getReturnValue() == mDestVar;
+  }
+
   @Override
   public void accept(InstVisitor v) {
     v.visit(this);
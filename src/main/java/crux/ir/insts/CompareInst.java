@@ -3,12 +3,14 @@ package crux.ir.insts;
 import crux.ir.Instruction;
 import crux.ir.Value;
 import crux.ir.LocalVar;
+import crux.ir.Variable;
 
 import java.util.List;
 import java.util.function.Function;
 
 /**
- * Compares two values with each other. The result of the operation is a boolean.
+ * Compares two values with each other, which are either both integers or both addresses. The
+ * result of the operation is a boolean.
  * <p>
  * Operation (pseudo-code): {@code destVar = compare(predicate, lhs, rhs)}
  */
@@ -21,7 +23,7 @@ public final class CompareInst extends Instruction implements java.io.Serializab
 
   private Predicate mPredicate;
 
-  public CompareInst(LocalVar destVar, Predicate predicate, LocalVar lhs, LocalVar rhs) {
+  public CompareInst(LocalVar destVar, Predicate predicate, Variable lhs, Variable rhs) {
     super(destVar, List.of(lhs, rhs));
     mPredicate = predicate;
   }
@@ -30,12 +32,12 @@ public final class CompareInst extends Instruction implements java.io.Serializab
     return mPredicate;
   }
 
-  public LocalVar getLeftOperand() {
-    return (LocalVar) mOperands.get(0);
+  public Variable getLeftOperand() {
+    return (Variable) mOperands.get(0);
   }
 
-  public LocalVar getRightOperand() {
-    return (LocalVar) mOperands.get(1);
+  public Variable getRightOperand() {
+    return (Variable) mOperands.get(1);
   }
 
   public LocalVar getDst() {
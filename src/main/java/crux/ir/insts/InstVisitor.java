@@ -3,6 +3,8 @@ package crux.ir.insts;
 public abstract class InstVisitor {
   public void visit(AddressAt i) {}
 
+  public void visit(AddressOffset i) {}
+
   public void visit(BinaryOperator i) {}
 
   public void visit(CompareInst i) {}
@@ -22,4 +24,6 @@ public abstract class InstVisitor {
   public void visit(CallInst i) {}
 
   public void visit(ReturnInst i) {}
+
+  public void visit(PhiInst i) {}
 }
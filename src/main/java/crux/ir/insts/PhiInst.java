@@ -0,0 +1,99 @@
+package crux.ir.insts;
+
+import crux.ir.Instruction;
+import crux.ir.LocalVar;
+import crux.ir.Value;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Selects one of its values depending on the instruction control came from, which is how a program
+ * in SSA form merges the definitions of a variable that reach a join point. The phis of a join
+ * point form a chain in front of the first instruction after the join, and all of them select by
+ * the instruction that entered the chain. They read their values at the same time, so a phi may
+ * read a variable written by another phi of the same chain and still see the value from before
+ * the join.
+ * <p>
+ * Operation (pseudo-code): {@code destVar = values[predecessors.indexOf(cameFrom)]}
+ */
+public final class PhiInst extends Instruction implements java.io.Serializable {
+  static final long serialVersionUID = 12022L;
+  private final List<Instruction> mPredecessors;
+
+  /**
+   * @param predecessors the instructions that jump to the chain of the phi
+   * @param values the value selected for each predecessor
+   */
+  public PhiInst(LocalVar destVar, List<Instruction> predecessors, List<LocalVar> values) {
+    super(destVar, List.copyOf(values));
+    if (predecessors.size() != values.size())
+      throw new IllegalArgumentException("a phi needs one value per predecessor");
+    mPredecessors = new ArrayList<>(predecessors);
+  }
+
+  public LocalVar getDst() {
+    return (LocalVar) mDestVar;
+  }
+
+  public List<Instruction> getPredecessors() {
+    return Collections.unmodifiableList(mPredecessors);
+  }
+
+  public LocalVar getValue(int i) {
+    return (LocalVar) mOperands.get(i);
+  }
+
+  /**
+   * Returns the value selected when control comes from {@code predecessor}.
+   */
+  public LocalVar getValueFor(Instruction predecessor) {
+    int i = mPredecessors.indexOf(predecessor);
+    if (i < 0)
+      throw new IllegalArgumentException("not a predecessor of the phi: " + predecessor);
+    return getValue(i);
+  }
+
+  /**
+   * Replaces a predecessor, after an instruction was inserted on the edge it comes from.
+   */
+  public void setPredecessor(int i, Instruction predecessor) {
+    mPredecessors.set(i, predecessor);
+  }
+
+  /**
+   * Adds a predecessor and the value selected for it, after an edge to the chain was added.
+   */
+  public void addPredecessor(Instruction predecessor, LocalVar value) {
+    mPredecessors.add(predecessor);
+    var operands = new ArrayList<>(mOperands);
+    operands.add(value);
+    mOperands = List.copyOf(operands);
+  }
+
+  /**
+   * Removes a predecessor and its value, after the edge it comes from was removed.
+   */
+  public void removePredecessor(int i) {
+    mPredecessors.remove(i);
+    var operands = new ArrayList<>(mOperands);
+    operands.remove(i);
+    mOperands = List.copyOf(operands);
+  }
+
+  @Override
+  public void accept(InstVisitor v) {
+    v.visit(this);
+  }
+
+  @Override
+  public String format(Function<Value, String> valueFormatter) {
+    var values = new ArrayList<String>();
+    for (Value value : mOperands) {
+      values.add(valueFormatter.apply(value));
+    }
+    return String.format("%s = phi(%s)", valueFormatter.apply(mDestVar), String.join(", ", values));
+  }
+}
@@ -0,0 +1,232 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.AnalysisCache.Analysis;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * The expressions of a function that are available at the start and end of every block, that is
+ * computed on every path to the block with none of their operands written since. An expression is
+ * an arithmetic operator, a comparison, a negation or an address with its operands, and is only the
+ * same as another one with the same operator and operands in the same order. Loads and calls read
+ * memory and are not expressions, so stores and calls do not kill any.
+ * <p>
+ * An expression that reads a variable that is not a global name, like a temporary, is always
+ * computed after that variable is written in its block, so it is never available at the start of a
+ * block that computes it. Only the other expressions are numbered. Every global name keeps a bitset
+ * of the expressions that read it, so a block that writes it kills them in one pass over the
+ * words.
+ */
+public final class AvailableExpressions extends Dataflow {
+  public static final Analysis<AvailableExpressions> ANALYSIS =
+      (function, cache) -> new AvailableExpressions(function);
+
+  /** The numbered expression every instruction of every block computes, or -1. */
+  private final int[][] expressions;
+  /** The expressions that read every global name, or null if there are none. */
+  private final long[][] readers;
+  /** The expressions available at the end of every block, and the global names it writes. */
+  private final int[][] gens;
+  private final int[][] writes;
+
+  /** The numbering of the expressions of a function. */
+  private static final class Numbering {
+    final int[][] expressions;
+    /** The global names every expression reads. */
+    final List<int[]> operands = new ArrayList<>();
+    /** The expressions that read every global name. */
+    final IntList[] readers;
+    int numExpressions = 0;
+
+    Numbering(Function function, GlobalNames names) {
+      var cfg = function.getControlFlowGraph();
+      Map<List<Object>, Integer> number = new HashMap<>();
+      readers = new IntList[names.size()];
+      expressions = new int[cfg.numBlocks()][];
+      var read = new IntList();
+      for (BasicBlock block : cfg.getBlocks()) {
+        int[] computed = new int[block.size()];
+        for (int i = 0; i < block.size(); i++) {
+          Instruction inst = block.get(i);
+          computed[i] = -1;
+          List<Object> key = key(inst);
+          if (key == null || !readGlobalNames(inst, names, read))
+            continue;
+          computed[i] = number.computeIfAbsent(key, k -> add(read));
+        }
+        expressions[block.getId()] = computed;
+      }
+    }
+
+    /**
+     * Collects the global names an instruction reads, and returns false if it reads another
+     * variable.
+     */
+    private static boolean readGlobalNames(Instruction inst, GlobalNames names, IntList read) {
+      read.clear();
+      for (Value operand : inst.getOperands()) {
+        if (!(operand instanceof Variable))
+          continue;
+        int v = names.numberOf((Variable) operand);
+        if (v < 0)
+          return false;
+        // Both operands may be the same variable
+        if (read.size() == 0 || read.get(0) != v)
+          read.add(v);
+      }
+      return true;
+    }
+
+    private int add(IntList read) {
+      int e = numExpressions++;
+      operands.add(read.toArray());
+      for (int j = 0; j < read.size(); j++) {
+        int v = read.get(j);
+        if (readers[v] == null)
+          readers[v] = new IntList();
+        readers[v].add(e);
+      }
+      return e;
+    }
+  }
+
+  public AvailableExpressions(Function function) {
+    this(function, new GlobalNames(function));
+  }
+
+  private AvailableExpressions(Function function, GlobalNames names) {
+    this(function.getControlFlowGraph(), names, new Numbering(function, names));
+  }
+
+  private AvailableExpressions(ControlFlowGraph cfg, GlobalNames names, Numbering numbering) {
+    super(cfg, Direction.FORWARD, Meet.INTERSECTION, numbering.numExpressions);
+    expressions = numbering.expressions;
+    readers = new long[names.size()][];
+    for (int v = 0; v < names.size(); v++) {
+      IntList read = numbering.readers[v];
+      if (read == null)
+        continue;
+      readers[v] = new long[(numbering.numExpressions + 63) >>> 6];
+      for (int j = 0; j < read.size(); j++) {
+        set(readers[v], read.get(j));
+      }
+    }
+    gens = new int[cfg.numBlocks()][];
+    writes = new int[cfg.numBlocks()][];
+    // The block, plus one, that writes every global name after the current instruction
+    int[] writtenLater = new int[names.size()];
+    var blockGens = new IntList();
+    var blockWrites = new IntList();
+    for (BasicBlock block : cfg.getBlocks()) {
+      int stamp = block.getId() + 1;
+      // Walk backwards, so an expression is generated unless an operand is written after it
+      for (int i = block.size() - 1; i >= 0; i--) {
+        Variable dst = block.get(i).getDestVar();
+        int v = dst == null ? -1 : names.numberOf(dst);
+        if (v >= 0 && writtenLater[v] != stamp) {
+          writtenLater[v] = stamp;
+          if (readers[v] != null)
+            blockWrites.add(v);
+        }
+        int e = expressions[block.getId()][i];
+        if (e >= 0 && !writtenAny(numbering.operands.get(e), writtenLater, stamp))
+          blockGens.add(e);
+      }
+      gens[block.getId()] = blockGens.toArray();
+      writes[block.getId()] = blockWrites.toArray();
+      blockGens.clear();
+      blockWrites.clear();
+    }
+    solve();
+  }
+
+  private static boolean writtenAny(int[] read, int[] written, int stamp) {
+    for (int v : read) {
+      if (written[v] == stamp)
+        return true;
+    }
+    return false;
+  }
+
+  private static List<Object> key(Instruction inst) {
+    if (inst instanceof BinaryOperator) {
+      var op = (BinaryOperator) inst;
+      return List.of(op.getOperator(), op.getLeftOperand(), op.getRightOperand());
+    }
+    if (inst instanceof CompareInst) {
+      var cmp = (CompareInst) inst;
+      return List.of(cmp.getPredicate(), cmp.getLeftOperand(), cmp.getRightOperand());
+    }
+    if (inst instanceof UnaryNotInst)
+      return List.of(UnaryNotInst.class, ((UnaryNotInst) inst).getInner());
+    if (inst instanceof AddressAt) {
+      var addressAt = (AddressAt) inst;
+      return addressAt.getOffset() == null ? List.of(AddressAt.class, addressAt.getBase())
+          : List.of(AddressAt.class, addressAt.getBase(), addressAt.getOffset());
+    }
+    return null;
+  }
+
+  @Override
+  protected void transfer(BasicBlock block, long[] facts, long[] result) {
+    System.arraycopy(facts, 0, result, 0, facts.length);
+    for (int v : writes[block.getId()]) {
+      long[] killed = readers[v];
+      for (int w = 0; w < killed.length; w++) {
+        result[w] &= ~killed[w];
+      }
+    }
+    for (int e : gens[block.getId()]) {
+      set(result, e);
+    }
+  }
+
+  public int numExpressions() {
+    return getNumBits();
+  }
+
+  /**
+   * Returns the numbered expression an instruction computes, or -1.
+   */
+  private int expressionOf(Instruction inst) {
+    BasicBlock block = cfg.getBlock(inst);
+    return block == null ? -1 : expressions[block.getId()][cfg.getIndexInBlock(inst)];
+  }
+
+  /**
+   * Returns whether the expression an instruction computes is available at the start of a block.
+   */
+  public boolean isAvailableIn(BasicBlock block, Instruction inst) {
+    int e = expressionOf(inst);
+    return e >= 0 && isSetIn(block, e);
+  }
+
+  /**
+   * Returns whether the expression an instruction computes is available at the end of a block.
+   */
+  public boolean isAvailableOut(BasicBlock block, Instruction inst) {
+    int e = expressionOf(inst);
+    return e >= 0 && isSetOut(block, e);
+  }
+
+  /**
+   * Returns whether the expression an instruction computes is already available right before it,
+   * so the instruction computes it again. Scans the block back to its start.
+   */
+  public boolean isAvailable(Instruction inst) {
+    List<Object> key = key(inst);
+    BasicBlock block = cfg.getBlock(inst);
+    if (key == null || block == null)
+      return false;
+    for (int i = cfg.getIndexInBlock(inst) - 1; i >= 0; i--) {
+      Instruction prev = block.get(i);
+      if (prev.getDestVar() != null && inst.getOperands().contains(prev.getDestVar()))
+        return false;
+      if (key.equals(key(prev)))
+        return true;
+    }
+    return isSetIn(block, expressionOf(inst));
+  }
+}
@@ -0,0 +1,319 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Sparse conditional constant propagation, as described by Wegman and Zadeck, on a function in
+ * SSA form. Starting from the entry, only the edges that can be taken are followed: a jump whose
+ * predicate is a known constant enables one of its edges, and phis only merge the values that
+ * arrive along enabled edges. Every variable starts out unknown and is lowered to a constant or to
+ * overdefined as the instructions defining it are reached, so constants flow through copies,
+ * arithmetic, comparisons and loops.
+ * <p>
+ * Afterwards every variable known to be constant is defined by a copy of the constant, and every
+ * jump with a constant predicate becomes a nop to the edge it takes, which cuts off the whole
+ * region that only the other edge reaches. The copies whose variables are no longer read are left
+ * for dead code elimination.
+ */
+public final class ConstantPropagation {
+  /** The value of a variable that is not a single constant. Unknown variables are not mapped. */
+  private static final Object OVERDEFINED = new Object();
+
+  private final Program program;
+  private final Function function;
+  private final InstructionGraph graph;
+  private final Map<LocalVar, Object> values = new IdentityHashMap<>();
+  private final Set<LocalVar> defined = Collections.newSetFromMap(new IdentityHashMap<>());
+  private final Map<LocalVar, List<Integer>> users = new IdentityHashMap<>();
+  private final boolean[] executable;
+  private final boolean[][] edgeExecutable;
+  /** The first phi of the chain of every phi. */
+  private final int[] chainHead;
+  private final Deque<Integer> edgeWorklist = new ArrayDeque<>();
+  private final Deque<Integer> useWorklist = new ArrayDeque<>();
+
+  private ConstantPropagation(Program program, Function function) {
+    this.program = program;
+    this.function = function;
+    graph = new InstructionGraph(function);
+    int n = graph.nodes.size();
+    executable = new boolean[n];
+    edgeExecutable = new boolean[n][];
+    chainHead = new int[n];
+    for (int node = 0; node < n; node++) {
+      Instruction inst = graph.nodes.get(node);
+      edgeExecutable[node] = new boolean[graph.successors[node].length];
+      if (inst.getDestVar() instanceof LocalVar)
+        defined.add((LocalVar) inst.getDestVar());
+      for (Value operand : inst.getOperands()) {
+        if (operand instanceof LocalVar)
+          users.computeIfAbsent((LocalVar) operand, v -> new ArrayList<>()).add(node);
+      }
+      if (inst instanceof PhiInst)
+        continue;
+      for (int succ : graph.successors[node]) {
+        for (int phi = succ; graph.nodes.get(phi) instanceof PhiInst;
+            phi = graph.successors[phi][0]) {
+          chainHead[phi] = succ;
+        }
+      }
+    }
+  }
+
+  /**
+   * Propagates the constants of every function of the program, which must be in SSA form.
+   */
+  public static void run(Program program) {
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      run(program, it.next());
+    }
+  }
+
+  /**
+   * Propagates the constants of a function in SSA form.
+   *
+   * @return the number of branches folded and variables replaced by a constant
+   */
+  public static int run(Program program, Function function) {
+    if (function.getStart() == null)
+      return 0;
+    var propagation = new ConstantPropagation(program, function);
+    propagation.analyze();
+    return propagation.rewrite();
+  }
+
+  private void analyze() {
+    executable[0] = true;
+    visit(0);
+    while (!edgeWorklist.isEmpty() || !useWorklist.isEmpty()) {
+      if (!edgeWorklist.isEmpty()) {
+        int edge = edgeWorklist.pop();
+        int node = edge >>> 1;
+        int k = edge & 1;
+        if (edgeExecutable[node][k])
+          continue;
+        edgeExecutable[node][k] = true;
+        int succ = graph.successors[node][k];
+        if (!executable[succ]) {
+          executable[succ] = true;
+          visit(succ);
+        } else if (graph.nodes.get(succ) instanceof PhiInst) {
+          // Another edge into the chain, which may change the values of all of its phis
+          for (int phi = succ; graph.nodes.get(phi) instanceof PhiInst;
+              phi = graph.successors[phi][0]) {
+            visit(phi);
+          }
+        }
+      } else {
+        int node = useWorklist.pop();
+        if (executable[node])
+          visit(node);
+      }
+    }
+  }
+
+  private void visit(int node) {
+    Instruction inst = graph.nodes.get(node);
+    if (inst instanceof JumpInst) {
+      Object predicate = valueOf(((JumpInst) inst).getPredicate());
+      if (predicate instanceof Boolean) {
+        enableEdge(node, (Boolean) predicate ? 1 : 0);
+      } else if (predicate == OVERDEFINED) {
+        enableEdge(node, 0);
+        enableEdge(node, 1);
+      }
+      return;
+    }
+    if (inst.getDestVar() instanceof LocalVar) {
+      var dst = (LocalVar) inst.getDestVar();
+      Object value = inst instanceof PhiInst ? evaluatePhi(node, (PhiInst) inst) : evaluate(inst);
+      Object old = values.get(dst);
+      value = meet(old, value);
+      if (value != null && !value.equals(old)) {
+        values.put(dst, value);
+        for (int user : users.getOrDefault(dst, List.of())) {
+          useWorklist.push(user);
+        }
+      }
+    }
+    for (int k = 0; k < graph.successors[node].length; k++) {
+      enableEdge(node, k);
+    }
+  }
+
+  private void enableEdge(int node, int k) {
+    if (!edgeExecutable[node][k])
+      edgeWorklist.push(node << 1 | k);
+  }
+
+  private static Object meet(Object a, Object b) {
+    if (a == null)
+      return b;
+    if (b == null || a.equals(b))
+      return a;
+    return OVERDEFINED;
+  }
+
+  /**
+   * Returns the constant value of a value, null if it is not known yet or {@link #OVERDEFINED}.
+   */
+  private Object valueOf(Value value) {
+    if (value instanceof IntegerConstant)
+      return ((IntegerConstant) value).getValue();
+    if (value instanceof BooleanConstant)
+      return ((BooleanConstant) value).getValue();
+    if (value instanceof LocalVar && defined.contains(value))
+      return values.get(value);
+    // Arguments, and variables no instruction writes
+    return OVERDEFINED;
+  }
+
+  /**
+   * Merges the values the phi selects for the predecessors whose edges into its chain can be
+   * taken.
+   */
+  private Object evaluatePhi(int node, PhiInst phi) {
+    Object result = null;
+    List<Instruction> preds = phi.getPredecessors();
+    for (int i = 0; i < preds.size(); i++) {
+      if (isEdgeExecutable(preds.get(i), chainHead[node]))
+        result = meet(result, valueOf(phi.getValue(i)));
+    }
+    return result;
+  }
+
+  private boolean isEdgeExecutable(Instruction pred, int target) {
+    Integer from = graph.index.get(pred);
+    if (from == null)
+      return false;
+    for (int k = 0; k < graph.successors[from].length; k++) {
+      if (graph.successors[from][k] == target && edgeExecutable[from][k])
+        return true;
+    }
+    return false;
+  }
+
+  private Object evaluate(Instruction inst) {
+    if (inst instanceof CopyInst)
+      return valueOf(((CopyInst) inst).getSrcValue());
+    if (inst instanceof UnaryNotInst) {
+      Object inner = valueOf(((UnaryNotInst) inst).getInner());
+      return inner instanceof Boolean ? (Object) !(Boolean) inner : inner;
+    }
+    if (inst instanceof BinaryOperator || inst instanceof CompareInst) {
+      Object lhs = valueOf(inst.getOperands().get(0));
+      Object rhs = valueOf(inst.getOperands().get(1));
+      if (lhs == OVERDEFINED || rhs == OVERDEFINED)
+        return OVERDEFINED;
+      if (lhs == null || rhs == null)
+        return null;
+      Object result = fold(inst, lhs, rhs);
+      return result != null ? result : OVERDEFINED;
+    }
+    // Loads, calls and addresses
+    return OVERDEFINED;
+  }
+
+  /**
+   * Folds a binary operator or a comparison over constant operands the way the emulator
+   * evaluates it. Returns null for a division that traps, which is left to run.
+   */
+  static Object fold(Instruction inst, Object lhs, Object rhs) {
+    if (inst instanceof CompareInst) {
+      var predicate = ((CompareInst) inst).getPredicate();
+      switch (predicate) {
+        case EQ:
+          return lhs.equals(rhs);
+        case NE:
+          return !lhs.equals(rhs);
+        default:
+          break;
+      }
+      long l = (Long) lhs;
+      long r = (Long) rhs;
+      switch (predicate) {
+        case GE:
+          return l >= r;
+        case GT:
+          return l > r;
+        case LE:
+          return l <= r;
+        case LT:
+          return l < r;
+        default:
+          throw new Error("unknown predicate " + predicate);
+      }
+    }
+    long l = (Long) lhs;
+    long r = (Long) rhs;
+    switch (((BinaryOperator) inst).getOperator()) {
+      case Add:
+        return l + r;
+      case Sub:
+        return l - r;
+      case Mul:
+        return l * r;
+      case Div:
+        if (r == 0 || l == Long.MIN_VALUE && r == -1)
+          return null;
+        return l / r;
+      default:
+        throw new Error("unknown operator " + ((BinaryOperator) inst).getOperator());
+    }
+  }
+
+  private Value constant(Object value) {
+    if (value instanceof Boolean)
+      return BooleanConstant.get(program, (Boolean) value);
+    return IntegerConstant.get(program, (Long) value);
+  }
+
+  private int rewrite() {
+    int folded = 0;
+    var editor = new GraphEditor(function);
+    // Phis no longer select by the edges that are never taken
+    for (int node = 0; node < graph.nodes.size(); node++) {
+      if (!executable[node] || !(graph.nodes.get(node) instanceof PhiInst))
+        continue;
+      var phi = (PhiInst) graph.nodes.get(node);
+      for (int i = phi.getPredecessors().size() - 1; i >= 0; i--) {
+        if (!isEdgeExecutable(phi.getPredecessors().get(i), chainHead[node]))
+          phi.removePredecessor(i);
+      }
+    }
+    for (int node = 0; node < graph.nodes.size(); node++) {
+      if (!executable[node])
+        continue;
+      Instruction inst = graph.nodes.get(node);
+      if (inst instanceof JumpInst) {
+        Object predicate = valueOf(((JumpInst) inst).getPredicate());
+        if (predicate instanceof Boolean) {
+          editor.replaceBranch(inst, (Boolean) predicate ? 1 : 0);
+          folded++;
+        }
+        continue;
+      }
+      if (!(inst.getDestVar() instanceof LocalVar))
+        continue;
+      var dst = (LocalVar) inst.getDestVar();
+      Object value = values.get(dst);
+      if (value == null || value == OVERDEFINED)
+        continue;
+      if (inst instanceof CopyInst && ((CopyInst) inst).getSrcValue() instanceof Constant)
+        continue;
+      var copy = new CopyInst(dst, constant(value));
+      if (inst instanceof PhiInst) {
+        Instruction join = GraphEditor.afterPhis(inst);
+        editor.removePhi((PhiInst) inst);
+        editor.insertBefore(join, copy);
+      } else {
+        editor.replace(inst, copy);
+      }
+      folded++;
+    }
+    return folded;
+  }
+}
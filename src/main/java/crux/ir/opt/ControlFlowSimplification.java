@@ -0,0 +1,135 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Cleans up the control flow of a function, in and out of SSA form. Lowering leaves a nop at every
+ * declaration, list of statements, join of an if and exit of a loop, which costs a dispatch in the
+ * engines and often a label and a jump in the generated code.
+ * <ul>
+ * <li>Nops are taken out of the graph, so the edges to a nop lead to its successor. Blocks are not
+ * stored but found from the edges, so straight line code that was split by a nop becomes one
+ * block.</li>
+ * <li>A branch whose successors are the same instruction becomes a nop that is then taken out as
+ * well.</li>
+ * <li>An edge that leads to a branch on a predicate that is known on the edge goes straight on to
+ * the successor the branch takes (jump threading). The predicate is known after a copy of a
+ * constant to it, which is how lowering ends the arms of {@code &&} and {@code ||}, and after an
+ * edge of another branch on the same predicate.</li>
+ * </ul>
+ * A worklist runs the rules to a fixpoint. Every rule removes an instruction from the graph or
+ * moves an edge past a branch, and only the predecessors of the changed instruction are looked at
+ * again, so the pass takes time linear in the size of the function.
+ */
+public final class ControlFlowSimplification {
+  private final GraphEditor editor;
+  private final Deque<Instruction> worklist = new ArrayDeque<>();
+  private final Set<Instruction> onWorklist = Collections.newSetFromMap(new IdentityHashMap<>());
+  private int simplified;
+
+  private ControlFlowSimplification(Function function) {
+    editor = new GraphEditor(function);
+  }
+
+  /**
+   * Simplifies the control flow of every function of the program.
+   *
+   * @return the number of instructions removed and edges threaded in every function, by name
+   */
+  public static Map<String, Integer> run(Program program) {
+    Map<String, Integer> simplified = new LinkedHashMap<>();
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      simplified.put(function.getName(), run(function));
+    }
+    return simplified;
+  }
+
+  /**
+   * Simplifies the control flow of a function.
+   *
+   * @return the number of instructions removed and edges threaded
+   */
+  public static int run(Function function) {
+    if (function.getStart() == null)
+      return 0;
+    var simplification = new ControlFlowSimplification(function);
+    for (BasicBlock block : function.getControlFlowGraph().getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        simplification.push(inst);
+      }
+    }
+    simplification.simplify();
+    return simplification.simplified;
+  }
+
+  private void push(Instruction inst) {
+    if (onWorklist.add(inst))
+      worklist.add(inst);
+  }
+
+  private void pushPredecessors(Instruction inst) {
+    for (Instruction pred : editor.getPredecessors(inst)) {
+      push(pred);
+    }
+  }
+
+  private void simplify() {
+    while (!worklist.isEmpty()) {
+      Instruction inst = worklist.poll();
+      onWorklist.remove(inst);
+      if (inst instanceof NopInst) {
+        if (editor.canBypass(inst)) {
+          Instruction next = inst.getNext(0);
+          List<Instruction> preds = new ArrayList<>(editor.getPredecessors(inst));
+          editor.bypass(inst);
+          // A branch may now lead straight to another one
+          for (Instruction pred : preds) {
+            push(pred);
+          }
+          push(next);
+          simplified++;
+        }
+      } else if (inst instanceof JumpInst && inst.getNext(0) != null && inst.getNext(1) != null) {
+        simplifyBranch((JumpInst) inst);
+      } else if (inst instanceof CopyInst
+          && ((CopyInst) inst).getSrcValue() instanceof BooleanConstant) {
+        var copy = (CopyInst) inst;
+        thread(copy, 0, copy.getDstVar(),
+            ((BooleanConstant) copy.getSrcValue()).getValue());
+      }
+    }
+  }
+
+  private void simplifyBranch(JumpInst branch) {
+    if (branch.getNext(0) == branch.getNext(1)) {
+      editor.replaceBranch(branch, 0);
+      pushPredecessors(branch.getNext(0));
+      simplified++;
+      return;
+    }
+    for (int k = 0; k < 2; k++) {
+      if (branch.getNext(k) != branch)
+        thread(branch, k, branch.getPredicate(), k == 1);
+    }
+  }
+
+  /**
+   * Points edge {@code k} of {@code pred} past the branch it leads to, if the branch tests
+   * {@code predicate}, which has the value {@code value} on the edge.
+   */
+  private void thread(Instruction pred, int k, LocalVar predicate, boolean value) {
+    Instruction target = pred.getNext(k);
+    if (!(target instanceof JumpInst) || ((JumpInst) target).getPredicate() != predicate)
+      return;
+    Instruction through = target.getNext(value ? 1 : 0);
+    if (through == null || through instanceof PhiInst)
+      return;
+    editor.redirectEdge(pred, k, through);
+    push(pred);
+    simplified++;
+  }
+}
@@ -0,0 +1,322 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.insts.PhiInst;
+
+import java.util.*;
+
+/**
+ * A dataflow problem over the basic blocks of a function, whose facts are sets of densely numbered
+ * items stored as bitsets in arrays of longs. A problem flows forward or backward, and joins the
+ * facts of several edges by union, for facts that hold on some path, or by intersection, for facts
+ * that hold on every path. A subclass numbers its items, gives the transfer function of a block,
+ * usually by killing and generating a few items, and calls {@link #solve()}.
+ * <p>
+ * The solver is a worklist algorithm. It sweeps over the blocks in reverse postorder, or in
+ * postorder for a backward problem, and visits the blocks whose input may have changed since their
+ * last visit. Most blocks are visited after the blocks they get their input from, so acyclic code
+ * takes one sweep and a loop nest about one more sweep per level.
+ * <p>
+ * Only the facts at the end of every block are kept, or at its start for a backward problem. The
+ * facts at the other side are joined again from the neighbours when they are asked for, and the
+ * facts at an instruction are found by applying the instructions of its block.
+ */
+public abstract class Dataflow {
+  public enum Direction {
+    FORWARD, BACKWARD;
+  }
+
+  public enum Meet {
+    UNION, INTERSECTION;
+  }
+
+  protected final ControlFlowGraph cfg;
+  private final Direction direction;
+  private final Meet meet;
+  private final int numBits;
+  private final int numWords;
+  /** The facts at the side of every block the transfer function computes. */
+  private final long[][] results;
+  private long[] boundary;
+  private boolean edgeTransfer;
+  private long numVisits = 0;
+
+  protected Dataflow(ControlFlowGraph cfg, Direction direction, Meet meet, int numBits) {
+    this.cfg = cfg;
+    this.direction = direction;
+    this.meet = meet;
+    this.numBits = numBits;
+    numWords = (numBits + 63) >>> 6;
+    results = new long[cfg.numBlocks()][numWords];
+    if (meet == Meet.INTERSECTION && numWords > 0) {
+      // Every item holds on every path until a visit shows otherwise
+      for (long[] facts : results) {
+        Arrays.fill(facts, -1L);
+        facts[numWords - 1] = -1L >>> -numBits;
+      }
+    }
+  }
+
+  /**
+   * Computes the facts at the other side of a block from the facts at its start for a forward
+   * problem, or at its end for a backward one. Every word of {@code result} must be written.
+   */
+  protected abstract void transfer(BasicBlock block, long[] facts, long[] result);
+
+  /**
+   * Sets the facts at the start of the entry of a forward problem, or at the end of the blocks
+   * without successors of a backward one. There are none by default.
+   */
+  protected void boundary(long[] facts) {}
+
+  /**
+   * Returns whether {@link #transferEdge} changes the facts on some edge.
+   */
+  protected boolean hasEdgeTransfer() {
+    return false;
+  }
+
+  /**
+   * Changes the facts that flow along the edge from {@code pred} to {@code succ} in place. They
+   * are the facts at the end of {@code pred} for a forward problem, and at the start of
+   * {@code succ} for a backward one.
+   */
+  protected void transferEdge(BasicBlock pred, BasicBlock succ, long[] facts) {}
+
+  /**
+   * Solves the problem, once the subclass is ready to transfer the facts of its blocks.
+   */
+  protected final void solve() {
+    int n = cfg.numBlocks();
+    boolean forward = direction == Direction.FORWARD;
+    boolean[] pending = new boolean[n];
+    Arrays.fill(pending, true);
+    int numPending = n;
+    boundary = new long[numWords];
+    boundary(boundary);
+    edgeTransfer = hasEdgeTransfer();
+    long[] edge = edgeTransfer ? new long[numWords] : null;
+    long[] facts = new long[numWords];
+    long[] result = new long[numWords];
+    while (numPending > 0) {
+      for (int i = 0; i < n; i++) {
+        int id = forward ? i : n - 1 - i;
+        if (!pending[id])
+          continue;
+        pending[id] = false;
+        numPending--;
+        numVisits++;
+        BasicBlock block = cfg.getBlock(id);
+        join(block, facts, edge);
+        transfer(block, facts, result);
+        long[] old = results[id];
+        if (Arrays.equals(result, old))
+          continue;
+        // The old facts are the buffer for the next transfer
+        results[id] = result;
+        result = old;
+        int m = forward ? block.numSuccessors() : block.numPredecessors();
+        for (int k = 0; k < m; k++) {
+          int next = (forward ? block.getSuccessor(k) : block.getPredecessor(k)).getId();
+          if (!pending[next]) {
+            pending[next] = true;
+            numPending++;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Joins the facts flowing into a block into {@code facts}. {@code edge} is a buffer for the
+   * facts on an edge if they are changed there, or null.
+   */
+  private void join(BasicBlock block, long[] facts, long[] edge) {
+    boolean forward = direction == Direction.FORWARD;
+    int m = forward ? block.numPredecessors() : block.numSuccessors();
+    boolean first = true;
+    if (forward ? block.getId() == 0 : m == 0) {
+      System.arraycopy(boundary, 0, facts, 0, numWords);
+      first = false;
+    }
+    for (int k = 0; k < m; k++) {
+      BasicBlock other = forward ? block.getPredecessor(k) : block.getSuccessor(k);
+      long[] flowing = results[other.getId()];
+      if (edge != null) {
+        System.arraycopy(flowing, 0, edge, 0, numWords);
+        if (forward)
+          transferEdge(other, block, edge);
+        else
+          transferEdge(block, other, edge);
+        flowing = edge;
+      }
+      if (first) {
+        System.arraycopy(flowing, 0, facts, 0, numWords);
+        first = false;
+      } else if (meet == Meet.UNION) {
+        for (int w = 0; w < numWords; w++) {
+          facts[w] |= flowing[w];
+        }
+      } else {
+        for (int w = 0; w < numWords; w++) {
+          facts[w] &= flowing[w];
+        }
+      }
+    }
+  }
+
+  public int getNumBits() {
+    return numBits;
+  }
+
+  /**
+   * Returns the number of times blocks were visited until the facts no longer changed.
+   */
+  public long getNumVisits() {
+    return numVisits;
+  }
+
+  /**
+   * Returns the facts at the start of a block, in a new array.
+   */
+  public long[] getIn(BasicBlock block) {
+    return direction == Direction.FORWARD ? joined(block) : stored(block);
+  }
+
+  /**
+   * Returns the facts at the end of a block, in a new array.
+   */
+  public long[] getOut(BasicBlock block) {
+    return direction == Direction.FORWARD ? stored(block) : joined(block);
+  }
+
+  private long[] stored(BasicBlock block) {
+    return results[block.getId()].clone();
+  }
+
+  private long[] joined(BasicBlock block) {
+    long[] facts = new long[numWords];
+    join(block, facts, edgeTransfer ? new long[numWords] : null);
+    return facts;
+  }
+
+  protected boolean isSetIn(BasicBlock block, int bit) {
+    return isSet(direction == Direction.FORWARD ? joined(block) : results[block.getId()], bit);
+  }
+
+  protected boolean isSetOut(BasicBlock block, int bit) {
+    return isSet(direction == Direction.FORWARD ? results[block.getId()] : joined(block), bit);
+  }
+
+  public static boolean isSet(long[] bits, int bit) {
+    return (bits[bit >>> 6] & 1L << bit) != 0;
+  }
+
+  public static void set(long[] bits, int bit) {
+    bits[bit >>> 6] |= 1L << bit;
+  }
+
+  public static void clear(long[] bits, int bit) {
+    bits[bit >>> 6] &= ~(1L << bit);
+  }
+
+  /**
+   * Clears the bits from {@code from} up to, but not including, {@code to}.
+   */
+  public static void clearRange(long[] bits, int from, int to) {
+    if (from >= to)
+      return;
+    int first = from >>> 6;
+    int last = (to - 1) >>> 6;
+    long firstMask = -1L << from;
+    long lastMask = -1L >>> -to;
+    if (first == last) {
+      bits[first] &= ~(firstMask & lastMask);
+      return;
+    }
+    bits[first] &= ~firstMask;
+    for (int w = first + 1; w < last; w++) {
+      bits[w] = 0;
+    }
+    bits[last] &= ~lastMask;
+  }
+
+  /** A growable list of ints, to collect the items of a block without boxing. */
+  protected static final class IntList {
+    private int[] values = new int[16];
+    private int size = 0;
+
+    public void add(int value) {
+      if (size == values.length)
+        values = Arrays.copyOf(values, size * 2);
+      values[size++] = value;
+    }
+
+    public int get(int i) {
+      return values[i];
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public void clear() {
+      size = 0;
+    }
+
+    public int[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+  }
+
+  /**
+   * The variables of a function that are read in some block before they are written there, or
+   * read by a phi, numbered densely. Only they can carry a value from one block to the next; the
+   * others are written before every read in their block, like the temporaries of an expression,
+   * and need no bits at the block boundaries.
+   */
+  protected static final class GlobalNames {
+    /** The number of every variable of the function, or -1. */
+    private final int[] numbers;
+    private final List<Variable> variables = new ArrayList<>();
+
+    public GlobalNames(Function function) {
+      numbers = new int[function.getNumVariables()];
+      Arrays.fill(numbers, -1);
+      // The block, plus one, that last wrote every variable
+      int[] written = new int[numbers.length];
+      for (BasicBlock block : function.getControlFlowGraph().getBlocks()) {
+        int stamp = block.getId() + 1;
+        for (int i = 0; i < block.size(); i++) {
+          Instruction inst = block.get(i);
+          for (Value operand : inst.getOperands()) {
+            if (!(operand instanceof Variable))
+              continue;
+            int v = ((Variable) operand).getIndex();
+            if ((inst instanceof PhiInst || written[v] != stamp) && numbers[v] < 0) {
+              numbers[v] = variables.size();
+              variables.add((Variable) operand);
+            }
+          }
+          if (inst.getDestVar() != null)
+            written[inst.getDestVar().getIndex()] = stamp;
+        }
+      }
+    }
+
+    /**
+     * Returns the number of a variable, or -1 if it is not a global name.
+     */
+    public int numberOf(Variable var) {
+      return numbers[var.getIndex()];
+    }
+
+    public Variable get(int number) {
+      return variables.get(number);
+    }
+
+    public int size() {
+      return variables.size();
+    }
+  }
+}
@@ -0,0 +1,284 @@
+package crux.ir.opt;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ir.*;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Removes the instructions of a function that cannot affect what it does. The pass works on
+ * functions in and out of SSA form:
+ * <ul>
+ * <li>A store to a global is dead if a later store in the same block writes the same element with
+ * no load of the global or call in between.</li>
+ * <li>An instruction is dead if it has no side effect and the variable it writes is not live
+ * after it. Liveness is strong liveness: a variable is only live if a live instruction reads it,
+ * so chains and cycles of instructions that only feed each other are removed as a whole.</li>
+ * <li>Phis no longer select by instructions that lost their edge to the chain, for example after
+ * a branch was folded and left the code behind it unreachable, and nops are skipped over.</li>
+ * </ul>
+ * Divisions are kept even when their result is unused, since a division by zero traps.
+ */
+public final class DeadCodeElimination {
+  private final Function function;
+  private final GraphEditor editor;
+  private final Map<Variable, Integer> varIndex = new IdentityHashMap<>();
+  private int removed;
+
+  private DeadCodeElimination(Function function) {
+    this.function = function;
+    editor = new GraphEditor(function);
+  }
+
+  /**
+   * Removes the dead code of every function of the program.
+   *
+   * @return the number of instructions removed from every function, by name
+   */
+  public static Map<String, Integer> run(Program program) {
+    Map<String, Integer> removed = new LinkedHashMap<>();
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      removed.put(function.getName(), run(function));
+    }
+    return removed;
+  }
+
+  /**
+   * Removes the dead code of a function.
+   *
+   * @return the number of instructions removed
+   */
+  public static int run(Function function) {
+    if (function.getStart() == null)
+      return 0;
+    var elimination = new DeadCodeElimination(function);
+    elimination.removeStalePhiPredecessors();
+    elimination.removeDeadStores();
+    elimination.removeDeadInstructions();
+    elimination.removeNops();
+    return elimination.removed;
+  }
+
+  private void removeStalePhiPredecessors() {
+    for (BasicBlock block : function.getControlFlowGraph().getBlocks()) {
+      Instruction head = null;
+      for (Instruction inst : block.getInstructions()) {
+        if (!(inst instanceof PhiInst)) {
+          head = null;
+          continue;
+        }
+        if (head == null)
+          head = inst;
+        var phi = (PhiInst) inst;
+        List<Instruction> preds = editor.getPredecessors(head);
+        for (int i = phi.getPredecessors().size() - 1; i >= 0; i--) {
+          if (!preds.contains(phi.getPredecessors().get(i)))
+            phi.removePredecessor(i);
+        }
+      }
+    }
+  }
+
+  /**
+   * Scans every block for stores to an element that is stored to again before it can be read.
+   * Elements are told apart by the global and the offset, which is either a constant or a
+   * variable that was not written since the address was taken.
+   */
+  private void removeDeadStores() {
+    Map<Variable, Integer> defCount = new IdentityHashMap<>();
+    Map<LocalVar, Long> constants = new IdentityHashMap<>();
+    var cfg = function.getControlFlowGraph();
+    for (BasicBlock block : cfg.getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        if (inst.getDestVar() != null)
+          defCount.merge(inst.getDestVar(), 1, Integer::sum);
+        if (inst instanceof CopyInst && ((CopyInst) inst).getSrcValue() instanceof IntegerConstant)
+          constants.put(((CopyInst) inst).getDstVar(),
+              ((IntegerConstant) ((CopyInst) inst).getSrcValue()).getValue());
+      }
+    }
+    constants.keySet().removeIf(var -> defCount.get(var) > 1);
+
+    List<Instruction> dead = new ArrayList<>();
+    for (BasicBlock block : cfg.getBlocks()) {
+      Map<AddressVar, List<Object>> addresses = new IdentityHashMap<>();
+      Map<List<Object>, StoreInst> pending = new HashMap<>();
+      for (Instruction inst : block.getInstructions()) {
+        if (inst instanceof AddressAt) {
+          var addressAt = (AddressAt) inst;
+          LocalVar offset = addressAt.getOffset();
+          Object offsetKey = offset == null ? null : constants.get(offset);
+          addresses.put(addressAt.getDst(), Arrays.asList(addressAt.getBase(),
+              offsetKey != null ? offsetKey : offset));
+        } else if (inst instanceof StoreInst) {
+          List<Object> key = addresses.get(((StoreInst) inst).getDestAddress());
+          StoreInst previous = key != null ? pending.put(key, (StoreInst) inst) : null;
+          if (previous != null)
+            dead.add(previous);
+        } else if (inst instanceof LoadInst) {
+          List<Object> key = addresses.get(((LoadInst) inst).getSrcAddress());
+          if (key == null) {
+            pending.clear();
+          } else {
+            Symbol base = (Symbol) key.get(0);
+            pending.keySet().removeIf(k -> k.get(0) == base);
+          }
+        } else if (inst instanceof CallInst) {
+          pending.clear();
+        }
+        if (inst.getDestVar() instanceof LocalVar) {
+          // Addresses with the old value of the variable as offset can no longer be matched
+          var var = inst.getDestVar();
+          pending.keySet().removeIf(k -> k.get(1) == var);
+          addresses.values().removeIf(k -> k.get(1) == var);
+        } else if (inst instanceof AddressOffset) {
+          // An address that steps through an array no longer points to the element it did
+          addresses.remove(((AddressOffset) inst).getDst());
+        }
+      }
+    }
+    for (Instruction store : dead) {
+      if (editor.canBypass(store))
+        editor.bypass(store);
+      else
+        editor.replace(store, new NopInst());
+    }
+    removed += dead.size();
+  }
+
+  private int index(Value var) {
+    return varIndex.computeIfAbsent((Variable) var, v -> varIndex.size());
+  }
+
+  private static boolean hasSideEffects(Instruction inst) {
+    if (inst instanceof BinaryOperator)
+      return ((BinaryOperator) inst).getOperator() == BinaryOperator.Op.Div;
+    return inst instanceof StoreInst || inst instanceof CallInst || inst instanceof ReturnInst
+        || inst instanceof JumpInst;
+  }
+
+  /**
+   * Computes the strongly live variables at the start of every block and removes the instructions
+   * and phis that write variables which are not live.
+   */
+  private void removeDeadInstructions() {
+    var cfg = function.getControlFlowGraph();
+    int n = cfg.numBlocks();
+    var liveIn = new BitSet[n];
+    // The variables read by the live phis at the start of a block, for every predecessor
+    List<Map<Instruction, BitSet>> phiUses = new ArrayList<>(n);
+    for (int b = 0; b < n; b++) {
+      liveIn[b] = new BitSet();
+      phiUses.add(Map.of());
+    }
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int b = n - 1; b >= 0; b--) {
+        BasicBlock block = cfg.getBlock(b);
+        BitSet live = liveOut(block, liveIn, phiUses);
+        Map<Instruction, BitSet> uses = new HashMap<>();
+        transfer(block, live, uses, null);
+        if (!live.equals(liveIn[b]) || !uses.equals(phiUses.get(b))) {
+          liveIn[b] = live;
+          phiUses.set(b, uses);
+          changed = true;
+        }
+      }
+    }
+
+    List<Instruction> dead = new ArrayList<>();
+    for (BasicBlock block : cfg.getBlocks()) {
+      transfer(block, liveOut(block, liveIn, phiUses), new HashMap<>(), dead);
+    }
+    for (Instruction inst : dead) {
+      if (inst instanceof PhiInst)
+        editor.removePhi((PhiInst) inst);
+      else if (editor.canBypass(inst))
+        editor.bypass(inst);
+      else
+        editor.replace(inst, new NopInst());
+    }
+    removed += dead.size();
+  }
+
+  private static BitSet liveOut(BasicBlock block, BitSet[] liveIn,
+      List<Map<Instruction, BitSet>> phiUses) {
+    BitSet live = new BitSet();
+    for (BasicBlock succ : block.getSuccessors()) {
+      live.or(liveIn[succ.getId()]);
+      BitSet uses = phiUses.get(succ.getId()).get(block.getLast());
+      if (uses != null)
+        live.or(uses);
+    }
+    return live;
+  }
+
+  /**
+   * Turns the variables live at the end of a block into the ones live at its start. The variables
+   * read by live phis at the start of the block are recorded per predecessor instead, since they
+   * are only live on the edge from that predecessor.
+   *
+   * @param dead receives the dead instructions, if not null
+   */
+  private void transfer(BasicBlock block, BitSet live, Map<Instruction, BitSet> phiUses,
+      List<Instruction> dead) {
+    for (int i = block.size() - 1; i >= 0; i--) {
+      Instruction inst = block.get(i);
+      if (inst instanceof PhiInst) {
+        // The phis of a chain read their values at the same time
+        int first = i;
+        while (first > 0 && block.get(first - 1) instanceof PhiInst) {
+          first--;
+        }
+        List<PhiInst> livePhis = new ArrayList<>();
+        for (int j = first; j <= i; j++) {
+          var phi = (PhiInst) block.get(j);
+          if (live.get(index(phi.getDst())))
+            livePhis.add(phi);
+          else if (dead != null)
+            dead.add(phi);
+        }
+        for (int j = first; j <= i; j++) {
+          live.clear(index(block.get(j).getDestVar()));
+        }
+        for (PhiInst phi : livePhis) {
+          List<Instruction> preds = phi.getPredecessors();
+          for (int k = 0; k < preds.size(); k++) {
+            if (first == 0)
+              phiUses.computeIfAbsent(preds.get(k), p -> new BitSet()).set(index(phi.getValue(k)));
+            else if (preds.get(k) == block.get(first - 1))
+              live.set(index(phi.getValue(k)));
+          }
+        }
+        i = first;
+        continue;
+      }
+      Variable dst = inst.getDestVar();
+      boolean isLive = hasSideEffects(inst) || dst != null && live.get(index(dst));
+      if (dst != null)
+        live.clear(index(dst));
+      if (isLive) {
+        for (Value operand : inst.getOperands()) {
+          if (operand instanceof Variable)
+            live.set(index(operand));
+        }
+      } else if (dst != null && dead != null) {
+        dead.add(inst);
+      }
+    }
+  }
+
+  private void removeNops() {
+    for (BasicBlock block : function.getControlFlowGraph().getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        if (inst instanceof NopInst && editor.canBypass(inst)) {
+          editor.bypass(inst);
+          removed++;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,313 @@
+package crux.ir.opt;
+
+import crux.ir.AnalysisCache;
+import crux.ir.AnalysisCache.Analysis;
+
+import java.util.Arrays;
+
+/**
+ * The dominator tree and the dominance frontiers of a control flow graph whose nodes are numbered
+ * from 0, with node 0 as the entry. Immediate dominators are computed with the algorithm of
+ * Lengauer and Tarjan, using path compression, in almost linear time. Dominance frontiers are
+ * collected by walking up the tree from the predecessors of every join node, as described by
+ * Cooper, Harvey and Kennedy.
+ * <p>
+ * All traversals use explicit stacks, since the graphs of long functions are deep. Nodes that
+ * cannot be reached from the entry are not part of the tree.
+ */
+public final class Dominators {
+  /** The dominators of the basic blocks of a function, numbered as in its control flow graph. */
+  public static final Analysis<Dominators> ANALYSIS = AnalysisCache.controlFlowAnalysis(
+      (function, cache) -> new Dominators(function.getControlFlowGraph().getSuccessorIds()));
+
+  private final int numNodes;
+  private final int[][] successors;
+  private final int[][] predecessors;
+  /** The immediate dominator of every node, -1 for the entry and unreachable nodes. */
+  private final int[] idom;
+  /** The nodes in depth first order of the graph, starting at the entry. */
+  private final int[] order;
+  private final int[] firstChild;
+  private final int[] nextSibling;
+  /** The position of every node in a depth first walk of the tree, -1 if unreachable. */
+  private final int[] treeEnter;
+  private final int[] treeExit;
+  private int[][] frontiers;
+
+  /**
+   * @param successors the successors of every node; a node may appear more than once
+   */
+  public Dominators(int[][] successors) {
+    this.successors = successors;
+    numNodes = successors.length;
+    int[] dfnum = new int[numNodes];
+    Arrays.fill(dfnum, -1);
+    int[] vertex = new int[numNodes];
+    int[] parent = new int[numNodes];
+    int count = depthFirst(dfnum, vertex, parent);
+    order = Arrays.copyOf(vertex, count);
+    predecessors = reachablePredecessors(dfnum);
+
+    // Lengauer-Tarjan, on depth first numbers
+    int[] semi = new int[count];
+    int[] ancestor = new int[count];
+    int[] label = new int[count];
+    int[] dom = new int[count];
+    int[] bucketHead = new int[count];
+    int[] bucketNext = new int[count];
+    Arrays.fill(ancestor, -1);
+    Arrays.fill(bucketHead, -1);
+    for (int v = 0; v < count; v++) {
+      semi[v] = v;
+      label[v] = v;
+    }
+    int[] path = new int[count];
+    for (int w = count - 1; w > 0; w--) {
+      for (int p : predecessors[vertex[w]]) {
+        int u = eval(dfnum[p], ancestor, label, semi, path);
+        if (semi[u] < semi[w])
+          semi[w] = semi[u];
+      }
+      bucketNext[w] = bucketHead[semi[w]];
+      bucketHead[semi[w]] = w;
+      int pw = dfnum[parent[vertex[w]]];
+      ancestor[w] = pw;
+      for (int v = bucketHead[pw]; v >= 0; v = bucketNext[v]) {
+        int u = eval(v, ancestor, label, semi, path);
+        dom[v] = semi[u] < semi[v] ? u : pw;
+      }
+      bucketHead[pw] = -1;
+    }
+    idom = new int[numNodes];
+    Arrays.fill(idom, -1);
+    for (int w = 1; w < count; w++) {
+      if (dom[w] != semi[w])
+        dom[w] = dom[dom[w]];
+      idom[vertex[w]] = vertex[dom[w]];
+    }
+
+    firstChild = new int[numNodes];
+    nextSibling = new int[numNodes];
+    Arrays.fill(firstChild, -1);
+    Arrays.fill(nextSibling, -1);
+    for (int w = count - 1; w > 0; w--) {
+      int node = vertex[w];
+      nextSibling[node] = firstChild[idom[node]];
+      firstChild[idom[node]] = node;
+    }
+    treeEnter = new int[numNodes];
+    treeExit = new int[numNodes];
+    Arrays.fill(treeEnter, -1);
+    Arrays.fill(treeExit, -1);
+    numberTree();
+  }
+
+  /**
+   * Numbers the reachable nodes in depth first order and records their parents in the walk.
+   *
+   * @return the number of reachable nodes
+   */
+  private int depthFirst(int[] dfnum, int[] vertex, int[] parent) {
+    if (numNodes == 0)
+      return 0;
+    int count = 0;
+    int[] stack = new int[numNodes];
+    int[] nextEdge = new int[numNodes];
+    int sp = 0;
+    stack[sp++] = 0;
+    dfnum[0] = count;
+    vertex[count++] = 0;
+    parent[0] = -1;
+    while (sp > 0) {
+      int node = stack[sp - 1];
+      if (nextEdge[node] == successors[node].length) {
+        sp--;
+        continue;
+      }
+      int succ = successors[node][nextEdge[node]++];
+      if (dfnum[succ] < 0) {
+        dfnum[succ] = count;
+        vertex[count++] = succ;
+        parent[succ] = node;
+        stack[sp++] = succ;
+      }
+    }
+    return count;
+  }
+
+  private int[][] reachablePredecessors(int[] dfnum) {
+    int[] numPreds = new int[numNodes];
+    for (int node : order) {
+      for (int succ : successors[node]) {
+        numPreds[succ]++;
+      }
+    }
+    int[][] preds = new int[numNodes][];
+    for (int node = 0; node < numNodes; node++) {
+      preds[node] = new int[numPreds[node]];
+      numPreds[node] = 0;
+    }
+    for (int node : order) {
+      for (int succ : successors[node]) {
+        preds[succ][numPreds[succ]++] = node;
+      }
+    }
+    return preds;
+  }
+
+  /**
+   * Returns the node with the smallest semidominator on the path from {@code v} up to the root of
+   * its tree in the forest built so far, compressing the path on the way.
+   */
+  private static int eval(int v, int[] ancestor, int[] label, int[] semi, int[] path) {
+    if (ancestor[v] < 0)
+      return v;
+    int length = 0;
+    for (int x = v; ancestor[ancestor[x]] >= 0; x = ancestor[x]) {
+      path[length++] = x;
+    }
+    while (length > 0) {
+      int x = path[--length];
+      int a = ancestor[x];
+      if (semi[label[a]] < semi[label[x]])
+        label[x] = label[a];
+      ancestor[x] = ancestor[a];
+    }
+    return label[v];
+  }
+
+  private void numberTree() {
+    if (order.length == 0)
+      return;
+    int[] stack = new int[numNodes];
+    int sp = 0;
+    int time = 0;
+    stack[sp++] = 0;
+    treeEnter[0] = time++;
+    int[] nextChild = Arrays.copyOf(firstChild, numNodes);
+    while (sp > 0) {
+      int node = stack[sp - 1];
+      int child = nextChild[node];
+      if (child < 0) {
+        treeExit[node] = time++;
+        sp--;
+      } else {
+        nextChild[node] = nextSibling[child];
+        treeEnter[child] = time++;
+        stack[sp++] = child;
+      }
+    }
+  }
+
+  public int getNumNodes() {
+    return numNodes;
+  }
+
+  public boolean isReachable(int node) {
+    return treeEnter[node] >= 0;
+  }
+
+  /**
+   * Returns the immediate dominator of a node, or -1 for the entry and unreachable nodes.
+   */
+  public int getIdom(int node) {
+    return idom[node];
+  }
+
+  /**
+   * Returns whether every path from the entry to {@code b} passes through {@code a}. A node
+   * dominates itself.
+   */
+  public boolean dominates(int a, int b) {
+    return isReachable(a) && isReachable(b) && treeEnter[a] <= treeEnter[b]
+        && treeExit[b] <= treeExit[a];
+  }
+
+  /**
+   * Returns the predecessors of a node that are reachable, once for every edge.
+   */
+  public int[] getPredecessors(int node) {
+    return predecessors[node];
+  }
+
+  /**
+   * Returns the nodes immediately dominated by a node.
+   */
+  public int[] getChildren(int node) {
+    int n = 0;
+    for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+      n++;
+    }
+    int[] children = new int[n];
+    n = 0;
+    for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+      children[n++] = child;
+    }
+    return children;
+  }
+
+  /**
+   * Returns the reachable nodes in an order in which every node comes after its dominators.
+   */
+  public int[] getTreeOrder() {
+    int[] nodes = new int[order.length];
+    int n = 0;
+    int[] stack = new int[Math.max(1, order.length)];
+    int sp = 0;
+    if (order.length > 0)
+      stack[sp++] = 0;
+    while (sp > 0) {
+      int node = stack[--sp];
+      nodes[n++] = node;
+      for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+        stack[sp++] = child;
+      }
+    }
+    return nodes;
+  }
+
+  /**
+   * Returns the reachable nodes in depth first preorder of the graph.
+   */
+  public int[] getReachableNodes() {
+    return order.clone();
+  }
+
+  /**
+   * Returns the dominance frontier of a node: the nodes where the region dominated by the node
+   * ends, which have a predecessor dominated by it without being strictly dominated themselves.
+   */
+  public int[] getFrontier(int node) {
+    if (frontiers == null)
+      frontiers = computeFrontiers();
+    return frontiers[node];
+  }
+
+  private int[][] computeFrontiers() {
+    int[][] result = new int[numNodes][];
+    int[] size = new int[numNodes];
+    int[] lastAdded = new int[numNodes];
+    Arrays.fill(lastAdded, -1);
+    for (int node = 0; node < numNodes; node++) {
+      result[node] = new int[0];
+    }
+    for (int join : order) {
+      if (predecessors[join].length < 2)
+        continue;
+      for (int pred : predecessors[join]) {
+        for (int runner = pred; runner >= 0 && runner != idom[join]; runner = idom[runner]) {
+          if (lastAdded[runner] == join)
+            break;
+          lastAdded[runner] = join;
+          if (size[runner] == result[runner].length)
+            result[runner] = Arrays.copyOf(result[runner], Math.max(2, size[runner] * 2));
+          result[runner][size[runner]++] = join;
+        }
+      }
+    }
+    for (int node = 0; node < numNodes; node++) {
+      result[node] = Arrays.copyOf(result[node], size[node]);
+    }
+    return result;
+  }
+}
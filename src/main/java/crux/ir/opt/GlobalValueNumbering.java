@@ -0,0 +1,239 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Dominator based global value numbering on a function in SSA form. The blocks are visited in a
+ * walk of the dominator tree with a scoped table of the computations available at every point, so
+ * that a computation is replaced by an earlier one exactly when the earlier one dominates it.
+ * Arithmetic, comparisons, negations, constants and addresses are numbered. Commutative operators
+ * and mirrored comparisons match either order of their operands. Copies are propagated, and a phi
+ * that selects the same value on every edge is replaced by that value.
+ * <p>
+ * Every read of a replaced variable then reads the variable that replaces it, and the instructions
+ * computing replaced variables are removed. Loads and calls are never numbered, since memory may
+ * change between them.
+ */
+public final class GlobalValueNumbering {
+  private final Function function;
+  private final GraphEditor editor;
+  /** The variable every redundant variable is replaced with. */
+  private final Map<Variable, Variable> replacement = new IdentityHashMap<>();
+  private final Map<List<Object>, Variable> available = new HashMap<>();
+  private final Map<Variable, Integer> defCount = new IdentityHashMap<>();
+  private final List<Instruction> redundant = new ArrayList<>();
+
+  private GlobalValueNumbering(Function function) {
+    this.function = function;
+    editor = new GraphEditor(function);
+  }
+
+  /**
+   * Numbers the values of every function of the program, which must be in SSA form.
+   *
+   * @return the number of instructions removed from every function, by name
+   */
+  public static Map<String, Integer> run(Program program) {
+    Map<String, Integer> removed = new LinkedHashMap<>();
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      removed.put(function.getName(), run(function));
+    }
+    return removed;
+  }
+
+  /**
+   * Numbers the values of a function in SSA form.
+   *
+   * @return the number of instructions removed
+   */
+  public static int run(Function function) {
+    if (function.getStart() == null)
+      return 0;
+    return run(function, new Dominators(function.getControlFlowGraph().getSuccessorIds()));
+  }
+
+  /**
+   * Numbers the values of a function in SSA form with the dominators of its current control flow
+   * graph.
+   *
+   * @return the number of instructions removed
+   */
+  public static int run(Function function, Dominators dominators) {
+    if (function.getStart() == null)
+      return 0;
+    var numbering = new GlobalValueNumbering(function);
+    numbering.number(dominators);
+    numbering.rewrite();
+    return numbering.redundant.size();
+  }
+
+  private void number(Dominators dominators) {
+    var cfg = function.getControlFlowGraph();
+    for (LocalVar arg : function.getArguments()) {
+      defCount.merge(arg, 1, Integer::sum);
+    }
+    for (BasicBlock block : cfg.getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        if (inst.getDestVar() != null)
+          defCount.merge(inst.getDestVar(), 1, Integer::sum);
+      }
+    }
+    // The keys added by every block on the current path of the tree, removed once it is left
+    Deque<List<List<Object>>> added = new ArrayDeque<>();
+    Deque<int[]> stack = new ArrayDeque<>();
+    stack.push(new int[] {0, 0});
+    while (!stack.isEmpty()) {
+      int[] top = stack.peek();
+      if (top[1] == 1) {
+        stack.pop();
+        for (List<Object> key : added.pop()) {
+          available.remove(key);
+        }
+        continue;
+      }
+      top[1] = 1;
+      List<List<Object>> keys = new ArrayList<>();
+      for (Instruction inst : cfg.getBlock(top[0]).getInstructions()) {
+        number(inst, keys);
+      }
+      added.push(keys);
+      for (int child : dominators.getChildren(top[0])) {
+        stack.push(new int[] {child, 0});
+      }
+    }
+  }
+
+  private Variable canonical(Value value) {
+    Variable var = (Variable) value;
+    Variable leader = replacement.get(var);
+    while (leader != null) {
+      var = leader;
+      leader = replacement.get(var);
+    }
+    return var;
+  }
+
+  private void number(Instruction inst, List<List<Object>> keys) {
+    Variable dst = inst.getDestVar();
+    if (dst == null || defCount.get(dst) > 1)
+      return;
+    if (inst instanceof CopyInst && ((CopyInst) inst).getSrcValue() instanceof Variable) {
+      // Lowering copies some addresses to locals, which cannot take the place of the local
+      Variable src = canonical(((CopyInst) inst).getSrcValue());
+      if (src instanceof LocalVar && src != dst && defCount.getOrDefault(src, 0) <= 1) {
+        replacement.put(dst, src);
+        redundant.add(inst);
+      }
+      return;
+    }
+    if (inst instanceof PhiInst) {
+      Variable same = null;
+      for (Value value : inst.getOperands()) {
+        Variable var = canonical(value);
+        if (var == dst)
+          continue;
+        if (same != null && same != var)
+          return;
+        same = var;
+      }
+      if (same != null && defCount.getOrDefault(same, 0) <= 1) {
+        replacement.put(dst, same);
+        redundant.add(inst);
+      }
+      return;
+    }
+    List<Object> key = key(inst);
+    if (key == null)
+      return;
+    Variable leader = available.get(key);
+    if (leader == null && inst instanceof BinaryOperator && isCommutative(inst))
+      leader = available.get(List.of(key.get(0), key.get(2), key.get(1)));
+    if (leader == null && inst instanceof CompareInst)
+      leader = available.get(List.of(mirror(((CompareInst) inst).getPredicate()), key.get(2),
+          key.get(1)));
+    if (leader != null) {
+      replacement.put(dst, leader);
+      redundant.add(inst);
+    } else {
+      available.put(key, dst);
+      keys.add(key);
+    }
+  }
+
+  /**
+   * Returns the operation and the canonical operands of a computation that can be numbered, or
+   * null.
+   */
+  private List<Object> key(Instruction inst) {
+    if (inst instanceof BinaryOperator) {
+      var op = (BinaryOperator) inst;
+      return List.of(op.getOperator(), canonical(op.getLeftOperand()),
+          canonical(op.getRightOperand()));
+    }
+    if (inst instanceof CompareInst) {
+      var cmp = (CompareInst) inst;
+      return List.of(cmp.getPredicate(), canonical(cmp.getLeftOperand()),
+          canonical(cmp.getRightOperand()));
+    }
+    if (inst instanceof UnaryNotInst)
+      return List.of(UnaryNotInst.class, canonical(((UnaryNotInst) inst).getInner()));
+    if (inst instanceof CopyInst)
+      return List.of(CopyInst.class, ((CopyInst) inst).getSrcValue());
+    if (inst instanceof AddressAt) {
+      var addressAt = (AddressAt) inst;
+      LocalVar offset = addressAt.getOffset();
+      return offset == null ? List.of(AddressAt.class, addressAt.getBase())
+          : List.of(AddressAt.class, addressAt.getBase(), canonical(offset));
+    }
+    return null;
+  }
+
+  private static boolean isCommutative(Instruction inst) {
+    var op = ((BinaryOperator) inst).getOperator();
+    return op == BinaryOperator.Op.Add || op == BinaryOperator.Op.Mul;
+  }
+
+  /**
+   * Returns the predicate that compares the operands in the other order.
+   */
+  static CompareInst.Predicate mirror(CompareInst.Predicate predicate) {
+    switch (predicate) {
+      case GE:
+        return CompareInst.Predicate.LE;
+      case GT:
+        return CompareInst.Predicate.LT;
+      case LE:
+        return CompareInst.Predicate.GE;
+      case LT:
+        return CompareInst.Predicate.GT;
+      default:
+        return predicate;
+    }
+  }
+
+  private void rewrite() {
+    if (replacement.isEmpty())
+      return;
+    for (BasicBlock block : function.getControlFlowGraph().getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        List<Value> operands = inst.getOperands();
+        for (int i = 0; i < operands.size(); i++) {
+          if (operands.get(i) instanceof Variable && replacement.containsKey(operands.get(i)))
+            inst.setOperand(i, canonical(operands.get(i)));
+        }
+      }
+    }
+    for (Instruction inst : redundant) {
+      if (inst instanceof PhiInst)
+        editor.removePhi((PhiInst) inst);
+      else if (editor.canBypass(inst))
+        editor.bypass(inst);
+      else
+        editor.replace(inst, new NopInst());
+    }
+  }
+}
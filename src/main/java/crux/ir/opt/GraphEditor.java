@@ -0,0 +1,238 @@
+package crux.ir.opt;
+
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.LocalVar;
+import crux.ir.insts.NopInst;
+import crux.ir.insts.PhiInst;
+
+import java.util.*;
+
+/**
+ * Edits the instruction graph of a function while keeping track of the predecessors of every
+ * instruction, so that a pass can make many edits without walking the graph again. The phis that
+ * name an instruction as the predecessor they select by are kept in step with the edits.
+ */
+final class GraphEditor {
+  private final Function function;
+  /** The instructions with an edge to every instruction, once for every edge. */
+  private final Map<Instruction, List<Instruction>> predecessors = new IdentityHashMap<>();
+
+  GraphEditor(Function function) {
+    this.function = function;
+    var cfg = function.getControlFlowGraph();
+    for (var block : cfg.getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        for (int k = 0; k < inst.numNext(); k++) {
+          if (inst.getNext(k) != null)
+            predecessorsOf(inst.getNext(k)).add(inst);
+        }
+      }
+    }
+  }
+
+  private List<Instruction> predecessorsOf(Instruction inst) {
+    return predecessors.computeIfAbsent(inst, i -> new ArrayList<>());
+  }
+
+  /**
+   * Returns the instructions with an edge to {@code inst}, once for every edge.
+   */
+  List<Instruction> getPredecessors(Instruction inst) {
+    return Collections.unmodifiableList(predecessorsOf(inst));
+  }
+
+  /**
+   * Points every edge to {@code inst} to {@code target} instead.
+   */
+  private void redirectPredecessors(Instruction inst, Instruction target) {
+    List<Instruction> preds = predecessorsOf(inst);
+    for (Instruction pred : preds) {
+      for (int k = 0; k < pred.numNext(); k++) {
+        if (pred.getNext(k) == inst)
+          pred.setNext(k, target);
+      }
+    }
+    predecessorsOf(target).addAll(preds);
+    preds.clear();
+    if (function.getStart() == inst)
+      function.setStart(target);
+  }
+
+  /**
+   * Makes the phis of the chain at {@code head} select by {@code to} where they selected by
+   * {@code from}.
+   */
+  private static void renamePhiPredecessor(Instruction head, Instruction from, Instruction to) {
+    for (Instruction inst = head; inst instanceof PhiInst; inst = inst.getNext(0)) {
+      var phi = (PhiInst) inst;
+      int i = phi.getPredecessors().indexOf(from);
+      if (i >= 0)
+        phi.setPredecessor(i, to);
+    }
+  }
+
+  /**
+   * Puts {@code replacement} in the place of {@code inst}, which must not be a phi. The edges to
+   * {@code inst} lead to the replacement, and the replacement takes over the successors.
+   */
+  void replace(Instruction inst, Instruction replacement) {
+    redirectPredecessors(inst, replacement);
+    for (int k = 0; k < inst.numNext(); k++) {
+      Instruction succ = inst.getNext(k);
+      if (succ == null)
+        continue;
+      replacement.setNext(k, succ);
+      List<Instruction> preds = predecessorsOf(succ);
+      preds.set(preds.indexOf(inst), replacement);
+      renamePhiPredecessor(succ, inst, replacement);
+    }
+  }
+
+  /**
+   * Replaces a branch with a nop that always continues with successor {@code taken}. The phis at
+   * the other successor must no longer select by the branch, unless both edges lead to them.
+   */
+  void replaceBranch(Instruction branch, int taken) {
+    var nop = new NopInst();
+    redirectPredecessors(branch, nop);
+    for (int k = 0; k < branch.numNext(); k++) {
+      Instruction succ = branch.getNext(k);
+      if (succ != null)
+        predecessorsOf(succ).remove(branch);
+    }
+    Instruction target = branch.getNext(taken);
+    nop.setNext(0, target);
+    predecessorsOf(target).add(nop);
+    renamePhiPredecessor(target, branch, nop);
+  }
+
+  /**
+   * Takes a phi out of its chain. The remaining phis still select by the instructions that enter
+   * the chain.
+   */
+  void removePhi(PhiInst phi) {
+    Instruction next = phi.getNext(0);
+    predecessorsOf(next).remove(phi);
+    redirectPredecessors(phi, next);
+  }
+
+  /**
+   * Returns whether {@link #bypass} can take {@code inst} out of the graph. The instruction must
+   * continue with a single successor. If that starts a chain of phis, the predecessors of the
+   * instruction take its place in the phis, so none of them may already be there.
+   */
+  boolean canBypass(Instruction inst) {
+    Instruction next = inst.getNext(0);
+    if (inst.numNext() != 1 || next == null || next == inst || inst instanceof PhiInst)
+      return false;
+    if (!(next instanceof PhiInst))
+      return true;
+    if (function.getStart() == inst)
+      return false;
+    List<Instruction> phiPreds = ((PhiInst) next).getPredecessors();
+    for (Instruction pred : predecessorsOf(inst)) {
+      if (pred instanceof PhiInst || phiPreds.contains(pred))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Takes an instruction out of the graph, so that the edges to it lead to its successor.
+   */
+  void bypass(Instruction inst) {
+    Instruction next = inst.getNext(0);
+    List<Instruction> preds = new ArrayList<>(predecessorsOf(inst));
+    predecessorsOf(next).remove(inst);
+    redirectPredecessors(inst, next);
+    for (Instruction i = next; i instanceof PhiInst; i = i.getNext(0)) {
+      var phi = (PhiInst) i;
+      int index = phi.getPredecessors().indexOf(inst);
+      if (index < 0)
+        continue;
+      LocalVar value = phi.getValue(index);
+      phi.removePredecessor(index);
+      for (Instruction pred : preds) {
+        if (!phi.getPredecessors().contains(pred))
+          phi.addPredecessor(pred, value);
+      }
+    }
+  }
+
+  /**
+   * Inserts {@code newInst} in front of {@code inst}, which must not be a phi, on every edge that
+   * leads to it.
+   */
+  void insertBefore(Instruction inst, Instruction newInst) {
+    redirectPredecessors(inst, newInst);
+    newInst.setNext(0, inst);
+    predecessorsOf(inst).add(newInst);
+  }
+
+  /**
+   * Inserts {@code newInst} on the edges from {@code pred} to {@code target}. The phis at
+   * {@code target} select by the new instruction where they selected by {@code pred}.
+   */
+  void insertOnEdge(Instruction pred, Instruction target, Instruction newInst) {
+    List<Instruction> preds = predecessorsOf(target);
+    for (int k = 0; k < pred.numNext(); k++) {
+      if (pred.getNext(k) == target) {
+        pred.setNext(k, newInst);
+        preds.remove(pred);
+        predecessorsOf(newInst).add(pred);
+      }
+    }
+    newInst.setNext(0, target);
+    preds.add(newInst);
+    renamePhiPredecessor(target, pred, newInst);
+  }
+
+  /**
+   * Points edge {@code k} of {@code pred} to {@code target}, which must not start a chain of phis
+   * unless its phis already select by {@code pred}.
+   */
+  void redirectEdge(Instruction pred, int k, Instruction target) {
+    predecessorsOf(pred.getNext(k)).remove(pred);
+    pred.setNext(k, target);
+    predecessorsOf(target).add(pred);
+  }
+
+  /**
+   * Makes a new instruction, which has no successor yet, continue with {@code target}.
+   */
+  void link(Instruction inst, Instruction target) {
+    inst.setNext(0, target);
+    predecessorsOf(target).add(inst);
+  }
+
+  /**
+   * Puts a region of new instructions in the place of {@code inst}, which must continue with at
+   * most one successor, and not with a chain of phis. The edges to {@code inst} lead to
+   * {@code entry}, and every instruction in {@code exits} continues with the successor. If
+   * {@code inst} ends the function, so do the exits, which are left without a successor.
+   */
+  void replaceWithRegion(Instruction inst, Instruction entry, List<Instruction> exits) {
+    Instruction next = inst.getNext(0);
+    redirectPredecessors(inst, entry);
+    if (next == null)
+      return;
+    List<Instruction> preds = predecessorsOf(next);
+    preds.remove(inst);
+    for (Instruction exit : exits) {
+      exit.setNext(0, next);
+      preds.add(exit);
+    }
+  }
+
+  /**
+   * Returns the first instruction after the chain of phis that contains {@code phi}.
+   */
+  static Instruction afterPhis(Instruction phi) {
+    Instruction inst = phi;
+    while (inst instanceof PhiInst) {
+      inst = inst.getNext(0);
+    }
+    return inst;
+  }
+}
@@ -0,0 +1,277 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.insts.BinaryOperator;
+import crux.ir.insts.CopyInst;
+import crux.ir.insts.PhiInst;
+
+import java.util.*;
+
+/**
+ * Finds the induction variables of a loop of a function in SSA form, the variables that change by
+ * the same amount in every iteration.
+ * <p>
+ * A basic induction variable is written by a phi of the loop header. On every back edge the phi
+ * selects the same variable, which the loop writes by adding a loop invariant step to the phi or
+ * subtracting it. A derived induction variable is a linear function of a basic one: a copy of an
+ * induction variable, the sum or difference of one and an invariant, or the product of one and an
+ * invariant. An invariant is a variable that is written before the loop, so that code placed in
+ * front of the loop can read it.
+ */
+public final class InductionVariables {
+  /**
+   * An induction variable, which is the basic induction variable it derives from, multiplied by a
+   * product of invariant factors, plus an invariant amount.
+   */
+  public static final class InductionVariable {
+    private final LocalVar mVar;
+    private final InductionVariable mBasic;
+    private final List<Instruction> mDerivation;
+    private final List<LocalVar> mFactors;
+    private final BinaryOperator mUpdate;
+
+    private InductionVariable(LocalVar var, InductionVariable basic, List<Instruction> derivation,
+        List<LocalVar> factors, BinaryOperator update) {
+      mVar = var;
+      mBasic = basic == null ? this : basic;
+      mDerivation = derivation;
+      mFactors = factors;
+      mUpdate = update;
+    }
+
+    public LocalVar getVariable() {
+      return mVar;
+    }
+
+    public boolean isBasic() {
+      return mBasic == this;
+    }
+
+    /**
+     * Returns the basic induction variable this one derives from, which is itself for a basic one.
+     */
+    public InductionVariable getBasic() {
+      return mBasic;
+    }
+
+    /**
+     * Returns the instructions that compute the variable from its basic induction variable, in the
+     * order they run. The list is empty for a basic induction variable.
+     */
+    public List<Instruction> getDerivation() {
+      return Collections.unmodifiableList(mDerivation);
+    }
+
+    /**
+     * Returns the invariants the step of the basic induction variable is multiplied by to give
+     * the change of this one in every iteration. The list is empty if they change by the same
+     * amount.
+     */
+    public List<LocalVar> getFactors() {
+      return Collections.unmodifiableList(mFactors);
+    }
+
+    /**
+     * Returns the instruction of a basic induction variable that writes the value the header phi
+     * selects on the back edges.
+     */
+    public BinaryOperator getUpdate() {
+      return mBasic.mUpdate;
+    }
+
+    /**
+     * Returns the invariant the update of the basic induction variable adds or subtracts.
+     */
+    public LocalVar getStep() {
+      BinaryOperator update = getUpdate();
+      return update.getLeftOperand() == mBasic.mVar ? update.getRightOperand()
+          : update.getLeftOperand();
+    }
+
+    /**
+     * Returns whether the update of the basic induction variable subtracts the step.
+     */
+    public boolean isStepNegated() {
+      return getUpdate().getOperator() == BinaryOperator.Op.Sub;
+    }
+
+    @Override
+    public String toString() {
+      return mVar.toString();
+    }
+  }
+
+  private final ControlFlowGraph cfg;
+  private final Loop loop;
+  private final Map<Variable, Instruction> defs;
+  private final Map<Variable, Integer> defCount;
+  private final Map<LocalVar, InductionVariable> variables = new LinkedHashMap<>();
+  private final Map<LocalVar, PhiInst> basicPhis = new IdentityHashMap<>();
+
+  public InductionVariables(Loops loops, Loop loop) {
+    this(loops.getControlFlowGraph(), loop, new IdentityHashMap<>(), new IdentityHashMap<>());
+    for (BasicBlock block : cfg.getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        if (inst.getDestVar() != null) {
+          defs.put(inst.getDestVar(), inst);
+          defCount.merge(inst.getDestVar(), 1, Integer::sum);
+        }
+      }
+    }
+    find();
+  }
+
+  /**
+   * Finds the induction variables of a loop of the current round of a walker, with the
+   * definitions it collected for the round instead of scanning the whole function again.
+   */
+  InductionVariables(LoopWalker walker, Loop loop) {
+    this(walker.getLoops().getControlFlowGraph(), loop, walker.getDefinitions(),
+        walker.getDefinitionCounts());
+    find();
+  }
+
+  private InductionVariables(ControlFlowGraph cfg, Loop loop, Map<Variable, Instruction> defs,
+      Map<Variable, Integer> defCount) {
+    this.cfg = cfg;
+    this.loop = loop;
+    this.defs = defs;
+    this.defCount = defCount;
+  }
+
+  private void find() {
+    findBasic();
+    if (!variables.isEmpty())
+      findDerived();
+  }
+
+  private void findBasic() {
+    for (Instruction inst : loop.getHeader().getInstructions()) {
+      if (!(inst instanceof PhiInst))
+        break;
+      var phi = (PhiInst) inst;
+      LocalVar var = phi.getDst();
+      LocalVar next = null;
+      boolean entered = false;
+      for (int i = 0; i < phi.getPredecessors().size(); i++) {
+        if (!loop.contains(cfg.getBlock(phi.getPredecessors().get(i)))) {
+          entered = true;
+        } else if (next == null || next == phi.getValue(i)) {
+          next = phi.getValue(i);
+        } else {
+          next = null;
+          break;
+        }
+      }
+      if (!entered || next == null || next == var || !isSingleDef(var) || !isSingleDef(next))
+        continue;
+      Instruction def = defs.get(next);
+      if (!(def instanceof BinaryOperator) || !loop.contains(cfg.getBlock(def)))
+        continue;
+      var update = (BinaryOperator) def;
+      Value lhs = update.getLeftOperand();
+      Value rhs = update.getRightOperand();
+      boolean adds = update.getOperator() == BinaryOperator.Op.Add
+          && (lhs == var && isInvariant(rhs) || rhs == var && isInvariant(lhs));
+      boolean subtracts =
+          update.getOperator() == BinaryOperator.Op.Sub && lhs == var && isInvariant(rhs);
+      if (adds || subtracts) {
+        variables.put(var, new InductionVariable(var, null, List.of(), List.of(), update));
+        basicPhis.put(var, phi);
+      }
+    }
+  }
+
+  /**
+   * Derives the induction variables in the order the blocks of the loop run, so that the operands
+   * of an instruction are classified before it, apart from the phis.
+   */
+  private void findDerived() {
+    for (BasicBlock block : loop.getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        Variable dst = inst.getDestVar();
+        if (!(dst instanceof LocalVar) || variables.containsKey(dst) || !isSingleDef(dst))
+          continue;
+        InductionVariable from = null;
+        LocalVar factor = null;
+        if (inst instanceof CopyInst) {
+          from = variables.get(((CopyInst) inst).getSrcValue());
+        } else if (inst instanceof BinaryOperator) {
+          var op = (BinaryOperator) inst;
+          Value lhs = op.getLeftOperand();
+          Value rhs = op.getRightOperand();
+          InductionVariable left = variables.get(lhs);
+          InductionVariable right = variables.get(rhs);
+          switch (op.getOperator()) {
+            case Add:
+              from = left != null && isInvariant(rhs) ? left
+                  : right != null && isInvariant(lhs) ? right : null;
+              break;
+            case Sub:
+              from = left != null && isInvariant(rhs) ? left : null;
+              break;
+            case Mul:
+              if (left != null && isInvariant(rhs)) {
+                from = left;
+                factor = (LocalVar) rhs;
+              } else if (right != null && isInvariant(lhs)) {
+                from = right;
+                factor = (LocalVar) lhs;
+              }
+              break;
+            default:
+              break;
+          }
+        }
+        if (from == null)
+          continue;
+        List<Instruction> derivation = new ArrayList<>(from.mDerivation);
+        derivation.add(inst);
+        List<LocalVar> factors = new ArrayList<>(from.mFactors);
+        if (factor != null)
+          factors.add(factor);
+        variables.put((LocalVar) dst,
+            new InductionVariable((LocalVar) dst, from.mBasic, derivation, factors, null));
+      }
+    }
+  }
+
+  private boolean isSingleDef(Variable var) {
+    return defCount.getOrDefault(var, 0) <= 1;
+  }
+
+  /**
+   * Returns whether a value is written before the loop, or is an argument.
+   */
+  public boolean isInvariant(Value value) {
+    if (!(value instanceof LocalVar) || !isSingleDef((Variable) value))
+      return false;
+    Instruction def = defs.get(value);
+    return def == null || !loop.contains(cfg.getBlock(def));
+  }
+
+  public Loop getLoop() {
+    return loop;
+  }
+
+  /**
+   * Returns the induction variable written to a variable, or null if the variable is not one.
+   */
+  public InductionVariable get(Value var) {
+    return variables.get(var);
+  }
+
+  /**
+   * Returns the header phi of a basic induction variable.
+   */
+  public PhiInst getPhi(InductionVariable basic) {
+    return basicPhis.get(basic.getVariable());
+  }
+
+  /**
+   * Returns the induction variables in the order the loop writes them, every basic one first.
+   */
+  public Collection<InductionVariable> getVariables() {
+    return Collections.unmodifiableCollection(variables.values());
+  }
+}
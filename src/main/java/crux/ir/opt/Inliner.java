@@ -0,0 +1,357 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Replaces calls of small functions with a copy of the body of the callee, before the program is
+ * put in SSA form. The arguments are copied to fresh variables of the caller, every variable of
+ * the callee is renamed to a fresh one, and every return becomes a copy of the returned value to
+ * the result of the call that continues after the call, as does the end of a function without a
+ * result.
+ * <p>
+ * Functions are handled bottom up in the call graph, so a callee has inlined its own callees
+ * before it is copied. Functions that call each other in a cycle are never inlined into each
+ * other, which keeps recursion finite. A call is inlined if the callee has at most as many
+ * instructions as the threshold, which doubles for every loop the call is in, up to two, since a
+ * call in a loop runs more often. The calls in the deepest loops and to the smallest callees go
+ * first, and a caller stops growing once it gained {@value #GROWTH} times the threshold.
+ */
+public final class Inliner {
+  /** The number of instructions a callee may have to be inlined outside of loops. */
+  public static final int DEFAULT_THRESHOLD = 30;
+  /** The number of loops a call can be in that still raise the threshold. */
+  private static final int MAX_DEPTH_BONUS = 2;
+  /** How many times the threshold a caller may grow by. */
+  private static final int GROWTH = 8;
+
+  private final int threshold;
+  private final AnalysisCache analyses;
+  private final Map<String, Function> functions = new HashMap<>();
+  private final Map<Function, Integer> index = new IdentityHashMap<>();
+  private final Map<Function, Integer> lowLink = new IdentityHashMap<>();
+  private final Deque<Function> stack = new ArrayDeque<>();
+  private final List<Set<Function>> components = new ArrayList<>();
+
+  private Inliner(Program program, int threshold, AnalysisCache analyses) {
+    this.threshold = threshold;
+    this.analyses = analyses;
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      functions.put(function.getName(), function);
+    }
+  }
+
+  /**
+   * Inlines calls with the default threshold into every function of the program, which must not
+   * be in SSA form.
+   *
+   * @return the number of calls inlined into every function, by name
+   */
+  public static Map<String, Integer> run(Program program) {
+    return run(program, DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * Inlines calls of functions with at most {@code threshold} instructions outside of loops into
+   * every function of the program, which must not be in SSA form.
+   *
+   * @return the number of calls inlined into every function, by name
+   */
+  public static Map<String, Integer> run(Program program, int threshold) {
+    return run(program, threshold, new AnalysisCache());
+  }
+
+  /**
+   * Inlines calls like {@link #run(Program, int)}, with the loops of the callers taken from a
+   * cache.
+   *
+   * @return the number of calls inlined into every function, by name
+   */
+  public static Map<String, Integer> run(Program program, int threshold,
+      AnalysisCache analyses) {
+    var inliner = new Inliner(program, threshold, analyses);
+    Map<String, Integer> inlined = new LinkedHashMap<>();
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      inlined.put(function.getName(), 0);
+      if (!inliner.index.containsKey(function))
+        inliner.connect(function);
+    }
+    // The components are found with the callees before their callers
+    for (Set<Function> component : inliner.components) {
+      for (Function function : component) {
+        inlined.put(function.getName(), inliner.inlineInto(function, component));
+      }
+    }
+    return inlined;
+  }
+
+  /**
+   * Finds the strongly connected components of the call graph that can be reached from a function
+   * (Tarjan's algorithm).
+   */
+  private void connect(Function function) {
+    index.put(function, index.size());
+    lowLink.put(function, index.get(function));
+    stack.push(function);
+    for (Function callee : callees(function)) {
+      if (!index.containsKey(callee)) {
+        connect(callee);
+        lowLink.put(function, Math.min(lowLink.get(function), lowLink.get(callee)));
+      } else if (stack.contains(callee)) {
+        lowLink.put(function, Math.min(lowLink.get(function), index.get(callee)));
+      }
+    }
+    if (lowLink.get(function).equals(index.get(function))) {
+      Set<Function> component = Collections.newSetFromMap(new IdentityHashMap<>());
+      Function member;
+      do {
+        member = stack.pop();
+        component.add(member);
+      } while (member != function);
+      components.add(component);
+    }
+  }
+
+  private Set<Function> callees(Function function) {
+    Set<Function> callees = new LinkedHashSet<>();
+    if (function.getStart() == null)
+      return callees;
+    for (BasicBlock block : function.getControlFlowGraph().getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        Function callee = calleeOf(inst);
+        if (callee != null)
+          callees.add(callee);
+      }
+    }
+    return callees;
+  }
+
+  /**
+   * Returns the function a call instruction calls, or null for other instructions and for calls
+   * of built in functions, which have no body.
+   */
+  private Function calleeOf(Instruction inst) {
+    if (!(inst instanceof CallInst))
+      return null;
+    Function callee = functions.get(((CallInst) inst).getCallee().getName());
+    return callee == null || callee.getStart() == null ? null : callee;
+  }
+
+  /**
+   * Returns the number of instructions of a function, not counting nops, which cost nothing.
+   */
+  private static int size(Function function) {
+    int size = 0;
+    for (BasicBlock block : function.getControlFlowGraph().getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        if (!(inst instanceof NopInst))
+          size++;
+      }
+    }
+    return size;
+  }
+
+  private int inlineInto(Function caller, Set<Function> component) {
+    if (caller.getStart() == null)
+      return 0;
+    var loops = analyses.get(caller, Loops.ANALYSIS);
+    List<CallInst> calls = new ArrayList<>();
+    Map<CallInst, Integer> depths = new IdentityHashMap<>();
+    Map<Function, Integer> sizes = new IdentityHashMap<>();
+    for (BasicBlock block : loops.getControlFlowGraph().getBlocks()) {
+      Loop loop = loops.getLoopFor(block);
+      for (Instruction inst : block.getInstructions()) {
+        Function callee = calleeOf(inst);
+        if (callee == null || component.contains(callee))
+          continue;
+        calls.add((CallInst) inst);
+        depths.put((CallInst) inst, loop == null ? 0 : loop.getDepth());
+        sizes.computeIfAbsent(callee, Inliner::size);
+      }
+    }
+    if (calls.isEmpty())
+      return 0;
+    calls.sort(Comparator.comparing((CallInst call) -> -depths.get(call))
+        .thenComparing(call -> sizes.get(calleeOf(call))));
+
+    int size = size(caller);
+    int limit = size + GROWTH * threshold;
+    var editor = new GraphEditor(caller);
+    int inlined = 0;
+    for (CallInst call : calls) {
+      Function callee = calleeOf(call);
+      int cost = sizes.get(callee);
+      if (cost > threshold << Math.min(depths.get(call), MAX_DEPTH_BONUS) || size + cost > limit)
+        continue;
+      inline(editor, caller, call, callee);
+      size += cost;
+      inlined++;
+    }
+    return inlined;
+  }
+
+  /**
+   * Puts a copy of the body of {@code callee} in the place of {@code call}.
+   */
+  private static void inline(GraphEditor editor, Function caller, CallInst call, Function callee) {
+    var cloner = new Cloner(caller, call.getDst());
+    Instruction entry = null;
+    Instruction last = null;
+    List<LocalVar> params = call.getParams();
+    List<LocalVar> args = callee.getArguments();
+    for (int i = 0; i < params.size(); i++) {
+      var copy = new CopyInst(cloner.rename(args.get(i)), params.get(i));
+      if (last == null)
+        entry = copy;
+      else
+        last.setNext(0, copy);
+      last = copy;
+    }
+
+    Map<Instruction, Instruction> clones = new IdentityHashMap<>();
+    List<BasicBlock> blocks = callee.getControlFlowGraph().getBlocks();
+    for (BasicBlock block : blocks) {
+      for (Instruction inst : block.getInstructions()) {
+        inst.accept(cloner);
+        clones.put(inst, cloner.clone);
+      }
+    }
+    for (BasicBlock block : blocks) {
+      for (Instruction inst : block.getInstructions()) {
+        Instruction clone = clones.get(inst);
+        for (int k = 0; k < inst.numNext(); k++) {
+          if (inst.getNext(k) != null)
+            clone.setNext(k, clones.get(inst.getNext(k)));
+        }
+        // A function without a result may also return by running out of instructions
+        if (inst.getNext(0) == null && !(inst instanceof ReturnInst))
+          cloner.exits.add(clone);
+        if (inst instanceof PhiInst) {
+          var phi = (PhiInst) clone;
+          for (int i = 0; i < phi.getPredecessors().size(); i++) {
+            phi.setPredecessor(i, clones.get(phi.getPredecessors().get(i)));
+          }
+        }
+      }
+    }
+
+    Instruction start = clones.get(callee.getStart());
+    if (last == null)
+      entry = start;
+    else
+      last.setNext(0, start);
+    editor.replaceWithRegion(call, entry, cloner.exits);
+  }
+
+  /**
+   * Copies an instruction of the callee, with its variables renamed to fresh variables of the
+   * caller. A return becomes a copy to the result of the call, or a nop, which is an exit of the
+   * inlined body.
+   */
+  private static final class Cloner extends InstVisitor {
+    private final Function caller;
+    private final LocalVar result;
+    private final Map<Variable, Variable> renamed = new IdentityHashMap<>();
+    private final List<Instruction> exits = new ArrayList<>();
+    private Instruction clone;
+
+    Cloner(Function caller, LocalVar result) {
+      this.caller = caller;
+      this.result = result;
+    }
+
+    LocalVar rename(LocalVar var) {
+      if (var == null)
+        return null;
+      return (LocalVar) renamed.computeIfAbsent(var,
+          v -> caller.getTempVar(v.getType(), v.getName().substring(1) + "_"));
+    }
+
+    private AddressVar rename(AddressVar var) {
+      return (AddressVar) renamed.computeIfAbsent(var,
+          v -> caller.getTempAddressVar(v.getType()));
+    }
+
+    private Variable rename(Variable var) {
+      return var instanceof AddressVar ? rename((AddressVar) var) : rename((LocalVar) var);
+    }
+
+    private List<LocalVar> rename(List<LocalVar> vars) {
+      List<LocalVar> renamedVars = new ArrayList<>();
+      for (LocalVar var : vars) {
+        renamedVars.add(rename(var));
+      }
+      return renamedVars;
+    }
+
+    public void visit(AddressAt i) {
+      clone = i.getOffset() == null ? new AddressAt(rename(i.getDst()), i.getBase())
+          : new AddressAt(rename(i.getDst()), i.getBase(), rename(i.getOffset()));
+    }
+
+    public void visit(AddressOffset i) {
+      clone = new AddressOffset(rename(i.getDst()), rename(i.getBase()), rename(i.getOffset()));
+    }
+
+    public void visit(BinaryOperator i) {
+      clone = new BinaryOperator(i.getOperator(), rename(i.getDst()), rename(i.getLeftOperand()),
+          rename(i.getRightOperand()));
+    }
+
+    public void visit(CompareInst i) {
+      clone = new CompareInst(rename(i.getDst()), i.getPredicate(), rename(i.getLeftOperand()),
+          rename(i.getRightOperand()));
+    }
+
+    public void visit(CopyInst i) {
+      Value src = i.getSrcValue();
+      clone = new CopyInst(rename(i.getDstVar()),
+          src instanceof LocalVar ? rename((LocalVar) src) : src);
+    }
+
+    public void visit(JumpInst i) {
+      clone = new JumpInst(rename(i.getPredicate()));
+    }
+
+    public void visit(LoadInst i) {
+      clone = new LoadInst(rename(i.getDst()), rename(i.getSrcAddress()));
+    }
+
+    public void visit(NopInst i) {
+      clone = new NopInst();
+    }
+
+    public void visit(StoreInst i) {
+      clone = new StoreInst(rename(i.getSrcValue()), rename(i.getDestAddress()));
+    }
+
+    public void visit(UnaryNotInst i) {
+      clone = new UnaryNotInst(rename(i.getDst()), rename(i.getInner()));
+    }
+
+    public void visit(CallInst i) {
+      clone = i.getDst() == null ? new CallInst(i.getCallee(), rename(i.getParams()))
+          : new CallInst(rename(i.getDst()), i.getCallee(), rename(i.getParams()));
+    }
+
+    public void visit(ReturnInst i) {
+      if (result != null && i.getReturnValue() != null)
+        clone = new CopyInst(result, rename(i.getReturnValue()));
+      else
+        clone = new NopInst();
+      exits.add(clone);
+    }
+
+    public void visit(PhiInst i) {
+      List<LocalVar> values = new ArrayList<>();
+      for (int k = 0; k < i.getPredecessors().size(); k++) {
+        values.add(rename(i.getValue(k)));
+      }
+      clone = new PhiInst(rename(i.getDst()), i.getPredecessors(), values);
+    }
+  }
+}
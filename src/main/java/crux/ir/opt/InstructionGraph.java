@@ -0,0 +1,53 @@
+package crux.ir.opt;
+
+import crux.ir.BasicBlock;
+import crux.ir.Function;
+import crux.ir.Instruction;
+
+import java.util.*;
+
+/**
+ * The instructions of a function that are reachable from its start, numbered block by block in
+ * the order of its {@link crux.ir.ControlFlowGraph}, so that the start is node 0, with the
+ * successors of every node as indices.
+ */
+final class InstructionGraph {
+  final List<Instruction> nodes = new ArrayList<>();
+  final Map<Instruction, Integer> index = new IdentityHashMap<>();
+  final int[][] successors;
+
+  InstructionGraph(Function function) {
+    var cfg = function.getControlFlowGraph();
+    for (BasicBlock block : cfg.getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        index.put(inst, nodes.size());
+        nodes.add(inst);
+      }
+    }
+    successors = new int[nodes.size()][];
+    for (BasicBlock block : cfg.getBlocks()) {
+      int first = index.get(block.getFirst());
+      for (int i = 0; i + 1 < block.size(); i++) {
+        successors[first + i] = new int[] {first + i + 1};
+      }
+      int[] succs = new int[block.numSuccessors()];
+      for (int k = 0; k < succs.length; k++) {
+        succs[k] = index.get(block.getSuccessor(k).getFirst());
+      }
+      successors[first + block.size() - 1] = succs;
+    }
+  }
+
+  /**
+   * Returns the instructions with an edge to a node, each of them once.
+   */
+  List<Instruction> distinctPredecessors(Dominators dominators, int node) {
+    List<Instruction> preds = new ArrayList<>();
+    Set<Instruction> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (int pred : dominators.getPredecessors(node)) {
+      if (seen.add(nodes.get(pred)))
+        preds.add(nodes.get(pred));
+    }
+    return preds;
+  }
+}
@@ -0,0 +1,167 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.AnalysisCache.Analysis;
+import crux.ir.insts.PhiInst;
+
+import java.util.*;
+
+/**
+ * The variables of a function that are live at the start and end of every block, that is read on
+ * some path before they are written again. Works in and out of SSA form: a phi writes its variable
+ * at the start of its block, and reads its values at the end of the predecessors they are
+ * selected by.
+ * <p>
+ * Only the global names of the function can be live from one block to the next, so the bitsets
+ * only have a bit for each of them; the temporaries that lowering writes and reads within one block
+ * do not take any space.
+ */
+public final class Liveness extends Dataflow {
+  public static final Analysis<Liveness> ANALYSIS = (function, cache) -> new Liveness(function);
+
+  private final GlobalNames names;
+  /** The global names every block reads before it writes them, and the ones it writes. */
+  private final int[][] uses;
+  private final int[][] defs;
+  /** Whether a block starts with a chain of phis. */
+  private final boolean[] hasPhis;
+
+  public Liveness(Function function) {
+    this(function, new GlobalNames(function));
+  }
+
+  private Liveness(Function function, GlobalNames names) {
+    super(function.getControlFlowGraph(), Direction.BACKWARD, Meet.UNION, names.size());
+    this.names = names;
+    uses = new int[cfg.numBlocks()][];
+    defs = new int[cfg.numBlocks()][];
+    hasPhis = new boolean[cfg.numBlocks()];
+    // The block, plus one, in which every variable was last read or written
+    int[] touched = new int[function.getNumVariables()];
+    var blockUses = new IntList();
+    var blockDefs = new IntList();
+    for (BasicBlock block : cfg.getBlocks()) {
+      int stamp = block.getId() + 1;
+      for (int i = 0; i < block.size(); i++) {
+        Instruction inst = block.get(i);
+        if (inst instanceof PhiInst) {
+          // Its values are read at the end of the predecessors
+          hasPhis[block.getId()] = true;
+        } else {
+          for (Value operand : inst.getOperands()) {
+            if (!(operand instanceof Variable))
+              continue;
+            int v = ((Variable) operand).getIndex();
+            if (touched[v] != stamp) {
+              touched[v] = stamp;
+              blockUses.add(names.numberOf((Variable) operand));
+            }
+          }
+        }
+        Variable dst = inst.getDestVar();
+        if (dst != null && touched[dst.getIndex()] != stamp) {
+          touched[dst.getIndex()] = stamp;
+          if (names.numberOf(dst) >= 0)
+            blockDefs.add(names.numberOf(dst));
+        }
+      }
+      uses[block.getId()] = blockUses.toArray();
+      defs[block.getId()] = blockDefs.toArray();
+      blockUses.clear();
+      blockDefs.clear();
+    }
+    solve();
+  }
+
+  @Override
+  protected void transfer(BasicBlock block, long[] facts, long[] result) {
+    System.arraycopy(facts, 0, result, 0, facts.length);
+    for (int v : defs[block.getId()]) {
+      clear(result, v);
+    }
+    for (int v : uses[block.getId()]) {
+      set(result, v);
+    }
+  }
+
+  @Override
+  protected boolean hasEdgeTransfer() {
+    for (boolean phis : hasPhis) {
+      if (phis)
+        return true;
+    }
+    return false;
+  }
+
+  @Override
+  protected void transferEdge(BasicBlock pred, BasicBlock succ, long[] facts) {
+    if (!hasPhis[succ.getId()])
+      return;
+    for (Instruction inst = succ.getFirst(); inst instanceof PhiInst; inst = inst.getNext(0)) {
+      set(facts, names.numberOf(((PhiInst) inst).getValueFor(pred.getLast())));
+    }
+  }
+
+  /**
+   * Returns the bit of a variable in the bitsets of the analysis, or -1 if it is never live at the
+   * start or end of a block.
+   */
+  public int getBit(Variable var) {
+    return names.numberOf(var);
+  }
+
+  /**
+   * Returns the variable of a bit in the bitsets of the analysis.
+   */
+  public Variable getVariable(int bit) {
+    return names.get(bit);
+  }
+
+  public boolean isLiveIn(BasicBlock block, Variable var) {
+    int v = names.numberOf(var);
+    return v >= 0 && isSetIn(block, v);
+  }
+
+  /**
+   * Returns whether a variable is live at the end of a block, including a value a phi of a
+   * successor selects when control comes from the block.
+   */
+  public boolean isLiveOut(BasicBlock block, Variable var) {
+    int v = names.numberOf(var);
+    return v >= 0 && isSetOut(block, v);
+  }
+
+  public Set<Variable> getLiveIn(BasicBlock block) {
+    return toSet(getIn(block));
+  }
+
+  public Set<Variable> getLiveOut(BasicBlock block) {
+    return toSet(getOut(block));
+  }
+
+  private Set<Variable> toSet(long[] bits) {
+    Set<Variable> live = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (int v = 0; v < names.size(); v++) {
+      if (isSet(bits, v))
+        live.add(names.get(v));
+    }
+    return live;
+  }
+
+  /**
+   * Returns whether a variable is live right after an instruction, which scans the rest of its
+   * block.
+   */
+  public boolean isLiveAfter(Instruction inst, Variable var) {
+    BasicBlock block = cfg.getBlock(inst);
+    for (int i = cfg.getIndexInBlock(inst) + 1; i < block.size(); i++) {
+      Instruction next = block.get(i);
+      // The values of a phi are read in the predecessors, not after the instruction
+      if (!(next instanceof PhiInst) && next.getOperands().contains(var))
+        return true;
+      if (next.getDestVar() == var)
+        return false;
+    }
+    return isLiveOut(block, var);
+  }
+}
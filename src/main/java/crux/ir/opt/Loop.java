@@ -0,0 +1,91 @@
+package crux.ir.opt;
+
+import crux.ir.BasicBlock;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A natural loop of a control flow graph: a header block that dominates the sources of one or more
+ * back edges to it, and every block that can reach one of those sources without passing through
+ * the header. Loops with the same header are one loop. Two loops are either disjoint or one is
+ * nested in the other, see {@link #getParent()}.
+ */
+public final class Loop {
+  private final BasicBlock mHeader;
+  private final List<BasicBlock> mBlocks;
+  private final List<BasicBlock> mLatches;
+  /** The innermost loop of every block of the graph, shared by all of its loops. */
+  private final Loop[] mInnermost;
+  Loop mParent;
+  int mDepth;
+  int mHeight;
+
+  Loop(BasicBlock header, List<BasicBlock> blocks, List<BasicBlock> latches, Loop[] innermost) {
+    mHeader = header;
+    mBlocks = blocks;
+    mLatches = latches;
+    mInnermost = innermost;
+  }
+
+  public BasicBlock getHeader() {
+    return mHeader;
+  }
+
+  /**
+   * Returns the blocks of the loop in reverse postorder, starting with the header.
+   */
+  public List<BasicBlock> getBlocks() {
+    return Collections.unmodifiableList(mBlocks);
+  }
+
+  /**
+   * Returns the blocks with a back edge to the header.
+   */
+  public List<BasicBlock> getLatches() {
+    return Collections.unmodifiableList(mLatches);
+  }
+
+  /**
+   * Returns whether a block is in the loop, which is the case if its innermost loop is this loop
+   * or nested in it.
+   */
+  public boolean contains(BasicBlock block) {
+    if (block == null)
+      return false;
+    for (Loop loop = mInnermost[block.getId()]; loop != null && loop.mDepth >= mDepth;
+        loop = loop.mParent) {
+      if (loop == this)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the innermost loop this loop is nested in, or null for an outermost loop.
+   */
+  public Loop getParent() {
+    return mParent;
+  }
+
+  /**
+   * Returns the number of loops this loop is nested in, counting itself, so outermost loops have
+   * depth 1.
+   */
+  public int getDepth() {
+    return mDepth;
+  }
+
+  /**
+   * Returns the number of loops nested in one another in this loop, counting itself, so loops
+   * with no loop nested in them have height 1.
+   */
+  public int getHeight() {
+    return mHeight;
+  }
+
+  @Override
+  public String toString() {
+    return "Loop" + mBlocks;
+  }
+}
@@ -0,0 +1,196 @@
+package crux.ir.opt;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ir.*;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Moves the computations of a loop that produce the same value in every iteration to a preheader
+ * of the loop, so that they run once before it. The pass works on functions in SSA form, where a
+ * variable that is not written inside a loop has the same value throughout it. Inner loops are
+ * handled first, by a {@link LoopWalker}, so a computation can move out of several loops in turn.
+ * <p>
+ * An instruction is invariant if all of its operands are written outside the loop or by other
+ * invariant instructions. Arithmetic, comparisons, negations, copies and addresses are moved, since
+ * running them when the loop runs no iteration is harmless. A division only moves if its divisor
+ * is a constant it cannot trap on. A load moves if the loop has no call and stores to no element
+ * of the same global, and if it runs in every iteration before the loop can be left. Reading
+ * memory nothing wrote is an error of the emulator, so a load the loop might not run, even one of
+ * an element in bounds, stays where it is.
+ */
+public final class LoopInvariantCodeMotion {
+  private LoopWalker walker;
+  private int hoisted;
+
+  private LoopInvariantCodeMotion() {}
+
+  /**
+   * Moves the loop invariant computations of every function of the program, which must be in SSA
+   * form.
+   *
+   * @return the number of instructions moved out of a loop in every function, by name
+   */
+  public static Map<String, Integer> run(Program program) {
+    Map<String, Integer> hoisted = new LinkedHashMap<>();
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      hoisted.put(function.getName(), run(program, function));
+    }
+    return hoisted;
+  }
+
+  /**
+   * Moves the loop invariant computations of a function in SSA form.
+   *
+   * @return the number of instructions moved out of a loop, once for every loop
+   */
+  public static int run(Program program, Function function) {
+    return run(program, function, new AnalysisCache());
+  }
+
+  /**
+   * Moves the loop invariant computations of a function in SSA form, with its loops taken from a
+   * cache.
+   *
+   * @return the number of instructions moved out of a loop, once for every loop
+   */
+  public static int run(Program program, Function function, AnalysisCache analyses) {
+    if (function.getStart() == null)
+      return 0;
+    var motion = new LoopInvariantCodeMotion();
+    LoopWalker.walk(function, analyses, motion::hoist);
+    return motion.hoisted;
+  }
+
+  private boolean hoist(LoopWalker walker, Loop loop) {
+    this.walker = walker;
+    List<Instruction> invariant = findInvariant(loop);
+    if (invariant.isEmpty())
+      return false;
+
+    Instruction preheader = walker.insertPreheader(loop);
+    var editor = walker.getEditor();
+    Set<Instruction> pending = Collections.newSetFromMap(new IdentityHashMap<>());
+    pending.addAll(invariant);
+    for (Instruction inst : invariant) {
+      boolean ready = editor.canBypass(inst);
+      for (Value operand : inst.getOperands()) {
+        if (operand instanceof Variable && pending.contains(walker.getDefinition(operand)))
+          ready = false;
+      }
+      if (!ready)
+        continue;
+      editor.bypass(inst);
+      editor.insertBefore(preheader, inst);
+      pending.remove(inst);
+      hoisted++;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the invariant instructions of a loop, every one after the invariant instructions that
+   * write its operands.
+   */
+  private List<Instruction> findInvariant(Loop loop) {
+    Set<Variable> writtenInLoop = Collections.newSetFromMap(new IdentityHashMap<>());
+    Set<Symbol> storedGlobals = Collections.newSetFromMap(new IdentityHashMap<>());
+    boolean clobbersMemory = false;
+    for (BasicBlock block : loop.getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        if (inst.getDestVar() != null)
+          writtenInLoop.add(inst.getDestVar());
+        if (inst instanceof CallInst) {
+          clobbersMemory = true;
+        } else if (inst instanceof StoreInst) {
+          AddressAt address = addressOf(((StoreInst) inst).getDestAddress());
+          if (address == null)
+            clobbersMemory = true;
+          else
+            storedGlobals.add(address.getBase());
+        }
+      }
+    }
+
+    List<Instruction> invariant = new ArrayList<>();
+    Set<Instruction> marked = Collections.newSetFromMap(new IdentityHashMap<>());
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (BasicBlock block : loop.getBlocks()) {
+        for (Instruction inst : block.getInstructions()) {
+          if (marked.contains(inst) || !canMove(inst))
+            continue;
+          boolean operandsInvariant = true;
+          for (Value operand : inst.getOperands()) {
+            if (operand instanceof Variable && writtenInLoop.contains(operand)
+                && !marked.contains(walker.getDefinition(operand)))
+              operandsInvariant = false;
+          }
+          if (!operandsInvariant)
+            continue;
+          if (inst instanceof LoadInst && (clobbersMemory
+              || !canMoveLoad(loop, block, (LoadInst) inst, storedGlobals)))
+            continue;
+          marked.add(inst);
+          invariant.add(inst);
+          changed = true;
+        }
+      }
+    }
+    return invariant;
+  }
+
+  private boolean canMove(Instruction inst) {
+    Variable dst = inst.getDestVar();
+    if (dst == null || walker.getNumDefinitions(dst) != 1)
+      return false;
+    if (inst instanceof BinaryOperator) {
+      var op = (BinaryOperator) inst;
+      if (op.getOperator() != BinaryOperator.Op.Div)
+        return true;
+      Long divisor = constantOf(op.getRightOperand());
+      return divisor != null && divisor != 0 && divisor != -1;
+    }
+    return inst instanceof CompareInst || inst instanceof UnaryNotInst || inst instanceof CopyInst
+        || inst instanceof AddressAt || inst instanceof LoadInst;
+  }
+
+  private boolean canMoveLoad(Loop loop, BasicBlock block, LoadInst load,
+      Set<Symbol> storedGlobals) {
+    AddressAt address = addressOf(load.getSrcAddress());
+    if (address == null || storedGlobals.contains(address.getBase()))
+      return false;
+
+    // The load runs in every iteration, before the loop can be left
+    var dominators = walker.getLoops().getDominators();
+    for (BasicBlock member : loop.getBlocks()) {
+      boolean leaves = loop.getLatches().contains(member);
+      for (BasicBlock succ : member.getSuccessors()) {
+        leaves |= !loop.contains(succ);
+      }
+      if (leaves && !dominators.dominates(block.getId(), member.getId()))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the instruction that computes an address, or null if it is not a single one.
+   */
+  private AddressAt addressOf(AddressVar address) {
+    Instruction def = walker.getDefinition(address);
+    return def instanceof AddressAt && walker.getNumDefinitions(address) == 1 ? (AddressAt) def
+        : null;
+  }
+
+  private Long constantOf(Value value) {
+    Instruction def = walker.getDefinition(value);
+    if (def instanceof CopyInst && walker.getNumDefinitions(value) == 1
+        && ((CopyInst) def).getSrcValue() instanceof IntegerConstant)
+      return ((IntegerConstant) ((CopyInst) def).getSrcValue()).getValue();
+    return null;
+  }
+}
@@ -0,0 +1,135 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Drives a pass that changes the loops of a function one at a time, inner loops first.
+ * <p>
+ * The loops are visited in rounds, by height: first the loops with no loop nested in them, then
+ * the loops those are nested in, and so on. Loops of the same height are disjoint, and a pass only
+ * changes a loop, its back edges and its preheader, so every loop of a round is still described by
+ * the {@link Loops} the round started with, and the round shares one {@link GraphEditor} and one
+ * table of definitions. The loops come from an {@link AnalysisCache}, which only finds them again
+ * once a round changed the control flow, so the work is proportional to the size of the function
+ * times the depth loops are nested to, instead of times their number. The loops the last round
+ * started with stay cached for the next pass if it changed nothing.
+ */
+final class LoopWalker {
+  /**
+   * A pass that changes one loop at a time.
+   */
+  interface LoopPass {
+    /**
+     * Changes a loop, with the edits made through the editor of the walker.
+     *
+     * @return whether the function was changed
+     */
+    boolean visit(LoopWalker walker, Loop loop);
+  }
+
+  private final Function function;
+  private final Map<Variable, Integer> defCount = new IdentityHashMap<>();
+  private final Map<Variable, Instruction> defs = new IdentityHashMap<>();
+  private Loops loops;
+  private GraphEditor editor;
+
+  private LoopWalker(Function function) {
+    this.function = function;
+  }
+
+  /**
+   * Visits every loop of a function, inner loops first, with its loops taken from a cache.
+   */
+  static void walk(Function function, AnalysisCache analyses, LoopPass pass) {
+    var walker = new LoopWalker(function);
+    walker.start(analyses.get(function, Loops.ANALYSIS));
+    for (int height = 1; ; height++) {
+      boolean visited = false;
+      boolean changed = false;
+      for (Loop loop : walker.loops.getLoops()) {
+        if (loop.getHeight() == height) {
+          visited = true;
+          changed |= pass.visit(walker, loop);
+        }
+      }
+      if (!visited)
+        return;
+      // The preheaders changed the graph, but the loops and their heights stay the same
+      if (changed)
+        walker.start(analyses.get(function, Loops.ANALYSIS));
+    }
+  }
+
+  private void start(Loops loops) {
+    this.loops = loops;
+    editor = new GraphEditor(function);
+    defCount.clear();
+    defs.clear();
+    for (LocalVar arg : function.getArguments()) {
+      defCount.merge(arg, 1, Integer::sum);
+    }
+    for (BasicBlock block : loops.getControlFlowGraph().getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        if (inst.getDestVar() != null) {
+          defCount.merge(inst.getDestVar(), 1, Integer::sum);
+          defs.put(inst.getDestVar(), inst);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the loops of the function as they were when the round started.
+   */
+  Loops getLoops() {
+    return loops;
+  }
+
+  GraphEditor getEditor() {
+    return editor;
+  }
+
+  /**
+   * Returns the instruction that last writes a value in the order of the blocks when the round
+   * started, or null if no instruction writes it.
+   */
+  Instruction getDefinition(Value value) {
+    return defs.get(value);
+  }
+
+  /**
+   * Returns the number of instructions that wrote a value when the round started, counting the
+   * arguments of the function as written once.
+   */
+  int getNumDefinitions(Value value) {
+    return defCount.getOrDefault(value, 0);
+  }
+
+  /**
+   * Returns the instruction that last writes every variable, as {@link #getDefinition} does.
+   */
+  Map<Variable, Instruction> getDefinitions() {
+    return Collections.unmodifiableMap(defs);
+  }
+
+  /**
+   * Returns the number of instructions that write every variable, as
+   * {@link #getNumDefinitions} does, leaving out the variables no instruction writes.
+   */
+  Map<Variable, Integer> getDefinitionCounts() {
+    return Collections.unmodifiableMap(defCount);
+  }
+
+  /**
+   * Gives a loop of the round a preheader.
+   *
+   * @see Loops#insertPreheader(Loop)
+   */
+  Instruction insertPreheader(Loop loop) {
+    return loops.insertPreheader(loop, editor);
+  }
+}
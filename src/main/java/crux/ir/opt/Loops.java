@@ -0,0 +1,201 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.AnalysisCache.Analysis;
+import crux.ir.insts.NopInst;
+import crux.ir.insts.PhiInst;
+
+import java.util.*;
+
+/**
+ * Finds the natural loops of a function. An edge is a back edge if its target dominates its
+ * source, and the loop of a header is the header together with every block that reaches the
+ * source of one of its back edges without passing through it. Cycles that are entered at more
+ * than one block are not natural loops and are not found; the loops Crux lowers never are.
+ * <p>
+ * The analysis describes the graph as it was when it was built. {@link #insertPreheader} changes
+ * the graph, after which the function has to be analyzed again, but the loops, their nesting and
+ * their blocks stay what they were. See {@link LoopWalker} for passes that change loop by loop.
+ * <p>
+ * Finding the blocks of a loop takes time proportional to its size, so finding all loops takes
+ * time proportional to the size of the function times the depth loops are nested to.
+ */
+public final class Loops {
+  private final Function function;
+  private final ControlFlowGraph cfg;
+  private final Dominators dominators;
+  /** The loops, every loop before the loops it is nested in. */
+  private final List<Loop> loops = new ArrayList<>();
+  private final Loop[] innermost;
+
+  /** The loops of a function, built on its cached dominators. */
+  public static final Analysis<Loops> ANALYSIS = AnalysisCache.controlFlowAnalysis(
+      (function, cache) -> new Loops(function, cache.get(function, Dominators.ANALYSIS)));
+
+  public Loops(Function function) {
+    this(function, new Dominators(function.getControlFlowGraph().getSuccessorIds()));
+  }
+
+  /**
+   * Finds the loops of a function with the dominators of its current control flow graph.
+   */
+  public Loops(Function function, Dominators dominators) {
+    this.function = function;
+    cfg = function.getControlFlowGraph();
+    this.dominators = dominators;
+    innermost = new Loop[cfg.numBlocks()];
+    // The number of the last loop whose body reached every block
+    int[] reached = new int[cfg.numBlocks()];
+    for (BasicBlock header : cfg.getBlocks()) {
+      List<BasicBlock> latches = new ArrayList<>();
+      for (BasicBlock pred : header.getPredecessors()) {
+        if (dominators.dominates(header.getId(), pred.getId()) && !latches.contains(pred))
+          latches.add(pred);
+      }
+      if (!latches.isEmpty())
+        loops.add(findBody(header, latches, reached, loops.size() + 1));
+    }
+
+    // Natural loops with different headers are disjoint or nested, so a loop is nested in the
+    // smallest larger loop that contains its blocks. Going from small to large loops, the largest
+    // loop seen so far that contains a block has no parent yet, and the next loop containing the
+    // block is that parent.
+    loops.sort(Comparator.comparingInt(loop -> loop.getBlocks().size()));
+    Loop[] largest = new Loop[cfg.numBlocks()];
+    for (Loop loop : loops) {
+      for (BasicBlock block : loop.getBlocks()) {
+        Loop nested = largest[block.getId()];
+        if (nested == null)
+          innermost[block.getId()] = loop;
+        else if (nested.mParent == null)
+          nested.mParent = loop;
+        largest[block.getId()] = loop;
+      }
+    }
+    for (Loop loop : loops) {
+      loop.mHeight = Math.max(loop.mHeight, 1);
+      if (loop.mParent != null)
+        loop.mParent.mHeight = Math.max(loop.mParent.mHeight, loop.mHeight + 1);
+    }
+    for (int i = loops.size() - 1; i >= 0; i--) {
+      Loop loop = loops.get(i);
+      loop.mDepth = loop.mParent == null ? 1 : loop.mParent.mDepth + 1;
+    }
+  }
+
+  /**
+   * Collects the blocks that reach a latch without passing through the header, marking every block
+   * reached with the number of the loop.
+   */
+  private Loop findBody(BasicBlock header, List<BasicBlock> latches, int[] reached, int number) {
+    List<BasicBlock> blocks = new ArrayList<>();
+    reached[header.getId()] = number;
+    blocks.add(header);
+    Deque<BasicBlock> stack = new ArrayDeque<>();
+    for (BasicBlock latch : latches) {
+      if (reached[latch.getId()] != number) {
+        reached[latch.getId()] = number;
+        blocks.add(latch);
+        stack.push(latch);
+      }
+    }
+    while (!stack.isEmpty()) {
+      for (BasicBlock pred : stack.pop().getPredecessors()) {
+        if (reached[pred.getId()] != number && dominators.isReachable(pred.getId())) {
+          reached[pred.getId()] = number;
+          blocks.add(pred);
+          stack.push(pred);
+        }
+      }
+    }
+    // The header dominates the other blocks, so it stays first in reverse postorder
+    blocks.sort(Comparator.comparingInt(BasicBlock::getId));
+    return new Loop(header, blocks, latches, innermost);
+  }
+
+  public ControlFlowGraph getControlFlowGraph() {
+    return cfg;
+  }
+
+  public Dominators getDominators() {
+    return dominators;
+  }
+
+  /**
+   * Returns every loop of the function, with the loops nested in a loop before it.
+   */
+  public List<Loop> getLoops() {
+    return Collections.unmodifiableList(loops);
+  }
+
+  /**
+   * Returns the innermost loop containing a block, or null if the block is not in a loop.
+   */
+  public Loop getLoopFor(BasicBlock block) {
+    return innermost[block.getId()];
+  }
+
+  /**
+   * Gives a loop a preheader: a nop that every edge entering the loop from outside leads to, and
+   * that continues with the header. Code placed in front of the nop runs once before the loop is
+   * entered. If the header starts with phis, they select by the nop for all of the edges from
+   * outside, and the values they selected on those edges are merged by new phis in front of the
+   * nop where the edges disagree.
+   *
+   * @return the nop
+   */
+  public Instruction insertPreheader(Loop loop) {
+    return insertPreheader(loop, new GraphEditor(function));
+  }
+
+  /**
+   * Gives a loop a preheader with the edits made through an editor, which keeps the predecessors
+   * it knows of up to date.
+   */
+  Instruction insertPreheader(Loop loop, GraphEditor editor) {
+    Instruction head = loop.getHeader().getFirst();
+    List<Instruction> entries = new ArrayList<>();
+    for (BasicBlock pred : loop.getHeader().getPredecessors()) {
+      if (!loop.contains(pred) && !entries.contains(pred.getLast()))
+        entries.add(pred.getLast());
+    }
+
+    var preheader = new NopInst();
+    List<PhiInst> merges = new ArrayList<>();
+    for (Instruction inst = head; inst instanceof PhiInst; inst = inst.getNext(0)) {
+      var phi = (PhiInst) inst;
+      List<LocalVar> values = new ArrayList<>();
+      for (Instruction entry : entries) {
+        values.add(phi.getValueFor(entry));
+      }
+      LocalVar value = values.isEmpty() ? null : values.get(0);
+      if (new HashSet<>(values).size() > 1) {
+        value = function.getTempVar(phi.getDst().getType(), phi.getDst().getName().substring(1)
+            + "_");
+        merges.add(new PhiInst(value, entries, values));
+      }
+      for (int i = phi.getPredecessors().size() - 1; i >= 0; i--) {
+        if (entries.contains(phi.getPredecessors().get(i)))
+          phi.removePredecessor(i);
+      }
+      if (value != null)
+        phi.addPredecessor(preheader, value);
+    }
+
+    Instruction first = preheader;
+    for (int i = merges.size() - 1; i >= 0; i--) {
+      editor.link(merges.get(i), first);
+      first = merges.get(i);
+    }
+    for (Instruction entry : entries) {
+      for (int k = 0; k < entry.numNext(); k++) {
+        if (entry.getNext(k) == head)
+          editor.redirectEdge(entry, k, first);
+      }
+    }
+    editor.link(preheader, head);
+    if (function.getStart() == head)
+      function.setStart(first);
+    return preheader;
+  }
+}
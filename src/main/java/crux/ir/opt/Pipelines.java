@@ -0,0 +1,71 @@
+package crux.ir.opt;
+
+import crux.ir.PassManager;
+
+import java.util.Map;
+
+/**
+ * The pipelines of passes behind the optimization levels of the compiler.
+ * <ul>
+ * <li>{@code -O0} runs no pass, so the code follows the source as lowered.</li>
+ * <li>{@code -O1} cleans up the control flow, and in SSA form propagates constants, numbers values
+ * and removes dead code.</li>
+ * <li>{@code -O2} first inlines small functions, and also moves loop invariant code out of loops
+ * and reduces the address computations in them.</li>
+ * </ul>
+ * Every pipeline leaves the program out of SSA form, as the emulator and the code generator
+ * expect.
+ * <p>
+ * The passes that need dominators or loops take them from the analyses of the pass manager. Those
+ * stay cached as long as the passes in between leave the edges of a function alone, and every
+ * pass rewrites the instructions the other analyses would describe, so no pass declares an
+ * analysis it preserves.
+ */
+public final class Pipelines {
+  public static final int MAX_LEVEL = 2;
+
+  private Pipelines() {}
+
+  /**
+   * Returns a pass manager with the passes of an optimization level.
+   */
+  public static PassManager create(int level) {
+    if (level < 0 || level > MAX_LEVEL)
+      throw new IllegalArgumentException(
+          String.format("no optimization level %d, the levels are 0 to %d", level, MAX_LEVEL));
+    var passes = new PassManager();
+    if (level == 0)
+      return passes;
+    if (level >= 2)
+      passes.addModulePass("inline", (program, analyses) -> total(
+          Inliner.run(program, Inliner.DEFAULT_THRESHOLD, analyses)));
+    passes.addFunctionPass("simplify-cfg",
+        (program, function, analyses) -> ControlFlowSimplification.run(function));
+    passes.addFunctionPass("ssa", (program, function, analyses) -> SSAConstruction.run(function));
+    passes.addFunctionPass("sccp",
+        (program, function, analyses) -> ConstantPropagation.run(program, function));
+    passes.addFunctionPass("gvn", (program, function, analyses) -> GlobalValueNumbering
+        .run(function, analyses.get(function, Dominators.ANALYSIS)));
+    if (level >= 2) {
+      passes.addFunctionPass("licm", (program, function, analyses) -> LoopInvariantCodeMotion
+          .run(program, function, analyses));
+      passes.addFunctionPass("strength-reduction",
+          (program, function, analyses) -> StrengthReduction.run(program, function, analyses));
+    }
+    passes.addFunctionPass("dce",
+        (program, function, analyses) -> DeadCodeElimination.run(function));
+    passes.addFunctionPass("out-of-ssa",
+        (program, function, analyses) -> SSADestruction.run(function));
+    passes.addFunctionPass("simplify-cfg",
+        (program, function, analyses) -> ControlFlowSimplification.run(function));
+    return passes;
+  }
+
+  private static int total(Map<String, Integer> counts) {
+    int total = 0;
+    for (int count : counts.values()) {
+      total += count;
+    }
+    return total;
+  }
+}
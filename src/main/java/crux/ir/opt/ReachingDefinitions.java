@@ -0,0 +1,154 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.AnalysisCache.Analysis;
+
+import java.util.*;
+
+/**
+ * The instructions that write a variable and reach every block of a function, that is whose value
+ * may still be in the variable at the start of the block. A phi writes its variable like any other
+ * instruction. The arguments of the function are written before the entry and are not
+ * definitions.
+ * <p>
+ * Only the last write of a variable in a block can reach another block, and only a global name of
+ * the function can be read there, so only those writes are numbered. The definitions of the other
+ * variables, mostly temporaries, are found by looking back in the block of the read, and none of
+ * them are said to reach a block. The definitions of one variable get consecutive numbers, so a
+ * block that writes the variable kills all of them by clearing one range of bits.
+ */
+public final class ReachingDefinitions extends Dataflow {
+  public static final Analysis<ReachingDefinitions> ANALYSIS =
+      (function, cache) -> new ReachingDefinitions(function);
+
+  private final GlobalNames names;
+  /** The definitions that can reach another block, by number. */
+  private final Instruction[] definitions;
+  /** The global name every definition writes. */
+  private final int[] variableOf;
+  /** The first number of the definitions of every global name, and the end of the last range. */
+  private final int[] rangeStart;
+  /** The definitions every block generates. */
+  private final int[][] gens;
+
+  public ReachingDefinitions(Function function) {
+    this(function, new GlobalNames(function));
+  }
+
+  private ReachingDefinitions(Function function, GlobalNames names) {
+    this(function.getControlFlowGraph(), names, findDefinitions(function, names));
+  }
+
+  private ReachingDefinitions(ControlFlowGraph cfg, GlobalNames names, List<Instruction> found) {
+    super(cfg, Direction.FORWARD, Meet.UNION, found.size());
+    this.names = names;
+
+    // Number the definitions of every variable consecutively, in the order they were found
+    rangeStart = new int[names.size() + 1];
+    for (Instruction inst : found) {
+      rangeStart[names.numberOf(inst.getDestVar()) + 1]++;
+    }
+    for (int v = 0; v < names.size(); v++) {
+      rangeStart[v + 1] += rangeStart[v];
+    }
+    int[] next = Arrays.copyOf(rangeStart, names.size());
+    definitions = new Instruction[found.size()];
+    variableOf = new int[found.size()];
+    gens = new int[cfg.numBlocks()][];
+    var blockGens = new IntList();
+    int j = 0;
+    for (BasicBlock block : cfg.getBlocks()) {
+      // The definitions were found block by block
+      for (; j < found.size() && cfg.getBlock(found.get(j)) == block; j++) {
+        int v = names.numberOf(found.get(j).getDestVar());
+        int d = next[v]++;
+        definitions[d] = found.get(j);
+        variableOf[d] = v;
+        blockGens.add(d);
+      }
+      gens[block.getId()] = blockGens.toArray();
+      blockGens.clear();
+    }
+    solve();
+  }
+
+  /**
+   * Returns the last write of every global name in every block, block by block.
+   */
+  private static List<Instruction> findDefinitions(Function function, GlobalNames names) {
+    List<Instruction> found = new ArrayList<>();
+    // The block, plus one, in which every variable was last written
+    int[] written = new int[function.getNumVariables()];
+    for (BasicBlock block : function.getControlFlowGraph().getBlocks()) {
+      int stamp = block.getId() + 1;
+      for (int i = block.size() - 1; i >= 0; i--) {
+        Variable dst = block.get(i).getDestVar();
+        if (dst != null && written[dst.getIndex()] != stamp && names.numberOf(dst) >= 0) {
+          written[dst.getIndex()] = stamp;
+          found.add(block.get(i));
+        }
+      }
+    }
+    return found;
+  }
+
+  @Override
+  protected void transfer(BasicBlock block, long[] facts, long[] result) {
+    System.arraycopy(facts, 0, result, 0, facts.length);
+    for (int d : gens[block.getId()]) {
+      int v = variableOf[d];
+      clearRange(result, rangeStart[v], rangeStart[v + 1]);
+      set(result, d);
+    }
+  }
+
+  public int numDefinitions() {
+    return definitions.length;
+  }
+
+  public Instruction getDefinition(int i) {
+    return definitions[i];
+  }
+
+  /**
+   * Returns the definitions of a variable that reach the start of a block, or none if the variable
+   * is not a global name.
+   */
+  public List<Instruction> getReachingIn(BasicBlock block, Variable var) {
+    return collect(block, var, false);
+  }
+
+  /**
+   * Returns the definitions of a variable that reach the end of a block, as seen by a phi that
+   * selects a value when control comes from the block.
+   */
+  public List<Instruction> getReachingOut(BasicBlock block, Variable var) {
+    return collect(block, var, true);
+  }
+
+  /**
+   * Returns the definitions of a variable that reach an instruction, that is the last write before
+   * it in its block, or else the definitions that reach the start of the block.
+   */
+  public List<Instruction> getReaching(Instruction inst, Variable var) {
+    BasicBlock block = cfg.getBlock(inst);
+    for (int i = cfg.getIndexInBlock(inst) - 1; i >= 0; i--) {
+      if (block.get(i).getDestVar() == var)
+        return List.of(block.get(i));
+    }
+    return getReachingIn(block, var);
+  }
+
+  private List<Instruction> collect(BasicBlock block, Variable var, boolean atEnd) {
+    int v = names.numberOf(var);
+    if (v < 0)
+      return List.of();
+    long[] bits = atEnd ? getOut(block) : getIn(block);
+    List<Instruction> reaching = new ArrayList<>();
+    for (int d = rangeStart[v]; d < rangeStart[v + 1]; d++) {
+      if (isSet(bits, d))
+        reaching.add(definitions[d]);
+    }
+    return reaching;
+  }
+}
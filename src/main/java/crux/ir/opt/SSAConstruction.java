@@ -0,0 +1,243 @@
+package crux.ir.opt;
+
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.LocalVar;
+import crux.ir.Value;
+import crux.ir.insts.NopInst;
+import crux.ir.insts.PhiInst;
+
+import java.util.*;
+
+/**
+ * Puts a function into SSA form, where every variable is written by exactly one instruction, as
+ * described by Cytron et al. Phis are placed at the iterated dominance frontiers of the
+ * definitions of every variable, and a walk of the dominator tree then gives every definition a
+ * new variable and points every use to the definition that reaches it.
+ * <p>
+ * Only variables with more than one definition are renamed; the arguments count as defined on
+ * entry. Every other variable already has a single definition. Uses that no definition reaches
+ * keep the original variable, which is no longer written, so they read an undefined value as
+ * before. Every step takes time linear in the size of the function and its dominance frontiers.
+ */
+public final class SSAConstruction {
+  private final Function function;
+  private final InstructionGraph graph;
+  private final Dominators dominators;
+
+  private SSAConstruction(Function function) {
+    this.function = function;
+    if (function.getControlFlowGraph().getEntry().numPredecessors() > 0) {
+      // Phis cannot be placed in front of the entry, so give it a separate one
+      var entry = new NopInst();
+      entry.setNext(0, function.getStart());
+      function.setStart(entry);
+    }
+    graph = new InstructionGraph(function);
+    dominators = new Dominators(graph.successors);
+  }
+
+  /**
+   * Puts every function of the program into SSA form.
+   */
+  public static void run(crux.ir.Program program) {
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      run(it.next());
+    }
+  }
+
+  /**
+   * Puts a function into SSA form.
+   *
+   * @return the number of phis inserted
+   */
+  public static int run(Function function) {
+    if (function.getStart() == null)
+      return 0;
+    return new SSAConstruction(function).construct();
+  }
+
+  private int construct() {
+    // Find the variables with more than one definition
+    Map<LocalVar, Integer> defCount = new IdentityHashMap<>();
+    for (LocalVar arg : function.getArguments()) {
+      defCount.merge(arg, 1, Integer::sum);
+    }
+    for (Instruction inst : graph.nodes) {
+      if (inst.getDestVar() instanceof LocalVar)
+        defCount.merge((LocalVar) inst.getDestVar(), 1, Integer::sum);
+    }
+    Map<LocalVar, Integer> varIndex = new IdentityHashMap<>();
+    List<LocalVar> vars = new ArrayList<>();
+    for (Instruction inst : graph.nodes) {
+      Value dest = inst.getDestVar();
+      if (dest instanceof LocalVar && defCount.get(dest) > 1 && !varIndex.containsKey(dest)) {
+        varIndex.put((LocalVar) dest, vars.size());
+        vars.add((LocalVar) dest);
+      }
+    }
+    List<List<PhiInst>> phis = placePhis(vars, varIndex);
+    rename(vars, varIndex, phis);
+    return insertPhis(phis);
+  }
+
+  /**
+   * Places a phi for every renamed variable at the iterated dominance frontier of its definitions.
+   */
+  private List<List<PhiInst>> placePhis(List<LocalVar> vars, Map<LocalVar, Integer> varIndex) {
+    int n = graph.nodes.size();
+    List<List<Integer>> defSites = new ArrayList<>(vars.size());
+    for (int v = 0; v < vars.size(); v++) {
+      defSites.add(new ArrayList<>());
+    }
+    for (LocalVar arg : function.getArguments()) {
+      Integer v = varIndex.get(arg);
+      if (v != null)
+        defSites.get(v).add(0);
+    }
+    for (int node = 0; node < n; node++) {
+      Integer v = varIndex.get(graph.nodes.get(node).getDestVar());
+      if (v != null)
+        defSites.get(v).add(node);
+    }
+
+    // The phis of every join point, null for the nodes without one
+    List<List<PhiInst>> phis = new ArrayList<>(Collections.nCopies(n, null));
+    int[] hasPhi = new int[n];
+    int[] onWorklist = new int[n];
+    int[] worklist = new int[n];
+    for (int v = 0; v < vars.size(); v++) {
+      int stamp = v + 1;
+      int size = 0;
+      for (int node : defSites.get(v)) {
+        if (onWorklist[node] != stamp) {
+          onWorklist[node] = stamp;
+          worklist[size++] = node;
+        }
+      }
+      while (size > 0) {
+        int node = worklist[--size];
+        for (int join : dominators.getFrontier(node)) {
+          if (hasPhi[join] == stamp)
+            continue;
+          hasPhi[join] = stamp;
+          if (phis.get(join) == null)
+            phis.set(join, new ArrayList<>());
+          List<Instruction> preds = graph.distinctPredecessors(dominators, join);
+          LocalVar var = vars.get(v);
+          phis.get(join).add(new PhiInst(var, preds, Collections.nCopies(preds.size(), var)));
+          if (onWorklist[join] != stamp) {
+            onWorklist[join] = stamp;
+            worklist[size++] = join;
+          }
+        }
+      }
+    }
+    return phis;
+  }
+
+  /**
+   * Walks the dominator tree and gives every definition of a renamed variable a new variable,
+   * keeping a stack of the current definition of every variable.
+   */
+  private void rename(List<LocalVar> vars, Map<LocalVar, Integer> varIndex,
+      List<List<PhiInst>> phis) {
+    List<Deque<LocalVar>> current = new ArrayList<>();
+    for (int v = 0; v < vars.size(); v++) {
+      current.add(new ArrayDeque<>());
+    }
+    for (LocalVar arg : function.getArguments()) {
+      Integer v = varIndex.get(arg);
+      if (v != null)
+        current.get(v).push(arg);
+    }
+    // The variables defined by every node on the current path, popped once it is left
+    Deque<Integer> defined = new ArrayDeque<>();
+    Deque<int[]> stack = new ArrayDeque<>();
+    stack.push(new int[] {0, 0});
+    while (!stack.isEmpty()) {
+      int[] top = stack.peek();
+      int node = top[0];
+      if (top[1] < 0) {
+        // Leaving the node
+        stack.pop();
+        for (int k = -top[1] - 1; k > 0; k--) {
+          current.get(defined.pop()).pop();
+        }
+        continue;
+      }
+      int pushed = 0;
+      Instruction inst = graph.nodes.get(node);
+      if (phis.get(node) != null) {
+        for (PhiInst phi : phis.get(node)) {
+          int v = varIndex.get(phi.getDst());
+          LocalVar name = newName(vars.get(v));
+          phi.setDestVar(name);
+          current.get(v).push(name);
+          defined.push(v);
+          pushed++;
+        }
+      }
+      List<Value> operands = inst.getOperands();
+      for (int i = 0; i < operands.size(); i++) {
+        Integer v = varIndex.get(operands.get(i));
+        if (v != null && !current.get(v).isEmpty())
+          inst.setOperand(i, current.get(v).peek());
+      }
+      Integer def = varIndex.get(inst.getDestVar());
+      if (def != null) {
+        LocalVar name = newName(vars.get(def));
+        inst.setDestVar(name);
+        current.get(def).push(name);
+        defined.push(def);
+        pushed++;
+      }
+      int[] succs = graph.successors[node];
+      for (int k = 0; k < succs.length; k++) {
+        int succ = succs[k];
+        if (phis.get(succ) == null || k == 1 && succs[0] == succ)
+          continue;
+        for (PhiInst phi : phis.get(succ)) {
+          int index = phi.getPredecessors().indexOf(inst);
+          int v = varIndex.get(phi.getValue(index));
+          if (!current.get(v).isEmpty())
+            phi.setOperand(index, current.get(v).peek());
+        }
+      }
+      top[1] = -pushed - 1;
+      for (int child : dominators.getChildren(node)) {
+        stack.push(new int[] {child, 0});
+      }
+    }
+  }
+
+  private LocalVar newName(LocalVar var) {
+    return function.getTempVar(var.getType(), var.getName().substring(1) + "_");
+  }
+
+  /**
+   * Links the phis of every join point into a chain in front of it.
+   *
+   * @return the number of phis
+   */
+  private int insertPhis(List<List<PhiInst>> phis) {
+    int inserted = 0;
+    for (int node = 0; node < phis.size(); node++) {
+      List<PhiInst> chain = phis.get(node);
+      if (chain == null)
+        continue;
+      Instruction join = graph.nodes.get(node);
+      inserted += chain.size();
+      for (int i = 0; i < chain.size(); i++) {
+        chain.get(i).setNext(0, i + 1 < chain.size() ? chain.get(i + 1) : join);
+      }
+      for (Instruction pred : chain.get(0).getPredecessors()) {
+        for (int k = 0; k < pred.numNext(); k++) {
+          if (pred.getNext(k) == join)
+            pred.setNext(k, chain.get(0));
+        }
+      }
+    }
+    return inserted;
+  }
+}
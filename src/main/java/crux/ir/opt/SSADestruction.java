@@ -0,0 +1,135 @@
+package crux.ir.opt;
+
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.LocalVar;
+import crux.ir.Program;
+import crux.ir.insts.CopyInst;
+import crux.ir.insts.PhiInst;
+
+import java.util.*;
+
+/**
+ * Takes a function out of SSA form by replacing its phis with copies. Every edge into a chain of
+ * phis gets the copies of the values the phis select for it, so that no copy runs on a path that
+ * does not lead to the join. Since the instruction graph has no blocks, putting copies on an edge
+ * never needs to split a block, and the copies of one edge never interfere with another edge.
+ * <p>
+ * The copies of an edge form a parallel copy: all of them read their sources before any of them
+ * writes. They are ordered so that no source is overwritten before it is read, and cycles, as in
+ * a swap of two variables, are broken with a temporary.
+ */
+public final class SSADestruction {
+  private final Function function;
+
+  private SSADestruction(Function function) {
+    this.function = function;
+  }
+
+  /**
+   * Replaces the phis of every function of the program with copies.
+   */
+  public static void run(Program program) {
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      run(it.next());
+    }
+  }
+
+  /**
+   * Replaces the phis of a function with copies.
+   *
+   * @return the number of copies inserted
+   */
+  public static int run(Function function) {
+    if (function.getStart() == null)
+      return 0;
+    return new SSADestruction(function).destruct();
+  }
+
+  private int destruct() {
+    int copies = 0;
+    var graph = new InstructionGraph(function);
+    for (Instruction pred : graph.nodes) {
+      if (pred instanceof PhiInst)
+        continue;
+      for (int k = 0; k < pred.numNext(); k++) {
+        if (pred.getNext(k) instanceof PhiInst)
+          copies += replaceEdge(pred, k);
+      }
+    }
+    return copies;
+  }
+
+  /**
+   * Replaces the edge from {@code pred} into a chain of phis with the copies of the values the
+   * phis select for it, followed by the instruction after the chain.
+   *
+   * @return the number of copies
+   */
+  private int replaceEdge(Instruction pred, int k) {
+    List<LocalVar> dsts = new ArrayList<>();
+    List<LocalVar> srcs = new ArrayList<>();
+    Instruction inst = pred.getNext(k);
+    while (inst instanceof PhiInst) {
+      var phi = (PhiInst) inst;
+      LocalVar src = phi.getValueFor(pred);
+      if (src != phi.getDst()) {
+        dsts.add(phi.getDst());
+        srcs.add(src);
+      }
+      inst = inst.getNext(0);
+    }
+    Instruction join = inst;
+    Instruction last = pred;
+    int edge = k;
+    List<CopyInst> copies = sequentialize(dsts, srcs);
+    for (CopyInst copy : copies) {
+      last.setNext(edge, copy);
+      last = copy;
+      edge = 0;
+    }
+    last.setNext(edge, join);
+    return copies.size();
+  }
+
+  /**
+   * Orders a parallel copy. A copy can run once no other pending copy reads its destination;
+   * when only cycles are left, the source of one copy is saved to a temporary first.
+   */
+  private List<CopyInst> sequentialize(List<LocalVar> dsts, List<LocalVar> srcs) {
+    List<CopyInst> copies = new ArrayList<>();
+    Map<LocalVar, Integer> reads = new IdentityHashMap<>();
+    for (LocalVar src : srcs) {
+      reads.merge(src, 1, Integer::sum);
+    }
+    boolean[] done = new boolean[dsts.size()];
+    int remaining = dsts.size();
+    while (remaining > 0) {
+      boolean progress = false;
+      for (int i = 0; i < dsts.size(); i++) {
+        if (done[i] || reads.getOrDefault(dsts.get(i), 0) > 0)
+          continue;
+        copies.add(new CopyInst(dsts.get(i), srcs.get(i)));
+        reads.merge(srcs.get(i), -1, Integer::sum);
+        done[i] = true;
+        remaining--;
+        progress = true;
+      }
+      if (progress || remaining == 0)
+        continue;
+      // Every pending destination is still read: break a cycle
+      for (int i = 0; i < dsts.size(); i++) {
+        if (done[i])
+          continue;
+        LocalVar src = srcs.get(i);
+        LocalVar temp = function.getTempVar(src.getType(), "swap");
+        copies.add(new CopyInst(temp, src));
+        reads.merge(src, -1, Integer::sum);
+        reads.merge(temp, 1, Integer::sum);
+        srcs.set(i, temp);
+        break;
+      }
+    }
+    return copies;
+  }
+}
@@ -0,0 +1,294 @@
+package crux.ir.opt;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ast.types.IntType;
+import crux.ir.*;
+import crux.ir.insts.*;
+import crux.ir.opt.InductionVariables.InductionVariable;
+
+import java.util.*;
+
+/**
+ * Replaces the addresses a loop computes from an induction variable with addresses that step
+ * through the array, on a function in SSA form. An {@code addressAt} of a global at an induction
+ * variable multiplies the index by the size of an element and adds the base in every iteration.
+ * Instead, the address of the first element is taken once before the loop, and every back edge
+ * moves it by the step of the induction variable with an {@link AddressOffset}. Inner loops are
+ * handled first, by a {@link LoopWalker}.
+ * <p>
+ * Stepping addresses are not in SSA form: the address before the loop and the one on every back
+ * edge write the same variable, so that no phi has to merge addresses. It is still the address of
+ * the element at the current value of the induction variable everywhere in the loop, and after it
+ * the address of the last iteration, so every use of a replaced address in the function reads the
+ * stepping one instead.
+ * <p>
+ * A comparison of a basic induction variable with an invariant, such as the test of a loop lowered
+ * from a {@code for}, is then replaced by a comparison of a stepping address with the address at
+ * the invariant (linear function test replacement). That only gives the same result if no address
+ * the comparison sees wraps around, so the initial value, the step and the bound have to be
+ * constants, the variable has to move towards the bound, and the initial value and the bound have
+ * to lie within the global. If the variable has no other use left, it only feeds its own update,
+ * and dead code elimination removes it.
+ */
+public final class StrengthReduction {
+  private final Program program;
+  private final Function function;
+  private final Map<Symbol, Long> numElements = new IdentityHashMap<>();
+  /** The stepping address that replaces every address computation removed from a loop. */
+  private final Map<AddressVar, AddressVar> replacement = new IdentityHashMap<>();
+  private int reduced;
+
+  private StrengthReduction(Program program, Function function) {
+    this.program = program;
+    this.function = function;
+    for (Iterator<GlobalDecl> it = program.getGlobals(); it.hasNext();) {
+      GlobalDecl global = it.next();
+      numElements.put(global.getSymbol(), global.getNumElement().getValue());
+    }
+  }
+
+  /**
+   * Reduces the address computations in the loops of every function of the program, which must be
+   * in SSA form.
+   *
+   * @return the number of address computations replaced in every function, by name
+   */
+  public static Map<String, Integer> run(Program program) {
+    Map<String, Integer> reduced = new LinkedHashMap<>();
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      reduced.put(function.getName(), run(program, function));
+    }
+    return reduced;
+  }
+
+  /**
+   * Reduces the address computations in the loops of a function in SSA form.
+   *
+   * @return the number of address computations replaced
+   */
+  public static int run(Program program, Function function) {
+    return run(program, function, new AnalysisCache());
+  }
+
+  /**
+   * Reduces the address computations in the loops of a function in SSA form, with its loops taken
+   * from a cache.
+   *
+   * @return the number of address computations replaced
+   */
+  public static int run(Program program, Function function, AnalysisCache analyses) {
+    if (function.getStart() == null)
+      return 0;
+    var reduction = new StrengthReduction(program, function);
+    LoopWalker.walk(function, analyses, reduction::reduce);
+    if (reduction.reduced > 0)
+      reduction.replaceUses();
+    return reduction.reduced;
+  }
+
+  private boolean reduce(LoopWalker walker, Loop loop) {
+    var ivs = new InductionVariables(walker, loop);
+    List<AddressAt> candidates = new ArrayList<>();
+    for (BasicBlock block : loop.getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        // The first address of a nested loop that steps is written again in that loop
+        if (inst instanceof AddressAt && ivs.get(((AddressAt) inst).getOffset()) != null
+            && walker.getNumDefinitions(inst.getDestVar()) == 1)
+          candidates.add((AddressAt) inst);
+      }
+    }
+    if (candidates.isEmpty())
+      return false;
+
+    Instruction preheader = walker.insertPreheader(loop);
+    Instruction head = loop.getHeader().getFirst();
+    var editor = walker.getEditor();
+    // The instruction every back edge currently comes from, once steps were put on it
+    Map<Instruction, Instruction> latchEnds = new LinkedHashMap<>();
+    for (BasicBlock latch : loop.getLatches()) {
+      latchEnds.put(latch.getLast(), latch.getLast());
+    }
+    Map<List<Object>, AddressVar> stepping = new LinkedHashMap<>();
+    Map<List<Object>, LocalVar> strides = new HashMap<>();
+    for (AddressAt addressAt : candidates) {
+      InductionVariable iv = ivs.get(addressAt.getOffset());
+      LocalVar initial = ivs.getPhi(iv.getBasic()).getValueFor(preheader);
+      List<Object> key = List.of(addressAt.getBase(), iv.getVariable());
+      AddressVar address = stepping.get(key);
+      if (address == null) {
+        address = function.getTempAddressVar(addressAt.getDst().getType());
+        LocalVar index = replay(editor, preheader, iv, initial);
+        editor.insertBefore(preheader, new AddressAt(address, addressAt.getBase(), index));
+        LocalVar stride = strides.get(List.of(iv.getBasic(), iv.getFactors()));
+        if (stride == null) {
+          stride = stride(editor, preheader, iv);
+          strides.put(List.of(iv.getBasic(), iv.getFactors()), stride);
+        }
+        for (Map.Entry<Instruction, Instruction> latch : latchEnds.entrySet()) {
+          var step = new AddressOffset(address, address, stride);
+          editor.insertOnEdge(latch.getValue(), head, step);
+          latch.setValue(step);
+        }
+        stepping.put(key, address);
+      }
+      replacement.put(addressAt.getDst(), address);
+      if (editor.canBypass(addressAt))
+        editor.bypass(addressAt);
+      else
+        editor.replace(addressAt, new NopInst());
+      reduced++;
+    }
+
+    for (BasicBlock block : loop.getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        if (inst instanceof CompareInst)
+          replaceTest(walker, preheader, ivs, (CompareInst) inst, stepping);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Makes every instruction of the function that reads a removed address read the address that
+   * steps in its place. Uses after a loop are only rewritten here, once every loop was reduced, so
+   * the function is scanned once instead of once for every loop.
+   */
+  private void replaceUses() {
+    for (BasicBlock block : function.getControlFlowGraph().getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        List<Value> operands = inst.getOperands();
+        for (int i = 0; i < operands.size(); i++) {
+          AddressVar address = replacement.get(operands.get(i));
+          if (address != null)
+            inst.setOperand(i, address);
+        }
+      }
+    }
+  }
+
+  /**
+   * Computes the value of a derived induction variable in the first iteration in front of the
+   * preheader, by running its derivation on the initial value of the basic induction variable.
+   */
+  private LocalVar replay(GraphEditor editor, Instruction preheader, InductionVariable iv,
+      LocalVar initial) {
+    Map<Value, LocalVar> renamed = new IdentityHashMap<>();
+    renamed.put(iv.getBasic().getVariable(), initial);
+    LocalVar value = initial;
+    for (Instruction inst : iv.getDerivation()) {
+      value = function.getTempVar(inst.getDestVar().getType());
+      Instruction copy;
+      if (inst instanceof CopyInst) {
+        copy = new CopyInst(value, renamed.get(((CopyInst) inst).getSrcValue()));
+      } else {
+        var op = (BinaryOperator) inst;
+        copy = new BinaryOperator(op.getOperator(), value,
+            renamed.getOrDefault(op.getLeftOperand(), op.getLeftOperand()),
+            renamed.getOrDefault(op.getRightOperand(), op.getRightOperand()));
+      }
+      editor.insertBefore(preheader, copy);
+      renamed.put(inst.getDestVar(), value);
+    }
+    return value;
+  }
+
+  /**
+   * Computes the change of an induction variable in every iteration in front of the preheader,
+   * unless it is the step of its basic induction variable.
+   */
+  private LocalVar stride(GraphEditor editor, Instruction preheader, InductionVariable iv) {
+    LocalVar stride = iv.getStep();
+    if (iv.isStepNegated()) {
+      LocalVar zero = function.getTempVar(new IntType());
+      editor.insertBefore(preheader, new CopyInst(zero, IntegerConstant.get(program, 0)));
+      LocalVar negated = function.getTempVar(new IntType());
+      editor.insertBefore(preheader,
+          new BinaryOperator(BinaryOperator.Op.Sub, negated, zero, stride));
+      stride = negated;
+    }
+    for (LocalVar factor : iv.getFactors()) {
+      LocalVar product = function.getTempVar(new IntType());
+      editor.insertBefore(preheader,
+          new BinaryOperator(BinaryOperator.Op.Mul, product, stride, factor));
+      stride = product;
+    }
+    return stride;
+  }
+
+  /**
+   * Replaces a comparison of a basic induction variable with an invariant by a comparison of the
+   * address that steps with it through some global, if there is one and no address the comparison
+   * sees can wrap around.
+   */
+  private void replaceTest(LoopWalker walker, Instruction preheader, InductionVariables ivs,
+      CompareInst compare, Map<List<Object>, AddressVar> stepping) {
+    int side;
+    if (isBasic(ivs, compare.getLeftOperand()) && ivs.isInvariant(compare.getRightOperand()))
+      side = 0;
+    else if (isBasic(ivs, compare.getRightOperand()) && ivs.isInvariant(compare.getLeftOperand()))
+      side = 1;
+    else
+      return;
+    Value var = compare.getOperands().get(side);
+    InductionVariable iv = ivs.get(var);
+    Long initial = constantOf(walker, ivs.getPhi(iv).getValueFor(preheader));
+    Long step = constantOf(walker, iv.getStep());
+    Long bound = constantOf(walker, compare.getOperands().get(1 - side));
+    if (initial == null || step == null || bound == null)
+      return;
+    if (iv.isStepNegated())
+      step = -step;
+    var predicate = side == 0 ? compare.getPredicate()
+        : GlobalValueNumbering.mirror(compare.getPredicate());
+    if (!movesTowardsBound(predicate, step))
+      return;
+    for (Map.Entry<List<Object>, AddressVar> entry : stepping.entrySet()) {
+      if (entry.getKey().get(1) != var)
+        continue;
+      // The compared indices stay between the initial value and the bound, give or take a step
+      Long size = numElements.get((Symbol) entry.getKey().get(0));
+      if (size == null || initial < 0 || initial > size || bound < 0 || bound > size
+          || Math.abs(step) > size)
+        continue;
+      var editor = walker.getEditor();
+      AddressVar address = entry.getValue();
+      var boundAddress = function.getTempAddressVar(address.getType());
+      editor.insertBefore(preheader, new AddressAt(boundAddress, (Symbol) entry.getKey().get(0),
+          (LocalVar) compare.getOperands().get(1 - side)));
+      compare.setOperand(side, address);
+      compare.setOperand(1 - side, boundAddress);
+      return;
+    }
+  }
+
+  /**
+   * Returns whether a variable compared with a predicate to a bound on its right leaves the loop
+   * once it steps past the bound, instead of running until it wraps around.
+   */
+  private static boolean movesTowardsBound(CompareInst.Predicate predicate, long step) {
+    switch (predicate) {
+      case LT:
+      case LE:
+        return step > 0;
+      case GT:
+      case GE:
+        return step < 0;
+      default:
+        return false;
+    }
+  }
+
+  private static Long constantOf(LoopWalker walker, Value value) {
+    Instruction def = walker.getDefinition(value);
+    if (def instanceof CopyInst && walker.getNumDefinitions(value) == 1
+        && ((CopyInst) def).getSrcValue() instanceof IntegerConstant)
+      return ((IntegerConstant) ((CopyInst) def).getSrcValue()).getValue();
+    return null;
+  }
+
+  private static boolean isBasic(InductionVariables ivs, Value value) {
+    InductionVariable iv = ivs.get(value);
+    return iv != null && iv.isBasic();
+  }
+}
@@ -0,0 +1,98 @@
+package crux.printing;
+
+import crux.ir.*;
+import crux.ir.engine.Profile;
+import crux.ir.insts.JumpInst;
+
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Prints the IR of a program in the dot format of {@link IRPrinter}, annotated with the execution
+ * counts of a {@link Profile}. Every instruction shows how often it ran and is filled with a shade
+ * of red that grows with its count, the edges of jumps show how often they were followed.
+ */
+public final class ProfilePrinter {
+  private static final int INDENT = 2;
+
+  private final PrintStream mStdOut;
+  private final IRValueFormatter mValueFormatter;
+
+  public ProfilePrinter(PrintStream stdout) {
+    mValueFormatter = new IRValueFormatter();
+    mStdOut = stdout;
+  }
+
+  public void print(Program program, Profile profile) {
+    var builder = new StringBuilder();
+    builder.append("digraph Program {\n");
+    builder.append(" ".repeat(INDENT)).append("node [shape=rectangle, style=filled]; \n");
+    long max = Math.max(1, profile.getMaxCount());
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      builder.append("\n");
+      formatFunction(builder, it.next(), profile, max);
+      builder.append("\n");
+    }
+    builder.append("}");
+    mStdOut.print(builder);
+  }
+
+  private void formatFunction(StringBuilder builder, Function function, Profile profile,
+      long max) {
+    var funcName = function.getName();
+    var indent = INDENT;
+    builder.append(" ".repeat(indent)).append("subgraph cluster_").append(funcName).append(" {\n");
+    indent *= 2;
+    builder.append(" ".repeat(indent)).append("color=lightgrey;\n");
+    builder.append(" ".repeat(indent))
+        .append(String.format("label=\"function %%%s\";\n", funcName));
+
+    int nodeCounter = 0;
+    final var nodePrefix = funcName + "_n";
+    Map<Instruction, String> nodeIdMap = new HashMap<>();
+    Stack<Instruction> tovisit = new Stack<>();
+    Instruction start = function.getStart();
+    tovisit.add(start);
+    nodeIdMap.put(start, nodePrefix + (nodeCounter++));
+
+    while (!tovisit.isEmpty()) {
+      Instruction inst = tovisit.pop();
+      String srcId = nodeIdMap.get(inst);
+      long count = profile.getCount(inst);
+
+      builder.append(" ".repeat(indent)).append(srcId).append(" [label=\"")
+          .append(inst.format(mValueFormatter)).append("\\n").append(count)
+          .append("\", fillcolor=\"").append(heat(count, max)).append("\"];\n");
+
+      for (int i = 0; i < inst.numNext(); i++) {
+        Instruction dst = inst.getNext(i);
+        if (!nodeIdMap.containsKey(dst)) {
+          nodeIdMap.put(dst, nodePrefix + (nodeCounter++));
+          tovisit.push(dst);
+        }
+        String dstId = nodeIdMap.get(dst);
+        builder.append(" ".repeat(indent)).append(srcId).append(" -> ").append(dstId);
+        if (inst.numNext() == 2) {
+          builder.append(" [label=\"  ").append(i == 0 ? "False" : "True");
+          if (inst instanceof JumpInst && count > 0) {
+            long taken = profile.getTaken((JumpInst) inst);
+            long followed = i == 0 ? count - taken : taken;
+            builder.append(String.format(" %.1f%%", 100.0 * followed / count));
+          }
+          builder.append("  \"]");
+        }
+        builder.append(";\n");
+      }
+    }
+
+    indent /= 2;
+    builder.append(" ".repeat(indent)).append("}\n");
+  }
+
+  /**
+   * Returns a dot color in HSV, white for instructions that never ran and red for the hottest.
+   */
+  private static String heat(long count, long max) {
+    return String.format(Locale.ROOT, "0.000 %.3f 1.000", (double) count / max);
+  }
+}
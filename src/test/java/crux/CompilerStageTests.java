@@ -301,6 +301,53 @@ final class CompilerStageTests {
     }));
   }
 
+  /**
+   * Compiles a tail recursion with a million calls, which overflows the native stack unless every
+   * call reuses the frame of its caller.
+   */
+  @TestFactory
+  Stream<DynamicTest> codegenTailCalls() {
+    if (skipStage("stage5")) {
+      return Stream.empty();
+    }
+
+    var test = "crux/programs/tail-recursion.crx";
+    Runtime runtime = Runtime.getRuntime();
+    return Stream.of(dynamicTest(test, () -> {
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      Future<String> future = executor.submit(new Callable<String>() {
+        public String call() throws IOException, InterruptedException {
+          var loader = getClass().getClassLoader();
+          var driver = new Driver();
+          driver.setInputStream(loader.getResourceAsStream(test));
+          driver.run();
+
+          Process build = runtime.exec("gcc a.s src/runtime/runtime.c -o autotest.bin");
+          if (build.waitFor() != 0) {
+            throw new Error("Assembling and linking failed");
+          }
+          Process run = runtime.exec("./autotest.bin");
+          try (var runinput = run.getOutputStream()) {
+            runinput.write("1000000\n".getBytes(StandardCharsets.UTF_8));
+          }
+          return new String(run.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        }
+      });
+      String output = null;
+      try {
+        output = future.get(TIMEOUT, TimeUnit.SECONDS);
+      } catch (TimeoutException e) {
+        future.cancel(true);
+      }
+      if (output == null) {
+        Assertions.fail(String.format("Timeout for CodeGen for program %s.", test));
+      } else {
+        Assertions.assertEquals("int?1000000", sanitize(output).trim(),
+            String.format("Tail calls of program %s grow the stack.", test));
+      }
+    }));
+  }
+
   private List<InOut> getTests(String stageName) throws IOException {
     var loader = getClass().getClassLoader();
     var folder = String.format("crux/stages/%s", stageName);
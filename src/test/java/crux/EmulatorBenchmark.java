@@ -0,0 +1,250 @@
+package crux;
+
+import crux.ast.ParseTreeLower;
+import crux.ast.types.TypeChecker;
+import crux.ir.ASTLower;
+import crux.ir.Program;
+import crux.ir.engine.DecodedProgram;
+import crux.ir.engine.EngineKind;
+import crux.ir.engine.SlotEngine;
+import crux.pt.CruxLexer;
+import crux.pt.CruxParser;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the allocation rate of the slot engine on arithmetic, call and memory heavy Crux
+ * programs, and compares the run times of all engines on these programs and on the stage 5 test
+ * programs. This is not a unit test, run its main method with the test classpath after
+ * {@code mvn test-compile}.
+ */
+public final class EmulatorBenchmark {
+  private static final int WARMUP_RUNS = 20;
+  private static final int MEASURED_RUNS = 10;
+  private static final String STAGE5 = "crux/stages/codegen/";
+
+  static final Map<String, String> WORKLOADS = new LinkedHashMap<>();
+
+  static {
+    WORKLOADS.put("arithmetic", String.join("\n",
+        "void main() {",
+        "  int i;",
+        "  int sum;",
+        "  sum = 0;",
+        "  for (i = 0; i < 1000000; i = i + 1) {",
+        "    if (i / 2 * 2 == i) {",
+        "      sum = sum + i * 3;",
+        "    } else {",
+        "      sum = sum - i / 7;",
+        "    }",
+        "  }",
+        "  printInt(sum);",
+        "}"));
+    WORKLOADS.put("fib", String.join("\n",
+        "int fib(int n) {",
+        "  if (n < 2) {",
+        "    return n;",
+        "  }",
+        "  return fib(n - 1) + fib(n - 2);",
+        "}",
+        "void main() {",
+        "  printInt(fib(24));",
+        "}"));
+    WORKLOADS.put("array", String.join("\n",
+        "int a[1000];",
+        "void main() {",
+        "  int i;",
+        "  int j;",
+        "  int sum;",
+        "  sum = 0;",
+        "  for (j = 0; j < 200; j = j + 1) {",
+        "    for (i = 0; i < 1000; i = i + 1) {",
+        "      a[i] = a[i] + i + j;",
+        "      sum = a[i] + sum;",
+        "    }",
+        "  }",
+        "  printInt(sum);",
+        "}"));
+    WORKLOADS.put("sparse", String.join("\n",
+        "int big[100000000];",
+        "void main() {",
+        "  int i;",
+        "  int sum;",
+        "  sum = 0;",
+        "  for (i = 0; i < 100000000; i = i + 100000) {",
+        "    big[i] = i;",
+        "  }",
+        "  for (i = 0; i < 100000000; i = i + 100000) {",
+        "    sum = big[i] + sum;",
+        "  }",
+        "  printInt(sum);",
+        "}"));
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    // Deserializing the long instruction chains of the stage 5 programs recurses deeply
+    var thread = new Thread(null, () -> {
+      measureAllocations();
+      System.out.println();
+      try {
+        compareEngines();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }, "benchmark", 1L << 28);
+    thread.start();
+    thread.join();
+  }
+
+  private static void measureAllocations() {
+    System.out.printf("%-12s %14s %12s %14s %8s%n", "workload", "instructions", "ns/inst",
+        "bytes/inst", "fused");
+    for (var workload : WORKLOADS.entrySet()) {
+      var program = DecodedProgram.decode(compile(workload.getValue()));
+      for (int run = 0; run < WARMUP_RUNS; run++) {
+        newEngine(program).run();
+      }
+      long instructions = 0;
+      long fused = 0;
+      long bytes = 0;
+      long nanos = 0;
+      for (int run = 0; run < MEASURED_RUNS; run++) {
+        var engine = newEngine(program);
+        long startBytes = allocatedBytes();
+        long start = System.nanoTime();
+        engine.run();
+        nanos += System.nanoTime() - start;
+        bytes += allocatedBytes() - startBytes;
+        instructions += engine.getInstructionCount();
+        fused += engine.getFusedInstructionCount();
+      }
+      System.out.printf("%-12s %14d %12.2f %14.6f %7.1f%%%n", workload.getKey(),
+          instructions / MEASURED_RUNS, (double) nanos / instructions,
+          (double) bytes / instructions, 100.0 * fused / instructions);
+    }
+  }
+
+  /**
+   * Times every engine on the workloads, including decoding and compiling the program the way
+   * {@code --emulator-engine} does, and reports the speedup over the reference engine.
+   */
+  private static void compareEngines() throws IOException {
+    var suites = new LinkedHashMap<String, List<Program>>();
+    var inputs = new HashMap<Program, byte[]>();
+    for (var workload : WORKLOADS.entrySet()) {
+      var program = compile(workload.getValue());
+      suites.put(workload.getKey(), List.of(program));
+      inputs.put(program, new byte[0]);
+    }
+    var stage5 = new ArrayList<Program>();
+    for (String test : stage5Tests()) {
+      var program = readIR(STAGE5 + test + ".ser");
+      stage5.add(program);
+      inputs.put(program, readResource(STAGE5 + test + ".in"));
+    }
+    suites.put("stage5", stage5);
+
+    System.out.printf("%-12s", "workload");
+    for (EngineKind kind : EngineKind.values()) {
+      System.out.printf(" %12s %8s", kind.getName() + " ms", "speedup");
+    }
+    System.out.println();
+    for (var suite : suites.entrySet()) {
+      System.out.printf("%-12s", suite.getKey());
+      double reference = 0;
+      for (EngineKind kind : EngineKind.values()) {
+        for (int run = 0; run < WARMUP_RUNS; run++) {
+          runAll(kind, suite.getValue(), inputs);
+        }
+        long nanos = 0;
+        for (int run = 0; run < MEASURED_RUNS; run++) {
+          long start = System.nanoTime();
+          runAll(kind, suite.getValue(), inputs);
+          nanos += System.nanoTime() - start;
+        }
+        double millis = nanos / 1e6 / MEASURED_RUNS;
+        if (kind == EngineKind.REFERENCE)
+          reference = millis;
+        System.out.printf(" %12.3f %7.2fx", millis, reference / millis);
+      }
+      System.out.println();
+    }
+  }
+
+  private static void runAll(EngineKind kind, List<Program> programs,
+      Map<Program, byte[]> inputs) {
+    for (Program program : programs) {
+      try {
+        kind.create(program, new ByteArrayInputStream(inputs.get(program)),
+            OutputStream.nullOutputStream()).run();
+      } catch (Error e) {
+        // Runtime errors of the test programs are part of their expected output
+      }
+    }
+  }
+
+  private static List<String> stage5Tests() throws IOException {
+    var tests = new ArrayList<String>();
+    for (String line : new String(readResource(STAGE5 + "index.txt"), StandardCharsets.UTF_8)
+        .split("\\R")) {
+      if (line.endsWith(".crx"))
+        tests.add(line.substring(0, line.length() - 4));
+    }
+    return tests;
+  }
+
+  private static Program readIR(String resource) throws IOException {
+    try (var ois = new ObjectInputStream(new ByteArrayInputStream(readResource(resource)))) {
+      return (Program) ois.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static byte[] readResource(String resource) throws IOException {
+    try (var in = EmulatorBenchmark.class.getClassLoader().getResourceAsStream(resource)) {
+      if (in == null)
+        return new byte[0];
+      return in.readAllBytes();
+    }
+  }
+
+  private static SlotEngine newEngine(DecodedProgram program) {
+    return new SlotEngine(program, new ByteArrayInputStream(new byte[0]),
+        OutputStream.nullOutputStream());
+  }
+
+  /**
+   * Lowers Crux source code to IR, the same way the {@link Driver} does.
+   */
+  static Program compile(String source) {
+    var lexer = new CruxLexer(CharStreams.fromString(source));
+    var parser = new CruxParser(new CommonTokenStream(lexer));
+    var ast = new ParseTreeLower(new PrintStream(OutputStream.nullOutputStream()))
+        .lower(parser.program());
+    var typeChecker = new TypeChecker();
+    typeChecker.check(ast);
+    if (!typeChecker.getErrors().isEmpty())
+      throw new IllegalArgumentException(typeChecker.getErrors().toString());
+    return new ASTLower().lower(ast);
+  }
+
+  private static long allocatedBytes() {
+    var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
@@ -0,0 +1,430 @@
+package crux;
+
+import crux.ir.engine.Budget;
+import crux.ir.engine.BudgetExceededError;
+import crux.ir.engine.EngineKind;
+import crux.ir.engine.EngineOptions;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Runs the programs of the IR stage on every emulator engine and checks that the output matches
+ * the one of the reference engine, with and without debugging turned on.
+ */
+final class EmulatorEngineTests {
+  private static final String FOLDER = "crux/stages/ir";
+  /** Programs that exercise the limits of the engines. */
+  private static final String PROGRAMS = "crux/programs";
+
+  @TestFactory
+  Stream<DynamicTest> enginesMatchReference() throws IOException {
+    List<DynamicTest> tests = new ArrayList<>();
+    for (String test : getTests()) {
+      for (EngineKind engine : EngineKind.values()) {
+        if (engine == EngineKind.REFERENCE)
+          continue;
+        for (boolean debug : new boolean[] {false, true}) {
+          var name = String.format("%s %s%s", test, engine.getName(), debug ? " (debug)" : "");
+          tests.add(dynamicTest(name, () -> {
+            var expected = emulate(test, EngineKind.REFERENCE, debug, driver -> {});
+            var actual = emulate(test, engine, debug, driver -> {});
+            Assertions.assertEquals(expected, actual,
+                String.format("Engine %s differs from the reference engine for program %s.",
+                    engine.getName(), test));
+          }));
+        }
+      }
+    }
+    return tests.stream();
+  }
+
+  /**
+   * Compiles every function of the program on its first call or loop iteration.
+   */
+  @TestFactory
+  Stream<DynamicTest> compiledCodeMatchesReference() throws IOException {
+    return getTests().stream().map(test -> dynamicTest(test + " compiled", () -> {
+      var expected = emulate(test, EngineKind.REFERENCE, false, driver -> {});
+      var actual = emulate(test, EngineKind.JIT, false, driver -> driver.setCompileThreshold(1));
+      Assertions.assertEquals(expected, actual,
+          String.format("Compiled code differs from the reference engine for program %s.", test));
+    }));
+  }
+
+  /**
+   * Records a trace of every program and checks that the rendered trace is the debug output
+   * without the output of the program itself.
+   */
+  @TestFactory
+  Stream<DynamicTest> traceRendersDebugOutput() throws IOException {
+    List<DynamicTest> tests = new ArrayList<>();
+    for (String test : getTests()) {
+      for (EngineKind engine : new EngineKind[] {EngineKind.JIT, EngineKind.CLOSURE}) {
+        tests.add(dynamicTest(test + " " + engine.getName() + " trace", () -> {
+          var debugOutput = emulate(test, EngineKind.REFERENCE, true, driver -> {});
+          var output = emulate(test, EngineKind.REFERENCE, false, driver -> {});
+          var traceFile = Files.createTempFile("crux", ".trace");
+          try {
+            var tracedOutput = emulate(test, engine, false,
+                driver -> driver.setEmulatorTraceFile(traceFile.toString()));
+            Assertions.assertEquals(output, tracedOutput);
+            var rendered = emulate(test, engine, false,
+                driver -> driver.setRenderTraceFile(traceFile.toString()));
+
+            var rest = new StringBuilder();
+            int pos = 0;
+            for (String message : rendered.split("\n", -1)) {
+              if (message.isEmpty())
+                continue;
+              int at = debugOutput.indexOf(message + "\n", pos);
+              Assertions.assertTrue(at >= 0,
+                  String.format("Unexpected message '%s' in the trace of %s.", message, test));
+              rest.append(debugOutput, pos, at);
+              pos = at + message.length() + 1;
+            }
+            rest.append(debugOutput.substring(pos));
+            Assertions.assertEquals(output, rest.toString(),
+                String.format("The trace of program %s differs from its debug output.", test));
+          } finally {
+            Files.delete(traceFile);
+          }
+        }));
+      }
+    }
+    return tests.stream();
+  }
+
+  /**
+   * Profiles every program and checks that profiling leaves the output unchanged.
+   */
+  @TestFactory
+  Stream<DynamicTest> profileKeepsOutput() throws IOException {
+    return getTests().stream().map(test -> dynamicTest(test + " profile", () -> {
+      var expected = emulate(test, EngineKind.REFERENCE, false, driver -> {});
+      var prefix = Files.createTempFile("crux", "").toString();
+      try {
+        var actual = emulate(test, EngineKind.JIT, false,
+            driver -> driver.setEmulatorProfile(prefix));
+        Assertions.assertEquals(expected, actual,
+            String.format("Profiling changes the output of program %s.", test));
+        for (String suffix : new String[] {".profile", ".folded", ".dot"}) {
+          Assertions.assertTrue(Files.exists(Path.of(prefix + suffix)),
+              String.format("No %s file was written for program %s.", suffix, test));
+        }
+      } finally {
+        for (String suffix : new String[] {"", ".profile", ".folded", ".dot"}) {
+          Files.deleteIfExists(Path.of(prefix + suffix));
+        }
+      }
+    }));
+  }
+
+  /**
+   * Memoizes the pure functions of every program with a tiny cache, so that results are evicted
+   * as well, and checks that the output before the hit rate report is unchanged.
+   */
+  @TestFactory
+  Stream<DynamicTest> memoizedMatchesReference() throws IOException {
+    return getTests().stream().map(test -> dynamicTest(test + " memoized", () -> {
+      var expected = emulate(test, EngineKind.REFERENCE, false, driver -> {});
+      var actual = emulate(test, EngineKind.JIT, false, driver -> driver.enableMemoization(2));
+      Assertions.assertTrue(actual.startsWith(expected),
+          String.format("Memoization changes the output of program %s.", test));
+      Assertions.assertTrue(actual.substring(expected.length()).startsWith("function"),
+          String.format("No hit rate report for program %s.", test));
+    }));
+  }
+
+  /**
+   * Runs every program with a budget it stays within, compiling on the first call, and checks
+   * that metering leaves the output unchanged.
+   */
+  @TestFactory
+  Stream<DynamicTest> meteredMatchesReference() throws IOException {
+    return getTests().stream().map(test -> dynamicTest(test + " metered", () -> {
+      var expected = emulate(test, EngineKind.REFERENCE, false, driver -> {});
+      var actual = emulate(test, EngineKind.JIT, false, driver -> {
+        driver.setCompileThreshold(1);
+        driver.setMaxInstructions(1L << 40);
+        driver.setMaxTime(60000);
+      });
+      Assertions.assertEquals(expected, actual,
+          String.format("Metering changes the output of program %s.", test));
+    }));
+  }
+
+  /**
+   * Runs every program in a batch on several copies of its input, compiling on the first call,
+   * and checks that the output written for every copy matches the reference engine.
+   */
+  @TestFactory
+  Stream<DynamicTest> batchMatchesReference() throws IOException {
+    return getTests().stream().map(test -> dynamicTest(test + " batch", () -> {
+      var expected = emulate(test, EngineKind.REFERENCE, false, driver -> {});
+      var inputs = Files.createTempDirectory("crux");
+      var outputs = inputs.resolve("out");
+      var loader = getClass().getClassLoader();
+      var copies = new String[] {"a", "b", "c", "d"};
+      try {
+        for (String copy : copies) {
+          try (var input = loader.getResourceAsStream(FOLDER + "/" + test + ".in")) {
+            Files.copy(Objects.requireNonNull(input), inputs.resolve(copy + ".in"));
+          }
+        }
+        emulate(test, EngineKind.JIT, false, driver -> {
+          driver.setCompileThreshold(1);
+          driver.setEmulatorInputFile(inputs.toString());
+          driver.setEmulatorOutputDirectory(outputs.toString());
+        });
+        for (String copy : copies) {
+          var actual = Files.readString(outputs.resolve(copy + ".out"));
+          Assertions.assertEquals(expected, actual,
+              String.format("The batch output for input %s differs for program %s.", copy, test));
+        }
+      } finally {
+        try (var files = Files.walk(inputs)) {
+          for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+            Files.delete(file);
+          }
+        }
+      }
+    }));
+  }
+
+  /**
+   * Checks that a batch refuses to trace, profile or memoize, which the driver only supports for a
+   * single run, instead of running without them, and that it writes nothing.
+   */
+  @TestFactory
+  Stream<DynamicTest> batchRejectsTracesProfilesAndMemoization() {
+    Map<String, Function<Path, Consumer<Driver>>> options = new LinkedHashMap<>();
+    options.put("trace", dir -> driver -> driver.setEmulatorTraceFile(
+        dir.resolve("t.bin").toString()));
+    options.put("profile", dir -> driver -> driver.setEmulatorProfile(
+        dir.resolve("prof").toString()));
+    options.put("memoization", dir -> driver -> driver.enableMemoization(16));
+    return options.entrySet().stream().map(option -> dynamicTest(option.getKey(), () -> {
+      var inputs = Files.createTempDirectory("crux");
+      var outputs = inputs.resolve("out");
+      try {
+        Files.writeString(inputs.resolve("a.in"), "0\n0\n");
+        var output = emulateProgram("budget", EngineKind.JIT, "", driver -> {
+          driver.setEmulatorInputFile(inputs.toString());
+          driver.setEmulatorOutputDirectory(outputs.toString());
+          option.getValue().apply(inputs).accept(driver);
+        });
+        Assertions.assertEquals(
+            String.format("batch emulation cannot trace, profile or memoize the program%n"),
+            output);
+        try (var files = Files.list(inputs)) {
+          Assertions.assertEquals(List.of(inputs.resolve("a.in")),
+              files.collect(Collectors.toList()));
+        }
+      } finally {
+        try (var files = Files.walk(inputs)) {
+          for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+            Files.delete(file);
+          }
+        }
+      }
+    }));
+  }
+
+  /**
+   * Runs a recursion deeper than the maximum call depth on every engine that limits it, also with
+   * every function compiled on its first call, and checks that it ends with a stack overflow. The
+   * deepest recursion runs out of Java stack first on the engines that recurse on it.
+   */
+  @TestFactory
+  Stream<DynamicTest> callDepthIsLimited() {
+    List<DynamicTest> tests = new ArrayList<>();
+    for (EngineKind engine : EngineKind.values()) {
+      // The reference engine keeps its calls on the heap and has no limit
+      if (engine == EngineKind.REFERENCE)
+        continue;
+      for (boolean compileAll : engine == EngineKind.JIT ? new boolean[] {false, true}
+          : new boolean[] {false}) {
+        var name = engine.getName() + (compileAll ? " (compiled)" : "");
+        Consumer<Driver> compile = driver -> {
+          if (compileAll)
+            driver.setCompileThreshold(1);
+        };
+        tests.add(dynamicTest(name + " call depth", () -> {
+          Assertions.assertEquals("int?1000\n", emulateProgram("recursion", engine, "1000",
+              compile.andThen(driver -> driver.setMaxCallDepth(2000))));
+          Assertions.assertEquals("int?Stack overflow: more than 100 nested calls.\n",
+              emulateProgram("recursion", engine, "1000",
+                  compile.andThen(driver -> driver.setMaxCallDepth(100))));
+          Assertions.assertEquals(
+              String.format("int?Stack overflow: more than %d nested calls.%n",
+                  EngineOptions.DEFAULT_MAX_CALL_DEPTH),
+              emulateProgram("recursion", engine, "1000000", compile));
+        }));
+      }
+    }
+    return tests.stream();
+  }
+
+  /**
+   * Runs a tail recursion ten times deeper than the default maximum call depth on every engine,
+   * also with every function compiled on its first call, which only completes if tail calls do
+   * not grow the stack.
+   */
+  @TestFactory
+  Stream<DynamicTest> tailCallsRunInConstantDepth() {
+    List<DynamicTest> tests = new ArrayList<>();
+    for (EngineKind engine : EngineKind.values()) {
+      tests.add(dynamicTest(engine.getName() + " tail calls", () -> Assertions.assertEquals(
+          "int?1000000\n", emulateProgram("tail-recursion", engine, "1000000", driver -> {}))));
+    }
+    tests.add(dynamicTest("jit (compiled) tail calls", () -> Assertions.assertEquals(
+        "int?1000000\n", emulateProgram("tail-recursion", EngineKind.JIT, "1000000",
+            driver -> driver.setCompileThreshold(1)))));
+    return tests.stream();
+  }
+
+  /**
+   * Runs a program past every limit of a budget on the engines that enforce budgets, also with
+   * every function compiled on its first call, and checks which limit the run ended with and what
+   * it used until then. Limits are checked on back-edges, so a run retires at most one more loop
+   * iteration, and memory and time are read every {@code Budget.CHECK_INTERVAL} instructions.
+   */
+  @TestFactory
+  Stream<DynamicTest> budgetsAreEnforced() {
+    List<DynamicTest> tests = new ArrayList<>();
+    for (EngineKind engine : EngineKind.values()) {
+      if (!engine.supportsBudgets())
+        continue;
+      for (boolean compileAll : engine == EngineKind.JIT ? new boolean[] {false, true}
+          : new boolean[] {false}) {
+        var name = engine.getName() + (compileAll ? " (compiled)" : "");
+        tests.add(dynamicTest(name + " budget", () -> {
+          var error = exceedBudget(engine, compileAll, "0\n100000\n",
+              new Budget(10000, Budget.UNLIMITED, Budget.UNLIMITED));
+          Assertions.assertEquals(BudgetExceededError.Limit.INSTRUCTIONS, error.getLimit());
+          Assertions.assertTrue(error.getInstructions() > 10000,
+              "The run stopped before its instruction limit.");
+          Assertions.assertTrue(error.getInstructions() < 10100,
+              String.format("The run retired %d instructions.", error.getInstructions()));
+
+          error = exceedBudget(engine, compileAll, "100000\n0\n",
+              new Budget(Budget.UNLIMITED, Budget.UNLIMITED, 64 * 1024));
+          Assertions.assertEquals(BudgetExceededError.Limit.MEMORY, error.getLimit());
+          Assertions.assertTrue(error.getMemoryBytes() > 64 * 1024,
+              "The run stopped before its memory limit.");
+          Assertions.assertTrue(error.getInstructions() > 0);
+
+          error = exceedBudget(engine, compileAll, "0\n2000000000\n",
+              new Budget(Budget.UNLIMITED, 50, Budget.UNLIMITED));
+          Assertions.assertEquals(BudgetExceededError.Limit.TIME, error.getLimit());
+          Assertions.assertTrue(error.getElapsedNanos() >= 50_000_000,
+              "The run stopped before its time limit.");
+          Assertions.assertTrue(error.getInstructions() > 0);
+        }));
+      }
+    }
+    return tests.stream();
+  }
+
+  private BudgetExceededError exceedBudget(EngineKind engine, boolean compileAll, String input,
+      Budget budget) {
+    var program = Programs.lower(PROGRAMS + "/budget.crx");
+    var options = new EngineOptions();
+    if (compileAll)
+      options.setCompileThreshold(1);
+    options.setBudget(budget);
+    var emulator = engine.create(program,
+        new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+        OutputStream.nullOutputStream(), options);
+    return Assertions.assertThrows(BudgetExceededError.class, emulator::run);
+  }
+
+  /**
+   * Checks that the engines that cannot enforce a budget refuse to run with one.
+   */
+  @TestFactory
+  Stream<DynamicTest> budgetsAreRejected() {
+    return Stream.of(EngineKind.values()).filter(engine -> !engine.supportsBudgets())
+        .map(engine -> dynamicTest(engine.getName() + " budget", () -> Assertions.assertEquals(
+            String.format("emulator engine '%s' cannot limit a run%n", engine.getName()),
+            emulateProgram("budget", engine, "0\n0\n",
+                driver -> driver.setMaxInstructions(1000)))));
+  }
+
+  /**
+   * Runs a program of {@link #PROGRAMS} from its source, and returns its output, including the
+   * prompts of {@code readInt}, followed by the message of the error it ended with, if any.
+   */
+  private String emulateProgram(String program, EngineKind engine, String input,
+      Consumer<Driver> options) {
+    var loader = getClass().getClassLoader();
+    var outStream = new ByteArrayOutputStream();
+    var outPrintStream = new PrintStream(outStream);
+    var driver = new Driver(outPrintStream, outPrintStream);
+    driver.enableEmulator();
+    driver.setEmulatorEngine(engine.getName());
+    options.accept(driver);
+    driver.setEmulatorInput(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+    driver.setInputStream(loader.getResourceAsStream(PROGRAMS + "/" + program + ".crx"));
+    try {
+      driver.run();
+    } catch (RuntimeException | Error e) {
+      outPrintStream.println(e.getMessage());
+    }
+    outPrintStream.flush();
+    return outStream.toString();
+  }
+
+  private String emulate(String test, EngineKind engine, boolean debug,
+      Consumer<Driver> options) {
+    var loader = getClass().getClassLoader();
+    var outStream = new ByteArrayOutputStream();
+    var outPrintStream = new PrintStream(outStream);
+    var driver = new Driver(outPrintStream, outPrintStream);
+    if (debug) {
+      driver.enableDebugEmulator();
+    } else {
+      driver.enableEmulator();
+    }
+    driver.setEmulatorEngine(engine.getName());
+    options.accept(driver);
+    driver.setEmulatorInput(loader.getResourceAsStream(FOLDER + "/" + test + ".in"));
+    driver.readASTTYPE(loader.getResourceAsStream(FOLDER + "/" + test + ".ser"));
+    try {
+      driver.run();
+    } catch (RuntimeException | Error e) {
+      outPrintStream.println(e.getClass().getName());
+    }
+    outPrintStream.flush();
+    return outStream.toString();
+  }
+
+  private List<String> getTests() throws IOException {
+    var loader = getClass().getClassLoader();
+    try (var programs = loader.getResourceAsStream(FOLDER);
+        BufferedReader br =
+            new BufferedReader(new InputStreamReader(Objects.requireNonNull(programs)))) {
+      return br.lines().filter(resourceName -> resourceName.endsWith(".crx"))
+          .map(resourceName -> resourceName.substring(0, resourceName.length() - 4))
+          .collect(Collectors.toList());
+    }
+  }
+}
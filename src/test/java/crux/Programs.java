@@ -0,0 +1,217 @@
+package crux;
+
+import crux.ast.DeclarationList;
+import crux.ast.ParseTreeLower;
+import crux.ast.types.TypeChecker;
+import crux.ir.ASTLower;
+import crux.ir.BasicBlock;
+import crux.ir.Emulator;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.Program;
+import crux.pt.CruxLexer;
+import crux.pt.CruxParser;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Lowers the programs of the test resources to IR and runs them on the reference engine, for
+ * tests that work on the IR directly.
+ */
+public final class Programs {
+  /** The programs of the IR stage, as serialized ASTs with their input and expected output. */
+  public static final String IR_STAGE = "crux/stages/ir";
+  /** The programs of the code generation stage, as serialized IR, which is not optimized. */
+  public static final String CODEGEN_STAGE = "crux/stages/codegen";
+
+  private Programs() {}
+
+  /**
+   * Parses, type checks and lowers the source of a program.
+   */
+  public static Program lower(String resourceName) {
+    var loader = Programs.class.getClassLoader();
+    try (var in = Objects.requireNonNull(loader.getResourceAsStream(resourceName))) {
+      return lower(CharStreams.fromStream(in), resourceName);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Parses, type checks and lowers a program given as source, such as a generated one.
+   */
+  public static Program lowerSource(String source) {
+    return lower(CharStreams.fromString(source), "<source>");
+  }
+
+  private static Program lower(CharStream source, String name) {
+    var parser = new CruxParser(new CommonTokenStream(new CruxLexer(source)));
+    var parseTreeLower = new ParseTreeLower(System.err);
+    var ast = parseTreeLower.lower(parser.program());
+    if (parseTreeLower.hasEncounteredError())
+      throw new IllegalArgumentException(String.format("cannot parse '%s'", name));
+    return check(ast, name);
+  }
+
+  /**
+   * Lowers a serialized AST, like the ones of the IR stage.
+   */
+  public static Program lowerSerialized(String resourceName) {
+    var loader = Programs.class.getClassLoader();
+    try (var in = new ObjectInputStream(
+        Objects.requireNonNull(loader.getResourceAsStream(resourceName)))) {
+      return check((DeclarationList) in.readObject(), resourceName);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Lowers a program of the IR stage.
+   */
+  public static Program lowerStage(String test) {
+    return lowerSerialized(IR_STAGE + "/" + test + ".ser");
+  }
+
+  /**
+   * Reads the IR of a program of the code generation stage. Deserialization recurses once for
+   * every instruction of a chain, so it runs on a thread with a large stack.
+   */
+  public static Program readStage(String test) {
+    var loader = Programs.class.getClassLoader();
+    Program[] program = new Program[1];
+    RuntimeException[] error = new RuntimeException[1];
+    var reader = new Thread(null, () -> {
+      try (var in = new ObjectInputStream(Objects.requireNonNull(
+          loader.getResourceAsStream(CODEGEN_STAGE + "/" + test + ".ser")))) {
+        program[0] = (Program) in.readObject();
+      } catch (IOException e) {
+        error[0] = new UncheckedIOException(e);
+      } catch (ClassNotFoundException e) {
+        error[0] = new IllegalStateException(e);
+      }
+    }, "read " + test, 1 << 28);
+    reader.start();
+    try {
+      reader.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+    if (error[0] != null)
+      throw error[0];
+    return Objects.requireNonNull(program[0], test);
+  }
+
+  /**
+   * Returns the names of the programs of the IR stage.
+   */
+  public static List<String> getStageTests() {
+    return getStageTests(IR_STAGE);
+  }
+
+  /**
+   * Returns the names of the programs of a stage.
+   */
+  public static List<String> getStageTests(String stage) {
+    var loader = Programs.class.getClassLoader();
+    try (var programs = Objects.requireNonNull(loader.getResourceAsStream(stage));
+        var br = new BufferedReader(new InputStreamReader(programs))) {
+      return br.lines().filter(resourceName -> resourceName.endsWith(".crx"))
+          .map(resourceName -> resourceName.substring(0, resourceName.length() - 4))
+          .collect(Collectors.toList());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Runs a program of the IR stage on the reference engine with the input of the stage.
+   */
+  public static String emulateStage(Program program, String test) {
+    return emulateStage(program, IR_STAGE, test);
+  }
+
+  /**
+   * Runs a program of a stage on the reference engine with the input of the stage.
+   */
+  public static String emulateStage(Program program, String stage, String test) {
+    var loader = Programs.class.getClassLoader();
+    try (var in = Objects.requireNonNull(
+        loader.getResourceAsStream(stage + "/" + test + ".in"))) {
+      return emulate(program, in);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Runs a program on the reference engine, which executes phis, and returns its output followed
+   * by the name of the exception it ended with, if any.
+   */
+  public static String emulate(Program program, String input) {
+    return emulate(program, new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static String emulate(Program program, InputStream input) {
+    var outStream = new ByteArrayOutputStream();
+    var outPrintStream = new PrintStream(outStream);
+    try {
+      new Emulator(program, input, outPrintStream).run();
+    } catch (RuntimeException | Error e) {
+      outPrintStream.println(e.getClass().getName());
+    }
+    outPrintStream.flush();
+    return outStream.toString();
+  }
+
+  /**
+   * Returns the function of a program with the given name.
+   */
+  public static Function getFunction(Program program, String name) {
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      var function = it.next();
+      if (function.getName().equals(name))
+        return function;
+    }
+    throw new NoSuchElementException(name);
+  }
+
+  /**
+   * Returns the instructions that can be reached in the functions of a program.
+   */
+  public static List<Instruction> getInstructions(Program program) {
+    List<Instruction> instructions = new ArrayList<>();
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      var function = it.next();
+      if (function.getStart() == null)
+        continue;
+      for (BasicBlock block : function.getControlFlowGraph().getBlocks()) {
+        instructions.addAll(block.getInstructions());
+      }
+    }
+    return instructions;
+  }
+
+  private static Program check(DeclarationList ast, String resourceName) {
+    var typeChecker = new TypeChecker();
+    typeChecker.check(ast);
+    if (!typeChecker.getErrors().isEmpty())
+      throw new IllegalArgumentException(
+          String.format("'%s' has type errors: %s", resourceName, typeChecker.getErrors()));
+    return new ASTLower().lower(ast);
+  }
+}
@@ -0,0 +1,61 @@
+package crux.ir;
+
+import crux.Programs;
+import crux.ir.insts.NopInst;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks when a function rebuilds its cached control flow graph.
+ */
+final class ControlFlowGraphTests {
+  private static final String SOURCE = String.join("\n",
+      "int f(int x) {",
+      "  if (x < 0) { return 0 - x; }",
+      "  return x;",
+      "}",
+      "void main() {",
+      "  printInt(f(readInt()));",
+      "}");
+
+  @Test
+  void edgeChangesOnlyInvalidateTheirFunction() {
+    var program = Programs.lowerSource(SOURCE);
+    var f = Programs.getFunction(program, "f");
+    var main = Programs.getFunction(program, "main");
+    var fGraph = f.getControlFlowGraph();
+    var mainGraph = main.getControlFlowGraph();
+    Assertions.assertSame(fGraph, f.getControlFlowGraph());
+
+    // Put a nop behind the start of main
+    var start = main.getStart();
+    var nop = new NopInst();
+    nop.setNext(0, start.getNext(0));
+    start.setNext(0, nop);
+    Assertions.assertSame(fGraph, f.getControlFlowGraph(),
+        "An edit to main rebuilt the graph of f.");
+    var rebuilt = main.getControlFlowGraph();
+    Assertions.assertNotSame(mainGraph, rebuilt);
+    Assertions.assertEquals(mainGraph.numInstructions() + 1, rebuilt.numInstructions());
+
+    // The new instruction belongs to main once the graph is built
+    nop.setNext(0, nop.getNext(0));
+    Assertions.assertNotSame(rebuilt, main.getControlFlowGraph());
+    Assertions.assertSame(fGraph, f.getControlFlowGraph());
+  }
+
+  @Test
+  void operandChangesKeepTheGraph() {
+    var program = Programs.lowerSource(SOURCE);
+    var f = Programs.getFunction(program, "f");
+    var graph = f.getControlFlowGraph();
+    for (BasicBlock block : graph.getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        for (int i = 0; i < inst.getOperands().size(); i++) {
+          inst.setOperand(i, inst.getOperands().get(i));
+        }
+      }
+    }
+    Assertions.assertSame(graph, f.getControlFlowGraph());
+  }
+}
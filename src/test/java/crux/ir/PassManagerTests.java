@@ -0,0 +1,151 @@
+package crux.ir;
+
+import crux.Programs;
+import crux.ir.AnalysisCache.Analysis;
+import crux.ir.opt.ControlFlowSimplification;
+import crux.ir.opt.Dominators;
+import crux.ir.opt.Pipelines;
+import crux.printing.IRValueFormatter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs passes through a pass manager, and checks which analyses it keeps between them and that
+ * function passes run on several threads with the same result.
+ */
+final class PassManagerTests {
+  private static final String SOURCE = String.join("\n",
+      "int g[8];",
+      "int sum(int n) {",
+      "  int i; int s;",
+      "  s = 0;",
+      "  for (i = 0; i < n; i = i + 1) { s = s + i; }",
+      "  return s;",
+      "}",
+      "void fill(int n) {",
+      "  int i;",
+      "  for (i = 0; i < 8; i = i + 1) { g[i] = n * 3 + i; }",
+      "}",
+      "void main() {",
+      "  int n; int x;",
+      "  n = readInt();",
+      "  fill(n);",
+      "  x = g[n];",
+      "  printInt(sum(n) + x);",
+      "}");
+
+  @Test
+  void keepsControlFlowAnalysesWhileTheEdgesStay() {
+    var program = Programs.lowerSource(SOURCE);
+    var passes = new PassManager();
+    passes.setParallelism(1);
+    passes.addFunctionPass("dominators", PassManagerTests::dominators);
+    passes.addFunctionPass("dominators again", PassManagerTests::dominators);
+    passes.run(program);
+    Assertions.assertEquals(3, passes.getAnalyses().getNumComputed());
+    Assertions.assertEquals(3, passes.getAnalyses().getNumReused());
+
+    passes = new PassManager();
+    passes.setParallelism(1);
+    passes.addFunctionPass("dominators", PassManagerTests::dominators);
+    passes.addFunctionPass("simplify-cfg",
+        (p, function, analyses) -> ControlFlowSimplification.run(function));
+    passes.addFunctionPass("dominators again", PassManagerTests::dominators);
+    passes.run(program);
+    Assertions.assertEquals(6, passes.getAnalyses().getNumComputed(),
+        "The lowering left nops, so every function changed.");
+    Assertions.assertEquals(0, passes.getAnalyses().getNumReused());
+  }
+
+  @Test
+  void keepsPreservedAnalyses() {
+    Analysis<Object> analysis = (function, cache) -> new Object();
+    var program = Programs.lowerSource(SOURCE);
+    var passes = new PassManager();
+    passes.setParallelism(1);
+    passes.addFunctionPass("analyze", (p, function, analyses) -> {
+      analyses.get(function, analysis);
+      return 0;
+    }, analysis);
+    passes.addFunctionPass("analyze without preserving", (p, function, analyses) -> {
+      analyses.get(function, analysis);
+      return 0;
+    });
+    passes.addFunctionPass("analyze again", (p, function, analyses) -> {
+      analyses.get(function, analysis);
+      return 0;
+    });
+    passes.run(program);
+    // The first result is kept for the second pass, which drops it for the third
+    Assertions.assertEquals(6, passes.getAnalyses().getNumComputed());
+    Assertions.assertEquals(3, passes.getAnalyses().getNumReused());
+  }
+
+  /**
+   * Two functions only get past the barrier if their passes run at the same time.
+   */
+  @Test
+  void runsFunctionPassesInParallel() {
+    var program = Programs.lowerSource(SOURCE);
+    var barrier = new CyclicBarrier(2);
+    Set<Thread> threads = Collections.synchronizedSet(
+        Collections.newSetFromMap(new IdentityHashMap<>()));
+    var passes = new PassManager();
+    passes.setParallelism(2);
+    passes.addFunctionPass("wait", (p, function, analyses) -> {
+      threads.add(Thread.currentThread());
+      if (!function.getName().equals("main")) {
+        try {
+          barrier.await(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+          throw new IllegalStateException("The passes did not run at the same time.", e);
+        }
+      }
+      return 1;
+    });
+    passes.run(program);
+    Assertions.assertTrue(threads.size() >= 2);
+    Assertions.assertFalse(threads.contains(Thread.currentThread()));
+  }
+
+  @Test
+  void optimizesTheSameInParallel() {
+    var sequential = Programs.lowerSource(SOURCE);
+    var passes = Pipelines.create(Pipelines.MAX_LEVEL);
+    passes.setParallelism(1);
+    passes.run(sequential);
+    var parallel = Programs.lowerSource(SOURCE);
+    passes = Pipelines.create(Pipelines.MAX_LEVEL);
+    passes.setParallelism(4);
+    passes.run(parallel);
+    Assertions.assertEquals(sequential.format(new IRValueFormatter()),
+        parallel.format(new IRValueFormatter()));
+    Assertions.assertEquals("int?30", Programs.emulate(parallel, "5\n"));
+  }
+
+  @Test
+  void rethrowsWhatAParallelPassThrows() {
+    var program = Programs.lowerSource(SOURCE);
+    var passes = new PassManager();
+    passes.setParallelism(2);
+    passes.addFunctionPass("fail", (p, function, analyses) -> {
+      if (function.getName().equals("fill"))
+        throw new IllegalStateException(function.getName());
+      return 0;
+    });
+    var e = Assertions.assertThrows(IllegalStateException.class, () -> passes.run(program));
+    Assertions.assertEquals("fill", e.getMessage());
+    Assertions.assertThrows(IllegalArgumentException.class, () -> passes.setParallelism(0));
+  }
+
+  private static int dominators(Program program, Function function, AnalysisCache analyses) {
+    analyses.get(function, Dominators.ANALYSIS);
+    return 0;
+  }
+}
@@ -0,0 +1,68 @@
+package crux.ir.engine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Writes and reads the global memory of the engines directly, and checks which pages it
+ * allocates, which words it knows to be written, and that it rejects stores past the globals.
+ */
+final class GlobalMemoryTests {
+  private static final long PAGE_BYTES =
+      (GlobalMemory.PAGE_WORDS + GlobalMemory.PAGE_WORDS / 64) * 8;
+
+  @Test
+  void allocatesPagesWhenFirstWritten() {
+    var memory = new GlobalMemory(4L * GlobalMemory.PAGE_WORDS + 5);
+    Assertions.assertEquals(0, memory.allocatedBytes());
+    Assertions.assertEquals(0, memory.load(3 * GlobalMemory.PAGE_WORDS));
+    Assertions.assertEquals(0, memory.allocatedBytes(), "Reading allocated a page.");
+
+    memory.store(2 * GlobalMemory.PAGE_WORDS + 3, 7);
+    Assertions.assertEquals(PAGE_BYTES, memory.allocatedBytes());
+    memory.store(2 * GlobalMemory.PAGE_WORDS, 8);
+    memory.store(3 * GlobalMemory.PAGE_WORDS - 1, 9);
+    Assertions.assertEquals(PAGE_BYTES, memory.allocatedBytes(), "A page was allocated twice.");
+    memory.store(4 * GlobalMemory.PAGE_WORDS + 4, 10);
+    Assertions.assertEquals(2 * PAGE_BYTES, memory.allocatedBytes());
+
+    Assertions.assertEquals(7, memory.load(2 * GlobalMemory.PAGE_WORDS + 3));
+    Assertions.assertEquals(8, memory.load(2 * GlobalMemory.PAGE_WORDS));
+    Assertions.assertEquals(9, memory.load(3 * GlobalMemory.PAGE_WORDS - 1));
+    Assertions.assertEquals(10, memory.load(4 * GlobalMemory.PAGE_WORDS + 4));
+  }
+
+  @Test
+  void knowsWhichWordsWereWritten() {
+    var memory = new GlobalMemory(2L * GlobalMemory.PAGE_WORDS);
+    for (long index : new long[] {0, 63, 64, GlobalMemory.PAGE_WORDS + 1}) {
+      Assertions.assertFalse(memory.isInitialized(index));
+      memory.store(index, 0);
+      Assertions.assertTrue(memory.isInitialized(index), "Word " + index);
+    }
+    // Only the words written, not their neighbours in the same page or word of the bitmap
+    for (long index : new long[] {1, 62, 65, 127, 128, GlobalMemory.PAGE_WORDS}) {
+      Assertions.assertFalse(memory.isInitialized(index), "Word " + index);
+    }
+    Assertions.assertFalse(memory.isInitialized(-1));
+    Assertions.assertFalse(memory.isInitialized(1L << 50));
+  }
+
+  /**
+   * A store far past the globals, whose page would not even fit the directory, is reported like
+   * any other store past them, and allocates nothing.
+   */
+  @Test
+  void rejectsStoresPastTheGlobals() {
+    long words = GlobalMemory.PAGE_WORDS + 10;
+    var memory = new GlobalMemory(words);
+    memory.store(words - 1, 1);
+    for (long index : new long[] {words, GlobalMemory.PAGE_WORDS * 2, 1L << 41, 1L << 59, -1}) {
+      var error = Assertions.assertThrows(Error.class, () -> memory.store(index, 1));
+      Assertions.assertEquals("Writing to invalid address " + 8 * index + ".",
+          error.getMessage());
+    }
+    Assertions.assertEquals(PAGE_BYTES, memory.allocatedBytes());
+    Assertions.assertEquals(0, memory.load(1L << 41));
+  }
+}
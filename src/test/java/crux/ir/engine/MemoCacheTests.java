@@ -0,0 +1,118 @@
+package crux.ir.engine;
+
+import crux.Programs;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Fills the caches of memoized functions directly, and checks what they keep, which entry they
+ * replace once full and what they count. Also memoizes a recursive function on every engine that
+ * can, and checks that its calls hit the cache.
+ */
+final class MemoCacheTests {
+  @Test
+  void keepsAsManyResultsAsItsCapacity() {
+    var cache = new MemoCache(2, 3);
+    long[] keys = {1, 2, 3, 4, 5, 6, 1, 3};
+    for (int offset = 0; offset < 6; offset += 2) {
+      Assertions.assertEquals(-1, cache.find(keys, offset));
+      cache.put(keys, offset, 10 * offset);
+    }
+    for (int offset = 0; offset < 6; offset += 2) {
+      int entry = cache.find(keys, offset);
+      Assertions.assertTrue(entry >= 0, "Entry at " + offset);
+      Assertions.assertEquals(10 * offset, cache.value(entry));
+    }
+    // Only both arguments together make the key
+    Assertions.assertEquals(-1, cache.find(keys, 6));
+    Assertions.assertEquals(3, cache.hits);
+    Assertions.assertEquals(4, cache.misses);
+    Assertions.assertEquals(0, cache.evictions);
+  }
+
+  @Test
+  void replacesTheLeastRecentlyUsedResult() {
+    var cache = new MemoCache(1, 3);
+    put(cache, 1, 2, 3);
+    // Using 1 again leaves 2 as the least recently used
+    Assertions.assertTrue(find(cache, 1) >= 0);
+    put(cache, 4);
+    Assertions.assertEquals(-1, find(cache, 2));
+    put(cache, 5);
+    Assertions.assertEquals(-1, find(cache, 3));
+    Assertions.assertTrue(find(cache, 1) >= 0);
+    put(cache, 6);
+    Assertions.assertEquals(-1, find(cache, 4));
+    for (long key : new long[] {1, 5, 6}) {
+      int entry = find(cache, key);
+      Assertions.assertTrue(entry >= 0, "Key " + key);
+      Assertions.assertEquals(100 + key, cache.value(entry));
+    }
+    Assertions.assertEquals(3, cache.evictions);
+    Assertions.assertEquals(5, cache.hits);
+    Assertions.assertEquals(3, cache.misses);
+  }
+
+  @Test
+  void updatesResultsInPlace() {
+    var cache = new MemoCache(1, 1);
+    put(cache, 7);
+    cache.put(new long[] {7}, 0, 1);
+    Assertions.assertEquals(1, cache.value(find(cache, 7)));
+    Assertions.assertEquals(0, cache.evictions);
+  }
+
+  /**
+   * Every call of {@code fib} with an argument it was called with before hits the cache. Each of
+   * the 31 arguments misses once, and {@code fib(n)} hits when it calls {@code fib(n - 2)} for n
+   * from 3, once {@code fib(n - 1)} computed it.
+   */
+  @TestFactory
+  Stream<DynamicTest> memoizedCallsHitTheCache() {
+    return Stream.of(EngineKind.values()).filter(EngineKind::supportsMemoization)
+        .map(engine -> dynamicTest(engine.getName(), () -> {
+          var program = Programs.lowerSource(String.join("\n",
+              "int fib(int n) {",
+              "  if (n < 2) { return n; }",
+              "  return fib(n - 1) + fib(n - 2);",
+              "}",
+              "void main() {",
+              "  printInt(fib(readInt()));",
+              "}"));
+          var memoization = new Memoization(64);
+          var options = new EngineOptions();
+          options.setMemoization(memoization);
+          var out = new ByteArrayOutputStream();
+          engine.create(program, new ByteArrayInputStream("30\n".getBytes(StandardCharsets.UTF_8)),
+              out, options).run();
+          Assertions.assertEquals("int?832040", out.toString(StandardCharsets.UTF_8));
+          MemoCache fib = null;
+          for (MemoCache cache : memoization.caches) {
+            if (cache != null)
+              fib = cache;
+          }
+          Assertions.assertNotNull(fib, "fib is not memoized.");
+          Assertions.assertEquals(31, fib.misses);
+          Assertions.assertEquals(28, fib.hits);
+        }));
+  }
+
+  private static void put(MemoCache cache, long... keys) {
+    for (long key : keys) {
+      cache.put(new long[] {key}, 0, 100 + key);
+    }
+  }
+
+  private static int find(MemoCache cache, long key) {
+    return cache.find(new long[] {key}, 0);
+  }
+}
@@ -0,0 +1,51 @@
+package crux.ir.engine;
+
+import crux.Programs;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Runs programs on the slot engine directly and checks the statistics it keeps about the records
+ * it interpreted.
+ */
+final class SlotEngineTests {
+  /**
+   * The tests of both loops compare and jump, and the second loop computes addresses it loads
+   * from right away, so those pairs run as superinstructions.
+   */
+  @Test
+  void countsFusedInstructions() {
+    var program = Programs.lowerSource(String.join("\n",
+        "int g[8];",
+        "void main() {",
+        "  int i; int n; int s; int t;",
+        "  n = readInt();",
+        "  for (i = 0; i < 8; i = i + 1) { g[i] = i * n; }",
+        "  s = 0;",
+        "  for (i = 0; i < 8; i = i + 1) {",
+        "    t = g[i];",
+        "    s = s + t;",
+        "  }",
+        "  printInt(s);",
+        "}"));
+    var expected = Programs.emulate(program, "3\n");
+    Assertions.assertEquals("int?84", expected);
+
+    var out = new ByteArrayOutputStream();
+    var engine = (SlotEngine) EngineKind.SLOT.create(program,
+        new ByteArrayInputStream("3\n".getBytes(StandardCharsets.UTF_8)), out);
+    engine.run();
+    Assertions.assertEquals(expected, out.toString(StandardCharsets.UTF_8));
+    long instructions = engine.getInstructionCount();
+    long fused = engine.getFusedInstructionCount();
+    // Two tests of nine runs each and eight loads at least, in every case a pair
+    Assertions.assertTrue(fused >= 26,
+        String.format("Only %d of %d instructions ran fused.", fused, instructions));
+    Assertions.assertTrue(fused < instructions / 2,
+        String.format("%d of %d instructions ran fused.", fused, instructions));
+  }
+}
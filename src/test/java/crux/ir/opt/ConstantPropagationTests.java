@@ -0,0 +1,145 @@
+package crux.ir.opt;
+
+import crux.Programs;
+import crux.ir.Instruction;
+import crux.ir.Program;
+import crux.ir.insts.BinaryOperator;
+import crux.ir.insts.CallInst;
+import crux.ir.insts.CompareInst;
+import crux.ir.insts.JumpInst;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Runs sparse conditional constant propagation on small programs and on the programs of the IR
+ * stage, and checks what is folded and that the output stays the same.
+ */
+final class ConstantPropagationTests {
+  @Test
+  void foldsArithmeticAndComparisons() {
+    var program = propagate(String.join("\n",
+        "void main() {",
+        "  int a; int b; bool c;",
+        "  a = 6;",
+        "  b = a * 7 - 2;",
+        "  c = b / 4 >= 10;",
+        "  printInt(b);",
+        "  printBool(c);",
+        "}"), "40true");
+    Assertions.assertEquals(0, count(program, BinaryOperator.class));
+    Assertions.assertEquals(0, count(program, CompareInst.class));
+  }
+
+  /**
+   * The values that reach a phi along edges that are never taken do not count, so a variable that
+   * is only changed on such an edge stays constant, even in a loop.
+   */
+  @Test
+  void ignoresEdgesThatAreNeverTaken() {
+    var program = propagate(String.join("\n",
+        "void main() {",
+        "  int x; int i;",
+        "  x = 1;",
+        "  for (i = 0; i < 10; i = i + 1) {",
+        "    if (x > 5) { x = 2; }",
+        "  }",
+        "  if (x == 1) { printInt(1); } else { printInt(2); }",
+        "}"), "1");
+    // Only the jump of the loop is left
+    Assertions.assertEquals(1, count(program, JumpInst.class));
+    Assertions.assertEquals(1, count(program, CallInst.class));
+  }
+
+  @Test
+  void prunesUnreachableRegions() {
+    var program = propagate(String.join("\n",
+        "void main() {",
+        "  int x;",
+        "  x = 3;",
+        "  if (readInt() > 0) { x = 3; }",
+        "  if (x == 3) {",
+        "    printInt(1);",
+        "  } else {",
+        "    printInt(2);",
+        "    printInt(3);",
+        "  }",
+        "}"), "int?1");
+    // The jump on the input is left, and the calls of the else branch are gone
+    Assertions.assertEquals(1, count(program, JumpInst.class));
+    Assertions.assertEquals(2, count(program, CallInst.class));
+  }
+
+  @Test
+  void leavesTrappingDivisionsToRun() {
+    var program = propagate(String.join("\n",
+        "void main() {",
+        "  int zero; int min;",
+        "  zero = 0;",
+        "  min = 65536 * 65536 * 65536 * 32768;",
+        "  if (readInt() > 0) {",
+        "    printInt(min / (0 - 1));",
+        "  } else {",
+        "    printInt(5 / zero);",
+        "  }",
+        "}"), "int?" + ArithmeticException.class.getName() + "\n");
+    Assertions.assertEquals(2, count(program, BinaryOperator.class),
+        "A division that traps was folded.");
+    Assertions.assertNull(ConstantPropagation.fold(divisions(program).get(0), 1L, 0L));
+    Assertions.assertNull(
+        ConstantPropagation.fold(divisions(program).get(0), Long.MIN_VALUE, -1L));
+    Assertions.assertEquals(-3L, ConstantPropagation.fold(divisions(program).get(0), 7L, -2L));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> keepsOutput() {
+    return Programs.getStageTests().stream().map(test -> dynamicTest(test, () -> {
+      var program = Programs.lowerStage(test);
+      var expected = Programs.emulateStage(program, test);
+      SSAConstruction.run(program);
+      ConstantPropagation.run(program);
+      Assertions.assertEquals(expected, Programs.emulateStage(program, test));
+      SSADestruction.run(program);
+      Assertions.assertEquals(expected, Programs.emulateStage(program, test));
+    }));
+  }
+
+  /**
+   * Propagates the constants of a program that reads 0 and checks its output before and after.
+   */
+  private static Program propagate(String source, String expected) {
+    var program = Programs.lowerSource(source);
+    Assertions.assertEquals(expected, Programs.emulate(program, "0\n"));
+    SSAConstruction.run(program);
+    var main = Programs.getFunction(program, "main");
+    Assertions.assertTrue(ConstantPropagation.run(program, main) > 0, "Nothing was folded.");
+    Assertions.assertEquals(expected, Programs.emulate(program, "0\n"));
+    return program;
+  }
+
+  private static int count(Program program, Class<? extends Instruction> kind) {
+    int count = 0;
+    for (Instruction inst : Programs.getInstructions(program)) {
+      if (kind.isInstance(inst))
+        count++;
+    }
+    return count;
+  }
+
+  private static List<Instruction> divisions(Program program) {
+    List<Instruction> divisions = new ArrayList<>();
+    for (Instruction inst : Programs.getInstructions(program)) {
+      if (inst instanceof BinaryOperator
+          && ((BinaryOperator) inst).getOperator() == BinaryOperator.Op.Div)
+        divisions.add(inst);
+    }
+    return divisions;
+  }
+}
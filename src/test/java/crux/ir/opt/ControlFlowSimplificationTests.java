@@ -0,0 +1,186 @@
+package crux.ir.opt;
+
+import crux.Programs;
+import crux.ir.BooleanConstant;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.Program;
+import crux.ir.insts.CopyInst;
+import crux.ir.insts.JumpInst;
+import crux.ir.insts.NopInst;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Simplifies the control flow of small programs and of the programs of the IR stage, and checks
+ * which nops and branches are left, that a second run finds nothing, and that the output stays
+ * the same.
+ */
+final class ControlFlowSimplificationTests {
+  @Test
+  void splicesNops() {
+    var program = Programs.lowerSource(String.join("\n",
+        "void main() {",
+        "  int x;",
+        "  x = readInt();",
+        "  x = x + 1;",
+        "  x = x * 2;",
+        "  printInt(x);",
+        "}"));
+    var main = Programs.getFunction(program, "main");
+    int size = main.getControlFlowGraph().numInstructions();
+    int simplified = simplify(program, "int?2");
+    // Without a branch nothing is threaded, so every change removed a nop
+    Assertions.assertEquals(size - main.getControlFlowGraph().numInstructions(), simplified);
+    Assertions.assertEquals(1, main.getControlFlowGraph().getBlocks().size());
+    for (Instruction inst : Programs.getInstructions(program)) {
+      if (inst instanceof NopInst)
+        Assertions.assertEquals(0, inst.numNext(), "A nop that is not the end of main is left.");
+    }
+  }
+
+  /**
+   * The arms of {@code &&} copy a constant to the predicate of the branch that joins them, and
+   * the edge from each copy goes straight to the arm of the if the constant selects.
+   */
+  @Test
+  void threadsShortCircuitBranches() {
+    var program = Programs.lowerSource(String.join("\n",
+        "void main() {",
+        "  int a; int b;",
+        "  a = readInt();",
+        "  b = readInt();",
+        "  if ((a < 1) && (b < 1)) {",
+        "    printInt(1);",
+        "  } else {",
+        "    printInt(2);",
+        "  }",
+        "}"));
+    simplify(program, "int?int?1");
+    Assertions.assertEquals("int?int?2", Programs.emulate(program, "5\n0\n"));
+    Assertions.assertEquals("int?int?2", Programs.emulate(program, "0\n5\n"));
+    boolean copied = false;
+    for (Instruction inst : Programs.getInstructions(program)) {
+      if (inst instanceof CopyInst && ((CopyInst) inst).getSrcValue() instanceof BooleanConstant) {
+        copied = true;
+        Assertions.assertFalse(testsPredicate(inst.getNext(0), ((CopyInst) inst).getDstVar()),
+            "A constant still leads to the branch on it.");
+      }
+    }
+    Assertions.assertTrue(copied, "The lowering of && changed.");
+  }
+
+  /**
+   * An edge of a branch that leads to a branch on the same predicate goes straight on to the
+   * successor the second branch takes.
+   */
+  @Test
+  void threadsRepeatedTests() {
+    var program = Programs.lowerSource(String.join("\n",
+        "void main() {",
+        "  bool c;",
+        "  c = readInt() < 1;",
+        "  if (c) { printInt(1); }",
+        "  if (c) { printInt(2); }",
+        "}"));
+    simplify(program, "int?12");
+    Assertions.assertEquals("int?", Programs.emulate(program, "5\n"));
+    int branches = 0;
+    for (Instruction inst : Programs.getInstructions(program)) {
+      if (inst instanceof JumpInst) {
+        branches++;
+        for (int k = 0; k < 2; k++) {
+          Assertions.assertFalse(testsPredicate(inst.getNext(k), ((JumpInst) inst).getPredicate()),
+              "A branch leads to a branch on the same predicate.");
+        }
+      }
+    }
+    // The second test only runs after the first one was true
+    Assertions.assertEquals(2, branches);
+  }
+
+  /**
+   * Every one of {@code n} ifs on {@code &&} is simplified the same way, and the worklist only
+   * looks at the instructions next to a change again, so a function of ten thousand of them
+   * is simplified in linear time.
+   */
+  @Test
+  void simplifiesInLinearTime() {
+    int first = ControlFlowSimplification.run(shortCircuits(1));
+    int each = ControlFlowSimplification.run(shortCircuits(2)) - first;
+    Assertions.assertTrue(each > 0);
+    for (int n : new int[] {10, 100}) {
+      Assertions.assertEquals(first + (n - 1) * each,
+          ControlFlowSimplification.run(shortCircuits(n)));
+    }
+    var main = shortCircuits(10000);
+    Assertions.assertTimeoutPreemptively(Duration.ofSeconds(20), () -> {
+      Assertions.assertEquals(first + 9999 * each, ControlFlowSimplification.run(main));
+      Assertions.assertEquals(0, ControlFlowSimplification.run(main));
+    });
+  }
+
+  @TestFactory
+  Stream<DynamicTest> keepsOutputAndReachesFixpoint() {
+    return Programs.getStageTests().stream().map(test -> dynamicTest(test, () -> {
+      var program = Programs.lowerStage(test);
+      var expected = Programs.emulateStage(program, test);
+      ControlFlowSimplification.run(program);
+      Assertions.assertEquals(expected, Programs.emulateStage(program, test),
+          "Simplification out of SSA form changed the output.");
+      assertFixpoint(program);
+
+      program = Programs.lowerStage(test);
+      SSAConstruction.run(program);
+      ControlFlowSimplification.run(program);
+      Assertions.assertEquals(expected, Programs.emulateStage(program, test),
+          "Simplification in SSA form changed the output.");
+      assertFixpoint(program);
+      SSADestruction.run(program);
+      Assertions.assertEquals(expected, Programs.emulateStage(program, test));
+    }));
+  }
+
+  private static Function shortCircuits(int n) {
+    var source = new StringBuilder("void main() {\n  int x;\n  x = readInt();\n");
+    for (int i = 0; i < n; i++) {
+      source.append("  if ((x < ").append(i).append(") && (x > 0 - ").append(i)
+          .append(")) {\n    x = x + 1;\n  }\n");
+    }
+    source.append("  printInt(x);\n}\n");
+    return Programs.getFunction(Programs.lowerSource(source.toString()), "main");
+  }
+
+  /**
+   * Simplifies a program that reads 0 and checks its output before and after.
+   *
+   * @return the number of changes
+   */
+  private static int simplify(Program program, String expected) {
+    Assertions.assertEquals(expected, Programs.emulate(program, "0\n0\n"));
+    int simplified = ControlFlowSimplification.run(Programs.getFunction(program, "main"));
+    Assertions.assertTrue(simplified > 0, "Nothing was simplified.");
+    Assertions.assertEquals(expected, Programs.emulate(program, "0\n0\n"));
+    return simplified;
+  }
+
+  private static void assertFixpoint(Program program) {
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      var function = it.next();
+      Assertions.assertEquals(0, ControlFlowSimplification.run(function),
+          String.format("A second run simplified %s.", function.getName()));
+    }
+  }
+
+  private static boolean testsPredicate(Instruction inst, Object predicate) {
+    return inst instanceof JumpInst && ((JumpInst) inst).getPredicate() == predicate;
+  }
+}
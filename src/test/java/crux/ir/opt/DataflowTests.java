@@ -0,0 +1,404 @@
+package crux.ir.opt;
+
+import crux.Programs;
+import crux.ir.BasicBlock;
+import crux.ir.ControlFlowGraph;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.Program;
+import crux.ir.Value;
+import crux.ir.Variable;
+import crux.ir.insts.AddressAt;
+import crux.ir.insts.BinaryOperator;
+import crux.ir.insts.CompareInst;
+import crux.ir.insts.PhiInst;
+import crux.ir.insts.UnaryNotInst;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Solves liveness, reaching definitions and available expressions for the programs of the IR and
+ * code generation stages, as lowered, in SSA form, optimized in SSA form and at {@code -O2}, and
+ * checks every answer against a plain solver that iterates over sets until nothing changes.
+ */
+final class DataflowTests {
+  private static final Map<String, Consumer<Program>> FORMS = Map.of(
+      "lowered", program -> {},
+      "ssa", SSAConstruction::run,
+      "optimized ssa", program -> {
+        SSAConstruction.run(program);
+        GlobalValueNumbering.run(program);
+        LoopInvariantCodeMotion.run(program);
+        StrengthReduction.run(program);
+      },
+      "-O2", program -> Pipelines.create(2).run(program));
+
+  @TestFactory
+  Stream<DynamicTest> agreeWithIteratingSets() {
+    return FORMS.entrySet().stream().sorted(Map.Entry.comparingByKey())
+        .flatMap(form -> Stream.concat(
+        Programs.getStageTests(Programs.IR_STAGE).stream().map(test -> dynamicTest(
+            String.format("%s %s/%s", form.getKey(), Programs.IR_STAGE, test),
+            () -> check(Programs.lowerStage(test), form.getValue()))),
+        Programs.getStageTests(Programs.CODEGEN_STAGE).stream().map(test -> dynamicTest(
+            String.format("%s %s/%s", form.getKey(), Programs.CODEGEN_STAGE, test),
+            () -> check(Programs.readStage(test), form.getValue())))));
+  }
+
+  /**
+   * The IR of the code generation stage was written before variables were numbered, so reading it
+   * back has to number them.
+   */
+  @Test
+  void numbersTheVariablesOfReadIR() {
+    for (String test : Programs.getStageTests(Programs.CODEGEN_STAGE)) {
+      var program = Programs.readStage(test);
+      for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+        var function = it.next();
+        Map<Integer, Variable> numbers = new HashMap<>();
+        List<Variable> used = new ArrayList<>(function.getArguments());
+        if (function.getStart() != null) {
+          for (BasicBlock block : function.getControlFlowGraph().getBlocks()) {
+            for (Instruction inst : block.getInstructions()) {
+              if (inst.getDestVar() != null)
+                used.add(inst.getDestVar());
+              for (Value operand : inst.getOperands()) {
+                if (operand instanceof Variable)
+                  used.add((Variable) operand);
+              }
+            }
+          }
+        }
+        for (Variable var : used) {
+          int index = var.getIndex();
+          Assertions.assertTrue(index >= 0 && index < function.getNumVariables(),
+              String.format("%s of %s in %s is numbered %d of %d.", var, function.getName(), test,
+                  index, function.getNumVariables()));
+          Assertions.assertSame(numbers.computeIfAbsent(index, i -> var), var,
+              String.format("Two variables of %s in %s are numbered %d.", function.getName(), test,
+                  index));
+        }
+      }
+    }
+  }
+
+  private static void check(Program program, Consumer<Program> form) {
+    form.accept(program);
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      var function = it.next();
+      if (function.getStart() == null)
+        continue;
+      checkLiveness(function);
+      checkReachingDefinitions(function);
+      checkAvailableExpressions(function);
+    }
+  }
+
+  private static <T> Set<T> identitySet() {
+    return Collections.newSetFromMap(new IdentityHashMap<>());
+  }
+
+  private static <T> Set<T> identitySet(Collection<T> elements) {
+    Set<T> set = identitySet();
+    set.addAll(elements);
+    return set;
+  }
+
+  /**
+   * Moves the variables live after an instruction to before it. Phis read their values at the end
+   * of a predecessor, which the solver adds to its live out set instead.
+   */
+  private static void liveBefore(Set<Variable> live, Instruction inst) {
+    if (inst.getDestVar() != null)
+      live.remove(inst.getDestVar());
+    if (inst instanceof PhiInst)
+      return;
+    for (Value operand : inst.getOperands()) {
+      if (operand instanceof Variable)
+        live.add((Variable) operand);
+    }
+  }
+
+  private static void checkLiveness(Function function) {
+    var cfg = function.getControlFlowGraph();
+    List<Set<Variable>> in = new ArrayList<>();
+    List<Set<Variable>> out = new ArrayList<>();
+    for (int b = 0; b < cfg.numBlocks(); b++) {
+      in.add(identitySet());
+      out.add(identitySet());
+    }
+    for (boolean changed = true; changed;) {
+      changed = false;
+      for (int b = cfg.numBlocks() - 1; b >= 0; b--) {
+        var block = cfg.getBlock(b);
+        Set<Variable> liveOut = identitySet();
+        for (BasicBlock succ : block.getSuccessors()) {
+          liveOut.addAll(in.get(succ.getId()));
+          for (Instruction inst = succ.getFirst(); inst instanceof PhiInst;
+              inst = inst.getNext(0)) {
+            liveOut.add(((PhiInst) inst).getValueFor(block.getLast()));
+          }
+        }
+        Set<Variable> liveIn = identitySet(liveOut);
+        for (int k = block.size() - 1; k >= 0; k--) {
+          liveBefore(liveIn, block.get(k));
+        }
+        if (!liveOut.equals(out.get(b)) || !liveIn.equals(in.get(b))) {
+          changed = true;
+          out.set(b, liveOut);
+          in.set(b, liveIn);
+        }
+      }
+    }
+
+    var liveness = new Liveness(function);
+    for (BasicBlock block : cfg.getBlocks()) {
+      String where = String.format("%s in %s", block, function.getName());
+      Assertions.assertEquals(in.get(block.getId()), liveness.getLiveIn(block), "Live in " + where);
+      Assertions.assertEquals(out.get(block.getId()), liveness.getLiveOut(block),
+          "Live out " + where);
+      Set<Variable> live = identitySet(out.get(block.getId()));
+      for (int k = block.size() - 1; k >= 0; k--) {
+        var inst = block.get(k);
+        for (Variable var : live) {
+          Assertions.assertTrue(liveness.isLiveAfter(inst, var),
+              String.format("%s is live after %s of %s.", var, inst, where));
+        }
+        if (inst.getDestVar() != null && !live.contains(inst.getDestVar()))
+          Assertions.assertFalse(liveness.isLiveAfter(inst, inst.getDestVar()),
+              String.format("%s is dead after %s of %s.", inst.getDestVar(), inst, where));
+        liveBefore(live, inst);
+      }
+    }
+  }
+
+  /**
+   * Moves the definitions that reach an instruction to after it.
+   */
+  private static void reachAfter(Set<Instruction> reaching, Instruction inst) {
+    var dst = inst.getDestVar();
+    if (dst != null) {
+      reaching.removeIf(def -> def.getDestVar() == dst);
+      reaching.add(inst);
+    }
+  }
+
+  private static Set<Instruction> definitionsOf(Set<Instruction> reaching, Variable var) {
+    Set<Instruction> defs = identitySet();
+    for (Instruction def : reaching) {
+      if (def.getDestVar() == var)
+        defs.add(def);
+    }
+    return defs;
+  }
+
+  private static void checkReachingDefinitions(Function function) {
+    var cfg = function.getControlFlowGraph();
+    List<Set<Instruction>> in = new ArrayList<>();
+    List<Set<Instruction>> out = new ArrayList<>();
+    for (int b = 0; b < cfg.numBlocks(); b++) {
+      in.add(identitySet());
+      out.add(identitySet());
+    }
+    Set<Variable> written = identitySet();
+    for (boolean changed = true; changed;) {
+      changed = false;
+      for (int b = 0; b < cfg.numBlocks(); b++) {
+        var block = cfg.getBlock(b);
+        Set<Instruction> reachIn = identitySet();
+        for (BasicBlock pred : block.getPredecessors()) {
+          reachIn.addAll(out.get(pred.getId()));
+        }
+        Set<Instruction> reachOut = identitySet(reachIn);
+        for (Instruction inst : block.getInstructions()) {
+          if (inst.getDestVar() != null)
+            written.add(inst.getDestVar());
+          reachAfter(reachOut, inst);
+        }
+        if (!reachIn.equals(in.get(b)) || !reachOut.equals(out.get(b))) {
+          changed = true;
+          in.set(b, reachIn);
+          out.set(b, reachOut);
+        }
+      }
+    }
+
+    var definitions = new ReachingDefinitions(function);
+    var global = globalNames(cfg);
+    for (BasicBlock block : cfg.getBlocks()) {
+      String where = String.format("%s in %s", block, function.getName());
+      Set<Instruction> reaching = identitySet(in.get(block.getId()));
+      for (Instruction inst : block.getInstructions()) {
+        if (!(inst instanceof PhiInst)) {
+          for (Value operand : inst.getOperands()) {
+            if (operand instanceof Variable)
+              Assertions.assertEquals(definitionsOf(reaching, (Variable) operand),
+                  identitySet(definitions.getReaching(inst, (Variable) operand)),
+                  String.format("Definitions of %s reaching %s of %s", operand, inst, where));
+          }
+        }
+        reachAfter(reaching, inst);
+      }
+      for (Variable var : written) {
+        if (!global.contains(var)) {
+          Assertions.assertTrue(definitions.getReachingIn(block, var).isEmpty(),
+              String.format("%s is not read across blocks, but reaches %s.", var, where));
+          continue;
+        }
+        Assertions.assertEquals(definitionsOf(in.get(block.getId()), var),
+            identitySet(definitions.getReachingIn(block, var)),
+            String.format("Definitions of %s reaching %s", var, where));
+        Assertions.assertEquals(definitionsOf(out.get(block.getId()), var),
+            identitySet(definitions.getReachingOut(block, var)),
+            String.format("Definitions of %s leaving %s", var, where));
+      }
+    }
+  }
+
+  /**
+   * Returns the variables read by a phi or read in a block before it writes them, the only ones
+   * that carry a value from one block to another.
+   */
+  private static Set<Variable> globalNames(ControlFlowGraph cfg) {
+    Set<Variable> global = identitySet();
+    for (BasicBlock block : cfg.getBlocks()) {
+      Set<Variable> written = identitySet();
+      for (Instruction inst : block.getInstructions()) {
+        for (Value operand : inst.getOperands()) {
+          if (operand instanceof Variable
+              && (inst instanceof PhiInst || !written.contains(operand)))
+            global.add((Variable) operand);
+        }
+        if (inst.getDestVar() != null)
+          written.add(inst.getDestVar());
+      }
+    }
+    return global;
+  }
+
+  /**
+   * Returns what an instruction computes, equal for instructions computing the same expression,
+   * or null for instructions that compute no expression.
+   */
+  private static List<Object> expressionOf(Instruction inst) {
+    if (inst instanceof BinaryOperator) {
+      var op = (BinaryOperator) inst;
+      return List.of(op.getOperator(), op.getLeftOperand(), op.getRightOperand());
+    }
+    if (inst instanceof CompareInst) {
+      var cmp = (CompareInst) inst;
+      return List.of(cmp.getPredicate(), cmp.getLeftOperand(), cmp.getRightOperand());
+    }
+    if (inst instanceof UnaryNotInst)
+      return List.of(UnaryNotInst.class, ((UnaryNotInst) inst).getInner());
+    if (inst instanceof AddressAt) {
+      var address = (AddressAt) inst;
+      return address.getOffset() == null ? List.of(AddressAt.class, address.getBase())
+          : List.of(AddressAt.class, address.getBase(), address.getOffset());
+    }
+    return null;
+  }
+
+  /**
+   * Moves the expressions available before an instruction to after it.
+   */
+  private static void availableAfter(Set<List<Object>> available, Instruction inst) {
+    var expression = expressionOf(inst);
+    if (expression != null)
+      available.add(expression);
+    var dst = inst.getDestVar();
+    if (dst != null)
+      available.removeIf(e -> e.contains(dst));
+  }
+
+  private static boolean readsGlobalNames(Instruction inst, Set<Variable> global) {
+    for (Value operand : inst.getOperands()) {
+      if (operand instanceof Variable && !global.contains(operand))
+        return false;
+    }
+    return true;
+  }
+
+  private static void checkAvailableExpressions(Function function) {
+    var cfg = function.getControlFlowGraph();
+    // Blocks the solver has not reached yet have no set, which intersects as everything
+    List<Set<List<Object>>> in = new ArrayList<>(Collections.nCopies(cfg.numBlocks(), null));
+    List<Set<List<Object>>> out = new ArrayList<>(Collections.nCopies(cfg.numBlocks(), null));
+    for (boolean changed = true; changed;) {
+      changed = false;
+      for (int b = 0; b < cfg.numBlocks(); b++) {
+        var block = cfg.getBlock(b);
+        Set<List<Object>> availIn = block == cfg.getEntry() ? new HashSet<>() : null;
+        for (BasicBlock pred : block.getPredecessors()) {
+          var predOut = out.get(pred.getId());
+          if (predOut == null)
+            continue;
+          if (availIn == null)
+            availIn = new HashSet<>(predOut);
+          else
+            availIn.retainAll(predOut);
+        }
+        if (availIn == null)
+          continue;
+        Set<List<Object>> availOut = new HashSet<>(availIn);
+        for (Instruction inst : block.getInstructions()) {
+          availableAfter(availOut, inst);
+        }
+        if (!availIn.equals(in.get(b)) || !availOut.equals(out.get(b))) {
+          changed = true;
+          in.set(b, availIn);
+          out.set(b, availOut);
+        }
+      }
+    }
+
+    var expressions = new AvailableExpressions(function);
+    var global = globalNames(cfg);
+    List<Instruction> computing = new ArrayList<>();
+    for (BasicBlock block : cfg.getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        if (expressionOf(inst) != null)
+          computing.add(inst);
+      }
+    }
+    for (BasicBlock block : cfg.getBlocks()) {
+      String where = String.format("%s in %s", block, function.getName());
+      var availIn = in.get(block.getId());
+      var availOut = out.get(block.getId());
+      // Only expressions of global names can be available across blocks
+      for (Instruction inst : computing) {
+        boolean tracked = readsGlobalNames(inst, global);
+        Assertions.assertEquals(tracked && availIn.contains(expressionOf(inst)),
+            expressions.isAvailableIn(block, inst),
+            String.format("%s available at the start of %s", inst, where));
+        Assertions.assertEquals(tracked && availOut.contains(expressionOf(inst)),
+            expressions.isAvailableOut(block, inst),
+            String.format("%s available at the end of %s", inst, where));
+      }
+      Set<List<Object>> available = new HashSet<>(availIn);
+      for (Instruction inst : block.getInstructions()) {
+        if (expressionOf(inst) != null)
+          Assertions.assertEquals(available.contains(expressionOf(inst)),
+              expressions.isAvailable(inst), String.format("%s available in %s", inst, where));
+        availableAfter(available, inst);
+      }
+    }
+  }
+}
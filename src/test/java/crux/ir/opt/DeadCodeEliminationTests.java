@@ -0,0 +1,164 @@
+package crux.ir.opt;
+
+import crux.Programs;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.Program;
+import crux.ir.insts.BinaryOperator;
+import crux.ir.insts.StoreInst;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Removes the dead code of small programs and of the programs of the IR stage, and checks what is
+ * removed and that the output stays the same.
+ */
+final class DeadCodeEliminationTests {
+  @Test
+  void removesOverwrittenStores() {
+    var program = eliminate(String.join("\n",
+        "int g[4];",
+        "void main() {",
+        "  int i;",
+        "  i = readInt();",
+        "  g[1] = 1;",
+        "  g[i] = 2;",
+        "  g[1] = 3;",
+        "  g[i] = 4;",
+        "  printInt(g[1] + g[i]);",
+        "}"), "int?7");
+    // Stores do not read, so the element i points to does not matter
+    Assertions.assertEquals(2, count(program, StoreInst.class));
+  }
+
+  @Test
+  void keepsStoresThatMayBeRead() {
+    var program = eliminate(String.join("\n",
+        "int g[4];",
+        "void show() { printInt(g[0]); }",
+        "void main() {",
+        "  int i;",
+        "  g[0] = 1;",
+        "  printInt(g[0]);",
+        "  g[0] = 2;",
+        "  show();",
+        "  g[0] = 3;",
+        "  for (i = 0; i < 2; i = i + 1) {",
+        "    g[i] = 4;",
+        "  }",
+        "  g[0] = 5;",
+        "  show();",
+        "}"), "125");
+    Assertions.assertEquals(5, count(program, StoreInst.class));
+  }
+
+  /**
+   * A variable that only feeds itself around a loop is dead as a whole, while a division whose
+   * result is unused is kept, since it may trap.
+   */
+  @Test
+  void removesCyclesButNotDivisions() {
+    var program = eliminate(String.join("\n",
+        "void main() {",
+        "  int i; int unused; int zero; int q;",
+        "  unused = 0;",
+        "  zero = readInt();",
+        "  for (i = 0; i < 3; i = i + 1) {",
+        "    unused = unused * 2 + i;",
+        "  }",
+        "  q = 1 / zero;",
+        "  printInt(i);",
+        "}"), "int?" + ArithmeticException.class.getName() + "\n");
+    for (Instruction inst : Programs.getInstructions(program)) {
+      if (inst instanceof BinaryOperator)
+        Assertions.assertNotEquals(BinaryOperator.Op.Mul, ((BinaryOperator) inst).getOperator(),
+            "The loop still computes the unused variable.");
+    }
+    Assertions.assertEquals(1, count(program, BinaryOperator.class, BinaryOperator.Op.Div));
+  }
+
+  @Test
+  void countsRemovedInstructionsPerFunction() {
+    var program = Programs.lowerSource(String.join("\n",
+        "int g[1];",
+        "int f(int x) {",
+        "  int y;",
+        "  y = x * 3;",
+        "  g[0] = y;",
+        "  g[0] = x;",
+        "  return x;",
+        "}",
+        "void unused() {",
+        "  printInt(1);",
+        "}",
+        "void main() {",
+        "  printInt(f(readInt()));",
+        "}"));
+    Map<String, Integer> sizes = new HashMap<>();
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      var function = it.next();
+      sizes.put(function.getName(), function.getControlFlowGraph().numInstructions());
+    }
+    var stores = count(program, StoreInst.class);
+    Map<String, Integer> removed = DeadCodeElimination.run(program);
+    Assertions.assertEquals(List.of("f", "unused", "main"), List.copyOf(removed.keySet()));
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      var function = it.next();
+      Assertions.assertEquals(
+          sizes.get(function.getName()) - function.getControlFlowGraph().numInstructions(),
+          removed.get(function.getName()), function.getName());
+    }
+    Assertions.assertEquals(stores - 1, count(program, StoreInst.class));
+    Assertions.assertEquals(0, count(program, BinaryOperator.class, BinaryOperator.Op.Mul));
+    Assertions.assertEquals(Map.of("f", 0, "unused", 0, "main", 0),
+        DeadCodeElimination.run(program), "A second run found more dead code.");
+  }
+
+  @TestFactory
+  Stream<DynamicTest> keepsOutput() {
+    return Programs.getStageTests().stream().map(test -> dynamicTest(test, () -> {
+      var program = Programs.lowerStage(test);
+      var expected = Programs.emulateStage(program, test);
+      DeadCodeElimination.run(program);
+      Assertions.assertEquals(expected, Programs.emulateStage(program, test),
+          "Dead code elimination out of SSA form changed the output.");
+      program = Programs.lowerStage(test);
+      SSAConstruction.run(program);
+      DeadCodeElimination.run(program);
+      SSADestruction.run(program);
+      Assertions.assertEquals(expected, Programs.emulateStage(program, test),
+          "Dead code elimination in SSA form changed the output.");
+    }));
+  }
+
+  /**
+   * Removes the dead code of a program that reads 0 and checks its output before and after.
+   */
+  private static Program eliminate(String source, String expected) {
+    var program = Programs.lowerSource(source);
+    Assertions.assertEquals(expected, Programs.emulate(program, "0\n"));
+    DeadCodeElimination.run(program);
+    Assertions.assertEquals(expected, Programs.emulate(program, "0\n"));
+    return program;
+  }
+
+  private static int count(Program program, Class<? extends Instruction> kind) {
+    return (int) Programs.getInstructions(program).stream().filter(kind::isInstance).count();
+  }
+
+  private static int count(Program program, Class<BinaryOperator> kind, BinaryOperator.Op op) {
+    return (int) Programs.getInstructions(program).stream()
+        .filter(inst -> kind.isInstance(inst) && ((BinaryOperator) inst).getOperator() == op)
+        .count();
+  }
+}
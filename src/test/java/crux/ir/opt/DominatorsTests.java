@@ -0,0 +1,171 @@
+package crux.ir.opt;
+
+import crux.Programs;
+import crux.ir.Function;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Checks the dominator trees and dominance frontiers of small graphs by hand, and the ones of the
+ * functions of the IR stage against the sets of dominators found by iterating to a fixpoint.
+ */
+final class DominatorsTests {
+  @Test
+  void diamond() {
+    // 0 -> 1, 2 -> 3
+    var dominators = new Dominators(new int[][] {{1, 2}, {3}, {3}, {}});
+    Assertions.assertArrayEquals(new int[] {-1, 0, 0, 0}, idoms(dominators));
+    Assertions.assertArrayEquals(new int[] {3}, dominators.getFrontier(1));
+    Assertions.assertArrayEquals(new int[] {3}, dominators.getFrontier(2));
+    Assertions.assertArrayEquals(new int[] {}, dominators.getFrontier(0));
+    Assertions.assertTrue(dominators.dominates(0, 3));
+    Assertions.assertFalse(dominators.dominates(1, 3));
+  }
+
+  @Test
+  void loop() {
+    // 0 -> 1 -> 2 -> 1, 1 -> 3
+    var dominators = new Dominators(new int[][] {{1}, {2, 3}, {1}, {}});
+    Assertions.assertArrayEquals(new int[] {-1, 0, 1, 1}, idoms(dominators));
+    Assertions.assertArrayEquals(new int[] {1}, dominators.getFrontier(1));
+    Assertions.assertArrayEquals(new int[] {1}, dominators.getFrontier(2));
+    Assertions.assertTrue(dominators.dominates(1, 2));
+    Assertions.assertTrue(dominators.dominates(2, 2));
+  }
+
+  @Test
+  void irreducibleLoopAndUnreachableNode() {
+    // 0 -> 1, 2; 1 <-> 2; 4 -> 3 is not reachable
+    var dominators = new Dominators(new int[][] {{1, 2}, {2, 3}, {1}, {}, {3}});
+    Assertions.assertArrayEquals(new int[] {-1, 0, 0, 1, -1}, idoms(dominators));
+    Assertions.assertArrayEquals(new int[] {2}, dominators.getFrontier(1));
+    Assertions.assertArrayEquals(new int[] {1}, dominators.getFrontier(2));
+    Assertions.assertFalse(dominators.isReachable(4));
+    Assertions.assertFalse(dominators.dominates(4, 3));
+    Assertions.assertArrayEquals(new int[] {1}, dominators.getPredecessors(3));
+  }
+
+  /**
+   * A chain far longer than any recursion could walk.
+   */
+  @Test
+  void longChain() {
+    int n = 1_000_000;
+    int[][] successors = new int[n][];
+    for (int node = 0; node < n; node++) {
+      successors[node] = node + 1 < n ? new int[] {node + 1} : new int[0];
+    }
+    var dominators = new Dominators(successors);
+    Assertions.assertEquals(n - 2, dominators.getIdom(n - 1));
+    Assertions.assertTrue(dominators.dominates(1, n - 1));
+    Assertions.assertEquals(n, dominators.getTreeOrder().length);
+  }
+
+  @TestFactory
+  Stream<DynamicTest> matchesIterativeSolution() {
+    List<DynamicTest> tests = new ArrayList<>();
+    for (String test : Programs.getStageTests()) {
+      tests.add(dynamicTest(test, () -> {
+        var program = Programs.lowerStage(test);
+        for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+          var function = it.next();
+          if (function.getStart() == null)
+            continue;
+          check(function.getControlFlowGraph().getSuccessorIds());
+          check(new InstructionGraph(function).successors);
+        }
+      }));
+    }
+    return tests.stream();
+  }
+
+  private static int[] idoms(Dominators dominators) {
+    int[] idoms = new int[dominators.getNumNodes()];
+    for (int node = 0; node < idoms.length; node++) {
+      idoms[node] = dominators.getIdom(node);
+    }
+    return idoms;
+  }
+
+  /**
+   * Compares the dominators and frontiers of a graph with the ones of their definitions: the
+   * dominators of a node are the node and the dominators common to all its predecessors, and
+   * the frontier of a node holds the successors of the nodes it dominates that it does not
+   * strictly dominate.
+   */
+  private static void check(int[][] successors) {
+    var dominators = new Dominators(successors);
+    int n = successors.length;
+    List<Set<Integer>> preds = new ArrayList<>();
+    for (int node = 0; node < n; node++) {
+      preds.add(new HashSet<>());
+    }
+    Set<Integer> reachable = new HashSet<>(List.of(0));
+    Deque<Integer> worklist = new ArrayDeque<>(List.of(0));
+    while (!worklist.isEmpty()) {
+      int node = worklist.pop();
+      for (int succ : successors[node]) {
+        preds.get(succ).add(node);
+        if (reachable.add(succ))
+          worklist.push(succ);
+      }
+    }
+    List<Set<Integer>> dom = new ArrayList<>();
+    for (int node = 0; node < n; node++) {
+      dom.add(node == 0 ? new HashSet<>(List.of(0)) : new HashSet<>(reachable));
+    }
+    for (boolean changed = true; changed;) {
+      changed = false;
+      for (int node : reachable) {
+        if (node == 0)
+          continue;
+        Set<Integer> meet = new HashSet<>(reachable);
+        for (int pred : preds.get(node)) {
+          meet.retainAll(dom.get(pred));
+        }
+        meet.add(node);
+        if (!meet.equals(dom.get(node))) {
+          dom.set(node, meet);
+          changed = true;
+        }
+      }
+    }
+    for (int b = 0; b < n; b++) {
+      Assertions.assertEquals(reachable.contains(b), dominators.isReachable(b));
+      if (!reachable.contains(b))
+        continue;
+      for (int a = 0; a < n; a++) {
+        Assertions.assertEquals(reachable.contains(a) && dom.get(b).contains(a),
+            dominators.dominates(a, b), String.format("Does %d dominate %d?", a, b));
+      }
+      if (b != 0)
+        Assertions.assertTrue(dom.get(b).contains(dominators.getIdom(b))
+            && dom.get(b).size() - 1 == dom.get(dominators.getIdom(b)).size(),
+            String.format("%d is not the closest strict dominator of %d.",
+                dominators.getIdom(b), b));
+    }
+    for (int a : reachable) {
+      Set<Integer> frontier = new HashSet<>();
+      for (int b : reachable) {
+        if (!dom.get(b).contains(a))
+          continue;
+        for (int succ : successors[b]) {
+          if (succ == a || !dom.get(succ).contains(a))
+            frontier.add(succ);
+        }
+      }
+      Set<Integer> actual = new HashSet<>();
+      for (int node : dominators.getFrontier(a)) {
+        actual.add(node);
+      }
+      Assertions.assertEquals(frontier, actual, String.format("The frontier of %d.", a));
+    }
+  }
+}
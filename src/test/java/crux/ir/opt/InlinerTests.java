@@ -0,0 +1,232 @@
+package crux.ir.opt;
+
+import crux.Driver;
+import crux.Programs;
+import crux.ir.BasicBlock;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.Program;
+import crux.ir.insts.CallInst;
+import crux.ir.insts.NopInst;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Inlines calls of small programs, and checks which calls are inlined, that recursion stays
+ * finite and that the output stays the same. Also prints the optimized IR of the programs of the
+ * IR and code generation stages, which walks every edge the passes left.
+ */
+final class InlinerTests {
+  @Test
+  void inlinesCallsThatEndTheCaller() {
+    var program = Programs.lowerSource(String.join("\n",
+        "void foo() {",
+        "  printInt(1);",
+        "}",
+        "void main() {",
+        "  foo();",
+        "}"));
+    Assertions.assertEquals(1, Inliner.run(program).get("main"));
+    var main = Programs.getFunction(program, "main");
+    for (Instruction inst = main.getStart(); inst != null; inst = inst.getNext(0)) {
+      if (inst instanceof CallInst)
+        Assertions.assertNotEquals("foo", ((CallInst) inst).getCallee().getName(),
+            "The call of foo was not inlined.");
+      for (int k = 0; k < inst.numNext(); k++) {
+        Assertions.assertNotNull(inst.getNext(k), String.format("%s has no successor %d.",
+            inst, k));
+      }
+    }
+    Assertions.assertEquals("1", Programs.emulate(program, ""));
+  }
+
+  /**
+   * A function that calls itself and two functions that call each other are not inlined into
+   * themselves, only into the function that calls them.
+   */
+  @Test
+  void inlinesRecursionOnlyIntoItsCallers() {
+    var program = Programs.lowerSource(String.join("\n",
+        "int fact(int n) {",
+        "  if (n < 2) { return 1; }",
+        "  return n * fact(n - 1);",
+        "}",
+        "bool odd(int n) {",
+        "  if (n == 0) { return false; }",
+        "  return odd(n - 1);",
+        "}",
+        "bool even(int n) {",
+        "  if (n == 0) { return true; }",
+        "  return odd(n - 1);",
+        "}",
+        "void main() {",
+        "  int n;",
+        "  n = readInt();",
+        "  printInt(fact(n));",
+        "  printBool(even(n));",
+        "}"));
+    // A function cannot call one defined after it, so odd is made to call even once lowered
+    var odd = Programs.getFunction(program, "odd");
+    var even = callsOf(program, "main", "even").get(0).getCallee();
+    var editor = new GraphEditor(odd);
+    for (CallInst call : callsOf(program, "odd", "odd")) {
+      editor.replace(call, new CallInst(call.getDst(), even, call.getParams()));
+    }
+    Assertions.assertEquals("int?120false", Programs.emulate(program, "5\n"));
+    var inlined = Inliner.run(program);
+    Assertions.assertEquals(0, inlined.get("fact"));
+    Assertions.assertEquals(0, inlined.get("even"));
+    Assertions.assertEquals(0, inlined.get("odd"));
+    Assertions.assertEquals(2, inlined.get("main"));
+    Assertions.assertEquals(1, calls(program, "fact", "fact"));
+    Assertions.assertEquals(1, calls(program, "even", "odd"));
+    Assertions.assertEquals(1, calls(program, "odd", "even"));
+    Assertions.assertEquals("int?120false", Programs.emulate(program, "5\n"));
+  }
+
+  /**
+   * A callee of exactly the threshold is inlined, and one instruction more keeps it out. A caller
+   * of many such calls stops after gaining {@code GROWTH} times the threshold.
+   */
+  @Test
+  void respectsTheThresholdAndTheGrowthOfCallers() {
+    String callee = "int f(int x) { return x * 3 + 1; }";
+    var program = Programs.lowerSource(callee + "\nvoid main() { printInt(f(readInt())); }");
+    int size = size(Programs.getFunction(program, "f"));
+    Assertions.assertEquals(0, Inliner.run(program, size - 1).get("main"));
+    Assertions.assertEquals(1, Inliner.run(program, size).get("main"));
+    Assertions.assertEquals("int?4", Programs.emulate(program, "1\n"));
+
+    var many = new StringBuilder(callee).append("\nvoid main() {\n  int x;\n  x = readInt();\n");
+    for (int i = 0; i < 20; i++) {
+      many.append("  x = f(x);\n");
+    }
+    many.append("  printInt(x);\n}\n");
+    program = Programs.lowerSource(many.toString());
+    var expected = Programs.emulate(program, "1\n");
+    // Every call costs the threshold, so the caller may take eight of them
+    Assertions.assertEquals(8, Inliner.run(program, size).get("main"));
+    Assertions.assertEquals(12, calls(program, "main", "f"));
+    Assertions.assertEquals(expected, Programs.emulate(program, "1\n"));
+  }
+
+  /**
+   * The threshold doubles for every loop a call is in, up to two loops, so lowering the threshold
+   * first keeps out the call outside of loops, then the one in a loop, and last the one in two.
+   */
+  @Test
+  void raisesTheThresholdInLoops() {
+    String source = String.join("\n",
+        "int f(int x) { return x * x * 3 + x * 5 + 7; }",
+        "void main() {",
+        "  int i; int j; int s;",
+        "  s = f(1);",
+        "  for (i = 0; i < 2; i = i + 1) {",
+        "    s = s + f(i);",
+        "    for (j = 0; j < 2; j = j + 1) { s = s + f(j); }",
+        "  }",
+        "  printInt(s);",
+        "}");
+    var program = Programs.lowerSource(source);
+    var expected = Programs.emulate(program, "");
+    int size = size(Programs.getFunction(program, "f"));
+    Assertions.assertTrue(size > 4, "The callee is too small to tell the thresholds apart.");
+    int[] thresholds = {size, (size + 1) / 2, (size + 3) / 4, (size + 3) / 4 - 1};
+    for (int k = 0; k < thresholds.length; k++) {
+      program = Programs.lowerSource(source);
+      Assertions.assertEquals(3 - k, Inliner.run(program, thresholds[k]).get("main"),
+          String.format("Threshold %d of a callee of %d instructions.", thresholds[k], size));
+      Assertions.assertEquals(expected, Programs.emulate(program, ""));
+    }
+  }
+
+  /**
+   * Every return of the callee copies its value to the result of the call and continues after the
+   * call.
+   */
+  @Test
+  void inlinesSeveralReturns() {
+    var program = Programs.lowerSource(String.join("\n",
+        "int clamp(int x) {",
+        "  if (x < 0) { return 0; }",
+        "  if (x > 10) { return 10; }",
+        "  return x;",
+        "}",
+        "void main() {",
+        "  int x;",
+        "  x = readInt();",
+        "  printInt(clamp(x) + 1);",
+        "  printInt(clamp(x - 8) * 2);",
+        "}"));
+    String[] inputs = {"-5\n", "5\n", "50\n"};
+    List<String> expected = new ArrayList<>();
+    for (String input : inputs) {
+      expected.add(Programs.emulate(program, input));
+    }
+    Assertions.assertEquals(List.of("int?10", "int?60", "int?1120"), expected);
+    Assertions.assertEquals(2, Inliner.run(program).get("main"));
+    Assertions.assertEquals(0, calls(program, "main", "clamp"));
+    for (int i = 0; i < inputs.length; i++) {
+      Assertions.assertEquals(expected.get(i), Programs.emulate(program, inputs[i]));
+    }
+  }
+
+  @TestFactory
+  Stream<DynamicTest> printsOptimizedIR() {
+    return Stream.of(Programs.IR_STAGE, Programs.CODEGEN_STAGE)
+        .flatMap(stage -> Programs.getStageTests(stage).stream().map(test -> dynamicTest(
+            stage + "/" + test, () -> {
+              var outStream = new ByteArrayOutputStream();
+              var outPrintStream = new PrintStream(outStream);
+              var driver = new Driver(outPrintStream, outPrintStream);
+              driver.setOptimizationLevel(2);
+              driver.enablePrintIR();
+              driver.setInputStream(getClass().getClassLoader()
+                  .getResourceAsStream(stage + "/" + test + ".crx"));
+              driver.run();
+              outPrintStream.flush();
+              Assertions.assertTrue(outStream.toString().startsWith("digraph Program"),
+                  outStream.toString());
+            })));
+  }
+
+  private static List<CallInst> callsOf(Program program, String caller, String callee) {
+    List<CallInst> calls = new ArrayList<>();
+    var function = Programs.getFunction(program, caller);
+    for (BasicBlock block : function.getControlFlowGraph().getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        if (inst instanceof CallInst && ((CallInst) inst).getCallee().getName().equals(callee))
+          calls.add((CallInst) inst);
+      }
+    }
+    return calls;
+  }
+
+  private static int calls(Program program, String caller, String callee) {
+    return callsOf(program, caller, callee).size();
+  }
+
+  /**
+   * Returns the size of a function as the inliner counts it, without nops.
+   */
+  private static int size(Function function) {
+    int size = 0;
+    for (BasicBlock block : function.getControlFlowGraph().getBlocks()) {
+      for (Instruction inst : block.getInstructions()) {
+        if (!(inst instanceof NopInst))
+          size++;
+      }
+    }
+    return size;
+  }
+}
@@ -0,0 +1,258 @@
+package crux.ir.opt;
+
+import crux.Programs;
+import crux.ir.AddressVar;
+import crux.ir.BasicBlock;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.Program;
+import crux.ir.insts.BinaryOperator;
+import crux.ir.insts.CompareInst;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Finds the loops of small programs and of the programs of the IR stage, checks their nesting
+ * against a search over all pairs of loops, and moves invariant code and address computations
+ * out of them, also at {@code -O2}, where the other passes prepare the loops.
+ */
+final class LoopsTests {
+  @Test
+  void nestsLoops() {
+    var program = Programs.lowerSource(String.join("\n",
+        "void main() {",
+        "  int i; int j; int k; int s;",
+        "  s = 0;",
+        "  for (i = 0; i < 3; i = i + 1) {",
+        "    for (j = 0; j < 3; j = j + 1) { s = s + j; }",
+        "    for (j = 0; j < 3; j = j + 1) {",
+        "      for (k = 0; k < 3; k = k + 1) { s = s + k; }",
+        "    }",
+        "  }",
+        "  for (i = 0; i < 3; i = i + 1) { s = s + i; }",
+        "  printInt(s);",
+        "}"));
+    var loops = new Loops(Programs.getFunction(program, "main"));
+    assertNesting(loops);
+    List<String> shapes = new ArrayList<>();
+    for (Loop loop : loops.getLoops()) {
+      shapes.add(loop.getDepth() + "/" + loop.getHeight());
+    }
+    shapes.sort(null);
+    // The outer loop, its two nested loops, the loop nested in the second one and the last loop
+    Assertions.assertEquals(List.of("1/1", "1/3", "2/1", "2/2", "3/1"), shapes);
+  }
+
+  @TestFactory
+  Stream<DynamicTest> nestsLoopsOfTheIRStage() {
+    return Programs.getStageTests().stream().map(test -> dynamicTest(test, () -> {
+      var program = Programs.lowerStage(test);
+      for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+        var function = it.next();
+        if (function.getStart() != null)
+          assertNesting(new Loops(function));
+      }
+    }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> hoistingKeepsOutput() {
+    return Programs.getStageTests().stream().map(test -> dynamicTest(test, () -> {
+      var program = Programs.lowerStage(test);
+      var expected = Programs.emulateStage(program, test);
+      SSAConstruction.run(program);
+      LoopInvariantCodeMotion.run(program);
+      Assertions.assertEquals(expected, Programs.emulateStage(program, test));
+      StrengthReduction.run(program);
+      Assertions.assertEquals(expected, Programs.emulateStage(program, test));
+      SSADestruction.run(program);
+      Assertions.assertEquals(expected, Programs.emulateStage(program, test));
+    }));
+  }
+
+  /**
+   * The load in the body of a loop that runs no iteration reads nothing, so moving it in front of
+   * the loop would read an element nothing wrote.
+   */
+  @Test
+  void keepsLoadsOfLoopsThatMayNotRun() {
+    assertOptimizedOutput("int?0", "0\n", String.join("\n",
+        "int g[4];",
+        "void main() {",
+        "  int i; int n; int x;",
+        "  n = readInt();",
+        "  x = 0;",
+        "  for (i = 0; i < n; i = i + 1) { x = g[1]; }",
+        "  printInt(x);",
+        "}"));
+  }
+
+  /**
+   * Numbering the values replaces the address of {@code g[i]} after the loop with the one its test
+   * computes, which steps through the array once the loop is reduced.
+   */
+  @Test
+  void reducesAddressesUsedAfterTheLoop() {
+    assertOptimizedOutput("int?39", "7\n", String.join("\n",
+        "int g[10];",
+        "void main() {",
+        "  int i; int n; int x; int y;",
+        "  for (i = 0; i < 10; i = i + 1) { g[i] = 3 * i; }",
+        "  n = readInt();",
+        "  x = 0;",
+        "  for (i = 0; g[i] < n; i = i + 1) { x = x + 1; }",
+        "  y = g[i];",
+        "  printInt(x);",
+        "  printInt(y);",
+        "}"));
+  }
+
+  /**
+   * The address at a bound far below the array wraps around, so the test of the loop has to keep
+   * comparing the counter.
+   */
+  @Test
+  void keepsTestsOfBoundsOutsideTheArray() {
+    assertOptimizedOutput("int?1", "-2305843009213693951\n", String.join("\n",
+        "int a[4];",
+        "void main() {",
+        "  int i; int n;",
+        "  n = readInt();",
+        "  a[0] = 1;",
+        "  for (i = 0; i < n; i = i + 1) { a[i] = 7; }",
+        "  printInt(a[0]);",
+        "}"));
+  }
+
+  /**
+   * With constant bounds within the array, the test compares addresses, and nothing is left of the
+   * counter.
+   */
+  @Test
+  void replacesTheCounterOfSimpleLoops() {
+    var program = Programs.lowerSource(String.join("\n",
+        "int a[4];",
+        "void main() {",
+        "  int i;",
+        "  for (i = 0; i < 4; i = i + 1) { a[i] = 7; }",
+        "  printInt(a[3]);",
+        "}"));
+    Pipelines.create(2).run(program);
+    Assertions.assertEquals("7", Programs.emulate(program, ""));
+    List<Instruction> instructions = Programs.getInstructions(program);
+    Assertions.assertFalse(instructions.stream().anyMatch(BinaryOperator.class::isInstance),
+        "The counter is still updated.");
+    for (Instruction inst : instructions) {
+      if (inst instanceof CompareInst) {
+        Assertions.assertTrue(((CompareInst) inst).getLeftOperand() instanceof AddressVar,
+            inst.toString());
+        Assertions.assertTrue(((CompareInst) inst).getRightOperand() instanceof AddressVar,
+            inst.toString());
+      }
+    }
+  }
+
+  /**
+   * Every one of {@code n} loops steps through the array, and every loop after the first, which
+   * computes the constants the others reuse, moves the same computations out. Finding the loops
+   * or the definitions of the function again for each of them would make a function of thousands
+   * of loops take minutes.
+   */
+  @Test
+  void walksManyLoopsInLinearTime() {
+    var one = sequentialLoops(1);
+    int first = hoist(one);
+    Assertions.assertEquals(1, reduce(one));
+    int hoisted = hoist(sequentialLoops(2)) - first;
+    Assertions.assertTrue(hoisted > 0, "Nothing was moved out of the second loop.");
+    for (int n : new int[] {10, 100}) {
+      var program = sequentialLoops(n);
+      Assertions.assertEquals(first + (n - 1) * hoisted, hoist(program));
+      Assertions.assertEquals(n, reduce(program));
+    }
+    var program = sequentialLoops(4000);
+    Assertions.assertTimeoutPreemptively(Duration.ofSeconds(20), () -> {
+      Assertions.assertEquals(first + 3999 * hoisted, hoist(program));
+      Assertions.assertEquals(4000, reduce(program));
+    });
+  }
+
+  private static Program sequentialLoops(int n) {
+    var source = new StringBuilder("int a[4];\nvoid main() {\n  int i; int k;\n");
+    source.append("  k = readInt();\n");
+    for (int l = 0; l < n; l++) {
+      source.append("  for (i = 0; i < 4; i = i + 1) {\n    a[i] = k * ").append(l + 5)
+          .append(";\n  }\n");
+    }
+    source.append("  printInt(a[0]);\n}\n");
+    var program = Programs.lowerSource(source.toString());
+    SSAConstruction.run(program);
+    // The lowering copies the sum of i + 1 to i, which numbering the values removes as in -O2
+    GlobalValueNumbering.run(program);
+    return program;
+  }
+
+  /**
+   * Checks the output of a program before and after the passes of {@code -O2}.
+   */
+  private static void assertOptimizedOutput(String expected, String input, String source) {
+    var program = Programs.lowerSource(source);
+    Assertions.assertEquals(expected, Programs.emulate(program, input));
+    Pipelines.create(2).run(program);
+    Assertions.assertEquals(expected, Programs.emulate(program, input));
+  }
+
+  private static int hoist(Program program) {
+    return LoopInvariantCodeMotion.run(program, Programs.getFunction(program, "main"));
+  }
+
+  private static int reduce(Program program) {
+    return StrengthReduction.run(program, Programs.getFunction(program, "main"));
+  }
+
+  /**
+   * Checks the blocks, parents, depths and heights of loops against their definitions: a loop
+   * contains the blocks it lists, and is nested in the smallest other loop containing its header.
+   */
+  private static void assertNesting(Loops loops) {
+    var cfg = loops.getControlFlowGraph();
+    for (Loop loop : loops.getLoops()) {
+      Loop parent = null;
+      for (Loop other : loops.getLoops()) {
+        if (other != loop && other.getBlocks().contains(loop.getHeader())
+            && (parent == null || other.getBlocks().size() < parent.getBlocks().size()))
+          parent = other;
+      }
+      Assertions.assertSame(parent, loop.getParent(), loop.toString());
+      Assertions.assertEquals(parent == null ? 1 : parent.getDepth() + 1, loop.getDepth());
+      int height = 1;
+      for (Loop other : loops.getLoops()) {
+        if (other.getParent() == loop)
+          height = Math.max(height, other.getHeight() + 1);
+      }
+      Assertions.assertEquals(height, loop.getHeight(), loop.toString());
+      for (BasicBlock block : cfg.getBlocks()) {
+        Assertions.assertEquals(loop.getBlocks().contains(block), loop.contains(block));
+      }
+    }
+    for (BasicBlock block : cfg.getBlocks()) {
+      Loop innermost = null;
+      for (Loop loop : loops.getLoops()) {
+        if (loop.getBlocks().contains(block)
+            && (innermost == null || loop.getBlocks().size() < innermost.getBlocks().size()))
+          innermost = loop;
+      }
+      Assertions.assertSame(innermost, loops.getLoopFor(block));
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package crux.ir.opt;
+
+import crux.Programs;
+import crux.ir.Program;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Runs the pipelines of every optimization level on the programs of the IR and code generation
+ * stages, and checks that the reference engine prints what it prints for the unoptimized program.
+ */
+final class PipelinesTests {
+  @TestFactory
+  Stream<DynamicTest> keepOutput() {
+    return IntStream.rangeClosed(1, Pipelines.MAX_LEVEL).boxed().flatMap(level -> Stream.concat(
+        tests(level, Programs.IR_STAGE, Programs::lowerStage),
+        tests(level, Programs.CODEGEN_STAGE, Programs::readStage)));
+  }
+
+  private static Stream<DynamicTest> tests(int level, String stage,
+      Function<String, Program> read) {
+    return Programs.getStageTests(stage).stream()
+        .map(test -> dynamicTest(String.format("-O%d %s/%s", level, stage, test), () -> {
+          var program = read.apply(test);
+          var expected = Programs.emulateStage(program, stage, test);
+          Pipelines.create(level).run(program);
+          Assertions.assertEquals(expected, Programs.emulateStage(program, stage, test),
+              String.format("Program %s prints something else at -O%d.", test, level));
+        }));
+  }
+}
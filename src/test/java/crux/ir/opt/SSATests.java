@@ -0,0 +1,120 @@
+package crux.ir.opt;
+
+import crux.Programs;
+import crux.ir.BasicBlock;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.LocalVar;
+import crux.ir.Program;
+import crux.ir.insts.PhiInst;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Puts the programs of the IR stage into SSA form and back, and checks that the reference engine
+ * prints the same output in all three forms.
+ */
+final class SSATests {
+  @TestFactory
+  Stream<DynamicTest> roundTripKeepsOutput() {
+    return Programs.getStageTests().stream().map(test -> dynamicTest(test, () -> {
+      var program = Programs.lowerStage(test);
+      var expected = Programs.emulateStage(program, test);
+      SSAConstruction.run(program);
+      assertSingleDefinitions(program);
+      Assertions.assertEquals(expected, Programs.emulateStage(program, test),
+          String.format("Program %s prints something else in SSA form.", test));
+      SSADestruction.run(program);
+      Assertions.assertEquals(0, countPhis(program));
+      Assertions.assertEquals(expected, Programs.emulateStage(program, test),
+          String.format("Program %s prints something else after leaving SSA form.", test));
+    }));
+  }
+
+  /**
+   * Checks that the phis of a loop select the value of the edge they are reached from, and that
+   * the copies that replace them swap two variables without losing one.
+   */
+  @Test
+  void loopPhisSelectTheirEdge() {
+    var program = Programs.lowerSource(String.join("\n",
+        "void main() {",
+        "  int a; int b; int t; int i;",
+        "  a = 1; b = 2;",
+        "  for (i = 0; i < 5; i = i + 1) {",
+        "    t = a; a = b; b = t;",
+        "    printInt(a * 10 + b);",
+        "  }",
+        "}"));
+    var expected = Programs.emulate(program, "");
+    Assertions.assertEquals("2112211221", expected);
+    Assertions.assertTrue(SSAConstruction.run(Programs.getFunction(program, "main")) >= 3,
+        "The loop needs a phi for a, b and i.");
+    Assertions.assertEquals(expected, Programs.emulate(program, ""));
+    SSADestruction.run(program);
+    Assertions.assertEquals(expected, Programs.emulate(program, ""));
+  }
+
+  /**
+   * Every one of {@code n} conditional assignments needs exactly one phi, which destruction
+   * replaces with a copy on each of its two edges. Both stay fast for a function of a hundred
+   * thousand instructions, where a quadratic step would not.
+   */
+  @Test
+  void phisGrowLinearly() {
+    for (int n : new int[] {10, 100, 1000}) {
+      var main = Programs.getFunction(conditionalAssignments(n), "main");
+      Assertions.assertEquals(n, SSAConstruction.run(main));
+    }
+    var program = conditionalAssignments(20000);
+    var main = Programs.getFunction(program, "main");
+    Assertions.assertTimeoutPreemptively(Duration.ofSeconds(20), () -> {
+      Assertions.assertEquals(20000, SSAConstruction.run(main));
+      Assertions.assertEquals(40000, SSADestruction.run(main));
+    });
+  }
+
+  private static Program conditionalAssignments(int n) {
+    var source = new StringBuilder("void main() {\n  int x;\n  x = 0;\n");
+    for (int i = 0; i < n; i++) {
+      source.append("  if (x < ").append(i).append(") {\n    x = x + ").append(i)
+          .append(";\n  }\n");
+    }
+    source.append("  printInt(x);\n}\n");
+    return Programs.lowerSource(source.toString());
+  }
+
+  private static void assertSingleDefinitions(Program program) {
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      var function = it.next();
+      if (function.getStart() == null)
+        continue;
+      Set<LocalVar> defined = Collections.newSetFromMap(new IdentityHashMap<>());
+      defined.addAll(function.getArguments());
+      for (BasicBlock block : function.getControlFlowGraph().getBlocks()) {
+        for (Instruction inst : block.getInstructions()) {
+          if (inst.getDestVar() instanceof LocalVar)
+            Assertions.assertTrue(defined.add((LocalVar) inst.getDestVar()), String.format(
+                "%s is written more than once in %s.", inst.getDestVar(), function.getName()));
+        }
+      }
+    }
+  }
+
+  private static int countPhis(Program program) {
+    int phis = 0;
+    for (Instruction inst : Programs.getInstructions(program)) {
+      if (inst instanceof PhiInst)
+        phis++;
+    }
+    return phis;
+  }
+}